@@ -39,6 +39,7 @@ import de.k3b.android.androFotoFinder.queries.FotoSqlBase;
 import de.k3b.android.osmdroid.forge.MapsForgeSupport;
 import de.k3b.android.util.LogCat;
 import de.k3b.database.QueryParameter;
+import de.k3b.io.DirectoryFingerprintIndex;
 import de.k3b.io.PhotoWorkFlowDto;
 import de.k3b.media.ExifInterface;
 import de.k3b.media.ImageMetaReader;
@@ -79,6 +80,7 @@ public class AndroFotoFinderApp extends Application {
         FotoLibGlobal.appVersion = GuiUtil.getAppVersionName(this);
 
         Global.pickHistoryFile = getDatabasePath("pickHistory.geouri.txt");
+        DirectoryFingerprintIndex.setInstance(new DirectoryFingerprintIndex(getDatabasePath("dirFingerprints.txt")));
         SettingsActivity.prefs2Global(this);
 
         // create sensible defaults for andorid-independant files from android string resources
@@ -123,6 +125,7 @@ public class AndroFotoFinderApp extends Application {
     @Override
     public void onTerminate() {
         Log.i(Global.LOG_CONTEXT, getAppId() + " terminated");
+        ThumbNailUtils.flush();
         if (mCrashSaveToFile != null) {
             mCrashSaveToFile.close();
         }
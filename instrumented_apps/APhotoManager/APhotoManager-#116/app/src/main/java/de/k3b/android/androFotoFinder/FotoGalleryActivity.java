@@ -499,6 +499,7 @@ public class FotoGalleryActivity extends LocalizedActivity implements Common,
     protected void onPause () {
         Global.debugMemory(mDebugPrefix, "onPause");
         this.mGalleryQueryParameter.saveSettings(this);
+        ThumbNailUtils.flush();
         super.onPause();
     }
 
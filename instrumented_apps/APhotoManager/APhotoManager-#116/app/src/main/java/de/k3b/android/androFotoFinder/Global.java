@@ -82,6 +82,20 @@ public class Global {
     /** true every time a .nomedia dir/file is opend remeove items from db.  */
     public static final boolean mustRemoveNOMEDIAfromDB = true;
 
+    /** number of threads that read the image meta data while scanning folders recursively.
+     * 1: scan sequentially without MediaScannerPipeline */
+    public static int mediaScannerThreads = Math.max(1, Runtime.getRuntime().availableProcessors());
+
+    /** number of media db inserts/updates that the recursive scanner commits in one batch */
+    public static int mediaScannerBatchSize = 100;
+
+    /** number of media db updates that the csv import commits in one batch. 0: no batch */
+    public static int csvImportBatchSize = 100;
+
+    /** true: folder/date picker trees are created from a persisted cache that is patched on
+     * media db changes instead of a "group by" over the whole media db for every open */
+    public static boolean directoryUseCache = true;
+
     private static final File externalStorageDirectory = Environment.getExternalStorageDirectory();
 
     /** defines the filesystem's directory where [Bookmark files](Bookmarks) are stored and loaded from. */
@@ -121,6 +135,10 @@ public class Global {
     public static boolean initialImageDetailResolutionHigh = false; // false: MediaStore.Images.Thumbnails.MINI_KIND; true: FULL_SCREEN_KIND;
     public static boolean mapsForgeEnabled = false;
 
+    /** true: map markers are calculated from a persisted in memory cluster index instead of a
+     * "group by" query for every scroll/zoom */
+    public static boolean mapUseGeoClusterIndex = true;
+
     /** map with blue selection markers: how much to area to increase */
     public static final double mapMultiselectionBoxIncreaseByProcent = 100.0;
     /** map with blue selection markers: minimum size of zoom box in degrees */
@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2018 by k3b.
+ *
+ * This file is part of AndroFotoFinder / #APhotoManager.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>
+ */
+
+package de.k3b.android.androFotoFinder;
+
+import android.graphics.BitmapFactory;
+
+import com.nostra13.universalimageloader.core.assist.ImageSize;
+import com.nostra13.universalimageloader.core.decode.BaseImageDecoder;
+import com.nostra13.universalimageloader.core.decode.ImageDecodingInfo;
+import com.nostra13.universalimageloader.core.download.ImageDownloader.Scheme;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Image decoder for com.nostra13.universalimageloader:
+ * thumbnails served by {@link ThumbNailDownloader} contain no exif orientation,
+ * so the orientation is taken from the photo the thumbnail belongs to.
+ *
+ * Created by k3b on 20.03.2018.
+ */
+public class ThumbNailDecoder extends BaseImageDecoder {
+    public ThumbNailDecoder(boolean loggingEnabled) {
+        super(loggingEnabled);
+    }
+
+    @Override
+    protected ImageFileInfo defineImageSizeAndRotation(InputStream imageStream, ImageDecodingInfo decodingInfo)
+            throws IOException {
+        final String imageUri = decodingInfo.getImageUri();
+        if (decodingInfo.shouldConsiderExifParams() && ThumbNailDownloader.isThumbUri(imageUri)) {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeStream(imageStream, null, options);
+
+            ExifInfo exif = defineExifOrientation(Scheme.FILE.wrap(ThumbNailDownloader.getPath(imageUri)));
+            return new ImageFileInfo(new ImageSize(options.outWidth, options.outHeight, exif.rotation), exif);
+        }
+        return super.defineImageSizeAndRotation(imageStream, decodingInfo);
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2018 by k3b.
+ *
+ * This file is part of AndroFotoFinder / #APhotoManager.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>
+ */
+
+package de.k3b.android.androFotoFinder;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import com.nostra13.universalimageloader.core.download.BaseImageDownloader;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+
+import de.k3b.io.PackedBlobCache;
+import de.k3b.media.ExifInterface;
+
+/**
+ * Thumbnail provider for com.nostra13.universalimageloader:
+ * jpg files are served from the embedded exif thumbnail (one ranged read)
+ * or from a downsampled decode if there is no embedded thumbnail.
+ * Other image files (i.e. png, gif) are served from a downsampled decode.
+ *
+ * The result is cached in the {@link PackedBlobCache} of {@link ThumbNailUtils#getThumbCache()}
+ * so that a gallery with many photos does not need one cache file per photo.
+ *
+ * Only uris created by {@link #createThumbUri(String)} are served as thumbnails.
+ * Other schemes (i.e. "file://" of the detail view) are loaded unchanged.
+ * See {@link ThumbNailDecoder} for the exif orientation of the thumbnails.
+ *
+ * Created by k3b on 20.03.2018.
+ */
+public class ThumbNailDownloader extends BaseImageDownloader {
+    private static final String mDebugPrefix = "ThumbNailDownloader ";
+
+    /** "thumb://" + path: thumbnail of the photo. "file://" + path is still the full photo. */
+    private static final String SCHEME_THUMB = "thumb://";
+
+    /** thumbnails bigger than this are not used: decode the photo instead */
+    private static final int MAX_EMBEDDED_THUMBNAIL_BYTES = 64 * 1024;
+
+    /** wanted size of thumbnails created by decoding the photo */
+    private static final int THUMBNAIL_SIZE = 256;
+    private static final int THUMBNAIL_JPG_QUALITY = 85;
+
+    public ThumbNailDownloader(Context context) {
+        super(context);
+    }
+
+    /** @return uri that is served from the thumbnail cache */
+    public static String createThumbUri(String fullPath) {
+        return SCHEME_THUMB + fullPath;
+    }
+
+    public static boolean isThumbUri(String imageUri) {
+        return (imageUri != null) && imageUri.startsWith(SCHEME_THUMB);
+    }
+
+    /** @return path of the photo that belongs to a {@link #createThumbUri(String)} uri */
+    public static String getPath(String thumbUri) {
+        return thumbUri.substring(SCHEME_THUMB.length());
+    }
+
+    @Override
+    protected InputStream getStreamFromOtherSource(String imageUri, Object extra) throws IOException {
+        if (!isThumbUri(imageUri)) {
+            return super.getStreamFromOtherSource(imageUri, extra);
+        }
+
+        String path = getPath(imageUri);
+        File file = new File(path);
+        // the cache may be replaced by ThumbNailUtils.init() if the cache dir changes
+        PackedBlobCache cache = ThumbNailUtils.getThumbCache();
+        if ((cache != null) && file.isFile()) {
+            // key changes when the photo is modified
+            String key = path + "|" + file.lastModified() + "|" + file.length();
+            byte[] thumbnail = cache.get(key);
+            if (thumbnail == null) {
+                if (isJpg(path)) {
+                    thumbnail = getEmbeddedThumbnail(file);
+                }
+                if (thumbnail == null) {
+                    thumbnail = createThumbnail(path);
+                }
+                if (thumbnail != null) {
+                    cache.put(key, thumbnail);
+                }
+            }
+
+            if (thumbnail != null) {
+                return new ByteArrayInputStream(thumbnail);
+            }
+        }
+        return getStreamFromFile(Scheme.FILE.wrap(path), extra);
+    }
+
+    /** @return jpg-thumbnail embedded in exif or null if there is none */
+    protected byte[] getEmbeddedThumbnail(File file) {
+        RandomAccessFile in = null;
+        try {
+            long[] range = new ExifInterface(file.getAbsolutePath()).getThumbnailRange();
+            if ((range != null) && (range[1] > 0) && (range[1] <= MAX_EMBEDDED_THUMBNAIL_BYTES)
+                    && (range[0] + range[1] <= file.length())) {
+                byte[] result = new byte[(int) range[1]];
+                in = new RandomAccessFile(file, "r");
+                in.seek(range[0]);
+                in.readFully(result);
+                return result;
+            }
+        } catch (IOException ex) {
+            if (ThumbNailUtils.DEBUG) {
+                Log.w(ThumbNailUtils.LOG_TAG, mDebugPrefix + "getEmbeddedThumbnail(" + file + ") failed " + ex.getMessage());
+            }
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignore) {
+                }
+            }
+        }
+        return null;
+    }
+
+    /** @return downsampled jpg of photo or null if photo cannot be decoded */
+    protected byte[] createThumbnail(String path) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path, options);
+
+        int sampleSize = 1;
+        while ((options.outWidth / (sampleSize * 2) >= THUMBNAIL_SIZE)
+                && (options.outHeight / (sampleSize * 2) >= THUMBNAIL_SIZE)) {
+            sampleSize *= 2;
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        Bitmap bitmap = BitmapFactory.decodeFile(path, options);
+        if (bitmap == null) return null;
+
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.JPEG, THUMBNAIL_JPG_QUALITY, result);
+        bitmap.recycle();
+        return result.toByteArray();
+    }
+
+    private static boolean isJpg(String path) {
+        String lower = path.toLowerCase();
+        return lower.endsWith(".jpg") || lower.endsWith(".jpeg");
+    }
+}
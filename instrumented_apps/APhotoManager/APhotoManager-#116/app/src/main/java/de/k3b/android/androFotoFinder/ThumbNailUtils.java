@@ -36,6 +36,7 @@ import java.io.File;
 import java.io.IOException;
 
 import de.k3b.android.androFotoFinder.queries.FotoSql;
+import de.k3b.io.PackedBlobCache;
 
 /**
  * Service facade hiding com.nostra13.universalimageloader
@@ -47,14 +48,24 @@ public class ThumbNailUtils {
     public static final String LOG_TAG = "ImageLoader";
     public static final int MAX_CACHE_SIZE_50MB = 50 * 1024 * 1024;
     public static final int MAX_FILE_COUNT = 1024;
+    public static final int MAX_MEMORY_CACHE_SIZE_4MB = 4 * 1024 * 1024;
+    private static final String PACKED_CACHE_NAME = "thumbnails";
     public static boolean DEBUG = false;
 
+    /** jpg thumbnails of files: exif thumbnail or downsampled photo packed into one file */
+    private static volatile PackedBlobCache mThumbCache = null;
+
     public static void init(Context context, File previousCacheRoot) {
 
         // if chache dir has just changed (in SettingsActivity) clear old cache.
         if ((previousCacheRoot != null) && (!previousCacheRoot.equals(Global.thumbCacheRoot))) {
             ImageLoader.getInstance().clearDiskCache();
+            if (mThumbCache != null) mThumbCache.clear();
         }
+        PackedBlobCache oldThumbCache = mThumbCache;
+        mThumbCache = new PackedBlobCache(Global.thumbCacheRoot, PACKED_CACHE_NAME,
+                MAX_CACHE_SIZE_50MB, MAX_MEMORY_CACHE_SIZE_4MB);
+        if (oldThumbCache != null) oldThumbCache.close();
 
         // This configuration tuning is custom. You can tune every option, you may tune some of them,
         // or you can create default configuration by
@@ -68,6 +79,10 @@ public class ThumbNailUtils {
         config.diskCacheSize(MAX_CACHE_SIZE_50MB); // 50 MiB
         config.diskCacheFileCount(MAX_FILE_COUNT);
         config.tasksProcessingOrder(QueueProcessingType.LIFO);
+        // thumb:// uris are served from getThumbCache(). file:// uris still load the full photo.
+        // ImageLoader ignores a second init() so the downloader must not keep the cache instance.
+        config.imageDownloader(new ThumbNailDownloader(context));
+        config.imageDecoder(new ThumbNailDecoder(DEBUG));
 
         // config.diskCache(new LimitedAgeDiskCache(Global.thumbCacheRoot, 60 * 60 * 24)); // lifetime 1 day
         // config.diskCache(new UnlimitedDiskCache(Global.thumbCacheRoot));
@@ -88,20 +103,34 @@ public class ThumbNailUtils {
         ImageLoader.getInstance().init(config.build());
     }
 
-    private static DisplayImageOptions createThumbnailOptions() {
+    /** @return the current thumbnail cache. Changes if the cache dir is changed in the settings */
+    public static PackedBlobCache getThumbCache() {
+        return mThumbCache;
+    }
+
+    /** saves pending thumbnail cache changes */
+    public static void flush() {
+        if (mThumbCache != null) mThumbCache.flush();
+    }
+
+    /**
+     * @param cacheOnDisk false: thumbnail is already cached by {@link ThumbNailDownloader}
+     */
+    private static DisplayImageOptions createThumbnailOptions(boolean cacheOnDisk) {
         return new DisplayImageOptions.Builder()
                 .showImageOnLoading(R.drawable.image_loading)
                 .showImageForEmptyUri(R.drawable.image_loading)
                 .showImageOnFail(R.drawable.image_loading)
                 .cacheInMemory(true)
-                .cacheOnDisk(true)
+                .cacheOnDisk(cacheOnDisk)
                 .considerExifParams(true)
                 .bitmapConfig(Bitmap.Config.RGB_565)
                 .displayer(new SimpleBitmapDisplayer())
                 .build();
     }
 
-    private static final DisplayImageOptions mDisplayImageOptions = ThumbNailUtils.createThumbnailOptions();
+    private static final DisplayImageOptions mDisplayImageOptions = ThumbNailUtils.createThumbnailOptions(true);
+    private static final DisplayImageOptions mDisplayFileImageOptions = ThumbNailUtils.createThumbnailOptions(false);
 
     public static void getThumb(int iconID, ImageView imageView) {
         ImageLoader.getInstance().displayImage( FotoSql.getUriString(iconID), imageView, mDisplayImageOptions);
@@ -110,7 +139,7 @@ public class ThumbNailUtils {
     public static void getThumb(String fullPath, ImageView imageView) {
 
         if ((imageView != null) && (fullPath != null) && (fullPath.length() > 0)) {
-            ImageLoader.getInstance().displayImage("file://" + fullPath, imageView, mDisplayImageOptions);
+            ImageLoader.getInstance().displayImage(ThumbNailDownloader.createThumbUri(fullPath), imageView, mDisplayFileImageOptions);
         }
     }
 
@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2018 by k3b.
+ *
+ * This file is part of AndroFotoFinder / #APhotoManager.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>
+ */
+
+package de.k3b.android.androFotoFinder.directory;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import de.k3b.android.androFotoFinder.Global;
+import de.k3b.android.androFotoFinder.queries.FotoSql;
+import de.k3b.android.androFotoFinder.queries.PersistedIndexRepositoryBase;
+import de.k3b.database.QueryParameter;
+import de.k3b.io.DirectoryCache;
+import de.k3b.io.IDirectory;
+
+/**
+ * Keeps a persisted {@link DirectoryCache} per directory query type (folder, date)
+ * up to date with the media db, so that {@link DirectoryLoaderTask} must not execute a
+ * "group by" over the whole media db every time the directory picker is opened.
+ *
+ * The directories of changed items are re-queried and patched into the cache.
+ * Afterwards the cache is verified with a cheap fingerprint query (count, max id, total path length).
+ * See {@link PersistedIndexRepositoryBase}.
+ *
+ * Created by k3b on 18.03.2018.
+ */
+public class DirectoryCacheRepository extends PersistedIndexRepositoryBase<DirectoryCache> {
+    private static final String FILE_NAME_PREFIX = "dirCache";
+
+    private static final String EXPR_AS_DISPLAY_TEXT = " AS " + FotoSql.SQL_COL_DISPLAY_TEXT;
+    private static final String EXPR_AS_COUNT = " AS " + FotoSql.SQL_COL_COUNT;
+
+    private static DirectoryCacheRepository sInstance = null;
+
+    private DirectoryCacheRepository(Context context) {
+        super(context, "DirectoryCacheRepository: ");
+    }
+
+    public static synchronized DirectoryCacheRepository getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new DirectoryCacheRepository(context);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Executed in background task.
+     *
+     * @param query a "group by" query like {@link FotoSql#queryGroupByDir} including the filter.
+     * @return a new directory tree or null if the cache cannot be used for the query.
+     */
+    public IDirectory getRoot(QueryParameter query) {
+        if ((getColumnExpression(query, EXPR_AS_DISPLAY_TEXT) == null) || (getColumnExpression(query, EXPR_AS_COUNT) == null)) {
+            // i.e. lat/lon queries
+            return null;
+        }
+
+        final Slot<DirectoryCache> slot = getSlot(query.getID());
+        synchronized (slot) {
+            try {
+                return getIndex(slot, query).createRoot();
+            } catch (Exception ex) {
+                Log.e(Global.LOG_CONTEXT, mDebugPrefix + "getRoot() failed. Using sql instead.", ex);
+                resetIndex(slot);
+                return null;
+            }
+        }
+    }
+
+    @Override
+    protected String getFileName(int slotId) {
+        return FILE_NAME_PREFIX + slotId + ".bin";
+    }
+
+    @Override
+    protected DirectoryCache createIndex() {
+        return new DirectoryCache();
+    }
+
+    /** @return true if count and max id of the fingerprint match the content of cache */
+    @Override
+    protected boolean isConsistent(DirectoryCache cache, String fingerprint) {
+        return fingerprint.startsWith(cache.getTotalCount() + "|" + cache.getMaxIconID() + "|");
+    }
+
+    /** re-query all directories that contain at least one of the changedIds */
+    @Override
+    protected void patchIndex(DirectoryCache cache, QueryParameter query, Long[] changedIds) {
+        final String displayTextExpression = getColumnExpression(query, EXPR_AS_DISPLAY_TEXT);
+        final List<String> paths = new ArrayList<String>();
+        Cursor cursor = null;
+        try {
+            QueryParameter changedDirsQuery = new QueryParameter(query)
+                    .addWhere(FotoSql.SQL_COL_PK + " in (" + toSqlIdList(changedIds) + ")");
+            cursor = FotoSql.createCursorForQuery(mDebugPrefix + "patchCache", mContext, changedDirsQuery, null);
+            final int colText = (cursor != null) ? cursor.getColumnIndex(FotoSql.SQL_COL_DISPLAY_TEXT) : -1;
+            while ((colText >= 0) && cursor.moveToNext()) {
+                final String path = cursor.getString(colText);
+                if (path != null) paths.add(path);
+            }
+        } finally {
+            if (cursor != null) cursor.close();
+        }
+
+        if (paths.size() > 0) {
+            StringBuilder where = new StringBuilder().append("(").append(displayTextExpression).append(") in (?");
+            for (int i = 1; i < paths.size(); i++) {
+                where.append(",?");
+            }
+            where.append(")");
+
+            loadFromDb(cache, query, new QueryParameter()
+                    .addWhere(where.toString(), paths.toArray(new String[paths.size()])));
+        }
+    }
+
+    @Override
+    protected void loadFromDb(DirectoryCache cache, QueryParameter query) {
+        loadFromDb(cache, query, null);
+    }
+
+    /** add all directory rows of query restricted by additionalWhere to cache */
+    private void loadFromDb(DirectoryCache cache, QueryParameter query, QueryParameter additionalWhere) {
+        QueryParameter dirQuery = new QueryParameter(query);
+        if (additionalWhere != null) dirQuery.getWhereFrom(additionalWhere, true);
+
+        Cursor cursor = null;
+        try {
+            cursor = FotoSql.createCursorForQuery(mDebugPrefix + "loadFromDb", mContext, dirQuery, null);
+            if (cursor != null) {
+                final int colText = cursor.getColumnIndex(FotoSql.SQL_COL_DISPLAY_TEXT);
+                final int colCount = cursor.getColumnIndex(FotoSql.SQL_COL_COUNT);
+                final int colIconID = cursor.getColumnIndex(FotoSql.SQL_COL_PK);
+                while (cursor.moveToNext()) {
+                    cache.put(cursor.getString(colText), cursor.getInt(colCount), cursor.getInt(colIconID));
+                }
+            }
+        } finally {
+            if (cursor != null) cursor.close();
+        }
+    }
+
+    /** @return "count|maxId|total path length" of the items that belong to a directory of query
+     * or "" if the query failed. */
+    @Override
+    protected String queryFingerprint(QueryParameter query) {
+        final String displayTextExpression = getColumnExpression(query, EXPR_AS_DISPLAY_TEXT);
+        QueryParameter fingerprintQuery = new QueryParameter()
+                .addColumn("count(*) AS " + FotoSql.SQL_COL_COUNT,
+                        "max(" + FotoSql.SQL_COL_PK + ") AS " + FotoSql.SQL_COL_PK,
+                        "total(length(" + displayTextExpression + ")) AS " + FotoSql.SQL_COL_DISPLAY_TEXT)
+                .addFrom(query.toFrom())
+                .getWhereFrom(query, false)
+                .addWhere("(" + displayTextExpression + ") IS NOT NULL");
+
+        Cursor cursor = null;
+        try {
+            cursor = FotoSql.createCursorForQuery(mDebugPrefix + "queryFingerprint", mContext, fingerprintQuery, null);
+            if ((cursor != null) && cursor.moveToFirst()) {
+                return cursor.getLong(0) + "|" + cursor.getLong(1) + "|" + cursor.getLong(2);
+            }
+        } finally {
+            if (cursor != null) cursor.close();
+        }
+        return "";
+    }
+
+    /** @return expression of column "expression AS alias" or null if query has no such column */
+    private static String getColumnExpression(QueryParameter query, String asAlias) {
+        String[] columns = (query != null) ? query.toColumns() : null;
+        if (columns != null) {
+            for (String column : columns) {
+                if ((column != null) && column.endsWith(asAlias)) {
+                    return column.substring(0, column.length() - asAlias.length());
+                }
+            }
+        }
+        return null;
+    }
+}
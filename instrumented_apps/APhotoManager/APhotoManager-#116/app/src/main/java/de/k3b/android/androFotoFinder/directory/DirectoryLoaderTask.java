@@ -93,6 +93,17 @@ public class DirectoryLoaderTask extends AsyncTask<QueryParameter, Integer, IDir
                 mStatus.append(queryParameters.toSqlString());
             }
         }
+        if (Global.directoryUseCache && (queryParameters != null)) {
+            IDirectory result = DirectoryCacheRepository.getInstance(context).getRoot(queryParameters);
+            if (result != null) {
+                if (mStatus != null) {
+                    mStatus.append("\n\tfrom cache");
+                    Log.i(Global.LOG_CONTEXT, mStatus.toString());
+                }
+                return result;
+            }
+        }
+
         Cursor cursor = null;
         try {
             cursor = context.getContentResolver().query(Uri.parse(queryParameters.toFrom()), queryParameters.toColumns(),
@@ -25,6 +25,7 @@ import android.content.Intent;
 import android.content.Loader;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.app.Fragment;
 import android.support.annotation.NonNull;
@@ -874,6 +875,9 @@ public class GalleryCursorFragment extends Fragment  implements Queryable, Direc
                 return true;
             case R.id.cmd_scan:
                 return fileCommands.cmdMediaScannerWithQuestion();
+            case R.id.cmd_find_duplicate_content:
+                cmdFindDuplicateContent();
+                return true;
 
             default:
                 return super.onOptionsItemSelected(menuItem);
@@ -881,6 +885,32 @@ public class GalleryCursorFragment extends Fragment  implements Queryable, Direc
 
     }
 
+    /** replaces the gallery content with {@link FotoSql#QUERY_TYPE_GROUP_DUPLICATE_CONTENT} */
+    private void cmdFindDuplicateContent() {
+        final Activity activity = getActivity();
+        final String title = activity.getString(R.string.duplicate_content_title);
+        Toast.makeText(activity, title + " ...", Toast.LENGTH_SHORT).show();
+
+        new AsyncTask<Void, Void, QueryParameter>() {
+            @Override
+            protected QueryParameter doInBackground(Void... params) {
+                return FotoSql.createQueryDuplicateContent(activity, null);
+            }
+
+            @Override
+            protected void onPostExecute(QueryParameter query) {
+                // might be null in orientation change
+                if (getActivity() == null) return;
+
+                if (query != null) {
+                    requery(getActivity(), query, "cmdFindDuplicateContent");
+                } else {
+                    Toast.makeText(getActivity(), title + ": 0", Toast.LENGTH_LONG).show();
+                }
+            }
+        }.execute();
+    }
+
     private void cmdShowDetails() {
         SelectedItems ids = getSelectedItems();
         String files = ((ids != null) && (ids.size() > 0)) ? mAdapter.createSelectedFiles(this.getActivity(), ids).toString().replace(",","\n") : null;
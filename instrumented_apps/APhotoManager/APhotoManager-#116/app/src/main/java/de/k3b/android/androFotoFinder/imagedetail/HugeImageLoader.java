@@ -30,6 +30,11 @@ public class HugeImageLoader {
     // public to allow customer settings-activity to change this
     public static boolean DEBUG = false; //!!! Log.isLoggable(LOG_TAG, Log.DEBUG);
 
+    // public to allow customer settings-activity to change this
+    /** true: zoomed images are shown as full resolution tiles (see {@link TiledImageDecoder})
+     * instead of reloading the whole image limited to max texture size */
+    public static boolean useTiledDecoding = true;
+
     @TargetApi(Build.VERSION_CODES.FROYO)
     public static int getMaxTextureSize() {
         try {
@@ -1,6 +1,9 @@
 package de.k3b.android.androFotoFinder.imagedetail;
 
 import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.drawable.Drawable;
 import android.os.Build;
 import android.util.AttributeSet;
 import android.widget.ImageView;
@@ -16,15 +19,20 @@ import uk.co.senab.photoview.log.LogManager;
  * Enhanvced PhotoView with support for
  * - huge images
  * - fast load reduced image that will be replaced by full-size image on first zoom
+ * - or with {@link HugeImageLoader#useTiledDecoding} full-size tiles drawn over the reduced image
  *
  * Simplified version of code used in de.k3b.android.androFotoFinder.imagedetail.ImagePagerAdapterFromCursor
  * from https://github.com/k3b/APhotoManager/
  *
  * Created by k3b on 14.07.2016.
  */
-public class PhotoViewEx extends PhotoView {
+public class PhotoViewEx extends PhotoView implements TiledImageDecoder.OnTileLoadedListener {
     private PhotoViewAttacherEx mAttacher;
 
+    /** if not null: full resolution tiles are drawn over the reduced image */
+    private TiledImageDecoder mTiles = null;
+    private final Matrix mTileMatrix = new Matrix();
+
     public PhotoViewEx(Context context) {
         this(context, null);
     }
@@ -46,9 +54,78 @@ public class PhotoViewEx extends PhotoView {
     /** k3b 20150913 #10: Faster initial loading: initially the view is loaded with low res image.
      * on first zoom it is reloaded with this uri */
     public void setImageReloadFile(File file) {
+        releaseTiles();
         mAttacher.setImageReloadFile(file);
     }
 
+    /** show full resolution of file as tiles on top of the current reduced image.
+     * The file is opened in background: called in the scale gesture. */
+    protected void startTiles(File file) {
+        releaseTiles();
+        mTiles = TiledImageDecoder.create(file, this);
+    }
+
+    private void releaseTiles() {
+        if (mTiles != null) {
+            mTiles.release();
+            mTiles = null;
+        }
+    }
+
+    @Override
+    public void onTileLoaded() {
+        invalidate();
+    }
+
+    /** file cannot be decoded by region: show the full image instead */
+    @Override
+    public void onTilesFailed(File file) {
+        releaseTiles();
+        mAttacher.loadFullImage(file);
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+
+        final Drawable drawable = getDrawable();
+        if ((mTiles != null) && mTiles.isReady() && (drawable != null)
+                && (drawable.getIntrinsicWidth() > 0) && (drawable.getIntrinsicHeight() > 0)) {
+            // full-resolution-image pixel => rotated like the reduced image (exif orientation)
+            // => reduced-image pixel => view pixel
+            final int imageWidth = mTiles.getImageWidth();
+            final int imageHeight = mTiles.getImageHeight();
+            final int rotation = mTiles.getRotation();
+            final boolean swap = (rotation == 90) || (rotation == 270);
+            mTileMatrix.setRotate(rotation);
+            switch (rotation) {
+                case 90:
+                    mTileMatrix.postTranslate(imageHeight, 0);
+                    break;
+                case 180:
+                    mTileMatrix.postTranslate(imageWidth, imageHeight);
+                    break;
+                case 270:
+                    mTileMatrix.postTranslate(0, imageWidth);
+                    break;
+                default:
+                    break;
+            }
+            mTileMatrix.postScale(
+                    (float) drawable.getIntrinsicWidth() / (swap ? imageHeight : imageWidth),
+                    (float) drawable.getIntrinsicHeight() / (swap ? imageWidth : imageHeight));
+            mTileMatrix.postConcat(mAttacher.getDisplayMatrix());
+            mTileMatrix.postTranslate(getPaddingLeft(), getPaddingTop());
+            mTiles.draw(canvas, mTileMatrix, getWidth(), getHeight());
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        releaseTiles();
+        super.onDetachedFromWindow();
+    }
+
     static class PhotoViewAttacherEx extends PhotoViewAttacher {
         /** k3b 20150913 #10: Faster initial loading: initially the view is loaded with low res image.
          * on first zoom it is reloaded with this uri */
@@ -80,17 +157,11 @@ public class PhotoViewEx extends PhotoView {
                                 LOG_TAG,
                                 "onScale: Reloading image from " + mImageReloadFile);
                     }
-                    try {
-                        if (MAX_IMAGE_DIMENSION < 0) {
-                            MAX_IMAGE_DIMENSION = (Build.VERSION.SDK_INT < Build.VERSION_CODES.FROYO) ? 4096 : HugeImageLoader.getMaxTextureSize();
-                        }
-                        imageView.setImageBitmap(HugeImageLoader.loadImage(mImageReloadFile.getAbsoluteFile(), MAX_IMAGE_DIMENSION, MAX_IMAGE_DIMENSION));
-                        this.setRotationTo(JpgMetaWorkflow.getRotationFromExifOrientation(mImageReloadFile.getAbsolutePath()));
-
-                    } catch (OutOfMemoryError e) {
-                        LogManager.getLogger().e(
-                                LOG_TAG,
-                                "onScale: Not enought memory to reloading image from " + mImageReloadFile + " failed: " + e.getMessage());
+                    // with tiles the reduced image remains: full resolution is loaded as tiles when needed
+                    if (HugeImageLoader.useTiledDecoding && (imageView instanceof PhotoViewEx)) {
+                        ((PhotoViewEx) imageView).startTiles(mImageReloadFile.getAbsoluteFile());
+                    } else {
+                        loadFullImage(mImageReloadFile);
                     }
 
                     mImageReloadFile = null; // either success or error: do not try it again
@@ -99,5 +170,23 @@ public class PhotoViewEx extends PhotoView {
 
             super.onScale(scaleFactor,focusX,focusY);
         }
+
+        /** replaces the reduced image with the full image of file */
+        void loadFullImage(File file) {
+            ImageView imageView = getImageView();
+            if (imageView == null) return;
+            try {
+                if (MAX_IMAGE_DIMENSION < 0) {
+                    MAX_IMAGE_DIMENSION = (Build.VERSION.SDK_INT < Build.VERSION_CODES.FROYO) ? 4096 : HugeImageLoader.getMaxTextureSize();
+                }
+                imageView.setImageBitmap(HugeImageLoader.loadImage(file.getAbsoluteFile(), MAX_IMAGE_DIMENSION, MAX_IMAGE_DIMENSION));
+                this.setRotationTo(JpgMetaWorkflow.getRotationFromExifOrientation(file.getAbsolutePath()));
+
+            } catch (OutOfMemoryError e) {
+                LogManager.getLogger().e(
+                        LOG_TAG,
+                        "onScale: Not enought memory to reloading image from " + file + " failed: " + e.getMessage());
+            }
+        }
     }
 }
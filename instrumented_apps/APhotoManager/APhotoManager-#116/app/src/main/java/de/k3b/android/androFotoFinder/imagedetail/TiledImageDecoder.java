@@ -0,0 +1,423 @@
+/*
+ * Copyright (c) 2018 by k3b.
+ *
+ * This file is part of AndroFotoFinder / #APhotoManager.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>
+ */
+
+package de.k3b.android.androFotoFinder.imagedetail;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.LruCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import de.k3b.media.JpgMetaWorkflow;
+import uk.co.senab.photoview.log.LogManager;
+
+/**
+ * Draws the visible part of a huge image as tiles that are decoded with
+ * {@link BitmapRegionDecoder} in the resolution that is needed for the current zoom.
+ *
+ * Tiles are organized as a pyramid of levels (inSampleSize 1, 2, 4, ...) and kept in a
+ * memory bounded LRU shared by all images. The decoder is opened and missing tiles are decoded
+ * on a small worker pool where the tiles of the newest draw next to the center of the viewport
+ * are decoded first.
+ * Until a tile is available the coarser level (or the low res image below) remains visible.
+ *
+ * Created by k3b on 20.03.2018.
+ */
+public class TiledImageDecoder {
+    public interface OnTileLoadedListener {
+        /** called in gui thread if the decoder is opened or a new tile is available */
+        void onTileLoaded();
+
+        /** called in gui thread if file cannot be decoded by region */
+        void onTilesFailed(File file);
+    }
+
+    /** width and height of a tile in decoded pixels */
+    private static final int TILE_SIZE = 512;
+    private static final int WORKER_THREADS = 2;
+
+    /** max part of the app memory used by all tiles */
+    private static final int MAX_MEMORY_DIVISOR = 8;
+
+    private static LruCache<TileKey, Bitmap> sTileCache = null;
+    private static ThreadPoolExecutor sWorker = null;
+    private static long sTaskSequence = 0;
+    private static long sGeneration = 0;
+
+    private final File mFile;
+    private final String mKeyPrefix;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private OnTileLoadedListener mListener;
+
+    /** set by the worker when the file is opened. Access to the decoder must be synchronized on mDecoderLock */
+    private final Object mDecoderLock = new Object();
+    private volatile BitmapRegionDecoder mDecoder = null;
+    private volatile int mImageWidth = 0;
+    private volatile int mImageHeight = 0;
+    private volatile int mRotation = 0;
+
+    /** keys of tiles that are queued for decoding. only accessed in gui thread */
+    private final Set<TileKey> mPending = new HashSet<TileKey>();
+
+    /** reused for cache lookups in draw. only accessed in gui thread */
+    private final TileKey mLookupKey;
+
+    /** what is currently visible: workers skip tiles that are not visible any more */
+    private volatile int mVisibleSampleSize = 1;
+    private volatile Rect mVisibleRect = new Rect();
+    private volatile boolean mReleased = false;
+
+    private final Matrix mViewToImage = new Matrix();
+    private final RectF mTempRectF = new RectF();
+
+    private TiledImageDecoder(File file, OnTileLoadedListener listener) {
+        mFile = file;
+        mKeyPrefix = file.getAbsolutePath() + "|" + file.lastModified();
+        mLookupKey = new TileKey(mKeyPrefix);
+        mListener = listener;
+    }
+
+    /**
+     * Must be called in gui thread. The file is opened in background: listener is informed
+     * when the decoder is ready or if file cannot be decoded by region.
+     */
+    public static TiledImageDecoder create(File file, OnTileLoadedListener listener) {
+        TiledImageDecoder result = new TiledImageDecoder(file, listener);
+        getWorker().execute(result.new OpenTask());
+        return result;
+    }
+
+    /** @return true if the file is opened so that {@link #getImageWidth()} and
+     * {@link #getImageHeight()} are known */
+    public boolean isReady() {
+        return (mDecoder != null) && !mReleased;
+    }
+
+    public int getImageWidth() {
+        return mImageWidth;
+    }
+
+    public int getImageHeight() {
+        return mImageHeight;
+    }
+
+    /** @return exif rotation of the file in degrees. The tiles are not rotated. */
+    public int getRotation() {
+        return mRotation;
+    }
+
+    /**
+     * Draws all available tiles that are visible and requests the missing ones.
+     *
+     * @param imageToView maps pixels of the full resolution image to view pixels.
+     */
+    public void draw(Canvas canvas, Matrix imageToView, int viewWidth, int viewHeight) {
+        if (!isReady() || !imageToView.invert(mViewToImage)) return;
+
+        mTempRectF.set(0, 0, viewWidth, viewHeight);
+        mViewToImage.mapRect(mTempRectF);
+        Rect visible = new Rect();
+        mTempRectF.roundOut(visible);
+        if (!visible.intersect(0, 0, mImageWidth, mImageHeight)) return;
+
+        final int sampleSize = getSampleSize(imageToView.mapRadius(1.0f));
+        mVisibleSampleSize = sampleSize;
+        mVisibleRect = visible;
+
+        canvas.save();
+        canvas.concat(imageToView);
+
+        // progressive: coarser level first. it is overdrawn by the wanted level if available
+        if (sampleSize * 2 <= getMaxSampleSize()) {
+            drawLevel(canvas, visible, sampleSize * 2, 0);
+        }
+        // tiles requested by this draw are decoded before the tiles of previous draws
+        drawLevel(canvas, visible, sampleSize, nextGeneration());
+
+        canvas.restore();
+    }
+
+    /** stops decoding. Tiles remain in the cache. */
+    public void release() {
+        mReleased = true;
+        mListener = null;
+        mPending.clear();
+        synchronized (mDecoderLock) {
+            if (mDecoder != null) mDecoder.recycle();
+        }
+    }
+
+    /** @param generation if not 0: missing tiles are requested with this priority */
+    private void drawLevel(Canvas canvas, Rect visible, int sampleSize, long generation) {
+        final int tileImageSize = TILE_SIZE * sampleSize;
+        final int centerX = visible.centerX();
+        final int centerY = visible.centerY();
+        final LruCache<TileKey, Bitmap> cache = getTileCache();
+
+        for (int row = visible.top / tileImageSize; row * tileImageSize < visible.bottom; row++) {
+            for (int col = visible.left / tileImageSize; col * tileImageSize < visible.right; col++) {
+                final TileKey key = mLookupKey.set(sampleSize, col, row);
+                Bitmap tile = cache.get(key);
+                Rect tileRect = getTileRect(col, row, tileImageSize);
+                if (tile != null) {
+                    canvas.drawBitmap(tile, null, tileRect, mPaint);
+                } else if ((generation != 0) && !mPending.contains(key)) {
+                    final TileKey pendingKey = key.copy();
+                    mPending.add(pendingKey);
+                    long distance = Math.abs((long) tileRect.centerX() - centerX)
+                            + Math.abs((long) tileRect.centerY() - centerY);
+                    getWorker().execute(new TileTask(pendingKey, tileRect, sampleSize, generation, distance));
+                }
+            }
+        }
+    }
+
+    private Rect getTileRect(int col, int row, int tileImageSize) {
+        int left = col * tileImageSize;
+        int top = row * tileImageSize;
+        return new Rect(left, top,
+                Math.min(left + tileImageSize, mImageWidth),
+                Math.min(top + tileImageSize, mImageHeight));
+    }
+
+    /** @param scale view pixels per image pixel.
+     * @return biggest power of 2 where the decoded tile still has at least view resolution */
+    private int getSampleSize(float scale) {
+        int result = 1;
+        final int max = getMaxSampleSize();
+        while ((result * 2 <= max) && (scale * result * 2 <= 1.0f)) {
+            result *= 2;
+        }
+        return result;
+    }
+
+    /** level where the whole image fits into one tile */
+    private int getMaxSampleSize() {
+        int result = 1;
+        while ((mImageWidth / result > TILE_SIZE) || (mImageHeight / result > TILE_SIZE)) {
+            result *= 2;
+        }
+        return result;
+    }
+
+    private void onTileDecoded(final TileKey key) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (key != null) mPending.remove(key);
+                OnTileLoadedListener listener = mListener;
+                if (listener != null) listener.onTileLoaded();
+            }
+        });
+    }
+
+    private void onOpenFailed() {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                OnTileLoadedListener listener = mListener;
+                if (listener != null) listener.onTilesFailed(mFile);
+            }
+        });
+    }
+
+    /** identifies a tile in the cache shared by all images */
+    private static final class TileKey {
+        private final String file;
+        private int sampleSize;
+        private int col;
+        private int row;
+
+        TileKey(String file) {
+            this.file = file;
+        }
+
+        TileKey set(int sampleSize, int col, int row) {
+            this.sampleSize = sampleSize;
+            this.col = col;
+            this.row = row;
+            return this;
+        }
+
+        TileKey copy() {
+            return new TileKey(file).set(sampleSize, col, row);
+        }
+
+        @Override
+        public int hashCode() {
+            return ((file.hashCode() * 31 + sampleSize) * 31 + col) * 31 + row;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof TileKey)) return false;
+            TileKey other = (TileKey) o;
+            return (sampleSize == other.sampleSize) && (col == other.col) && (row == other.row)
+                    && file.equals(other.file);
+        }
+    }
+
+    /** work item of the worker pool. newest generation first. Within a generation tiles near the center first */
+    private abstract static class Task implements Runnable, Comparable<Task> {
+        private final long generation;
+        private final long distance;
+        private final long sequence;
+
+        Task(long generation, long distance) {
+            this.generation = generation;
+            this.distance = distance;
+            synchronized (TiledImageDecoder.class) {
+                this.sequence = sTaskSequence++;
+            }
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            int result = compare(other.generation, this.generation);
+            if (result == 0) result = compare(this.distance, other.distance);
+            if (result == 0) result = compare(other.sequence, this.sequence);
+            return result;
+        }
+
+        /** same as Long.compare() that is not available before android-4.4 (api 19) */
+        private static int compare(long lhs, long rhs) {
+            return (lhs < rhs) ? -1 : ((lhs == rhs) ? 0 : 1);
+        }
+    }
+
+    /** opens the decoder in a worker thread */
+    private class OpenTask extends Task {
+        OpenTask() {
+            super(nextGeneration(), 0);
+        }
+
+        @Override
+        public void run() {
+            BitmapRegionDecoder decoder = null;
+            if (!mReleased) {
+                try {
+                    decoder = BitmapRegionDecoder.newInstance(mFile.getAbsolutePath(), false);
+                } catch (IOException ex) {
+                    LogManager.getLogger().e(HugeImageLoader.LOG_TAG,
+                            "TiledImageDecoder.create(" + mFile + ") failed: " + ex.getMessage());
+                }
+            }
+
+            if (decoder == null) {
+                if (!mReleased) onOpenFailed();
+                return;
+            }
+
+            mRotation = JpgMetaWorkflow.getRotationFromExifOrientation(mFile.getAbsolutePath());
+            mImageWidth = decoder.getWidth();
+            mImageHeight = decoder.getHeight();
+            synchronized (mDecoderLock) {
+                if (mReleased) {
+                    decoder.recycle();
+                    return;
+                }
+                mDecoder = decoder;
+            }
+            onTileDecoded(null);
+        }
+    }
+
+    /** decodes one tile in a worker thread */
+    private class TileTask extends Task {
+        private final TileKey key;
+        private final Rect tileRect;
+        private final int sampleSize;
+
+        TileTask(TileKey key, Rect tileRect, int sampleSize, long generation, long distance) {
+            super(generation, distance);
+            this.key = key;
+            this.tileRect = tileRect;
+            this.sampleSize = sampleSize;
+        }
+
+        @Override
+        public void run() {
+            Bitmap tile = null;
+            if (!mReleased && (sampleSize == mVisibleSampleSize) && Rect.intersects(tileRect, mVisibleRect)) {
+                BitmapFactory.Options options = new BitmapFactory.Options();
+                options.inSampleSize = sampleSize;
+                options.inPreferredConfig = Bitmap.Config.RGB_565;
+                try {
+                    synchronized (mDecoderLock) {
+                        if ((mDecoder != null) && !mDecoder.isRecycled()) {
+                            tile = mDecoder.decodeRegion(tileRect, options);
+                        }
+                    }
+                } catch (OutOfMemoryError err) {
+                    getTileCache().evictAll();
+                    LogManager.getLogger().e(HugeImageLoader.LOG_TAG,
+                            "TiledImageDecoder: not enough memory to decode tile of " + mFile);
+                }
+            }
+
+            if (tile != null) {
+                getTileCache().put(key, tile);
+            }
+            // also if not decoded so that it can be requested again
+            onTileDecoded(key);
+        }
+    }
+
+    private static synchronized long nextGeneration() {
+        return ++sGeneration;
+    }
+
+    private static synchronized LruCache<TileKey, Bitmap> getTileCache() {
+        if (sTileCache == null) {
+            int maxBytes = (int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / MAX_MEMORY_DIVISOR);
+            sTileCache = new LruCache<TileKey, Bitmap>(maxBytes) {
+                @Override
+                protected int sizeOf(TileKey key, Bitmap value) {
+                    return value.getRowBytes() * value.getHeight();
+                }
+            };
+        }
+        return sTileCache;
+    }
+
+    private static synchronized ThreadPoolExecutor getWorker() {
+        if (sWorker == null) {
+            sWorker = new ThreadPoolExecutor(WORKER_THREADS, WORKER_THREADS, 1, TimeUnit.SECONDS,
+                    new PriorityBlockingQueue<Runnable>());
+            sWorker.allowCoreThreadTimeOut(true);
+        }
+        return sWorker;
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2018 by k3b.
+ *
+ * This file is part of AndroFotoFinder / #APhotoManager.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>
+ */
+
+package de.k3b.android.androFotoFinder.locationmap;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.util.Log;
+
+import java.util.List;
+
+import de.k3b.android.androFotoFinder.Global;
+import de.k3b.android.androFotoFinder.queries.FotoSql;
+import de.k3b.android.androFotoFinder.queries.PersistedIndexRepositoryBase;
+import de.k3b.database.QueryParameter;
+import de.k3b.io.GeoClusterIndex;
+import de.k3b.io.IGeoRectangle;
+
+/**
+ * Keeps a persisted {@link GeoClusterIndex} of the geo-tagged photos of the current map filter
+ * up to date with the media db, so that the map markers of a viewport can be calculated without
+ * a "group by" over the whole media db for every scroll/zoom.
+ *
+ * Changes of single items are applied incrementally and checked against a cheap
+ * fingerprint query (count, max id and sum of lat/lon). Other changes are verified with the
+ * same fingerprint.
+ * See {@link PersistedIndexRepositoryBase}.
+ *
+ * Created by k3b on 17.03.2018.
+ */
+public class GeoClusterRepository extends PersistedIndexRepositoryBase<GeoClusterIndex> {
+    private static final String FILE_NAME = "geoClusterIndex.bin";
+
+    /** there is only one index: the one of the current map filter */
+    private static final int SLOT_ID = 0;
+
+    private static final String FILTER_EXPR_HAS_GEO = FotoSql.SQL_COL_LAT + " IS NOT NULL AND "
+            + FotoSql.SQL_COL_LON + " IS NOT NULL";
+
+    private static final String[] CLUSTER_COLUMNS = new String[]{
+            FotoSql.SQL_COL_PK, FotoSql.SQL_COL_LAT, FotoSql.SQL_COL_LON, FotoSql.SQL_COL_COUNT};
+
+    private static GeoClusterRepository sInstance = null;
+
+    private GeoClusterRepository(Context context) {
+        super(context, "GeoClusterRepository: ");
+    }
+
+    public static synchronized GeoClusterRepository getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new GeoClusterRepository(context);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Executed in background task.
+     *
+     * @param filter where of the map without viewport.
+     * @param groupingFactor see {@link FotoSql#getGroupFactor(double)}
+     * @param area viewport
+     * @return cursor with columns pk, lat, lon, count like {@link FotoSql#getQueryGroupByPlace(double)}
+     *          or null if index cannot be used.
+     */
+    public Cursor queryClusters(QueryParameter filter, double groupingFactor, IGeoRectangle area) {
+        final Slot<GeoClusterIndex> slot = getSlot(SLOT_ID);
+        synchronized (slot) {
+            try {
+                final GeoClusterIndex index = getIndex(slot, filter);
+                if (index == null) return null;
+
+                List<GeoClusterIndex.Cluster> clusters = index.getClusters(groupingFactor, area);
+                MatrixCursor result = new MatrixCursor(CLUSTER_COLUMNS, clusters.size());
+                for (GeoClusterIndex.Cluster cluster : clusters) {
+                    result.addRow(new Object[]{cluster.id, cluster.latitude, cluster.longitude, cluster.count});
+                }
+                return result;
+            } catch (Exception ex) {
+                Log.e(Global.LOG_CONTEXT, mDebugPrefix + "queryClusters() failed. Using sql instead.", ex);
+                resetIndex(slot);
+                return null;
+            }
+        }
+    }
+
+    @Override
+    protected String getFileName(int slotId) {
+        return FILE_NAME;
+    }
+
+    @Override
+    protected GeoClusterIndex createIndex() {
+        return new GeoClusterIndex();
+    }
+
+    /** incremental update: ids that do not match the filter any more are removed */
+    @Override
+    protected void patchIndex(GeoClusterIndex index, QueryParameter filter, Long[] changedIds) {
+        for (Long id : changedIds) {
+            index.remove(id.intValue());
+        }
+        loadFromDb(index, filter, FotoSql.SQL_COL_PK + " in (" + toSqlIdList(changedIds) + ")");
+    }
+
+    @Override
+    protected void loadFromDb(GeoClusterIndex index, QueryParameter filter) {
+        loadFromDb(index, filter, null);
+    }
+
+    /** add all geo-tagged items matching filter and additionalWhere to index */
+    private void loadFromDb(GeoClusterIndex index, QueryParameter filter, String additionalWhere) {
+        QueryParameter query = new QueryParameter()
+                .addColumn(FotoSql.SQL_COL_PK, FotoSql.SQL_COL_LAT, FotoSql.SQL_COL_LON)
+                .addFrom(FotoSql.SQL_TABLE_EXTERNAL_CONTENT_URI_FILE_NAME)
+                .getWhereFrom(filter, false)
+                .addWhere(FILTER_EXPR_HAS_GEO);
+        if (additionalWhere != null) query.addWhere(additionalWhere);
+
+        Cursor cursor = null;
+        try {
+            cursor = FotoSql.createCursorForQuery(mDebugPrefix + "loadFromDb", mContext, query, null);
+            if (cursor != null) {
+                while (cursor.moveToNext()) {
+                    index.put(cursor.getInt(0), cursor.getDouble(1), cursor.getDouble(2));
+                }
+            }
+        } finally {
+            if (cursor != null) cursor.close();
+        }
+    }
+
+    /** @return false if the patched index does not match the "count|maxId|sumLat|sumLon" fingerprint */
+    @Override
+    protected boolean isConsistent(GeoClusterIndex index, String fingerprint) {
+        String[] parts = fingerprint.split("\\|");
+        if (parts.length != 4) return false;
+        try {
+            return index.isConsistent(Long.parseLong(parts[0]), Long.parseLong(parts[1]),
+                    Double.parseDouble(parts[2]), Double.parseDouble(parts[3]));
+        } catch (NumberFormatException ex) {
+            return false;
+        }
+    }
+
+    /** @return "count|maxId|sumLat|sumLon" of the geo-tagged items matching filter */
+    @Override
+    protected String queryFingerprint(QueryParameter filter) {
+        QueryParameter query = new QueryParameter()
+                .addColumn("count(*) AS " + FotoSql.SQL_COL_COUNT,
+                        "max(" + FotoSql.SQL_COL_PK + ") AS " + FotoSql.SQL_COL_PK,
+                        "total(" + FotoSql.SQL_COL_LAT + ") AS " + FotoSql.SQL_COL_LAT,
+                        "total(" + FotoSql.SQL_COL_LON + ") AS " + FotoSql.SQL_COL_LON)
+                .addFrom(FotoSql.SQL_TABLE_EXTERNAL_CONTENT_URI_FILE_NAME)
+                .getWhereFrom(filter, false)
+                .addWhere(FILTER_EXPR_HAS_GEO);
+
+        Cursor cursor = null;
+        try {
+            cursor = FotoSql.createCursorForQuery(mDebugPrefix + "queryFingerprint", mContext, query, null);
+            if ((cursor != null) && cursor.moveToFirst()) {
+                return cursor.getLong(0) + "|" + cursor.getLong(1) + "|" + cursor.getDouble(2) + "|" + cursor.getDouble(3);
+            }
+        } finally {
+            if (cursor != null) cursor.close();
+        }
+        return "";
+    }
+}
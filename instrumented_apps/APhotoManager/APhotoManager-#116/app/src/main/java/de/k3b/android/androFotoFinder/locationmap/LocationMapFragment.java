@@ -24,6 +24,7 @@ import android.app.DialogFragment;
 import android.content.ContentResolver;
 import android.content.Intent;
 import android.content.SharedPreferences;
+import android.database.Cursor;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
@@ -653,18 +654,19 @@ public class LocationMapFragment extends DialogFragment {
         if (this.mRootFilter != null) {
             TagSql.filter2QueryEx(query, this.mRootFilter, true);
         }
+        QueryParameter filterWithoutViewport = new QueryParameter().getWhereFrom(query, false);
 
         // delta: make the grouping area a little bit bigger than the viewport
         // so that counts at the borders are correct.
         double delta = (groupingFactor > 0) ? (2.0 / groupingFactor) : 0.0;
         IGeoRectangle rect = getGeoRectangle(latLonArea);
-        FotoSql.addWhereFilterLatLon(query
-                , rect.getLatitudeMin() - delta
-                , rect.getLatitudeMax() + delta
-                , rect.getLogituedMin() - delta
-                , rect.getLogituedMax() + delta);
+        GeoRectangle area = new GeoRectangle();
+        area.setLatitude(rect.getLatitudeMin() - delta, rect.getLatitudeMax() + delta);
+        area.setLogitude(rect.getLogituedMin() - delta, rect.getLogituedMax() + delta);
+        FotoSql.addWhereFilterLatLon(query, area);
 
-        mCurrentFotoMarkerLoader = new FotoMarkerLoaderTask(createHashMap(oldItems));
+        mCurrentFotoMarkerLoader = new FotoMarkerLoaderTask(createHashMap(oldItems),
+                (Global.mapUseGeoClusterIndex) ? filterWithoutViewport : null, groupingFactor, area);
         mCurrentFotoMarkerLoader.execute(query);
     }
 
@@ -703,9 +705,28 @@ public class LocationMapFragment extends DialogFragment {
 
     /** to load foto summary marker with numbers in the icons */
     private class FotoMarkerLoaderTask extends MarkerLoaderTaskWithRecycling<FotoMarker> {
-        public FotoMarkerLoaderTask(HashMap<Integer, FotoMarker> oldItems) {
+        /** if not null: markers are calculated from the GeoClusterRepository */
+        private final QueryParameter mFilterWithoutViewport;
+        private final double mGroupingFactor;
+        private final IGeoRectangle mArea;
+
+        public FotoMarkerLoaderTask(HashMap<Integer, FotoMarker> oldItems, QueryParameter filterWithoutViewport,
+                                    double groupingFactor, IGeoRectangle area) {
             super(getActivity(), LocationMapFragment.this.mDebugPrefix + "-FotoMarkerLoaderTask#" + (sInstanceCountFotoLoader++) + "-",
                     mFotoMarkerRecycler, oldItems, NO_MARKER_COUNT_LIMIT);
+            mFilterWithoutViewport = filterWithoutViewport;
+            mGroupingFactor = groupingFactor;
+            mArea = area;
+        }
+
+        @Override
+        protected Cursor createCursor(Activity context, QueryParameter queryParameters) {
+            if (mFilterWithoutViewport != null) {
+                Cursor result = GeoClusterRepository.getInstance(context)
+                        .queryClusters(mFilterWithoutViewport, mGroupingFactor, mArea);
+                if (result != null) return result;
+            }
+            return super.createCursor(context, queryParameters);
         }
 
         @NonNull
@@ -96,8 +96,7 @@ public abstract class MarkerLoaderTask<MARKER extends ClickableIconOverlay> exte
 
         Cursor cursor = null;
         try {
-            cursor = mContext.getContentResolver().query(Uri.parse(queryParameters.toFrom()), queryParameters.toColumns(),
-                    queryParameters.toAndroidWhere(), queryParameters.toAndroidParameters(), queryParameters.toOrderBy());
+            cursor = createCursor(mContext, queryParameters);
 
             int itemCount = cursor.getCount();
             final int expectedCount = itemCount + itemCount;
@@ -178,6 +177,14 @@ public abstract class MarkerLoaderTask<MARKER extends ClickableIconOverlay> exte
         }
     }
 
+    /** Can be overwritten to get the markers from a different source.
+     * @return cursor with columns {@link FotoSql#SQL_COL_PK}, {@link FotoSql#SQL_COL_LAT},
+     *          {@link FotoSql#SQL_COL_LON} and optional {@link FotoSql#SQL_COL_COUNT} */
+    protected Cursor createCursor(Activity context, QueryParameter queryParameters) {
+        return context.getContentResolver().query(Uri.parse(queryParameters.toFrom()), queryParameters.toColumns(),
+                queryParameters.toAndroidWhere(), queryParameters.toAndroidParameters(), queryParameters.toOrderBy());
+    }
+
     protected BitmapDrawable createIcon(String iconText) {
         return mIconFactory.createIcon(iconText);
     }
@@ -19,6 +19,7 @@
 
 package de.k3b.android.androFotoFinder.media;
 
+import android.content.ContentProviderOperation;
 import android.content.ContentValues;
 import android.content.Intent;
 import android.net.Uri;
@@ -34,6 +35,7 @@ import android.widget.Toast;
 import java.io.File;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.util.ArrayList;
 import java.util.Date;
 
 import de.k3b.android.androFotoFinder.Global;
@@ -119,6 +121,9 @@ public class MediaDBActivity extends Activity {
         private int mProgressCountDown = 0;
         protected MediaCsvLoader mLoader = null;
 
+        /** updates collected by {@link MediaCsvLoader} that are not written to the media db yet */
+        private final ArrayList<PendingUpdate> mPendingUpdates = new ArrayList<PendingUpdate>();
+
         /**
          * Override this method to perform a computation on a background thread. The
          * specified parameters are the parameters passed to {@link #execute}
@@ -149,6 +154,7 @@ public class MediaDBActivity extends Activity {
 
                         reader = new InputStreamReader(getContentResolver().openInputStream(uri));
                         mLoader = new MediaCsvLoader(csvRootDir);
+                        mLoader.setBatchSize(Global.csvImportBatchSize);
 
                         mLoader.load(reader, new MediaCsvItem());
 
@@ -180,6 +186,11 @@ public class MediaDBActivity extends Activity {
         }
 
         private void updateDB(String dbgContext, String _path, long xmlLastFileModifyDate, ContentValues dbValues) {
+            updateDB(dbgContext, _path, xmlLastFileModifyDate, dbValues, false);
+        }
+
+        /** @param batch true: update is collected in {@link #mPendingUpdates} until {@link #flushPendingUpdates()} */
+        private void updateDB(String dbgContext, String _path, long xmlLastFileModifyDate, ContentValues dbValues, boolean batch) {
             String path = _path;
             if (path != null) {
                 if (!path.contains("%")) {
@@ -207,11 +218,37 @@ public class MediaDBActivity extends Activity {
 
                 TagSql.setFileModifyDate(dbValues, new Date().getTime() / 1000);
 
-                mUpdateCount += TagSql.execUpdate(dbgContext, MediaDBActivity.this, path, xmlLastFileModifyDate, dbValues, VISIBILITY.PRIVATE_PUBLIC);
+                if (batch) {
+                    mPendingUpdates.add(new PendingUpdate(dbgContext, path, xmlLastFileModifyDate, new ContentValues(dbValues)));
+                } else {
+                    mUpdateCount += TagSql.execUpdate(dbgContext, MediaDBActivity.this, path, xmlLastFileModifyDate, dbValues, VISIBILITY.PRIVATE_PUBLIC);
+                }
                 mItemCount++;
             }
         }
 
+        /** write all collected updates in one media db transaction */
+        private void flushPendingUpdates() {
+            if (mPendingUpdates.size() > 0) {
+                ArrayList<ContentProviderOperation> ops = new ArrayList<ContentProviderOperation>(mPendingUpdates.size());
+                for (PendingUpdate update : mPendingUpdates) {
+                    ops.add(TagSql.createUpdateOperation(update.path, update.xmpFileDate, update.values, VISIBILITY.PRIVATE_PUBLIC));
+                }
+
+                int count = TagSql.execApplyBatch(DBG_CONTEXT + "flushPendingUpdates", MediaDBActivity.this, ops);
+                if (count < 0) {
+                    // batch failed: fall back to one update per item
+                    for (PendingUpdate update : mPendingUpdates) {
+                        mUpdateCount += TagSql.execUpdate(update.dbgContext, MediaDBActivity.this, update.path,
+                                update.xmpFileDate, update.values, VISIBILITY.PRIVATE_PUBLIC);
+                    }
+                } else {
+                    mUpdateCount += count;
+                }
+                mPendingUpdates.clear();
+            }
+        }
+
         @Override
         protected void onProgressUpdate(String... values) {
             mStatus.setText(values[0]);
@@ -257,12 +294,18 @@ public class MediaDBActivity extends Activity {
                         long fileModifyDateMilliSecs = (fileModifyDate != null) ? fileModifyDate.getTime() : TagSql.EXT_LAST_EXT_SCAN_NO_XMP_IN_CSV;
 
                         String canonicalPath = FileUtils.tryGetCanonicalPath(new File(mCsvRootDir, path), null);
-                        updateDB("MediaCsvLoader.onNextItem", canonicalPath, fileModifyDateMilliSecs, mDbValues);
+                        updateDB("MediaCsvLoader.onNextItem", canonicalPath, fileModifyDateMilliSecs, mDbValues,
+                                Global.csvImportBatchSize > 0);
                         TagRepository.getInstance().includeTagNamesIfNotFound(mMediaValueAdapter.getTags());
                     }
                 }
             }
 
+            @Override
+            protected void onBatchComplete(int lineNumber, int recordNumber) {
+                flushPendingUpdates();
+            }
+
             /** get or create parent-tag where alle imports are appendend as children */
             public Tag getImportRoot() {
                 if (mImportRoot == null) {
@@ -273,5 +316,20 @@ public class MediaDBActivity extends Activity {
         }
     }
 
+    /** one media db update of the csv import that has not been executed yet */
+    private static class PendingUpdate {
+        final String dbgContext;
+        final String path;
+        final long xmpFileDate;
+        final ContentValues values;
+
+        PendingUpdate(String dbgContext, String path, long xmpFileDate, ContentValues values) {
+            this.dbgContext = dbgContext;
+            this.path = path;
+            this.xmpFileDate = xmpFileDate;
+            this.values = values;
+        }
+    }
+
 
 }
@@ -21,6 +21,7 @@ package de.k3b.android.androFotoFinder.queries;
 
 import android.app.Activity;
 import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
@@ -36,6 +37,7 @@ import android.util.Log;
 import org.osmdroid.api.IGeoPoint;
 import org.osmdroid.util.GeoPoint;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
@@ -51,11 +53,13 @@ import de.k3b.io.VISIBILITY;
 import de.k3b.io.collections.SelectedFiles;
 import de.k3b.io.collections.SelectedItems;
 import de.k3b.io.DirectoryFormatter;
+import de.k3b.io.DuplicateFinder;
 import de.k3b.io.FileCommands;
 import de.k3b.io.GalleryFilterParameter;
 import de.k3b.io.GeoRectangle;
 import de.k3b.io.IGalleryFilter;
 import de.k3b.io.IGeoRectangle;
+import de.k3b.io.IProgessListener;
 
 /**
  * contains all SQL needed to query the android gallery
@@ -92,9 +96,15 @@ public class FotoSql extends FotoSqlBase {
     public static final int QUERY_TYPE_GROUP_COPY = 20;
     public static final int QUERY_TYPE_GROUP_MOVE = 21;
 
+    /** virtual: photos with the same content. calculated by {@link #createQueryDuplicateContent} not by sql */
+    public static final int QUERY_TYPE_GROUP_DUPLICATE_CONTENT = 22;
+
     public static final int QUERY_TYPE_GROUP_DEFAULT = QUERY_TYPE_GROUP_ALBUM;
     public static final int QUERY_TYPE_DEFAULT = QUERY_TYPE_GALLERY;
 
+    /** persistent hashes used by {@link #createQueryDuplicateContent} */
+    private static final String DUPLICATE_INDEX_FILE_NAME = "duplicateIndex.bin";
+
     // columns that must be avaulable in the Cursor
     public static final String SQL_COL_PK = MediaStore.Images.Media._ID;
     public static final String FILTER_COL_PK = SQL_COL_PK + "= ?";
@@ -199,6 +209,13 @@ public class FotoSql extends FotoSqlBase {
             .addHaving("count(*) > 1")
             .addOrderBy(SQL_COL_PATH);
 
+    /** all photos with path. Input for {@link #createQueryDuplicateContent} */
+    public static final QueryParameter queryGetPaths = new QueryParameter()
+            .setID(QUERY_TYPE_UNDEFINED)
+            .addColumn(SQL_COL_PK, SQL_COL_PATH)
+            .addFrom(SQL_TABLE_EXTERNAL_CONTENT_URI_FILE_NAME)
+            .addWhere(SQL_COL_PATH + " IS NOT NULL ");
+
     /* image entries may not have DISPLAY_NAME which is essential for calculating the item-s folder. */
     public static final QueryParameter queryChangePath = new QueryParameter()
             .setID(QUERY_TYPE_UNDEFINED)
@@ -468,6 +485,7 @@ public class FotoSql extends FotoSqlBase {
                 return queryGroupByPlace;
             case QUERY_TYPE_GROUP_COPY:
             case QUERY_TYPE_GROUP_MOVE:
+            case QUERY_TYPE_GROUP_DUPLICATE_CONTENT:
                 return null;
             default:
                 Log.e(Global.LOG_CONTEXT, "FotoSql.getQuery(" + queryID + "): unknown ID");
@@ -518,12 +536,58 @@ public class FotoSql extends FotoSqlBase {
                 return context.getString(R.string.destination_copy);
             case QUERY_TYPE_GROUP_MOVE:
                 return context.getString(R.string.destination_move);
+            case QUERY_TYPE_GROUP_DUPLICATE_CONTENT:
+                return context.getString(R.string.duplicate_content_title);
             default:
                 return "???";
         }
 
     }
 
+    /**
+     * Calculates {@link #QUERY_TYPE_GROUP_DUPLICATE_CONTENT}: photos that have the same content
+     * as an other photo (also under a different name or folder). Expensive: must run in background.
+     *
+     * @return gallery query sorted by file size so that duplicates are next to each other
+     * or null if there are no duplicates.
+     */
+    public static QueryParameter createQueryDuplicateContent(Context context, IProgessListener progessListener) {
+        Map<String, Long> path2id = new HashMap<String, Long>();
+        List<File> files = new ArrayList<File>();
+        Cursor c = null;
+        try {
+            c = createCursorForQuery("createQueryDuplicateContent", context, new QueryParameter(queryGetPaths), VISIBILITY.PRIVATE_PUBLIC);
+            int pkColNo = c.getColumnIndex(SQL_COL_PK);
+            int pathColNo = c.getColumnIndex(SQL_COL_PATH);
+            while (c.moveToNext()) {
+                File file = new File(c.getString(pathColNo));
+                path2id.put(file.getAbsolutePath(), c.getLong(pkColNo));
+                files.add(file);
+            }
+        } finally {
+            if (c != null) c.close();
+        }
+
+        DuplicateFinder finder = new DuplicateFinder(new File(context.getFilesDir(), DUPLICATE_INDEX_FILE_NAME));
+        List<List<File>> duplicates = finder.findDuplicates(files, progessListener);
+        if (Global.debugEnabledSql) {
+            Log.i(Global.LOG_CONTEXT, "createQueryDuplicateContent: " + duplicates.size() + " groups. " + finder);
+        }
+
+        SelectedItems ids = new SelectedItems();
+        for (List<File> group : duplicates) {
+            for (File file : group) {
+                Long id = path2id.get(file.getAbsolutePath());
+                if (id != null) ids.add(id);
+            }
+        }
+        if (ids.isEmpty()) return null;
+
+        QueryParameter result = new QueryParameter(queryDetail);
+        setWhereSelectionPks(result, ids);
+        return setSort(result, SORT_BY_FILE_LEN, true);
+    }
+
     public static QueryParameter setSort(QueryParameter result, int sortID, boolean ascending) {
         String asc = (ascending) ? " asc" : " desc";
         result.replaceOrderBy();
@@ -952,6 +1016,48 @@ public class FotoSql extends FotoSqlBase {
         return result;
     }
 
+    /** insert (id == null) or update that can be executed via {@link #execApplyBatch(String, Context, ArrayList)} */
+    public static ContentProviderOperation createInsertOrUpdateOperation(Long id, ContentValues values) {
+        if (id != null) {
+            return ContentProviderOperation.newUpdate(SQL_TABLE_EXTERNAL_CONTENT_URI_FILE)
+                    .withSelection(FILTER_COL_PK, new String[]{id.toString()})
+                    .withValues(values)
+                    .build();
+        }
+        Uri providerUri = (null != values.get(SQL_COL_EXT_MEDIA_TYPE)) ? SQL_TABLE_EXTERNAL_CONTENT_URI_FILE : SQL_TABLE_EXTERNAL_CONTENT_URI;
+        return ContentProviderOperation.newInsert(providerUri)
+                .withValues(values)
+                .build();
+    }
+
+    /**
+     * every database batch should go through this. adds logging if enabled.
+     * All operations are executed in one media-db transaction.
+     *
+     * @return number of inserted/updated items or -1 if the batch failed.
+     */
+    public static int execApplyBatch(String dbgContext, Context context, ArrayList<ContentProviderOperation> ops) {
+        int result = -1;
+        Exception excpetion = null;
+        try {
+            ContentProviderResult[] results = context.getContentResolver().applyBatch(MediaStore.AUTHORITY, ops);
+            result = 0;
+            for (ContentProviderResult item : results) {
+                if ((item.uri != null) || ((item.count != null) && (item.count > 0))) {
+                    result++;
+                }
+            }
+        } catch (Exception ex) {
+            excpetion = ex;
+        } finally {
+            if ((excpetion != null) || Global.debugEnabledSql || FotoLibGlobal.debugEnabledJpg) {
+                Log.i(Global.LOG_CONTEXT, dbgContext + ":FotoSql.execApplyBatch(" + ops.size() + " items) "
+                        + " => " + result + " " + excpetion, excpetion);
+            }
+        }
+        return result;
+    }
+
     @NonNull
     public static CursorLoader createCursorLoader(Context context, final QueryParameter query) {
         FotoSql.setWhereVisibility(query, VISIBILITY.DEFAULT);
@@ -0,0 +1,255 @@
+/*
+ * Copyright (c) 2018 by k3b.
+ *
+ * This file is part of AndroFotoFinder / #APhotoManager.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>
+ */
+
+package de.k3b.android.androFotoFinder.queries;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import de.k3b.android.androFotoFinder.Global;
+import de.k3b.database.QueryParameter;
+import de.k3b.io.IPersistedIndex;
+import de.k3b.io.ListUtils;
+
+/**
+ * Keeps {@link IPersistedIndex}es that are calculated from media db queries
+ * up to date with the media db. Each index lives in its own slot with its own cache file.
+ *
+ * Changes to the media db are detected by a {@link ContentObserver}:
+ * changed items are patched into the index by the subclass. Afterwards (and after changes
+ * of unknown items) the index is verified with a cheap fingerprint query of the subclass.
+ * If the fingerprint does not match the index is reloaded.
+ *
+ * Created by k3b on 18.03.2018.
+ */
+public abstract class PersistedIndexRepositoryBase<INDEX extends IPersistedIndex> {
+    /** max number of ids that are patched incrementally. More changes cause a verify */
+    private static final int MAX_PATCH_IDS = 500;
+
+    protected final String mDebugPrefix;
+    protected final Context mContext;
+
+    /** index of one query (type) */
+    protected static class Slot<INDEX> {
+        final File file;
+
+        /** belongs to filterKey. null: not loaded yet */
+        INDEX index = null;
+        String filterKey = null;
+
+        /** true: media db was changed in an unknown way. The fingerprint must be verified. */
+        boolean mustVerify = true;
+
+        /** ids of media db items that changed since last query */
+        final Set<Long> changedIds = new HashSet<Long>();
+
+        Slot(File file) {
+            this.file = file;
+        }
+    }
+
+    /** slot id to slot. Access must be synchronized */
+    private final Map<Integer, Slot<INDEX>> mSlots = new HashMap<Integer, Slot<INDEX>>();
+
+    private final ContentObserver mMediaObserver = new ContentObserver(null) {
+        @Override
+        public void onChange(boolean selfChange) {
+            onChange(selfChange, null);
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            onMediaChanged(uri);
+        }
+    };
+
+    protected PersistedIndexRepositoryBase(Context context, String debugPrefix) {
+        mContext = context.getApplicationContext();
+        mDebugPrefix = debugPrefix;
+        mContext.getContentResolver().registerContentObserver(
+                FotoSql.SQL_TABLE_EXTERNAL_CONTENT_URI_FILE, true, mMediaObserver);
+    }
+
+    /** @return name of the cache file of slotId */
+    protected abstract String getFileName(int slotId);
+
+    protected abstract INDEX createIndex();
+
+    /** @return a cheap aggregate over the items of query. Changes if items are added, removed or modified. */
+    protected abstract String queryFingerprint(QueryParameter query);
+
+    /** add all items of query to index */
+    protected abstract void loadFromDb(INDEX index, QueryParameter query);
+
+    /** update index with the items of query that have one of the changedIds */
+    protected abstract void patchIndex(INDEX index, QueryParameter query, Long[] changedIds);
+
+    /** @return false if patched index does not match fingerprint so that it must be reloaded */
+    protected boolean isConsistent(INDEX index, String fingerprint) {
+        return true;
+    }
+
+    /** called by the ContentObserver on any thread */
+    private void onMediaChanged(Uri uri) {
+        Long id = null;
+        String lastPathSegment = (uri != null) ? uri.getLastPathSegment() : null;
+        if (lastPathSegment != null) {
+            try {
+                id = Long.parseLong(lastPathSegment);
+            } catch (NumberFormatException ignore) {
+                // no item uri
+            }
+        }
+
+        synchronized (mSlots) {
+            for (Slot<INDEX> slot : mSlots.values()) {
+                if ((id != null) && (slot.changedIds.size() < MAX_PATCH_IDS)) {
+                    slot.changedIds.add(id);
+                } else {
+                    slot.mustVerify = true;
+                }
+            }
+        }
+    }
+
+    /** Index access for slotId must be synchronized on the result. */
+    protected Slot<INDEX> getSlot(int slotId) {
+        synchronized (mSlots) {
+            Slot<INDEX> result = mSlots.get(slotId);
+            if (result == null) {
+                result = new Slot<INDEX>(new File(mContext.getCacheDir(), getFileName(slotId)));
+                mSlots.put(slotId, result);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Must be called synchronized on slot.
+     *
+     * @param query all items of the index. Also used as key: a different query replaces the index.
+     * @return the index of slot that is up to date with the media db.
+     */
+    protected INDEX getIndex(Slot<INDEX> slot, QueryParameter query) {
+        final String sqlFilter = query.toSqlString();
+        final String filterKey = (sqlFilter != null) ? sqlFilter : "";
+
+        final Long[] changedIds;
+        final boolean mustVerify;
+        synchronized (mSlots) {
+            if ((slot.index == null) || !filterKey.equals(slot.filterKey)) {
+                slot.index = null;
+                slot.filterKey = filterKey;
+                slot.mustVerify = true;
+                slot.changedIds.clear();
+            }
+            changedIds = slot.changedIds.toArray(new Long[slot.changedIds.size()]);
+            slot.changedIds.clear();
+            mustVerify = slot.mustVerify;
+            slot.mustVerify = false;
+        }
+
+        if (slot.index == null) {
+            // changedIds are already contained in the fingerprint
+            slot.index = loadIndex(slot.file);
+            reloadIfChanged(slot, query, createStamp(filterKey, queryFingerprint(query)));
+        } else if ((changedIds.length > 0) || mustVerify) {
+            if (changedIds.length > 0) {
+                patchIndex(slot.index, query, changedIds);
+            }
+
+            final String fingerprint = queryFingerprint(query);
+            final String stamp = createStamp(filterKey, fingerprint);
+            if (!mustVerify && isConsistent(slot.index, fingerprint)) {
+                // there were only incremental changes: the index is up to date
+                slot.index.setStamp(stamp);
+                saveIndex(slot);
+            } else {
+                // i.e. items were deleted or the media db was changed in an unknown way
+                reloadIfChanged(slot, query, stamp);
+            }
+        }
+        return slot.index;
+    }
+
+    /** Must be called synchronized on slot: the index is reloaded on next {@link #getIndex(Slot, QueryParameter)} */
+    protected void resetIndex(Slot<INDEX> slot) {
+        slot.index = null;
+    }
+
+    private static String createStamp(String filterKey, String fingerprint) {
+        return filterKey + "|" + fingerprint;
+    }
+
+    private void reloadIfChanged(Slot<INDEX> slot, QueryParameter query, String stamp) {
+        final INDEX index = slot.index;
+        if (!stamp.equals(index.getStamp())) {
+            if (Global.debugEnabledSql) {
+                Log.i(Global.LOG_CONTEXT, mDebugPrefix + "reload " + stamp);
+            }
+            index.clear();
+            loadFromDb(index, query);
+            index.setStamp(stamp);
+            saveIndex(slot);
+        }
+    }
+
+    private INDEX loadIndex(File file) {
+        INDEX result = createIndex();
+        if (file.exists()) {
+            try {
+                result.load(file);
+            } catch (Exception ex) {
+                Log.w(Global.LOG_CONTEXT, mDebugPrefix + "cannot load " + file, ex);
+            }
+        }
+        if (Global.debugEnabledSql) {
+            Log.i(Global.LOG_CONTEXT, mDebugPrefix + "loaded " + result.size() + " items for "
+                    + result.getStamp());
+        }
+        return result;
+    }
+
+    private void saveIndex(Slot<INDEX> slot) {
+        try {
+            slot.index.save(slot.file);
+        } catch (Exception ex) {
+            Log.w(Global.LOG_CONTEXT, mDebugPrefix + "cannot save " + slot.file, ex);
+        }
+    }
+
+    /** @return "id1,id2,..." for a sql "in (...)" expression */
+    protected static String toSqlIdList(Long[] ids) {
+        List<String> result = new ArrayList<String>(ids.length);
+        for (Long id : ids) {
+            result.add(id.toString());
+        }
+        return ListUtils.toString(",", result);
+    }
+}
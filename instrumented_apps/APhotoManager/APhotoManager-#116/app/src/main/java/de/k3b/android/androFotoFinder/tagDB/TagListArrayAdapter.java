@@ -32,6 +32,7 @@ import de.k3b.android.androFotoFinder.R;
 import de.k3b.android.util.ResourceUtils;
 import de.k3b.android.widget.ArrayAdapterEx;
 import de.k3b.tagDB.Tag;
+import de.k3b.tagDB.TagRepository;
 
 /** listview-item-adapter for tags-list/picker */
 public class TagListArrayAdapter extends ArrayAdapterEx<Tag> {
@@ -253,6 +254,42 @@ public class TagListArrayAdapter extends ArrayAdapterEx<Tag> {
 		return null;
 	}
 
+	/** search starting with "/" is a prefix search over the tag paths, other searches are
+	 * name prefix searches. Both use the repository index. Only if no name starts with the
+	 * search string all tags are scanned for names containing it. */
+	@Override
+	protected List<Tag> getMatchCandidates(String lowerCaseSearchString, List<Tag> allValues) {
+		TagRepository repository = TagRepository.getInstance();
+		if (repository != null) {
+			final boolean pathSearch = isPathSearch(lowerCaseSearchString);
+			List<Tag> result = (pathSearch)
+					? repository.findByPathPrefix(lowerCaseSearchString)
+					: repository.findByNamePrefix(lowerCaseSearchString);
+
+			if (pathSearch || !result.isEmpty()) {
+				// names that are always visible
+				addByName(result, repository, mBookMarkNames, mAddNames, mRemoveNames, mAffectedNames);
+				return result;
+			}
+		}
+		return super.getMatchCandidates(lowerCaseSearchString, allValues);
+	}
+
+	private static void addByName(List<Tag> result, TagRepository repository, List<String>... nameLists) {
+		for (List<String> names : nameLists) {
+			if (names != null) {
+				for (String name : names) {
+					Tag tag = repository.findFirstByName(name);
+					if ((tag != null) && !result.contains(tag)) result.add(tag);
+				}
+			}
+		}
+	}
+
+	private static boolean isPathSearch(String lowerCaseSearchString) {
+		return lowerCaseSearchString.startsWith("/");
+	}
+
 	/** replace  */
 	@Override
 	protected boolean match(String lowerCaseSearchString, Tag value) {
@@ -265,6 +302,9 @@ public class TagListArrayAdapter extends ArrayAdapterEx<Tag> {
 			if ((mRemoveNames != null) && (mRemoveNames.contains(name))) return true;
 			if ((mAffectedNames != null) && (mAffectedNames.contains(name))) return true;
 
+			// candidates of path search are already filtered by getMatchCandidates
+			if (isPathSearch(lowerCaseSearchString)) return true;
+
 			final String valueText = name.toLowerCase();
 
 			// First match against the whole, non-splitted value
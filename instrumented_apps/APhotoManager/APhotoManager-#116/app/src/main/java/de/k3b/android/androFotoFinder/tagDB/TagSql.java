@@ -19,6 +19,7 @@
 
 package de.k3b.android.androFotoFinder.tagDB;
 
+import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
@@ -374,6 +375,24 @@ public class TagSql extends FotoSql {
         return exexUpdateImpl(dbgContext, context, values, FILTER_EXPR_PATH_LIKE_XMP_DATE, new String[]{path, Long.toString(xmpFileDate)});
     }
 
+    /** same as {@link #execUpdate(String, Context, String, long, ContentValues, VISIBILITY)} as
+     * operation that can be executed via {@link #execApplyBatch(String, Context, ArrayList)} */
+    public static ContentProviderOperation createUpdateOperation(String path, long xmpFileDate, ContentValues values, VISIBILITY visibility) {
+        final String sqlWhere;
+        final String[] selectionArgs;
+        if ((!Global.Media.enableXmpNone) || (xmpFileDate == EXT_LAST_EXT_SCAN_UNKNOWN)) {
+            sqlWhere = getFilterExprPathLikeWithVisibility(visibility);
+            selectionArgs = new String[]{path};
+        } else {
+            sqlWhere = FILTER_EXPR_PATH_LIKE_XMP_DATE;
+            selectionArgs = new String[]{path, Long.toString(xmpFileDate)};
+        }
+        return ContentProviderOperation.newUpdate(SQL_TABLE_EXTERNAL_CONTENT_URI_FILE)
+                .withSelection(sqlWhere, selectionArgs)
+                .withValues(values)
+                .build();
+    }
+
     /** return how many photos exist that have one or more tags from list */
     public static int getTagRefCount(Context context, List<Tag> tags) {
         QueryParameter query = new QueryParameter()
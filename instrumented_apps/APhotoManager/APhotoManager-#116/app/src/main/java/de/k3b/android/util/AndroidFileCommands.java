@@ -36,6 +36,7 @@ import android.widget.Toast;
 
 import java.io.File;
 import java.util.Date;
+import java.util.List;
 
 import de.k3b.android.androFotoFinder.Global;
 import de.k3b.android.androFotoFinder.LockScreen;
@@ -56,6 +57,7 @@ import de.k3b.io.IDirectory;
 import de.k3b.media.JpgMetaWorkflow;
 import de.k3b.media.MediaUtil;
 import de.k3b.media.MetaWriterExifXml;
+import de.k3b.transactionlog.MediaTransactionLogEntryDto;
 import de.k3b.transactionlog.MediaTransactionLogEntryType;
 import de.k3b.transactionlog.TransactionLoggerBase;
 
@@ -560,5 +562,21 @@ public class AndroidFileCommands extends FileCommands {
             }
         }
     }
-}
 
+    /** writes all entries in one database transaction */
+    @Override
+    protected void addTransactionLogs(List<MediaTransactionLogEntryDto> entries) {
+        if (entries.size() > 1) {
+            SQLiteDatabase db = DatabaseHelper.getWritableDatabase(mContext);
+            db.beginTransaction();
+            try {
+                super.addTransactionLogs(entries);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } else {
+            super.addTransactionLogs(entries);
+        }
+    }
+}
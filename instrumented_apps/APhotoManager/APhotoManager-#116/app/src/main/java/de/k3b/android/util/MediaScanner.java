@@ -20,6 +20,7 @@
 package de.k3b.android.util;
 
 import android.app.Activity;
+import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
@@ -37,6 +38,7 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -49,9 +51,13 @@ import de.k3b.android.androFotoFinder.tagDB.TagSql;
 import de.k3b.database.QueryParameter;
 import de.k3b.geo.api.GeoPointDto;
 import de.k3b.geo.api.IGeoPointInfo;
+import de.k3b.io.DirectoryFingerprintIndex;
+import de.k3b.io.FileCommands;
 import de.k3b.io.FileUtils;
+import de.k3b.io.IProgessListener;
 import de.k3b.io.VISIBILITY;
 import de.k3b.media.IMetaApi;
+import de.k3b.media.LazyMetaApiChainReader;
 import de.k3b.media.MediaUtil;
 import de.k3b.media.MediaXmpSegment;
 import de.k3b.media.MetaApiChainReader;
@@ -69,6 +75,9 @@ import de.k3b.tagDB.TagRepository;
 abstract public class MediaScanner  {
     protected static final String CONTEXT = "MediaScanner.";
 
+    /** max number of media db path updates that are sent in one batch by renameInMediaDatabase */
+    private static final int RENAME_BATCH_SIZE = 100;
+
     /* the DB_XXXX fields are updated by the scanner via ExifInterfaceEx
     protected static final String DB_DATE_TAKEN = MediaStore.Images.Media.DATE_TAKEN;
     protected static final String DB_LONGITUDE = MediaStore.Images.Media.LONGITUDE;
@@ -130,6 +139,40 @@ abstract public class MediaScanner  {
         return FileUtils.isNoMedia(path,MediaScanner.DEFAULT_SCAN_DEPTH);
     }
 
+    /**
+     * Incremental scan: only files that are new or changed since the last scan are returned.
+     * Dirs inside a ".nomedia" dir are never fingerprinted.
+     *
+     * @param progessListener if not null: onProgress(processedCount, fileCount, fullDirPath)
+     * @return absolute paths of the jpg files in dir that must be (re-)scanned.
+     */
+    public static String[] getModifiedMediaFiles(File dir, String fullDirPath, IProgessListener progessListener) {
+        DirectoryFingerprintIndex index = DirectoryFingerprintIndex.getInstance();
+        if (isNoMedia(fullDirPath, 22)) {
+            // forget old fingerprints so that files are scanned again if dir becomes visible again
+            if (index != null) index.remove(fullDirPath);
+            return null;
+        }
+
+        if (index != null) {
+            return index.getModifiedFiles(dir, fullDirPath, MediaUtil.JPG_FILENAME_FILTER, progessListener);
+        }
+
+        // no index: all files
+        String[] childFileNames = dir.list(MediaUtil.JPG_FILENAME_FILTER);
+        if (childFileNames != null) {
+            // #33
+            // convert to absolute paths
+            for (int i = 0; i < childFileNames.length; i++) {
+                childFileNames[i] = fullDirPath + "/" + childFileNames[i];
+            }
+            if (progessListener != null) {
+                progessListener.onProgress(childFileNames.length, childFileNames.length, fullDirPath);
+            }
+        }
+        return childFileNames;
+    }
+
     public static boolean canHideFolderMedia(String absoluteSelectedPath) {
         return !isNoMedia(absoluteSelectedPath);
     }
@@ -153,6 +196,8 @@ abstract public class MediaScanner  {
                     Log.i(Global.LOG_CONTEXT, CONTEXT + " hideFolderMedia: delete from media db " + path + "/**");
                 }
                 result = FotoSql.execDeleteByPath(CONTEXT + " hideFolderMedia", context, path, VISIBILITY.PRIVATE_PUBLIC);
+                DirectoryFingerprintIndex index = DirectoryFingerprintIndex.getInstance();
+                if (index != null) index.remove(FileUtils.tryGetCanonicalPath(new File(path), path));
                 if (result > 0) {
                     MediaScanner.notifyChanges(context, "hide " + path + "/**");
                 }
@@ -183,7 +228,7 @@ abstract public class MediaScanner  {
      *
      * @return number of items left.
      */
-    private int excludeNomediaFiles(String[] fullPathNames) {
+    int excludeNomediaFiles(String[] fullPathNames) {
         int itemsLeft = 0;
         if (fullPathNames != null) {
             // ignore non-jpeg
@@ -215,12 +260,21 @@ abstract public class MediaScanner  {
             for (String fileName : newPathNames) {
                 if (fileName != null) {
                     Long id = inMediaDb.get(fileName);
+                    final int itemCount;
                     if (id != null) {
                         // already exists
-                        modifyCount += update_Android42("MediaScanner.insertIntoMediaDatabase already existing "
+                        itemCount = update_Android42("MediaScanner.insertIntoMediaDatabase already existing "
                                 , context, id, new File(fileName));
                     } else {
-                        modifyCount += insert_Android42("MediaScanner.insertIntoMediaDatabase new item ", context, new File(fileName));
+                        itemCount = insert_Android42("MediaScanner.insertIntoMediaDatabase new item ", context, new File(fileName));
+                    }
+
+                    if (itemCount > 0) {
+                        modifyCount += itemCount;
+                    } else {
+                        // not written: scan again next time even if the file did not change
+                        DirectoryFingerprintIndex index = DirectoryFingerprintIndex.getInstance();
+                        if (index != null) index.invalidate(fileName);
                     }
                 }
             }
@@ -304,9 +358,23 @@ abstract public class MediaScanner  {
                 c = FotoSql.createCursorForQuery("renameInMediaDatabase", context, query, VISIBILITY.PRIVATE_PUBLIC);
                 int pkColNo = c.getColumnIndex(FotoSql.SQL_COL_PK);
                 int pathColNo = c.getColumnIndex(FotoSql.SQL_COL_PATH);
+                ArrayList<ContentProviderOperation> ops = new ArrayList<ContentProviderOperation>();
+                List<Long> ids = new ArrayList<Long>();
+                List<ContentValues> valuesList = new ArrayList<ContentValues>();
                 while (c.moveToNext()) {
                     String oldPath = c.getString(pathColNo);
-                    modifyCount += updatePathRelatedFields(context, c, old2NewFileNames.get(oldPath), pkColNo, pathColNo);
+                    ContentValues values = createPathRelatedValues(c, old2NewFileNames.get(oldPath), pathColNo);
+                    Long id = c.getLong(pkColNo);
+                    ops.add(FotoSql.createInsertOrUpdateOperation(id, values));
+                    ids.add(id);
+                    valuesList.add(values);
+
+                    if (ops.size() >= RENAME_BATCH_SIZE) {
+                        modifyCount += execRenameBatch(context, ops, ids, valuesList);
+                    }
+                }
+                if (ops.size() > 0) {
+                    modifyCount += execRenameBatch(context, ops, ids, valuesList);
                 }
             } catch (Exception ex) {
                 Log.e(Global.LOG_CONTEXT, CONTEXT + "execChangePaths() error :", ex);
@@ -321,6 +389,22 @@ abstract public class MediaScanner  {
         return modifyCount;
     }
 
+    /** updates the path of all items in one batch. falls back to one update per item if the batch fails */
+    private int execRenameBatch(Context context, ArrayList<ContentProviderOperation> ops,
+                                List<Long> ids, List<ContentValues> valuesList) {
+        int modifyCount = FotoSql.execApplyBatch("renameInMediaDatabase", context, ops);
+        if (modifyCount < 0) {
+            modifyCount = 0;
+            for (int i = 0; i < ids.size(); i++) {
+                modifyCount += FotoSql.execUpdate("renameInMediaDatabase", context, ids.get(i), valuesList.get(i));
+            }
+        }
+        ops.clear();
+        ids.clear();
+        valuesList.clear();
+        return modifyCount;
+    }
+
     /** updates values with current values of file */
     public MediaContentValues getExifFromFile(File jpgFile) {
         return getExifFromFile(createDefaultContentValues(), jpgFile);
@@ -337,8 +421,13 @@ abstract public class MediaScanner  {
         int mWidth = options.outWidth;
         String imageType = options.outMimeType;
 
-        MediaXmpSegment xmpContent = MediaXmpSegment.loadXmpSidecarContentOrNull(absoluteJpgPath, "getExifFromFile");
-        final long xmpFilelastModified = getXmpFilelastModified(xmpContent);
+        // prefer exif: the xmp sidecar is only parsed if exif does not contain all fields
+        final boolean preferExif = FotoLibGlobal.mediaUpdateStrategy.contains("J");
+        IMetaApi xmpContent = (preferExif)
+                ? new LazyMetaApiChainReader(LazyMetaApiChainReader.ALL_FIELDS,
+                        LazyMetaApiChainReader.createXmpSidecarSource(absoluteJpgPath, "getExifFromFile"))
+                : MediaXmpSegment.loadXmpSidecarContentOrNull(absoluteJpgPath, "getExifFromFile");
+        final long xmpFilelastModified = getXmpFilelastModified(absoluteJpgPath);
 
         values.put(DB_DATE_MODIFIED, jpgFile.lastModified() / 1000);
         values.put(DB_SIZE, jpgFile.length());
@@ -358,7 +447,7 @@ abstract public class MediaScanner  {
             src = xmpContent;
         } else {
             // (!writeExif) prefer read from xmp value before exif value
-            src = (FotoLibGlobal.mediaUpdateStrategy.contains("J"))
+            src = (preferExif)
                     ? exif
                     : new MetaApiChainReader(xmpContent, exif);
         }
@@ -378,14 +467,18 @@ abstract public class MediaScanner  {
 
     private void updateTagRepository(List<String> tags) {
         TagRepository tagRepository = TagRepository.getInstance();
-        tagRepository.includeTagNamesIfNotFound(tags);
+        // getExifFromFile() may run in parallel (MediaScannerPipeline)
+        synchronized (tagRepository) {
+            tagRepository.includeTagNamesIfNotFound(tags);
+        }
     }
 
-    /** in secs since 1970 */
-    protected static long getXmpFilelastModified(MediaXmpSegment xmpContent) {
+    /** in secs since 1970. the xmp sidecar file is not parsed */
+    protected static long getXmpFilelastModified(String absoluteJpgPath) {
         long xmpFilelastModified = 0;
-        if (xmpContent != null) {
-            xmpFilelastModified = xmpContent.getFilelastModified();
+        FileCommands.XmpFile xmpFile = FileCommands.getExistingSidecarOrNull(absoluteJpgPath);
+        if (xmpFile != null) {
+            xmpFilelastModified = xmpFile.lastModified() / 1000; // File/Date has millisecs
         }
         if (xmpFilelastModified == 0) {
             xmpFilelastModified = TagSql.EXT_LAST_EXT_SCAN_NO_XMP;
@@ -396,16 +489,13 @@ abstract public class MediaScanner  {
 
     protected IGeoPointInfo getPositionFromMeta(String absoluteJpgPath, String id, IMetaApi exif) {
         if (exif != null) {
-            Double latitude = exif.getLatitude();
+            // xmp is only parsed if exif has no gps
+            IMetaApi meta = new LazyMetaApiChainReader(EnumSet.of(MediaUtil.FieldID.latitude_longitude),
+                    LazyMetaApiChainReader.Source.of("exif", exif),
+                    LazyMetaApiChainReader.createXmpSidecarSource(absoluteJpgPath, "getPositionFromFile"));
+            Double latitude = meta.getLatitude();
             if (latitude != null) {
-                return new GeoPointDto(latitude, exif.getLongitude(), GeoPointDto.NO_ZOOM).setId(id);
-            }
-            MediaXmpSegment xmpContent = MediaXmpSegment.loadXmpSidecarContentOrNull(absoluteJpgPath, "getPositionFromFile");
-            if (xmpContent != null) {
-                latitude = xmpContent.getLatitude();
-                if (latitude != null) {
-                    return new GeoPointDto(latitude, xmpContent.getLongitude(), GeoPointDto.NO_ZOOM).setId(id);
-                }
+                return new GeoPointDto(latitude, meta.getLongitude(), GeoPointDto.NO_ZOOM).setId(id);
             }
         }
 
@@ -427,12 +517,17 @@ abstract public class MediaScanner  {
     }
 
     public int updatePathRelatedFields(Context context, Cursor cursor, String newAbsolutePath, int columnIndexPk, int columnIndexPath) {
+        ContentValues values = createPathRelatedValues(cursor, newAbsolutePath, columnIndexPath);
+        int id = cursor.getInt(columnIndexPk);
+        return FotoSql.execUpdate("updatePathRelatedFields", context, id, values);
+    }
+
+    private ContentValues createPathRelatedValues(Cursor cursor, String newAbsolutePath, int columnIndexPath) {
         ContentValues values = new ContentValues();
         DatabaseUtils.cursorRowToContentValues(cursor, values);
         String oldAbsolutePath = cursor.getString(columnIndexPath);
-        int id = cursor.getInt(columnIndexPk);
         setPathRelatedFieldsIfNeccessary(values, newAbsolutePath, oldAbsolutePath);
-        return FotoSql.execUpdate("updatePathRelatedFields", context, id, values);
+        return values;
     }
 
     /** sets the path related fields */
@@ -451,12 +546,31 @@ abstract public class MediaScanner  {
     }
 
     private int update_Android42(String dbgContext, Context context, long id, File file) {
+        ContentValues values = createValuesFromFile(file, false);
+        if (values != null) {
+            return FotoSql.execUpdate(dbgContext, context, id, values);
+        }
+		return 0;
+    }
+
+    /**
+     * Reads the media-db values of file. Does not access the media db so it can be called in
+     * parallel for different files.
+     *
+     * @param isNew true: values are used for an insert.
+     * @return null if file cannot be read.
+     */
+    public ContentValues createValuesFromFile(File file, boolean isNew) {
         if ((file != null) && file.exists() && file.canRead()) {
             ContentValues values = createDefaultContentValues();
+            if (isNew) {
+                FotoSql.addDateAdded(values);
+            }
+
             getExifFromFile(values, file);
-            return FotoSql.execUpdate(dbgContext, context, id, values);
+            return values;
         }
-		return 0;
+        return null;
     }
 
     protected ContentValues createDefaultContentValues() {
@@ -473,11 +587,8 @@ abstract public class MediaScanner  {
     }
 
     private int insert_Android42(String dbgContext, Context context, File file) {
-        if ((file != null) && file.exists() && file.canRead()) {
-            ContentValues values = createDefaultContentValues();
-            FotoSql.addDateAdded(values);
-
-            getExifFromFile(values, file);
+        ContentValues values = createValuesFromFile(file, true);
+        if (values != null) {
             return (null != FotoSql.execInsert(dbgContext, context, values)) ? 1 : 0;
         }
 		return 0;
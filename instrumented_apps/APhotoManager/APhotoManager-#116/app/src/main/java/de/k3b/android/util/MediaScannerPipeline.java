@@ -0,0 +1,262 @@
+/*
+ * Copyright (c) 2018 by k3b.
+ *
+ * This file is part of AndroFotoFinder.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>
+ */
+
+package de.k3b.android.util;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentValues;
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.k3b.android.androFotoFinder.Global;
+import de.k3b.android.androFotoFinder.queries.FotoSql;
+import de.k3b.android.androFotoFinder.tagDB.TagSql;
+import de.k3b.io.DirectoryFingerprintIndex;
+
+/**
+ * Staged media scanner used by {@link RecursiveMediaScannerAsyncTask}:
+ *
+ * - the caller walks the directories and queries the media db once per directory,
+ * - a bounded pool of workers reads the meta data of the files in parallel,
+ * - a single writer commits the results to the media db in batches.
+ *
+ * Created by k3b on 14.03.2018.
+ */
+public class MediaScannerPipeline {
+    private static final String CONTEXT = "MediaScannerPipeline.";
+
+    /** marks the end of the result queue */
+    private static final ScanResult END = new ScanResult(null, null, null);
+
+    private final MediaScanner mScanner;
+    private final Context mContext;
+    private final int mBatchSize;
+
+    private final ThreadPoolExecutor mWorkers;
+    private final BlockingQueue<ScanResult> mResults;
+    private final Thread mWriter;
+
+    private final AtomicInteger mProcessedCount = new AtomicInteger(0);
+
+    /** only written by the writer thread. Valid after {@link #finish()} */
+    private volatile int mModifyCount = 0;
+
+    /** number of files that could not be written. only written by the writer thread. */
+    private volatile int mFailedCount = 0;
+
+    /** meta data of one file that waits for the writer */
+    private static class ScanResult {
+        final String fileName;
+        final Long id;
+        final ContentValues values;
+
+        ScanResult(String fileName, Long id, ContentValues values) {
+            this.fileName = fileName;
+            this.id = id;
+            this.values = values;
+        }
+    }
+
+    public MediaScannerPipeline(MediaScanner scanner, Context context, int threadCount, int batchSize) {
+        mScanner = scanner;
+        mContext = context.getApplicationContext();
+        mBatchSize = Math.max(1, batchSize);
+
+        // bounded queue: if all workers are busy the directory walker reads the next file itself
+        // so that not all files of a huge directory tree are kept in memory.
+        mWorkers = new ThreadPoolExecutor(threadCount, threadCount, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(threadCount * 4),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        mResults = new ArrayBlockingQueue<ScanResult>(mBatchSize * 2);
+
+        mWriter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeResults();
+            }
+        }, CONTEXT + "writer");
+        mWriter.start();
+    }
+
+    /**
+     * Queue the files of one directory for scanning.
+     *
+     * @param fileNames absolute paths. non-jpg or ".nomedia" files are ignored.
+     * @return number of queued files
+     */
+    public int add(String... fileNames) {
+        if (mScanner.excludeNomediaFiles(fileNames) == 0) return 0;
+
+        final Map<String, Long> inMediaDb = FotoSql.execGetPathIdMap(mContext, fileNames);
+        int count = 0;
+        for (final String fileName : fileNames) {
+            if (fileName != null) {
+                final Long id = inMediaDb.get(fileName);
+                mWorkers.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        readMeta(id, fileName);
+                    }
+                });
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /** number of files where the meta data has been read so far */
+    public int getProcessedCount() {
+        return mProcessedCount.get();
+    }
+
+    /**
+     * Waits until all queued files are written to the media db.
+     *
+     * @return number of modified media db items
+     */
+    public int finish() {
+        mWorkers.shutdown();
+        try {
+            mWorkers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            mResults.put(END);
+            mWriter.join();
+        } catch (InterruptedException ex) {
+            Log.w(Global.LOG_CONTEXT, CONTEXT + "finish() interrupted", ex);
+
+            // workers may be blocked in mResults.put() once the writer is gone
+            mWorkers.shutdownNow();
+            mWriter.interrupt();
+            Thread.currentThread().interrupt();
+        }
+
+        if (mFailedCount > 0) {
+            Log.w(Global.LOG_CONTEXT, CONTEXT + "finish(): " + mFailedCount + " files not written");
+        }
+        TagSql.fixPrivate(mContext);
+        return mModifyCount;
+    }
+
+    /** executed by worker thread */
+    private void readMeta(Long id, String fileName) {
+        try {
+            ContentValues values = mScanner.createValuesFromFile(new File(fileName), id == null);
+            if (values != null) {
+                mResults.put(new ScanResult(fileName, id, values));
+            } else {
+                invalidate(fileName);
+            }
+        } catch (InterruptedException ex) {
+            invalidate(fileName);
+            Thread.currentThread().interrupt();
+        } catch (Exception ex) {
+            Log.e(Global.LOG_CONTEXT, CONTEXT + "readMeta(" + fileName + ") error", ex);
+            invalidate(fileName);
+        }
+        mProcessedCount.incrementAndGet();
+    }
+
+    /** executed by writer thread */
+    private void writeResults() {
+        List<ScanResult> batch = new ArrayList<ScanResult>(mBatchSize);
+        int modifyCount = 0;
+        try {
+            ScanResult item = mResults.take();
+            while (item != END) {
+                batch.add(item);
+                if (batch.size() >= mBatchSize) {
+                    modifyCount += commitOrLog(batch);
+                }
+                item = mResults.take();
+            }
+        } catch (InterruptedException ex) {
+            Log.w(Global.LOG_CONTEXT, CONTEXT + "writeResults() interrupted", ex);
+        }
+
+        if (!batch.isEmpty()) {
+            modifyCount += commitOrLog(batch);
+        }
+        mModifyCount = modifyCount;
+    }
+
+    /**
+     * Never throws so that the writer keeps draining mResults. Else workers and
+     * {@link #finish()} would block forever in mResults.put().
+     *
+     * @return number of modified media db items. batch is empty afterwards.
+     */
+    private int commitOrLog(List<ScanResult> batch) {
+        try {
+            return commit(batch);
+        } catch (Throwable ex) {
+            mFailedCount += batch.size();
+            Log.e(Global.LOG_CONTEXT, CONTEXT + "commit(" + batch.size() + " items) error", ex);
+            for (ScanResult item : batch) {
+                invalidate(item.fileName);
+            }
+            return 0;
+        } finally {
+            batch.clear();
+        }
+    }
+
+    private int commit(List<ScanResult> batch) {
+        ArrayList<ContentProviderOperation> ops = new ArrayList<ContentProviderOperation>(batch.size());
+        for (ScanResult item : batch) {
+            ops.add(FotoSql.createInsertOrUpdateOperation(item.id, item.values));
+        }
+
+        int result = FotoSql.execApplyBatch(CONTEXT + "commit", mContext, ops);
+        if (result < 0) {
+            // batch failed as a whole: fall back to one statement per file
+            result = 0;
+            for (ScanResult item : batch) {
+                final boolean success;
+                if (item.id != null) {
+                    // execUpdate returns -1 on error
+                    success = FotoSql.execUpdate(CONTEXT + "commit", mContext, item.id, item.values) > 0;
+                } else {
+                    success = null != FotoSql.execInsert(CONTEXT + "commit", mContext, item.values);
+                }
+                if (success) {
+                    result++;
+                } else {
+                    mFailedCount++;
+                    invalidate(item.fileName);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** file was not written to the media db: scan it again next time even if it did not change */
+    private static void invalidate(String fileName) {
+        DirectoryFingerprintIndex index = DirectoryFingerprintIndex.getInstance();
+        if (index != null) index.invalidate(fileName);
+    }
+}
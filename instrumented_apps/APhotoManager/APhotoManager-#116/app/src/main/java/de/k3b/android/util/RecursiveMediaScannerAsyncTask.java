@@ -25,6 +25,7 @@ import android.content.Context;
 import android.content.DialogInterface;
 import android.os.AsyncTask;
 import android.os.Handler;
+import android.util.Log;
 import android.view.View;
 import android.widget.TextView;
 
@@ -33,8 +34,11 @@ import java.io.FileFilter;
 import java.util.ArrayList;
 import java.util.List;
 
+import de.k3b.android.androFotoFinder.Global;
 import de.k3b.android.androFotoFinder.R;
+import de.k3b.io.DirectoryFingerprintIndex;
 import de.k3b.io.FileUtils;
+import de.k3b.io.IProgessListener;
 import de.k3b.media.MediaUtil;
 
 /**
@@ -45,7 +49,7 @@ import de.k3b.media.MediaUtil;
  *
  * Created by k3b on 22.10.2015.
  */
-public class RecursiveMediaScannerAsyncTask extends MediaScannerAsyncTask {
+public class RecursiveMediaScannerAsyncTask extends MediaScannerAsyncTask implements IProgessListener {
     /** Either
      * - current running scanner instance
      * - or reumable instanc */
@@ -54,6 +58,11 @@ public class RecursiveMediaScannerAsyncTask extends MediaScannerAsyncTask {
     // statistics displayed in the status dialog
     private String mCurrentFolder = "";
     private int mCount = 0;
+    /** number of files that were not scanned because they did not change since last scan */
+    private int mSkippedCount = 0;
+
+    /** if not null: files are scanned in parallel and written to media db in batches */
+    private volatile MediaScannerPipeline mPipeline = null;
 
     private AlertDialog mStatusDialog = null;
     private Handler mTimerHandler = null;
@@ -72,6 +81,10 @@ public class RecursiveMediaScannerAsyncTask extends MediaScannerAsyncTask {
     protected Integer doInBackground(String[]... pathNames) {
         // do not call super.doInBackground here because logic is different
         int resultCount = 0;
+        if (Global.mediaScannerThreads > 1) {
+            mPipeline = new MediaScannerPipeline(mScanner, mContext,
+                    Global.mediaScannerThreads, Global.mediaScannerBatchSize);
+        }
         for (String[] pathArray : pathNames) {
             if (pathArray != null) {
                 for (String pathName : pathArray) {
@@ -81,6 +94,23 @@ public class RecursiveMediaScannerAsyncTask extends MediaScannerAsyncTask {
                 }
             }
         }
+
+        if (mPipeline != null) {
+            // dirs that were queued before cancel/pause are completed.
+            final int modifyCount = mPipeline.finish();
+            this.mCount += modifyCount;
+            resultCount += modifyCount;
+            mPipeline = null;
+        }
+
+        DirectoryFingerprintIndex index = DirectoryFingerprintIndex.getInstance();
+        if (index != null) {
+            if (Global.debugEnabled) {
+                Log.i(Global.LOG_CONTEXT, "RecursiveMediaScannerAsyncTask: " + mCount
+                        + " files scanned, " + mSkippedCount + " unchanged files skipped");
+            }
+            index.save();
+        }
         return resultCount;
     }
 
@@ -90,14 +120,10 @@ public class RecursiveMediaScannerAsyncTask extends MediaScannerAsyncTask {
         if (fullFilePath != null) {
             if (!isCancelled()) {
                 if (file.isDirectory()) {
-                    String[] childFileNames = file.list(MediaUtil.JPG_FILENAME_FILTER);
+                    // only files that are new or changed since last scan
+                    String[] childFileNames = MediaScanner.getModifiedMediaFiles(file, fullFilePath, this);
 
-                    if (childFileNames != null) {
-                        // #33
-                        // convert to absolute paths
-                        for (int i = 0; i < childFileNames.length; i++) {
-                            childFileNames[i] = fullFilePath + "/" + childFileNames[i];
-                        }
+                    if ((childFileNames != null) && (childFileNames.length > 0)) {
                         resultCount += runScanner(fullFilePath, childFileNames);
                     }
 
@@ -140,6 +166,12 @@ public class RecursiveMediaScannerAsyncTask extends MediaScannerAsyncTask {
     /** call the original background scanner and update the statistics */
     private Integer runScanner(String parentPath, String... fileNames) {
         this.mCurrentFolder = parentPath;
+        final MediaScannerPipeline pipeline = mPipeline;
+        if (pipeline != null) {
+            // modify count is returned by pipeline.finish()
+            pipeline.add(fileNames);
+            return 0;
+        }
         final Integer resultCount = super.doInBackground(null, fileNames);
         if (resultCount != null) {
             this.mCount += resultCount.intValue();
@@ -147,6 +179,19 @@ public class RecursiveMediaScannerAsyncTask extends MediaScannerAsyncTask {
         return resultCount;
     }
 
+    /** called by {@link MediaScanner#getModifiedMediaFiles(File, String, IProgessListener)} for every dir */
+    @Override
+    public boolean onProgress(int itemcount, int size, String message) {
+        this.mSkippedCount += size - itemcount;
+        return !isCancelled();
+    }
+
+    /** statistics: number of processed files so far */
+    private int getCount() {
+        final MediaScannerPipeline pipeline = mPipeline;
+        return mCount + ((pipeline != null) ? pipeline.getProcessedCount() : 0);
+    }
+
     @Override protected void onPostExecute(Integer modifyCount) {
         super.onPostExecute(modifyCount);
         if (isCancelled()) {
@@ -227,7 +272,8 @@ public class RecursiveMediaScannerAsyncTask extends MediaScannerAsyncTask {
                 if (mStatusDialog != null) {
                     RecursiveMediaScannerAsyncTask scanner = RecursiveMediaScannerAsyncTask.this;
                     folder.setText(scanner.mCurrentFolder);
-                    count.setText(parent.getString(R.string.image_loading_at_position_format, scanner.mCount));
+                    count.setText(parent.getString(R.string.image_loading_at_position_format, scanner.getCount())
+                            + " " + parent.getString(R.string.scanner_skipped_format, scanner.mSkippedCount));
                     if (scanner.mTimerRunner != null) {
                         mTimerHandler.postDelayed(scanner.mTimerRunner, 500); // e.g. 500 milliseconds
                     }
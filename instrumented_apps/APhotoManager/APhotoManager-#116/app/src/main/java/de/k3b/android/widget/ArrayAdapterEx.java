@@ -480,9 +480,9 @@ public class ArrayAdapterEx<T> extends BaseAdapter implements Filterable {
             } else {
                 String lowerCaseSearchString = prefix.toString().toLowerCase();
 
-                ArrayList<T> values;
+                List<T> values;
                 synchronized (mLock) {
-                    values = new ArrayList<T>(mOriginalValues);
+                    values = getMatchCandidates(lowerCaseSearchString, mOriginalValues);
                 }
 
                 final int count = values.size();
@@ -517,6 +517,12 @@ public class ArrayAdapterEx<T> extends BaseAdapter implements Filterable {
         }
     }
 
+    /** Can be overwrite: return the items that are checked by {@link #match(String, Object)}.
+     * Default implementation: a copy of all items */
+    protected List<T> getMatchCandidates(String lowerCaseSearchString, List<T> allValues) {
+        return new ArrayList<T>(allValues);
+    }
+
     /** Can be overwrite: return true for every item that matches the filter.
      * Default implementation: filters for "startsWith"  with multible words */
     protected boolean match(String lowerCaseSearchString, T value) {
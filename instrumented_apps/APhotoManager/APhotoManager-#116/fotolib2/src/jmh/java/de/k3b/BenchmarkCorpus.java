@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2018 by k3b.
+ *
+ * This file is part of AndroFotoFinder / #APhotoManager.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>
+ */
+
+package de.k3b;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import de.k3b.io.FileCommands;
+import de.k3b.io.FileUtils;
+import de.k3b.media.ExifInterface;
+import de.k3b.media.MediaXmpSegment;
+import de.k3b.tagDB.TagRepository;
+
+/**
+ * Generates the synthetic data used by the jmh benchmarks:
+ * jpg files with exif and xmp sidecar, tag trees, directory trees and csv.
+ *
+ * Same scale and same name gives the same data so that results of different releases can be compared.
+ *
+ * Created by k3b on 20.03.2018.
+ */
+public class BenchmarkCorpus {
+    public static final File OUTDIR_ROOT = new File(System.getProperty("java.io.tmpdir"), "fotolib2-jmh");
+
+    /** number of tags/sub dirs below one parent */
+    private static final int FAN_OUT = 8;
+
+    private static final int IMAGE_WIDTH = 640;
+    private static final int IMAGE_HEIGHT = 480;
+
+    /** creates or reuses scale jpg files with exif and (if withXmp) xmp sidecar. */
+    public static File[] createJpgs(String name, int scale, boolean withXmp) throws IOException {
+        File dir = new File(OUTDIR_ROOT, name + "-" + scale);
+        File[] result = new File[scale];
+        byte[] template = null;
+        dir.mkdirs();
+        for (int i = 0; i < scale; i++) {
+            File jpg = new File(dir, "img" + i + ".jpg");
+            result[i] = jpg;
+            if (!jpg.exists()) {
+                if (template == null) template = createJpgTemplate();
+                createJpg(jpg, template, i);
+                if (withXmp) createXmp(jpg, i);
+            }
+        }
+        return result;
+    }
+
+    /** @return tag repository file with about scale tags. */
+    public static File createTagRepository(String name, int scale) {
+        File file = new File(OUTDIR_ROOT, name + "-" + scale + ".txt");
+        if (!file.exists()) {
+            file.getParentFile().mkdirs();
+            TagRepository repository = new TagRepository(file);
+            for (String path : createPaths(scale)) {
+                repository.includePaths(null, path);
+            }
+            repository.save();
+        }
+        return file;
+    }
+
+    /** @return scale paths of a tree where each node has up to {@link #FAN_OUT} children. */
+    public static List<String> createPaths(int scale) {
+        List<String> result = new ArrayList<String>(scale);
+        for (int i = 0; i < scale; i++) {
+            StringBuilder path = new StringBuilder();
+            int remaining = i;
+            do {
+                path.insert(0, "/n" + (remaining % FAN_OUT));
+                remaining /= FAN_OUT;
+            } while (remaining > 0);
+            result.add(path.insert(0, "/root").toString());
+        }
+        return result;
+    }
+
+    /** @return csv with header and scale lines as written by MediaCsvSaver */
+    public static String createCsv(int scale) {
+        Random random = new Random(scale);
+        StringBuilder result = new StringBuilder();
+        result.append("SourceFile;DateTimeOriginal;GPSLatitude;GPSLongitude;Title;Description;Keywords;Rating\n");
+        for (int i = 0; i < scale; i++) {
+            result.append("/root/img").append(i).append(".jpg;")
+                    .append("2018-03-20T10:").append(10 + (i % 50)).append(":00;")
+                    .append(random.nextInt(180) - 90).append('.').append(random.nextInt(1000000)).append(';')
+                    .append(random.nextInt(360) - 180).append('.').append(random.nextInt(1000000)).append(';')
+                    .append("title ").append(i).append(';')
+                    .append("\"description ").append(i).append(" with ; delimiter\";")
+                    .append("tag").append(i % FAN_OUT).append(",tag").append(i % 31).append(';')
+                    .append(i % 6).append('\n');
+        }
+        return result.toString();
+    }
+
+    private static byte[] createJpgTemplate() throws IOException {
+        BufferedImage image = new BufferedImage(IMAGE_WIDTH, IMAGE_HEIGHT, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        Random random = new Random(0);
+        for (int y = 0; y < IMAGE_HEIGHT; y += 16) {
+            for (int x = 0; x < IMAGE_WIDTH; x += 16) {
+                graphics.setColor(new Color(random.nextInt(0xffffff)));
+                graphics.fillRect(x, y, 16, 16);
+            }
+        }
+        graphics.dispose();
+
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpg", result);
+        return result.toByteArray();
+    }
+
+    private static void createJpg(File jpg, byte[] template, int i) throws IOException {
+        FileOutputStream out = new FileOutputStream(jpg);
+        try {
+            out.write(template);
+        } finally {
+            FileUtils.close(out, jpg);
+        }
+
+        ExifInterface exif = new ExifInterface(jpg.getAbsolutePath());
+        exif.setAttribute(ExifInterface.TAG_DATETIME_ORIGINAL, "2018:03:20 10:" + (10 + (i % 50)) + ":00");
+        exif.setAttribute(ExifInterface.TAG_IMAGE_DESCRIPTION, "description " + i);
+        exif.setAttribute(ExifInterface.TAG_WIN_TITLE, "title " + i);
+        exif.setAttribute(ExifInterface.TAG_WIN_KEYWORDS, "tag" + (i % FAN_OUT) + ";tag" + (i % 31));
+        exif.setAttribute(ExifInterface.TAG_WIN_RATING, "" + (i % 6));
+        exif.setAttribute(ExifInterface.TAG_GPS_LATITUDE_REF, "N");
+        exif.setAttribute(ExifInterface.TAG_GPS_LATITUDE, (i % 90) + "/1,30/1,0/1");
+        exif.setAttribute(ExifInterface.TAG_GPS_LONGITUDE_REF, "E");
+        exif.setAttribute(ExifInterface.TAG_GPS_LONGITUDE, (i % 180) + "/1,15/1,0/1");
+        exif.saveAttributes();
+    }
+
+    private static void createXmp(File jpg, int i) throws IOException {
+        List<String> tags = new ArrayList<String>();
+        tags.add("tag" + (i % FAN_OUT));
+        tags.add("xmp" + (i % 31));
+
+        MediaXmpSegment xmp = new MediaXmpSegment();
+        xmp.setTitle("xmp title " + i);
+        xmp.setDescription("xmp description " + i);
+        xmp.setTags(tags);
+        xmp.setRating(i % 6);
+        xmp.save(FileCommands.getSidecar(jpg, false), false, "BenchmarkCorpus");
+    }
+}
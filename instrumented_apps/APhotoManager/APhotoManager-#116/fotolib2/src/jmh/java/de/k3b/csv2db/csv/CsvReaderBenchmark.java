@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2018 by k3b.
+ *
+ * This file is part of AndroFotoFinder / #APhotoManager.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>
+ */
+
+
+package de.k3b.csv2db.csv;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import de.k3b.BenchmarkCorpus;
+
+/**
+ * Parsing a complete csv file from memory.
+ *
+ * Created by k3b on 20.03.2018.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CsvReaderBenchmark {
+    /** number of csv lines */
+    @Param({"100"})
+    public int scale;
+
+    private String csv;
+
+    @Setup
+    public void setup() {
+        csv = BenchmarkCorpus.createCsv(scale);
+    }
+
+    /** allocates one String[] per record */
+    @Benchmark
+    public int readLine() throws IOException {
+        CsvReader reader = new CsvReader(new StringReader(csv));
+        int fieldCount = 0;
+        String[] line;
+        while ((line = reader.readLine()) != null) {
+            fieldCount += line.length;
+        }
+        reader.close();
+        return fieldCount;
+    }
+
+    /** reuses the record buffer */
+    @Benchmark
+    public int readRecord() throws IOException {
+        CsvReader reader = new CsvReader(new StringReader(csv));
+        int fieldCount = 0;
+        while (reader.readRecord()) {
+            fieldCount += reader.getFieldCount();
+        }
+        reader.close();
+        return fieldCount;
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2018 by k3b.
+ *
+ * This file is part of AndroFotoFinder / #APhotoManager.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>
+ */
+
+
+package de.k3b.io;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import de.k3b.BenchmarkCorpus;
+
+/**
+ * Building a directory tree and finding directories in it.
+ *
+ * Created by k3b on 20.03.2018.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DirectoryBenchmark {
+    /** number of directories */
+    @Param({"100"})
+    public int scale;
+
+    private String[] paths;
+    private IDirectory root;
+    private int next = 0;
+
+    @Setup
+    public void setup() {
+        List<String> pathList = BenchmarkCorpus.createPaths(scale);
+        paths = pathList.toArray(new String[pathList.size()]);
+        root = build();
+    }
+
+    @Benchmark
+    public IDirectory build() {
+        DirectoryBuilder builder = new DirectoryBuilder();
+        for (String path : paths) {
+            builder.add(path, 1, 0);
+        }
+        return builder.getRoot();
+    }
+
+    @Benchmark
+    public IDirectory find() {
+        String path = paths[next];
+        next = (next + 1) % paths.length;
+        return root.find(path);
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2018 by k3b.
+ *
+ * This file is part of AndroFotoFinder / #APhotoManager.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>
+ */
+
+
+package de.k3b.media;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import de.k3b.BenchmarkCorpus;
+
+/**
+ * Reading all meta data of a jpg with exif and xmp sidecar via metadata-extractor.
+ *
+ * Created by k3b on 20.03.2018.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ImageMetaReaderBenchmark {
+    /** number of jpg files in the corpus */
+    @Param({"100"})
+    public int scale;
+
+    private File[] jpgs;
+    private int next = 0;
+
+    @Setup
+    public void setup() throws IOException {
+        jpgs = BenchmarkCorpus.createJpgs("ImageMetaReaderBenchmark", scale, true);
+    }
+
+    @Benchmark
+    public void loadAndReadAll(Blackhole blackhole) throws IOException {
+        File jpg = jpgs[next];
+        next = (next + 1) % jpgs.length;
+
+        ImageMetaReader reader = new ImageMetaReader().load(jpg.getAbsolutePath(), null, null, "jmh");
+        readAll(reader, blackhole);
+        reader.close();
+    }
+
+    /** reads all fields of IMetaApi */
+    static void readAll(IMetaApi item, Blackhole blackhole) {
+        blackhole.consume(item.getPath());
+        blackhole.consume(item.getDateTimeTaken());
+        blackhole.consume(item.getLatitude());
+        blackhole.consume(item.getLongitude());
+        blackhole.consume(item.getTitle());
+        blackhole.consume(item.getDescription());
+        blackhole.consume(item.getTags());
+        blackhole.consume(item.getRating());
+        blackhole.consume(item.getVisibility());
+    }
+}
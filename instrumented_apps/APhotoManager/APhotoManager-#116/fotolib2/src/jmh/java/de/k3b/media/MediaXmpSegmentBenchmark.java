@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2018 by k3b.
+ *
+ * This file is part of AndroFotoFinder / #APhotoManager.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>
+ */
+
+
+package de.k3b.media;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import de.k3b.BenchmarkCorpus;
+import de.k3b.io.FileCommands;
+import de.k3b.io.FileUtils;
+
+/**
+ * Parsing and serializing of xmp sidecar content (without file io).
+ *
+ * Created by k3b on 20.03.2018.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MediaXmpSegmentBenchmark {
+    /** number of xmp files in the corpus */
+    @Param({"100"})
+    public int scale;
+
+    private byte[][] xmpContents;
+    private MediaXmpSegment[] parsed;
+    private int next = 0;
+
+    @Setup
+    public void setup() throws IOException {
+        File[] jpgs = BenchmarkCorpus.createJpgs("MediaXmpSegmentBenchmark", scale, true);
+        xmpContents = new byte[jpgs.length][];
+        parsed = new MediaXmpSegment[jpgs.length];
+        for (int i = 0; i < jpgs.length; i++) {
+            File xmpFile = FileCommands.getSidecar(jpgs[i], false);
+            FileInputStream in = new FileInputStream(xmpFile);
+            try {
+                byte[] content = new byte[(int) xmpFile.length()];
+                int len = 0;
+                while (len < content.length) {
+                    int count = in.read(content, len, content.length - len);
+                    if (count < 0) break;
+                    len += count;
+                }
+                xmpContents[i] = content;
+            } finally {
+                FileUtils.close(in, xmpFile);
+            }
+            parsed[i] = parse(xmpContents[i]);
+        }
+    }
+
+    @Benchmark
+    public MediaXmpSegment parse() {
+        byte[] content = xmpContents[next];
+        next = (next + 1) % xmpContents.length;
+        return parse(content);
+    }
+
+    @Benchmark
+    public byte[] serialize() {
+        MediaXmpSegment xmp = parsed[next];
+        next = (next + 1) % parsed.length;
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        xmp.save(result, false, "jmh");
+        return result.toByteArray();
+    }
+
+    private static MediaXmpSegment parse(byte[] content) {
+        MediaXmpSegment result = new MediaXmpSegment();
+        result.load(new ByteArrayInputStream(content), "jmh");
+        return result;
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2018 by k3b.
+ *
+ * This file is part of AndroFotoFinder / #APhotoManager.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>
+ */
+
+
+package de.k3b.media;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
+
+import de.k3b.BenchmarkCorpus;
+
+/**
+ * Reading all fields through a chain of xmp and exif as done by the media scanner.
+ * For readAll both children are loaded once in setup so that only the chain is measured.
+ *
+ * Created by k3b on 20.03.2018.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MetaApiChainReaderBenchmark {
+    /** number of jpg files in the corpus */
+    @Param({"100"})
+    public int scale;
+
+    private MediaXmpSegment[] xmps;
+    private ExifInterfaceEx[] exifs;
+    private String[] paths;
+    private int next = 0;
+
+    @Setup
+    public void setup() throws IOException {
+        File[] jpgs = BenchmarkCorpus.createJpgs("MetaApiChainReaderBenchmark", scale, true);
+        xmps = new MediaXmpSegment[jpgs.length];
+        exifs = new ExifInterfaceEx[jpgs.length];
+        paths = new String[jpgs.length];
+        for (int i = 0; i < jpgs.length; i++) {
+            String path = jpgs[i].getAbsolutePath();
+            paths[i] = path;
+            xmps[i] = MediaXmpSegment.loadXmpSidecarContentOrNull(path, "jmh");
+            exifs[i] = new ExifInterfaceEx(path, null, xmps[i], "jmh");
+        }
+    }
+
+    @Benchmark
+    public void readAll(Blackhole blackhole) {
+        MetaApiChainReader chain = new MetaApiChainReader(xmps[next], exifs[next]);
+        next = (next + 1) % xmps.length;
+        ImageMetaReaderBenchmark.readAll(chain, blackhole);
+    }
+
+    /** gallery use case: only date and gps. the xmp sidecar is not parsed if exif has both */
+    @Benchmark
+    public void lazyReadDateAndGps(Blackhole blackhole) {
+        final String path = paths[next];
+        next = (next + 1) % paths.length;
+        LazyMetaApiChainReader chain = new LazyMetaApiChainReader(
+                EnumSet.of(MediaUtil.FieldID.dateTimeTaken, MediaUtil.FieldID.latitude_longitude),
+                new LazyMetaApiChainReader.Source("exif") {
+                    @Override
+                    protected IMetaApi open() throws IOException {
+                        return new ExifInterfaceEx(path, null, null, "jmh");
+                    }
+                },
+                LazyMetaApiChainReader.createXmpSidecarSource(path, "jmh"));
+        blackhole.consume(chain.getDateTimeTaken());
+        blackhole.consume(chain.getLatitude());
+        blackhole.consume(chain.getLongitude());
+    }
+}
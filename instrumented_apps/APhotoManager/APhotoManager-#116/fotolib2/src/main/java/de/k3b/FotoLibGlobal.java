@@ -68,4 +68,16 @@ public class FotoLibGlobal {
 
     /** progressbar advances after processing x photos */
     public static final int itemsPerProgress = 10;
+
+    /** max memory (estimated by xmp file size) used to cache parsed xmp sidecar files. 0: no cache */
+    public static long xmpCacheMaxBytes = 1024 * 1024;
+
+    /** max number of photo files that are updated at the same time when a transaction log is replayed. */
+    public static int transactionLogReplayThreads = Runtime.getRuntime().availableProcessors();
+
+    /** max number of files that are copied at the same time by bulk copy/move. 1: no parallel copy */
+    public static int fileCopyThreads = 2;
+
+    /** max number of files that are hashed at the same time when searching duplicate photos */
+    public static int duplicateDigestThreads = 2;
 }
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2018 by k3b.
+ *
+ * This file is part of AndroFotoFinder / #APhotoManager.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>
+ */
+
+package de.k3b.csv2db.csv;
+
+/**
+ * Value of one csv field as a view into the record buffer of {@link CsvReader}.
+ * The content is only valid until the next record is read. Use {@link #toString()}
+ * to keep the value.
+ *
+ * Contains typed decoders that work on {@link CharSequence} without creating a String.
+ *
+ * Created by k3b on 19.03.2018.
+ */
+public class CsvField implements CharSequence {
+    /** all powers of ten that can be represented exactly as double */
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    /** max number of significant digits that can be represented exactly as double */
+    private static final int MAX_EXACT_DIGITS = 15;
+
+    private char[] mBuffer = null;
+    private int mStart = 0;
+    private int mLength = 0;
+
+    CsvField set(char[] buffer, int start, int end) {
+        mBuffer = buffer;
+        mStart = start;
+        mLength = end - start;
+        return this;
+    }
+
+    @Override
+    public int length() {
+        return mLength;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if ((index < 0) || (index >= mLength)) throw new IndexOutOfBoundsException("" + index);
+        return mBuffer[mStart + index];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if ((start < 0) || (end > mLength) || (start > end)) {
+            throw new IndexOutOfBoundsException(start + ".." + end);
+        }
+        return new String(mBuffer, mStart + start, end - start);
+    }
+
+    @Override
+    public String toString() {
+        return new String(mBuffer, mStart, mLength);
+    }
+
+    /** @return true if value has the same chars as other. */
+    public static boolean contentEquals(CharSequence value, String other) {
+        if ((value == null) || (other == null)) return value == other;
+        final int len = value.length();
+        if (len != other.length()) return false;
+        for (int i = 0; i < len; i++) {
+            if (value.charAt(i) != other.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    /** same as {@link Integer#valueOf(String)} but returns null instead of exception if value is empty or invalid. */
+    public static Integer parseInteger(CharSequence value) {
+        final int len = (value != null) ? value.length() : 0;
+        if (len == 0) return null;
+
+        int pos = 0;
+        final char first = value.charAt(0);
+        final boolean negative = (first == '-');
+        if (negative || (first == '+')) pos++;
+        if (pos == len) return null;
+
+        long result = 0;
+        for (; pos < len; pos++) {
+            final int digit = Character.digit(value.charAt(pos), 10);
+            if (digit < 0) return null;
+            result = result * 10 + digit;
+            if (result > -(long) Integer.MIN_VALUE) return null;
+        }
+        if (negative) result = -result;
+        if (result > Integer.MAX_VALUE) return null;
+        return (int) result;
+    }
+
+    /**
+     * Fast path for plain decimal numbers like "-12.345" with the same result as
+     * {@link Double#parseDouble(String)}.
+     *
+     * @return null if value is empty or not a plain decimal number that can be converted exactly.
+     */
+    public static Double parseDecimal(CharSequence value) {
+        final int len = (value != null) ? value.length() : 0;
+        if (len == 0) return null;
+
+        int pos = 0;
+        final boolean negative = (value.charAt(0) == '-');
+        if (negative) pos++;
+
+        long mantissa = 0;
+        int significantDigits = 0;
+        int fractionDigits = -1; // -1: no decimal point yet
+        boolean hasDigit = false;
+        for (; pos < len; pos++) {
+            final char c = value.charAt(pos);
+            if ((c >= '0') && (c <= '9')) {
+                hasDigit = true;
+                if ((significantDigits > 0) || (c != '0')) significantDigits++;
+                if (significantDigits > MAX_EXACT_DIGITS) return null;
+                mantissa = mantissa * 10 + (c - '0');
+                if (fractionDigits >= 0) fractionDigits++;
+            } else if ((c == '.') && (fractionDigits < 0)) {
+                fractionDigits = 0;
+            } else {
+                return null;
+            }
+        }
+
+        if (!hasDigit || (fractionDigits >= POWERS_OF_TEN.length)) return null;
+
+        // mantissa and power of ten are exact: one division is correctly rounded
+        double result = (fractionDigits > 0) ? mantissa / POWERS_OF_TEN[fractionDigits] : mantissa;
+        return negative ? -result : result;
+    }
+}
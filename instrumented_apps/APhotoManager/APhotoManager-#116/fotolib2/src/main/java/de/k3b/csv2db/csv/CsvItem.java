@@ -36,6 +36,13 @@ abstract public class CsvItem {
     /** values of the current csv file line: header.get(i)=mCurrentLineFieldValues[i]  */
     private String[] mCurrentLineFieldValues = null;
 
+    /** not converted values of the current csv record as views into the buffer of {@link CsvReader}.
+     * mCurrentLineFields[i] != null: mCurrentLineFieldValues[i] has not been created yet. */
+    private CharSequence[] mCurrentLineFields = null;
+
+    /** true: mCurrentLineFieldValues was allocated here and can be reused for the next record */
+    private boolean mOwnsFieldValues = false;
+
     /** header.get(i)=mCurrentLineFieldValues[i] */
     protected List<String> header;
 
@@ -52,6 +59,7 @@ abstract public class CsvItem {
                 mCurrentLineFieldValues[i] = null;
             }
         }
+        mCurrentLineFields = null;
     }
 
     public boolean isEmpty() {
@@ -62,12 +70,26 @@ abstract public class CsvItem {
         if (isInvalidIndex(columnNumber)) {
             return null;
         }
+        if ((mCurrentLineFields != null) && (mCurrentLineFields[columnNumber] != null)) {
+            // create String on first access only
+            mCurrentLineFieldValues[columnNumber] = mCurrentLineFields[columnNumber].toString();
+            mCurrentLineFields[columnNumber] = null;
+        }
         return mCurrentLineFieldValues[columnNumber];
     }
 
+    /** @return content of column without creating a String if possible. Only valid until the next record is read. */
+    protected CharSequence getChars(String debugContext, int columnNumber) {
+        if (!isInvalidIndex(columnNumber) && (mCurrentLineFields != null) && (mCurrentLineFields[columnNumber] != null)) {
+            return mCurrentLineFields[columnNumber];
+        }
+        return getString(debugContext, columnNumber);
+    }
+
     protected void setString(Object value, int columnNumber) {
         if (!isInvalidIndex(columnNumber)) {
             mCurrentLineFieldValues[columnNumber] = (value != null) ? value.toString() : null;
+            if (mCurrentLineFields != null) mCurrentLineFields[columnNumber] = null;
         }
     }
 
@@ -76,15 +98,7 @@ abstract public class CsvItem {
     }
 
     protected Integer getInteger(String debugContext, int columnNumber) {
-        String stringValue = getString(debugContext, columnNumber);
-        if ((stringValue != null) && (stringValue.length() > 0)) {
-            try {
-                return Integer.valueOf(stringValue);
-            } catch (NumberFormatException ex) {
-
-            }
-        }
-        return null;
+        return CsvField.parseInteger(getChars(debugContext, columnNumber));
     }
 
     // last wins
@@ -123,6 +137,25 @@ abstract public class CsvItem {
 
     public void setData(String[] line) {
         mCurrentLineFieldValues = line;
+        mCurrentLineFields = null;
+        mOwnsFieldValues = false;
+    }
+
+    /**
+     * Use the current record of reader without converting the fields to String.
+     * Strings are only created for fields that are read via {@link #getString(String, int)}.
+     */
+    public void setData(CsvReader reader) {
+        final int count = reader.getFieldCount();
+        if (!mOwnsFieldValues || (mCurrentLineFields == null) || (mCurrentLineFieldValues.length != count)) {
+            mCurrentLineFieldValues = new String[count];
+            mCurrentLineFields = new CharSequence[count];
+            mOwnsFieldValues = true;
+        }
+        for (int i = 0; i < count; i++) {
+            mCurrentLineFieldValues[i] = null;
+            mCurrentLineFields[i] = reader.getField(i);
+        }
     }
 
     @Override
@@ -130,11 +163,11 @@ abstract public class CsvItem {
         int last = getLastNonEmptyIndex();
         if (last < 0) return null;
         StringBuilder result = new StringBuilder();
-        result.append(quouteIfNecessary(mCurrentLineFieldValues[0]));
+        result.append(quouteIfNecessary(getString(null, 0)));
         for (int i = 1; i <= last; i++) {
             result
                     .append(getFieldDelimiter())
-                    .append(quouteIfNecessary(mCurrentLineFieldValues[i]));
+                    .append(quouteIfNecessary(getString(null, i)));
         }
         return result.toString();
     }
@@ -160,7 +193,8 @@ abstract public class CsvItem {
     protected int getLastNonEmptyIndex() {
         if (mCurrentLineFieldValues != null) {
             for (int i = this.mCurrentLineFieldValues.length - 1; i >= 0; i--) {
-                if (this.mCurrentLineFieldValues[i] != null) return i;
+                if ((this.mCurrentLineFieldValues[i] != null)
+                        || ((this.mCurrentLineFields != null) && (this.mCurrentLineFields[i] != null))) return i;
             }
         }
         return -1;
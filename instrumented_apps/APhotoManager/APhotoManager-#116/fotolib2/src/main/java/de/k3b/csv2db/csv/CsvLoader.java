@@ -29,19 +29,49 @@ import java.util.List;
 /**
  * Loads csv content into tags-db
  *
+ * The records are streamed through one reusable {@link CsvItem} to {@link #onNextItem(CsvItem, int, int)}.
+ * After every {@link #setBatchSize(int)} items {@link #onBatchComplete(int, int)} is called
+ * so that a sink can collect the items and write them in batches.
+ *
  * Created by k3b on 21.09.2015.
  */
 abstract public class CsvLoader<T extends CsvItem> {
     private boolean mNotCanceled = true;
+
+    /** number of items after which {@link #onBatchComplete(int, int)} is called. 0: only at the end */
+    private int mBatchSize = 0;
+
     public void load(Reader reader, T item) {
         CsvItemIterator<T> iter = new CsvItemIterator<T>(reader, item);
+        int pendingCount = 0;
         while (iter.hasNext()) {
-            onNextItem(iter.next(), iter.getLineNumner(), iter.getRecordNumber());
+            T next = iter.next();
+            if (next != null) {
+                onNextItem(next, iter.getLineNumner(), iter.getRecordNumber());
+                pendingCount++;
+                if ((mBatchSize > 0) && (pendingCount >= mBatchSize)) {
+                    onBatchComplete(iter.getLineNumner(), iter.getRecordNumber());
+                    pendingCount = 0;
+                }
+            }
+        }
+        if (pendingCount > 0) {
+            onBatchComplete(iter.getLineNumner(), iter.getRecordNumber());
         }
     }
 
+    /** next is reused for every record: its content is only valid until this method returns. */
     abstract protected void onNextItem(T next, int lineNumber, int recordNumber);
 
+    /** called after batchSize items and after the last item. Override to write collected items. */
+    protected void onBatchComplete(int lineNumber, int recordNumber) {
+    }
+
+    public CsvLoader<T> setBatchSize(int batchSize) {
+        mBatchSize = batchSize;
+        return this;
+    }
+
     public void cancel() {
         mNotCanceled = false;
     }
@@ -67,6 +97,10 @@ abstract public class CsvLoader<T extends CsvItem> {
             return mCsvReader.readLine();
         }
 
+        private boolean readRecord() {
+            return mCsvReader.readRecord();
+        }
+
         @Override
         public boolean hasNext() {
             return ((mNotCanceled) && (mCsvReader != null) && (!isEOF));
@@ -75,13 +109,12 @@ abstract public class CsvLoader<T extends CsvItem> {
         @Override
         public T next() {
             do {
-                String[] line = readLine();
-                mItem.setData(line);
-
-                if (line == null) {
+                if (!readRecord()) {
+                    mItem.setData((String[]) null);
                     isEOF = true;
                     return null;
                 }
+                mItem.setData(mCsvReader);
             } while (mItem.isEmpty());
             return mItem;
         }
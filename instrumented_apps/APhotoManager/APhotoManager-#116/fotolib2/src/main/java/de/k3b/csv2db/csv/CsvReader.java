@@ -22,13 +22,16 @@ package de.k3b.csv2db.csv;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.Reader;
-import java.util.Vector;
 
 /**
  * Raw processing of csv reader
  * That gets lines of csv-columns.
  * Features: Infer column-Delimiter
  * Handle multiline columns if surrounded with ""
+ *
+ * {@link #readRecord()} reads the next record into a reusable buffer and
+ * {@link #getField(int)} returns views into that buffer so that no objects are
+ * allocated per field or record.
  * @author EVE
  *
  */
@@ -39,6 +42,8 @@ public class CsvReader implements Closeable {
 	public static final char FIELDLEN_DELIMITER = ':';
 	private static final char CHAR_IGNORE = '\r';
 
+	private static final int READ_BUFFER_SIZE = 8192;
+
 	private char fieldDelimiter = 0;
 
 	private Reader reader;
@@ -49,6 +54,23 @@ public class CsvReader implements Closeable {
 	// csv recordnumber
 	private int recordNumber = 0;
 
+	/** chars read from reader but not processed yet */
+	private final char[] readBuffer = new char[READ_BUFFER_SIZE];
+	private int readBufferPos = 0;
+	private int readBufferLen = 0;
+
+	/** content of the current record without delimiters. Reused for every record. */
+	private char[] record = new char[256];
+	private int recordLen = 0;
+
+	/** field i of the current record is record[fieldStart[i] .. fieldEnd[i]-1] */
+	private int[] fieldStart = new int[16];
+	private int[] fieldEnd = new int[16];
+	private int fieldCount = 0;
+
+	/** reusable views returned by {@link #getField(int)} */
+	private CsvField[] fields = new CsvField[0];
+
 	public CsvReader(Reader reader) {
 		this.reader = reader;
 	}
@@ -57,42 +79,63 @@ public class CsvReader implements Closeable {
 		if (reader != null) reader.close();
 		reader = null;
 	}
+
+	/**
+	 * @return all fields of the next record as String or null if there is no more record.
+	 * Empty fields are null.
+	 */
 	public String[] readLine() {
-		Vector<String> result = new Vector<String>();
-		StringBuffer content = new StringBuffer();
+		if (!readRecord()) return null;
+
+		String[] result = new String[fieldCount];
+		for (int i = 0; i < fieldCount; i++) {
+			CharSequence field = getField(i);
+			result[i] = (field != null) ? field.toString() : null;
+		}
+		return result;
+	}
+
+	/**
+	 * Reads the next record into the internal buffer.
+	 * @return false if there is no more record.
+	 */
+	public boolean readRecord() {
+		fieldCount = 0;
+		recordLen = 0;
+		int currentFieldStart = 0;
 
 		// != 0: look for matching -"- to allow multiline fields
 		int fieldSurrounder = 0;
-		
+
+		if (reader == null) return false;
 		try {
-			// this.reader = new Reader(getClass().getResourceAsStream("/data.csv"));
 			int ch;
-			while ((ch=this.reader.read()) != -1) // ,0,cbuf.length) > 0)
+			while ((ch=nextChar()) != -1)
 			{
 				if (ch== CsvItem.DEFAULT_CHAR_LINE_DELIMITER) this.lineNumber++;
-				
+
 				if (fieldSurrounder == 0) {
 					if ((fieldDelimiter == 0) && POSSIBLE_DELIMITER_CHARS.indexOf(ch) >= 0) {
 						// fieldDelimiter unknown: infer
  						fieldDelimiter = (char) ch;
 					}
 					if (ch == fieldDelimiter) {
-						result.addElement(getStringWithoutDelimiters(content));
-						content.setLength(0);
+						addField(currentFieldStart);
+						currentFieldStart = recordLen;
 					} else if (ch== CsvItem.DEFAULT_CHAR_LINE_DELIMITER) {
-						result.addElement(getStringWithoutDelimiters(content));
+						addField(currentFieldStart);
 						this.recordNumber++;
-						return toStringArray(result);
+						return true;
 					} else if (ch != CHAR_IGNORE){
-						content.append((char) ch);
+						append((char) ch);
 					}
-					
+
 					if (ch == CsvItem.CHAR_FIELD_SURROUNDER)
 						fieldSurrounder = (char) ch; // start -"- area
 				} else {
 					// waiting for end--"-
 					if (ch != CHAR_IGNORE){
-						content.append((char) ch);
+						append((char) ch);
 						if (ch == fieldSurrounder)
 							fieldSurrounder = 0;
 					}
@@ -101,46 +144,85 @@ public class CsvReader implements Closeable {
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
-		if (content.length() > 0) {
-			result.addElement(getStringWithoutDelimiters(content));			
+		if (recordLen > currentFieldStart) {
+			addField(currentFieldStart);
 		}
-		
-		if (result.isEmpty()) {
-			return null;
+
+		if (fieldCount == 0) {
+			return false;
 		} else {
 			this.recordNumber++;
-			return toStringArray(result);    	
+			return true;
 		}
 	}
 
-	private String[] toStringArray(Vector<String> result) {
-		int len = result.size();
-		if (len == 0) {
-			return null;
-		}
-		
-		String[] array = new String[len];
-		result.copyInto(array);
-		return array;
+	/** @return number of fields of the current record */
+	public int getFieldCount() {
+		return fieldCount;
 	}
 
 	/**
-	 * @param content that may contain starting and ending -"-
-	 * @return string without starting and ending -"-
+	 * @return content of field number index of the current record or null if the field is empty.
+	 * The result is only valid until the next record is read.
 	 */
-	static private String getStringWithoutDelimiters(StringBuffer content)
-    {
-		if (content.length() > 0)
-		{
-			if (content.charAt(0) == CsvItem.CHAR_FIELD_SURROUNDER)
-				content.deleteCharAt(0);
-			if (content.charAt(content.length() -1 ) == CsvItem.CHAR_FIELD_SURROUNDER)
-				content.deleteCharAt(content.length() -1);
-			if (content.length() > 0)
-				return content.toString();
-		} 
-		return null;
-    }
+	public CharSequence getField(int index) {
+		if ((index < 0) || (index >= fieldCount)) return null;
+		final int start = fieldStart[index];
+		final int end = fieldEnd[index];
+		if (start >= end) return null;
+
+		if (index >= fields.length) {
+			CsvField[] newFields = new CsvField[fieldStart.length];
+			System.arraycopy(fields, 0, newFields, 0, fields.length);
+			for (int i = fields.length; i < newFields.length; i++) {
+				newFields[i] = new CsvField();
+			}
+			fields = newFields;
+		}
+		return fields[index].set(record, start, end);
+	}
+
+	private int nextChar() throws IOException {
+		while (readBufferPos >= readBufferLen) {
+			readBufferLen = reader.read(readBuffer, 0, readBuffer.length);
+			readBufferPos = 0;
+			if (readBufferLen < 0) {
+				readBufferLen = 0;
+				return -1;
+			}
+		}
+		return readBuffer[readBufferPos++];
+	}
+
+	private void append(char ch) {
+		if (recordLen >= record.length) {
+			char[] newRecord = new char[record.length * 2];
+			System.arraycopy(record, 0, newRecord, 0, recordLen);
+			record = newRecord;
+		}
+		record[recordLen++] = ch;
+	}
+
+	/** add record[start..recordLen-1] without starting and ending -"- as next field */
+	private void addField(int start) {
+		int end = recordLen;
+		if ((start < end) && (record[start] == CsvItem.CHAR_FIELD_SURROUNDER))
+			start++;
+		if ((start < end) && (record[end - 1] == CsvItem.CHAR_FIELD_SURROUNDER))
+			end--;
+
+		if (fieldCount >= fieldStart.length) {
+			int[] newStart = new int[fieldStart.length * 2];
+			int[] newEnd = new int[fieldStart.length * 2];
+			System.arraycopy(fieldStart, 0, newStart, 0, fieldCount);
+			System.arraycopy(fieldEnd, 0, newEnd, 0, fieldCount);
+			fieldStart = newStart;
+			fieldEnd = newEnd;
+		}
+		fieldStart[fieldCount] = start;
+		fieldEnd[fieldCount] = end;
+		fieldCount++;
+	}
 
 	public int getLineNumner() {
 		return this.lineNumber;
@@ -59,7 +59,10 @@ public class DateUtil {
         Date result = null;
         for (DateFormat formatCandidate : formatCandidates) {
             try {
-                result = formatCandidate.parse(dateString);
+                // DateFormat is not thread safe
+                synchronized (formatCandidate) {
+                    result = formatCandidate.parse(dateString);
+                }
                 if (result != null) break;
             } catch (ParseException e) {
             }
@@ -69,11 +72,15 @@ public class DateUtil {
 
     public static String toIsoDateTimeString(Date date) {
         if (date == null) return null;
-        return IsoDateTimeFormat.format(date);
+        synchronized (IsoDateTimeFormat) {
+            return IsoDateTimeFormat.format(date);
+        }
     }
 
     public static String toIsoDateString(Date date) {
         if (date == null) return null;
-        return IsoDateFormat.format(date);
+        synchronized (IsoDateFormat) {
+            return IsoDateFormat.format(date);
+        }
     }
 }
@@ -21,7 +21,9 @@ package de.k3b.io;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Class to represent a Directory-Structure where a Directory can have several SubDirectories.
@@ -45,6 +47,12 @@ public class Directory implements IDirectory {
     private IDirectory parent = null;
     private List<IDirectory> children = null;
 
+    /** first path segment of child relPath to child so that {@link #find(String)} must not scan
+     * all children. null: must be rebuilt. */
+    private Map<String, IDirectory> childIndex = null;
+    /** size of children when childIndex was built */
+    private int childIndexSize = 0;
+
     private int nonDirItemCount = 0;
     private int nonDirSubItemCount = 0;
     private int dirCount = 0;
@@ -70,6 +78,7 @@ public class Directory implements IDirectory {
             }
             children = null;
         }
+        childIndex = null;
         parent = null;
     }
 
@@ -78,6 +87,12 @@ public class Directory implements IDirectory {
             this.children = new ArrayList<>();
         this.children.add(child);
 
+        if ((childIndex != null) && (childIndexSize + 1 == this.children.size())) {
+            addToChildIndex(childIndex, child);
+            childIndexSize++;
+        } else {
+            childIndex = null;
+        }
     }
 
     /*------------------- simple properties ------------------------*/
@@ -89,6 +104,14 @@ public class Directory implements IDirectory {
 
     public void setRelPath(String relPath) {
         this.relPath = relPath;
+        onRelPathChanged();
+    }
+
+    /** the childIndex of the parent uses relPath as key */
+    private void onRelPathChanged() {
+        if (parent instanceof Directory) {
+            ((Directory) parent).childIndex = null;
+        }
     }
 
     private boolean isApmDir() {
@@ -114,6 +137,7 @@ public class Directory implements IDirectory {
 
     public void setChildren(List<IDirectory> children) {
         this.children = children;
+        this.childIndex = null;
     }
 
     /*------------------- formatting ------------------------*/
@@ -245,17 +269,18 @@ public class Directory implements IDirectory {
         int pathLen = path.length();
         if (pathLen == 0) return parent;
 
-        if (parent.getChildren() != null) {
+        if (parent instanceof Directory) {
+            // siblings never share the same first path segment: one hash lookup instead of a scan
+            IDirectory child = ((Directory) parent).findChildByFirstSegment(getFirstSegment(path));
+            if ((child != null) && startsWithRelPath(path, child)) {
+                path.delete(0, child.getRelPath().length());
+                return find(child, path);
+            }
+        } else if (parent.getChildren() != null) {
             for(IDirectory child : parent.getChildren()) {
-                if (path.indexOf(child.getRelPath()) == 0) {
-                    int childLen = child.getRelPath().length();
-                    if (childLen == pathLen) return child; // found last path element
-                    int end = path.indexOf(PATH_DELIMITER, childLen);
-
-                    if (end == childLen) {
-                        path.delete(0,childLen);
-                        return find(child, path);
-                    }
+                if (startsWithRelPath(path, child)) {
+                    path.delete(0, child.getRelPath().length());
+                    return find(child, path);
                 }
             }
         }
@@ -263,6 +288,50 @@ public class Directory implements IDirectory {
         return null;
     }
 
+    /** @return true if path starts with child.getRelPath() followed by {@link #PATH_DELIMITER} or end of path */
+    private static boolean startsWithRelPath(StringBuilder path, IDirectory child) {
+        final String childRelPath = child.getRelPath();
+        final int childLen = (childRelPath != null) ? childRelPath.length() : 0;
+        final int pathLen = path.length();
+        if ((childLen == 0) || (childLen > pathLen)) return false;
+
+        for (int i = 0; i < childLen; i++) {
+            if (path.charAt(i) != childRelPath.charAt(i)) return false;
+        }
+        return (childLen == pathLen) || (path.charAt(childLen) == PATH_DELIMITER.charAt(0));
+    }
+
+    private static String getFirstSegment(CharSequence relPath) {
+        final String path = relPath.toString();
+        int end = path.indexOf(PATH_DELIMITER);
+        return (end < 0) ? path : path.substring(0, end);
+    }
+
+    /** @return direct child whose relPath starts with firstSegment or null if not found. */
+    protected IDirectory findChildByFirstSegment(String firstSegment) {
+        final List<IDirectory> children = getChildren();
+        if (children == null) return null;
+
+        if ((childIndex == null) || (childIndexSize != children.size())) {
+            Map<String, IDirectory> index = new HashMap<String, IDirectory>(children.size() * 2);
+            for (IDirectory child : children) {
+                addToChildIndex(index, child);
+            }
+            childIndex = index;
+            childIndexSize = children.size();
+        }
+        return childIndex.get(firstSegment);
+    }
+
+    private static void addToChildIndex(Map<String, IDirectory> index, IDirectory child) {
+        final String childRelPath = (child != null) ? child.getRelPath() : null;
+        if (childRelPath != null) {
+            final String key = getFirstSegment(childRelPath);
+            // first wins same as a linear scan
+            if (!index.containsKey(key)) index.put(key, child);
+        }
+    }
+
     @Override
     public int getSelectionIconID() {
         return iconID;
@@ -289,5 +358,6 @@ public class Directory implements IDirectory {
         String relPath = this.getRelPath();
         relPath = relPath.replace(oldFolderName, newFolderName);
         this.relPath = relPath;
+        onRelPathChanged();
     }
 }
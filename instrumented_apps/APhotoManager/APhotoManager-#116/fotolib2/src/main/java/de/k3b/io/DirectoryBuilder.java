@@ -19,7 +19,10 @@
  
 package de.k3b.io;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 
 /**
  * Class to collect Directories and results in a normalized
@@ -30,11 +33,17 @@ import java.util.List;
 public class DirectoryBuilder {
     private Directory root;
 
+    /** lower case absolute path to added directory so that {@link #add(String, int, int)}
+     * must not scan the children of every path segment. */
+    private final Map<String, Directory> pathIndex = new HashMap<String, Directory>();
+
     public DirectoryBuilder() {
         root = null;
     }
 
     public IDirectory getRoot() {
+        // compress() merges directories: the index would be outdated
+        pathIndex.clear();
         if (root != null) {
             List<IDirectory> children = root.getChildren();
             compress(children);
@@ -121,27 +130,24 @@ public class DirectoryBuilder {
     }
 
     private Directory addPath(String[] elements, int level, Directory root, int iconID) {
-
-        if ((elements == null) || (level >= elements.length))
-            return root; // end of recursion
-
-        String serach = elements[level];
-
-        if ((serach == null) || (serach.length() == 0))
-            return addPath(elements, level + 1, root, iconID);
-
-        List<IDirectory> children = root.getChildren();
-        if (children != null) {
-            for (IDirectory _child: children) {
-                Directory child = (Directory) _child;
-                if (serach.compareToIgnoreCase(child.getRelPath()) == 0) {
-                    return addPath(elements, level+1, child, iconID);
+        Directory result = root;
+        if (elements != null) {
+            StringBuilder key = new StringBuilder();
+            for (int i = level; i < elements.length; i++) {
+                String serach = elements[i];
+                if ((serach != null) && (serach.length() > 0)) {
+                    key.append(Directory.PATH_DELIMITER).append(serach.toLowerCase(Locale.ROOT));
+                    final String childKey = key.toString();
+                    Directory child = pathIndex.get(childKey);
+                    if (child == null) {
+                        child = new Directory(serach, result, 0);
+                        child.setIconID(iconID);
+                        pathIndex.put(childKey, child);
+                    }
+                    result = child;
                 }
             }
         }
-
-        Directory result = new Directory(serach, root, 0);
-        result.setIconID(iconID);
-        return addPath(elements, level+1, result, iconID);
+        return result;
     }
 }
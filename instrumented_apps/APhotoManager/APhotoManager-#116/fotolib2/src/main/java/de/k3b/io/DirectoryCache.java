@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2018 by k3b.
+ *
+ * This file is part of AndroFotoFinder / #APhotoManager.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>
+ */
+
+package de.k3b.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Cached content of a {@link Directory} tree: one row (path, nonDirItemCount, iconID) per
+ * directory as returned by the "group by" query the tree is built from.
+ *
+ * Rows can be patched individually and saved to/loaded from a compact file
+ * (sorted paths where each path only stores the suffix that differs from its predecessor)
+ * so that the tree can be re-created without querying all directories again.
+ *
+ * Created by k3b on 18.03.2018.
+ */
+public class DirectoryCache implements IPersistedIndex {
+    private static final int FILE_VERSION = 1;
+
+    /** path to {nonDirItemCount, iconID} sorted by path */
+    private final TreeMap<String, int[]> mRows = new TreeMap<String, int[]>();
+
+    /** identifies the state of the data source this cache was created from. */
+    private String mStamp = null;
+
+    @Override
+    public String getStamp() {
+        return mStamp;
+    }
+
+    @Override
+    public DirectoryCache setStamp(String stamp) {
+        mStamp = stamp;
+        return this;
+    }
+
+    @Override
+    public int size() {
+        return mRows.size();
+    }
+
+    /** insert or update the row of path */
+    public DirectoryCache put(String path, int nonDirItemCount, int iconID) {
+        if (path != null) {
+            mRows.put(path, new int[]{nonDirItemCount, iconID});
+        }
+        return this;
+    }
+
+    /** @return true if path was in the cache */
+    public boolean remove(String path) {
+        return (path != null) && (mRows.remove(path) != null);
+    }
+
+    @Override
+    public DirectoryCache clear() {
+        mRows.clear();
+        return this;
+    }
+
+    /** @return sum of all nonDirItemCount */
+    public int getTotalCount() {
+        int result = 0;
+        for (int[] row : mRows.values()) {
+            result += row[0];
+        }
+        return result;
+    }
+
+    /** @return biggest iconID or 0 if empty */
+    public int getMaxIconID() {
+        int result = 0;
+        for (int[] row : mRows.values()) {
+            if (row[1] > result) result = row[1];
+        }
+        return result;
+    }
+
+    /** @return a new tree including statistics or null if there are no rows. */
+    public IDirectory createRoot() {
+        DirectoryBuilder builder = new DirectoryBuilder();
+        for (Map.Entry<String, int[]> row : mRows.entrySet()) {
+            builder.add(row.getKey(), row.getValue()[0], row.getValue()[1]);
+        }
+        return builder.getRoot();
+    }
+
+    /** Save rows to file via temp file */
+    @Override
+    public void save(File file) throws IOException {
+        File tempFile = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+        try {
+            out.writeInt(FILE_VERSION);
+            out.writeUTF((mStamp == null) ? "" : mStamp);
+            out.writeInt(mRows.size());
+            String previous = "";
+            for (Map.Entry<String, int[]> row : mRows.entrySet()) {
+                final String path = row.getKey();
+                final int common = getCommonPrefixLength(previous, path);
+                out.writeInt(common);
+                out.writeUTF(path.substring(common));
+                out.writeInt(row.getValue()[0]);
+                out.writeInt(row.getValue()[1]);
+                previous = path;
+            }
+        } finally {
+            out.close();
+        }
+
+        if (file.exists()) file.delete();
+        if (!tempFile.renameTo(file)) {
+            throw new IOException("Cannot rename " + tempFile + " to " + file);
+        }
+    }
+
+    /** Replace content with rows from file */
+    @Override
+    public DirectoryCache load(File file) throws IOException {
+        clear();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != FILE_VERSION) {
+                throw new IOException("Unsupported version in " + file);
+            }
+            String stamp = in.readUTF();
+            mStamp = (stamp.length() == 0) ? null : stamp;
+            String previous = "";
+            for (int count = in.readInt(); count > 0; count--) {
+                final int common = in.readInt();
+                if ((common < 0) || (common > previous.length())) {
+                    throw new IOException("Corrupt path in " + file);
+                }
+                final String path = previous.substring(0, common) + in.readUTF();
+                mRows.put(path, new int[]{in.readInt(), in.readInt()});
+                previous = path;
+            }
+        } catch (IOException ex) {
+            clear();
+            mStamp = null;
+            throw ex;
+        } finally {
+            in.close();
+        }
+        return this;
+    }
+
+    private static int getCommonPrefixLength(String lhs, String rhs) {
+        final int max = Math.min(lhs.length(), rhs.length());
+        int result = 0;
+        while ((result < max) && (lhs.charAt(result) == rhs.charAt(result))) {
+            result++;
+        }
+        return result;
+    }
+}
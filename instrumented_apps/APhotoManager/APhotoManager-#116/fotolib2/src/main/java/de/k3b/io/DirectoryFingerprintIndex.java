@@ -0,0 +1,332 @@
+/*
+ * Copyright (c) 2018 by k3b.
+ *
+ * This file is part of AndroFotoFinder / #APhotoManager.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>
+ */
+
+package de.k3b.io;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import de.k3b.FotoLibGlobal;
+
+/**
+ * Persisted fingerprints of scanned directories so that a rescan only has to process
+ * files that are new or where size or modification date has changed.
+ *
+ * A fingerprint consists of the directory modification date, the number of files,
+ * their aggregated size and a hash of the file names plus size/date of every file.
+ *
+ * Created by k3b on 15.03.2018.
+ */
+public class DirectoryFingerprintIndex {
+    // android - log compatible
+    private static final String dbg_context = "DirectoryFingerprintIndex: ";
+    private static final Logger logger = LoggerFactory.getLogger(FotoLibGlobal.LOG_TAG);
+
+    /** Lines starting with char are comments. These lines are not interpreted */
+    public static final String COMMENT = "#";
+    private static final String FIELD_DELIMITER = "\t";
+
+    private static final String[] NO_FILES = new String[0];
+
+    private static DirectoryFingerprintIndex sInstance = null;
+
+    /** Where data is loaded from/saved to */
+    private final File mFile;
+
+    /** dir-path to fingerprint. null: not loaded yet */
+    private Map<String, Fingerprint> mItems = null;
+
+    /** true: there are changes that are not saved yet */
+    private boolean mDirty = false;
+
+    /** size and modification date of one file */
+    private static class FileStamp {
+        final long size;
+        final long lastModified;
+
+        FileStamp(long size, long lastModified) {
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        boolean sameAs(FileStamp other) {
+            return (other != null) && (size == other.size) && (lastModified == other.lastModified);
+        }
+    }
+
+    /** aggregated state of one directory */
+    private static class Fingerprint {
+        long dirLastModified;
+        int count;
+        long totalSize;
+        int hash;
+
+        /** file-name to stamp */
+        final Map<String, FileStamp> files = new HashMap<String, FileStamp>();
+
+        /** (re-)calculate count, totalSize and hash from files */
+        Fingerprint aggregate() {
+            count = files.size();
+            totalSize = 0;
+            hash = 0;
+            for (Map.Entry<String, FileStamp> entry : files.entrySet()) {
+                final FileStamp stamp = entry.getValue();
+                totalSize += stamp.size;
+
+                // order independent so that the result does not depend on File.list() sort order
+                hash += entry.getKey().hashCode() * 31 + (int) (stamp.lastModified ^ (stamp.lastModified >>> 32));
+            }
+            return this;
+        }
+
+        boolean sameAs(Fingerprint other) {
+            return (other != null) && (dirLastModified == other.dirLastModified)
+                    && (count == other.count) && (totalSize == other.totalSize) && (hash == other.hash);
+        }
+
+        @Override
+        public String toString() {
+            return dirLastModified + FIELD_DELIMITER + count + FIELD_DELIMITER + totalSize + FIELD_DELIMITER + hash;
+        }
+    }
+
+    /** Connect index to a {@link File}. */
+    public DirectoryFingerprintIndex(File file) {
+        this.mFile = file;
+    }
+
+    /** null: incremental scan is disabled */
+    public static DirectoryFingerprintIndex getInstance() {
+        return sInstance;
+    }
+
+    public static void setInstance(DirectoryFingerprintIndex instance) {
+        DirectoryFingerprintIndex.sInstance = instance;
+    }
+
+    /**
+     * Compares the current content of dir with the fingerprint of the last call and remembers the
+     * new fingerprint. Returned files that cannot be scanned must be {@link #invalidate(String)}d.
+     *
+     * @param dir where the files are located
+     * @param fullDirPath canonical path of dir used as key and as prefix of the result.
+     * @param filter which files belong to the fingerprint. null: all files.
+     * @param progessListener if not null: onProgress(processedCount, fileCount, fullDirPath)
+     *                        is called with the number of files that must be processed.
+     * @return absolute paths of the files that are new or modified since last call.
+     *          Empty if dir is unchanged.
+     */
+    public synchronized String[] getModifiedFiles(File dir, String fullDirPath, FilenameFilter filter,
+                                                  IProgessListener progessListener) {
+        final Fingerprint current = createFingerprint(dir, filter);
+        final Map<String, Fingerprint> items = load();
+        final Fingerprint last = items.get(fullDirPath);
+
+        String[] result = NO_FILES;
+        if (!current.sameAs(last)) {
+            List<String> modified = new ArrayList<String>();
+            for (Map.Entry<String, FileStamp> entry : current.files.entrySet()) {
+                final String name = entry.getKey();
+                if ((last == null) || !entry.getValue().sameAs(last.files.get(name))) {
+                    modified.add(fullDirPath + "/" + name);
+                }
+            }
+            result = modified.toArray(new String[modified.size()]);
+
+            items.put(fullDirPath, current);
+            mDirty = true;
+        }
+
+        if (progessListener != null) {
+            progessListener.onProgress(result.length, current.count, fullDirPath);
+        }
+
+        if (FotoLibGlobal.debugEnabled) {
+            logger.debug(dbg_context + "getModifiedFiles(" + fullDirPath + "): " + result.length
+                    + " of " + current.count);
+        }
+        return result;
+    }
+
+    /**
+     * Forget fingerprint of dirPath and all its sub dirs so that the next scan processes all files.
+     *
+     * @return number of removed fingerprints
+     */
+    public synchronized int remove(String dirPath) {
+        int changes = 0;
+        if (dirPath != null) {
+            final String subDirPrefix = dirPath + "/";
+            Iterator<String> iter = load().keySet().iterator();
+            while (iter.hasNext()) {
+                final String key = iter.next();
+                if (key.equals(dirPath) || key.startsWith(subDirPrefix)) {
+                    iter.remove();
+                    changes++;
+                }
+            }
+        }
+
+        if (changes > 0) mDirty = true;
+        return changes;
+    }
+
+    /**
+     * Forget the stamp of one file that was returned by {@link #getModifiedFiles(File, String, FilenameFilter, IProgessListener)}
+     * but could not be scanned, so that the next scan processes it again.
+     *
+     * @param fullFilePath canonical path of the file.
+     * @return true if the stamp was removed
+     */
+    public synchronized boolean invalidate(String fullFilePath) {
+        final int delimiter = (fullFilePath == null) ? -1 : fullFilePath.lastIndexOf('/');
+        if (delimiter > 0) {
+            final Fingerprint fingerprint = load().get(fullFilePath.substring(0, delimiter));
+            if ((fingerprint != null) && (fingerprint.files.remove(fullFilePath.substring(delimiter + 1)) != null)) {
+                fingerprint.aggregate();
+                mDirty = true;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Fingerprint createFingerprint(File dir, FilenameFilter filter) {
+        Fingerprint result = new Fingerprint();
+        result.dirLastModified = dir.lastModified();
+
+        String[] fileNames = dir.list(filter);
+        if (fileNames != null) {
+            for (String fileName : fileNames) {
+                File file = new File(dir, fileName);
+                if (file.isFile()) {
+                    result.files.put(fileName, new FileStamp(file.length(), file.lastModified()));
+                }
+            }
+        }
+        return result.aggregate();
+    }
+
+    /** Load from index-file to memory if not loaded yet. */
+    protected Map<String, Fingerprint> load() {
+        if (mItems == null) {
+            mItems = new HashMap<String, Fingerprint>();
+            if ((mFile != null) && mFile.exists()) {
+                try {
+                    load(mItems, new FileReader(mFile));
+                } catch (IOException e) {
+                    logger.warn(dbg_context + "load(): cannot read " + mFile, e);
+                    mItems.clear();
+                }
+            }
+            mDirty = false;
+            logger.debug(dbg_context + "load(): " + mItems.size() + " items from " + mFile);
+        }
+        return mItems;
+    }
+
+    /** Save changes to index-file via temp file so that an interrupted save does not corrupt the index. */
+    public synchronized DirectoryFingerprintIndex save() {
+        if (mDirty && (mItems != null) && (mFile != null)) {
+            File tempFile = new File(mFile.getPath() + ".tmp");
+            try {
+                File parent = mFile.getParentFile();
+                if ((parent != null) && !parent.exists()) {
+                    parent.mkdirs();
+                }
+
+                save(mItems, new FileWriter(tempFile, false));
+                if (mFile.exists()) mFile.delete();
+                if (tempFile.renameTo(mFile)) {
+                    mDirty = false;
+                    logger.debug(dbg_context + "save(): " + mItems.size() + " items to " + mFile);
+                }
+            } catch (IOException e) {
+                logger.warn(dbg_context + "save(): cannot write " + mFile, e);
+            }
+        }
+        return this;
+    }
+
+    /** Load fingerprints from reader: a dir line is followed by its tab-indented file lines */
+    protected void load(Map<String, Fingerprint> result, Reader reader) throws IOException {
+        BufferedReader br = new BufferedReader(reader);
+        String line;
+        Fingerprint current = null;
+        try {
+            while ((line = br.readLine()) != null) {
+                if ((line.length() == 0) || line.startsWith(COMMENT)) continue;
+
+                String[] fields = line.split(FIELD_DELIMITER);
+                if (line.startsWith(FIELD_DELIMITER)) {
+                    // "\tname\tsize\tlastModified"
+                    if ((current != null) && (fields.length >= 4)) {
+                        current.files.put(fields[1], new FileStamp(
+                                Long.parseLong(fields[2]), Long.parseLong(fields[3])));
+                    }
+                } else if (fields.length >= 2) {
+                    // "dirPath\tdirLastModified..." count/size/hash are recalculated from files
+                    current = new Fingerprint();
+                    current.dirLastModified = Long.parseLong(fields[1]);
+                    result.put(fields[0], current);
+                }
+            }
+        } catch (NumberFormatException ex) {
+            throw new IOException(dbg_context + "invalid content", ex);
+        } finally {
+            br.close();
+        }
+
+        for (Fingerprint fingerprint : result.values()) {
+            fingerprint.aggregate();
+        }
+    }
+
+    /** Save fingerprints to writer */
+    protected void save(Map<String, Fingerprint> source, Writer writer) throws IOException {
+        try {
+            writer.write(COMMENT + " dir\tdirLastModified\tcount\tsize\thash / \tfile\tsize\tlastModified\n");
+            for (Map.Entry<String, Fingerprint> dir : source.entrySet()) {
+                final Fingerprint fingerprint = dir.getValue();
+                writer.write(dir.getKey() + FIELD_DELIMITER + fingerprint + "\n");
+                for (Map.Entry<String, FileStamp> file : fingerprint.files.entrySet()) {
+                    final FileStamp stamp = file.getValue();
+                    writer.write(FIELD_DELIMITER + file.getKey() + FIELD_DELIMITER + stamp.size
+                            + FIELD_DELIMITER + stamp.lastModified + "\n");
+                }
+            }
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,378 @@
+/*
+ * Copyright (c) 2018 by k3b.
+ *
+ * This file is part of AndroFotoFinder / #APhotoManager.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>
+ */
+
+package de.k3b.io;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+import de.k3b.FotoLibGlobal;
+
+/**
+ * Finds files with the same content even if they have different names or folders.
+ *
+ * * files are grouped by size. Files with a unique size cannot have duplicates.
+ * * size collisions are grouped by a cheap hash of the first and last bytes.
+ * * only remaining collisions get a full digest, computed in parallel.
+ *
+ * Hashes are kept in a persistent index keyed by path+size+modification date
+ * so that later runs only have to hash new or modified files.
+ * Entries of files that are not candidates any more (i.e. deleted or renamed) are removed from the index.
+ *
+ * Created by k3b on 20.03.2018.
+ */
+public class DuplicateFinder {
+    private static final Logger logger = LoggerFactory.getLogger(FotoLibGlobal.LOG_TAG);
+
+    private static final int FILE_VERSION = 1;
+
+    /** number of bytes at the beginning and the end of the file used for the sample hash */
+    private static final int SAMPLE_SIZE = 4096;
+    private static final String DIGEST_ALGORITHM = "SHA-1";
+
+    /** hashes of one file */
+    private static class Entry {
+        final long size;
+        final long lastModified;
+
+        /** crc of head and tail. valid if hasSample */
+        long sample;
+        boolean hasSample = false;
+
+        /** full content digest or null if not calculated yet */
+        byte[] digest = null;
+
+        Entry(long size, long lastModified) {
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+    }
+
+    private final File indexFile;
+
+    /** absolute path => hashes. access only from the thread that calls findDuplicates */
+    private final Map<String, Entry> index = new HashMap<String, Entry>();
+    private boolean indexLoaded = false;
+    private boolean indexModified = false;
+
+    private int sampleCount = 0;
+    private int digestCount = 0;
+
+    /** @param indexFile where hashes are persisted. null: no persistence */
+    public DuplicateFinder(File indexFile) {
+        this.indexFile = indexFile;
+    }
+
+    /**
+     * @param files all candidates. files that do not exist are ignored.
+     *              index entries of files that are not in this list are removed.
+     * @param progessListener if not null: informed about progress. may cancel.
+     * @return groups of files with identical content. every group has at least 2 files.
+     */
+    public List<List<File>> findDuplicates(List<File> files, IProgessListener progessListener) {
+        loadIndex();
+        List<List<File>> result = new ArrayList<List<File>>();
+
+        // 1. same size
+        Map<Long, List<File>> bySize = new HashMap<Long, List<File>>();
+        Map<File, Entry> entries = new HashMap<File, Entry>();
+        Set<String> seenPaths = new HashSet<String>();
+        for (File file : files) {
+            if ((file != null) && file.isFile()) {
+                String path = file.getAbsolutePath();
+                seenPaths.add(path);
+                Entry entry = getEntry(file, path);
+                entries.put(file, entry);
+                add(bySize, entry.size, file);
+            }
+        }
+        if (index.keySet().retainAll(seenPaths)) {
+            // entries of deleted or renamed files
+            indexModified = true;
+        }
+
+        // 2. same head and tail
+        List<List<File>> candidates = new ArrayList<List<File>>();
+        int done = 0;
+        for (List<File> sameSize : bySize.values()) {
+            if (sameSize.size() > 1) {
+                Map<Long, List<File>> bySample = new HashMap<Long, List<File>>();
+                for (File file : sameSize) {
+                    Entry entry = entries.get(file);
+                    if (!entry.hasSample) {
+                        try {
+                            entry.sample = calculateSample(file, entry.size);
+                            entry.hasSample = true;
+                            indexModified = true;
+                            sampleCount++;
+                        } catch (IOException ex) {
+                            logger.warn("DuplicateFinder: cannot read " + file + ": " + ex.getMessage());
+                            continue;
+                        }
+                    }
+                    add(bySample, entry.sample, file);
+                }
+                for (List<File> sameSample : bySample.values()) {
+                    if (sameSample.size() > 1) candidates.add(sameSample);
+                }
+            }
+            done += sameSize.size();
+            if ((progessListener != null) && !progessListener.onProgress(done, files.size(), null)) {
+                // keep the samples calculated so far for the next run
+                saveIndex();
+                return result;
+            }
+        }
+
+        // 3. same full digest
+        calculateDigests(candidates, entries);
+        for (List<File> sameSample : candidates) {
+            Map<String, List<File>> byDigest = new LinkedHashMap<String, List<File>>();
+            for (File file : sameSample) {
+                byte[] digest = entries.get(file).digest;
+                if (digest != null) add(byDigest, toHex(digest), file);
+            }
+            for (List<File> sameDigest : byDigest.values()) {
+                if (sameDigest.size() > 1) result.add(sameDigest);
+            }
+        }
+
+        saveIndex();
+        return result;
+    }
+
+    /** calculates the missing digests of the candidates on a pool of {@link FotoLibGlobal#duplicateDigestThreads} */
+    private void calculateDigests(List<List<File>> candidates, Map<File, Entry> entries) {
+        final List<File> missing = new ArrayList<File>();
+        for (List<File> sameSample : candidates) {
+            for (File file : sameSample) {
+                if (entries.get(file).digest == null) missing.add(file);
+            }
+        }
+        if (missing.isEmpty()) return;
+
+        int threads = Math.max(1, Math.min(FotoLibGlobal.duplicateDigestThreads, missing.size()));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<byte[]>> futures = new ArrayList<Future<byte[]>>(missing.size());
+            for (final File file : missing) {
+                futures.add(executor.submit(new Callable<byte[]>() {
+                    @Override
+                    public byte[] call() throws Exception {
+                        return calculateDigest(file);
+                    }
+                }));
+            }
+            for (int i = 0; i < missing.size(); i++) {
+                File file = missing.get(i);
+                try {
+                    entries.get(file).digest = futures.get(i).get();
+                    indexModified = true;
+                    digestCount++;
+                } catch (ExecutionException ex) {
+                    logger.warn("DuplicateFinder: cannot hash " + file + ": " + ex.getCause());
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /** @return cached entry if file is unchanged else a new empty entry */
+    private Entry getEntry(File file, String path) {
+        long size = file.length();
+        long lastModified = file.lastModified();
+        Entry entry = index.get(path);
+        if ((entry == null) || (entry.size != size) || (entry.lastModified != lastModified)) {
+            entry = new Entry(size, lastModified);
+            index.put(path, entry);
+        }
+        return entry;
+    }
+
+    private static long calculateSample(File file, long size) throws IOException {
+        CRC32 crc = new CRC32();
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            byte[] buffer = new byte[(int) Math.min(SAMPLE_SIZE, size)];
+            in.readFully(buffer);
+            crc.update(buffer);
+            if (size > SAMPLE_SIZE) {
+                buffer = new byte[(int) Math.min(SAMPLE_SIZE, size - SAMPLE_SIZE)];
+                in.seek(size - buffer.length);
+                in.readFully(buffer);
+                crc.update(buffer);
+            }
+        } finally {
+            FileUtils.close(in, file);
+        }
+        return crc.getValue();
+    }
+
+    private static byte[] calculateDigest(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IOException(ex.getMessage());
+        }
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[64 * 1024];
+            int count;
+            while ((count = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, count);
+            }
+        } finally {
+            FileUtils.close(in, file);
+        }
+        return digest.digest();
+    }
+
+    private static <K> void add(Map<K, List<File>> map, K key, File file) {
+        List<File> list = map.get(key);
+        if (list == null) {
+            list = new ArrayList<File>();
+            map.put(key, list);
+        }
+        list.add(file);
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder result = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            result.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return result.toString();
+    }
+
+    /** number of sample hashes calculated (not taken from index) */
+    public int getSampleCount() {
+        return sampleCount;
+    }
+
+    /** number of full digests calculated (not taken from index) */
+    public int getDigestCount() {
+        return digestCount;
+    }
+
+    private void loadIndex() {
+        if (indexLoaded) return;
+        indexLoaded = true;
+        if ((indexFile == null) || !indexFile.isFile()) return;
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+            if (in.readInt() != FILE_VERSION) return;
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                Entry entry = new Entry(in.readLong(), in.readLong());
+                entry.hasSample = in.readBoolean();
+                entry.sample = in.readLong();
+                int digestLength = in.readShort();
+                if (digestLength > 0) {
+                    entry.digest = new byte[digestLength];
+                    in.readFully(entry.digest);
+                }
+                index.put(path, entry);
+            }
+        } catch (IOException ex) {
+            // corrupt index: start from scratch
+            logger.warn("DuplicateFinder: cannot load " + indexFile + ": " + ex.getMessage());
+            index.clear();
+        } finally {
+            FileUtils.close(in, indexFile);
+        }
+    }
+
+    /** only entries with hashes are saved. written to a temp file first so that a crash cannot corrupt the index */
+    private void saveIndex() {
+        if ((indexFile == null) || !indexModified) return;
+
+        List<Map.Entry<String, Entry>> hashed = new ArrayList<Map.Entry<String, Entry>>();
+        for (Map.Entry<String, Entry> item : index.entrySet()) {
+            if (item.getValue().hasSample || (item.getValue().digest != null)) hashed.add(item);
+        }
+
+        File tempFile = new File(indexFile.getAbsolutePath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            File parent = indexFile.getParentFile();
+            if (parent != null) parent.mkdirs();
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            out.writeInt(FILE_VERSION);
+            out.writeInt(hashed.size());
+            for (Map.Entry<String, Entry> item : hashed) {
+                Entry entry = item.getValue();
+                out.writeUTF(item.getKey());
+                out.writeLong(entry.size);
+                out.writeLong(entry.lastModified);
+                out.writeBoolean(entry.hasSample);
+                out.writeLong(entry.sample);
+                out.writeShort((entry.digest == null) ? 0 : entry.digest.length);
+                if (entry.digest != null) out.write(entry.digest);
+            }
+            out.close();
+            out = null;
+            if (indexFile.exists()) indexFile.delete();
+            if (tempFile.renameTo(indexFile)) indexModified = false;
+        } catch (IOException ex) {
+            logger.warn("DuplicateFinder: cannot save " + indexFile + ": " + ex.getMessage());
+        } finally {
+            FileUtils.close(out, tempFile);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "DuplicateFinder(" + indexFile + ": " + index.size() + " files, samples=" + sampleCount
+                + ", digests=" + digestCount + ")";
+    }
+}
@@ -22,14 +22,24 @@ package de.k3b.io;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import de.k3b.FotoLibGlobal;
 import de.k3b.io.collections.DestDirFileNameProcessor;
@@ -38,8 +48,11 @@ import de.k3b.media.IMetaApi;
 import de.k3b.media.JpgMetaWorkflow;
 import de.k3b.media.MediaDiffCopy;
 import de.k3b.media.MetaWriterExifXml;
+import de.k3b.media.XmpSidecarCache;
+import de.k3b.transactionlog.IMediaTransactionLogEntry;
 import de.k3b.transactionlog.MediaTransactionLogEntryDto;
 import de.k3b.transactionlog.MediaTransactionLogEntryType;
+import de.k3b.transactionlog.TransactionLogReplayer;
 import de.k3b.transactionlog.TransactionLoggerBase;
 
 /**
@@ -60,6 +73,9 @@ public class FileCommands extends FileProcessor implements  Cloneable, IProgessL
     public static final int OP_RENAME = 4;
     public static final int OP_UPDATE = 5;
 
+    /** max bytes per FileChannel.transferTo call */
+    private static final long COPY_CHUNK_SIZE = 8 * 1024 * 1024;
+
     protected ArrayList<String> mModifiedDestFiles;
     protected ArrayList<String> mModifiedSrcFiles;
 
@@ -168,6 +184,16 @@ public class FileCommands extends FileProcessor implements  Cloneable, IProgessL
         return moveOrCopyFiles(move, "change_exif", exifChanges, selectedFiles, destFiles, progessListener);
     }
 
+    /**
+     * Writes the meta data changes of a TransactionLog into the photo files with one write per file.
+     * Deletes are written to fileUpdateBatch. The replayed changes are not logged again.
+     * @return number of changed files.
+     */
+    public int replayTransactionLog(Iterator<IMediaTransactionLogEntry> transactions, BufferedWriter fileUpdateBatch) throws IOException {
+        return new TransactionLogReplayer(createWorkflow(null, "replayTransactionLog"))
+                .replay(transactions, fileUpdateBatch);
+    }
+
     /**
      * move (or copy) sourcefiles (with their xmp-sidecar-files) to destdirfolder.
      * Executes autoprocessing (#93: rename, add exif) if destdirfolder
@@ -276,6 +302,8 @@ public class FileCommands extends FileProcessor implements  Cloneable, IProgessL
                 MediaTransactionLogEntryType moveOrCopyCommand = (move) ? MediaTransactionLogEntryType.MOVE : MediaTransactionLogEntryType.COPY;
                 TransactionLoggerBase logger = (exifChanges == null) ? null : new TransactionLoggerBase(this, now);
                 boolean sameFile;
+                List<MoveOrCopyJob> jobs = new ArrayList<MoveOrCopyJob>();
+                mPlannedDestFiles = new HashSet<String>();
 
                 while (pos < fileCount) {
                     File sourceFile = FileUtils.tryGetCanonicalFile(sourceFiles[pos]);
@@ -303,22 +331,9 @@ public class FileCommands extends FileProcessor implements  Cloneable, IProgessL
                     if ((sourcePath != null) && (destPath != null)) {
 
                         if (exifChanges == null) {
-                            // old style move/copy image with sidecarfile(s)
-                            if (osFileMoveOrCopy(move, destRenamed, sourceFile)) itemCount++;
-
-
-                            File sourceSidecar = getSidecar(sourceFile, false);
-                            if (osFileExists(sourceSidecar)) {
-                                File destSidecar = getSidecar(destRenamed, false);
-                                if (osFileMoveOrCopy(move, destSidecar, sourceSidecar)) itemCount++;
-                            }
-
-                            sourceSidecar = getSidecar(sourceFile, true);
-                            if (osFileExists(sourceSidecar)) {
-                                File destSidecar = getSidecar(destRenamed, true);
-                                if (osFileMoveOrCopy(move, destSidecar, sourceSidecar)) itemCount++;
-                            }
-                            addTransactionLog(id, sourceFile.getPath(), now, moveOrCopyCommand, destFile.getPath());
+                            // old style move/copy image with sidecarfile(s):
+                            // only planned here. executed after the loop
+                            jobs.add(planMoveOrCopy(id, sourceFile, destRenamed, destFile));
                         } else { // else move/copy with simultanious exif changes
                             MediaDiffCopy mediaDiffCopy = exifChanges;
                             // new style move/copy image with sidecarfile(s) with exif autoprocessing
@@ -347,6 +362,10 @@ public class FileCommands extends FileProcessor implements  Cloneable, IProgessL
                     }
                     pos++;
                 } // foreach selected file
+
+                if (!jobs.isEmpty()) {
+                    itemCount += execMoveOrCopy(move, jobs, now, moveOrCopyCommand, itemsPerProgress);
+                }
                 int modifyCount = mModifiedDestFiles.size();
 
                 String[] modifiedSourceFiles = ((mModifiedSrcFiles != null) && (mModifiedSrcFiles.size() > 0)) ? mModifiedSrcFiles.toArray(new String[modifyCount]) : null;
@@ -366,6 +385,7 @@ public class FileCommands extends FileProcessor implements  Cloneable, IProgessL
                     exifChanges.fixTagRepository();
                     exifChanges.close();
                 }
+                mPlannedDestFiles = null;
                 closeLogFile();
                 this.progessListener = progessListenerOld;
             }
@@ -373,6 +393,159 @@ public class FileCommands extends FileProcessor implements  Cloneable, IProgessL
         return itemCount;
     }
 
+    /** one photo with its sidecar files that is moved or copied as a unit */
+    private static class MoveOrCopyJob {
+        final Long id;
+        final File source;
+        final File dest;
+        /** dest as requested before renameDuplicate. used for the transaction log */
+        final File logDest;
+        /** source-dest pairs of existing sidecar files */
+        final List<File[]> sidecars = new ArrayList<File[]>();
+        /** true: move within the same volume that is a cheap rename */
+        boolean rename = false;
+        /** set by the copy worker thread */
+        volatile boolean executed = false;
+
+        MoveOrCopyJob(Long id, File source, File dest, File logDest) {
+            this.id = id;
+            this.source = source;
+            this.dest = dest;
+            this.logDest = logDest;
+        }
+    }
+
+    /** collects photo+sidecars and reserves the dest names so that following duplicates get renamed */
+    private MoveOrCopyJob planMoveOrCopy(Long id, File sourceFile, File destRenamed, File destFile) {
+        MoveOrCopyJob job = new MoveOrCopyJob(id, sourceFile, destRenamed, destFile);
+        mPlannedDestFiles.add(destRenamed.getAbsolutePath());
+        for (boolean longFormat : new boolean[]{false, true}) {
+            File sourceSidecar = getSidecar(sourceFile, longFormat);
+            File destSidecar = getSidecar(destRenamed, longFormat);
+            mPlannedDestFiles.add(destSidecar.getAbsolutePath());
+            if (osFileExists(sourceSidecar)) {
+                job.sidecars.add(new File[]{sourceSidecar, destSidecar});
+            }
+        }
+        return job;
+    }
+
+    /**
+     * Executes the planned jobs: renames within the same volume are done immediately.
+     * Copies (and moves to a different volume) are done by a pool of
+     * {@link FotoLibGlobal#fileCopyThreads} workers.
+     * The transaction log is written in one batch at the end.
+     *
+     * @return number of moved/copied files including sidecars
+     */
+    private int execMoveOrCopy(final boolean move, List<MoveOrCopyJob> jobs, long now,
+                               MediaTransactionLogEntryType moveOrCopyCommand, int itemsPerProgress) {
+        int itemCount = 0;
+        int done = 0;
+        int countdown = 0;
+        final int maxCount = jobs.size();
+        List<MoveOrCopyJob> copyJobs = new ArrayList<MoveOrCopyJob>();
+        for (MoveOrCopyJob job : jobs) {
+            job.rename = move && osIsSameVolume(job.dest, job.source);
+            if (!job.rename) copyJobs.add(job);
+        }
+
+        final int threadCount = Math.min(FotoLibGlobal.fileCopyThreads, copyJobs.size());
+        ExecutorService executor = (threadCount > 1) ? Executors.newFixedThreadPool(threadCount) : null;
+        final AtomicBoolean cancelled = new AtomicBoolean(false);
+        final List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+        int resultPos = 0;
+        try {
+            if (executor != null) {
+                for (final MoveOrCopyJob job : copyJobs) {
+                    results.add(executor.submit(new Callable<Integer>() {
+                        @Override
+                        public Integer call() throws Exception {
+                            return (cancelled.get()) ? 0 : execMoveOrCopy(move, job);
+                        }
+                    }));
+                }
+            }
+
+            for (MoveOrCopyJob job : jobs) {
+                countdown--;
+                if (countdown <= 0) {
+                    countdown = itemsPerProgress;
+                    if (!onProgress(done, maxCount, job.source.toString())) {
+                        cancelled.set(true);
+                        break;
+                    }
+                }
+
+                if ((executor == null) || job.rename) {
+                    itemCount += execMoveOrCopy(move, job);
+                } else {
+                    itemCount += waitFor(results.get(resultPos++), job);
+                }
+                done++;
+            }
+        } finally {
+            if (executor != null) {
+                // jobs that have not started yet return immediately.
+                cancelled.set(true);
+                executor.shutdown();
+
+                // wait without time limit for jobs that are already running
+                // so that their files are contained in the transaction log below.
+                while (resultPos < results.size()) {
+                    itemCount += waitFor(results.get(resultPos), copyJobs.get(resultPos));
+                    resultPos++;
+                }
+            }
+
+            List<MediaTransactionLogEntryDto> logEntries = new ArrayList<MediaTransactionLogEntryDto>();
+            for (MoveOrCopyJob job : jobs) {
+                if (job.executed) {
+                    logEntries.add(new MediaTransactionLogEntryDto(job.id, job.source.getPath(), now,
+                            moveOrCopyCommand, job.logDest.getPath()));
+                }
+            }
+            addTransactionLogs(logEntries);
+        }
+        return itemCount;
+    }
+
+    private int waitFor(Future<Integer> result, MoveOrCopyJob job) {
+        try {
+            return result.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            onException(ex.getCause(), "execMoveOrCopy", job.source, job.dest);
+        }
+        return 0;
+    }
+
+    /** moves or copies one photo together with its sidecar files */
+    private int execMoveOrCopy(boolean move, MoveOrCopyJob job) {
+        int itemCount = 0;
+        if (osFileMoveOrCopy(move, job.dest, job.source)) itemCount++;
+        for (File[] sidecar : job.sidecars) {
+            if (osFileMoveOrCopy(move, sidecar[1], sidecar[0])) itemCount++;
+        }
+        job.executed = true;
+        return itemCount;
+    }
+
+    /** dest files and sidecars of the current batch that are planned but not written yet */
+    private Set<String> mPlannedDestFiles = null;
+
+    @Override
+    protected boolean fileOrSidecarExists(File file) {
+        if ((file != null) && (mPlannedDestFiles != null)
+                && (mPlannedDestFiles.contains(file.getAbsolutePath())
+                    || mPlannedDestFiles.contains(getSidecar(file, false).getAbsolutePath())
+                    || mPlannedDestFiles.contains(getSidecar(file, true).getAbsolutePath()))) {
+            return true;
+        }
+        return super.fileOrSidecarExists(file);
+    }
+
     private PhotoWorkFlowDto getPhotoWorkFlowDto(File destDirFolder) {
         PhotoWorkFlowDto autoProccessData = null;
         try {
@@ -417,6 +590,10 @@ public class FileCommands extends FileProcessor implements  Cloneable, IProgessL
         boolean result = false;
         long fileTime = source.lastModified();
 
+        final XmpSidecarCache xmpCache = XmpSidecarCache.getInstance();
+        xmpCache.invalidate(dest);
+        if (move) xmpCache.invalidate(source);
+
         if (move) {
             result = osFileMove(dest, source);
         } else {
@@ -433,7 +610,22 @@ public class FileCommands extends FileProcessor implements  Cloneable, IProgessL
         return result;
     }
 
-    private void addProcessedFiles(boolean move, File dest, File source) {
+    /**
+     * true if move can be done as a cheap rename.
+     * Heuristic: same total space of the parent dirs means same volume
+     * (java.nio.file.FileStore is not available on old androids).
+     * to be replaced by mock/stub in unittests */
+    protected boolean osIsSameVolume(File dest, File source) {
+        File destDir = (dest == null) ? null : dest.getAbsoluteFile().getParentFile();
+        File sourceDir = (source == null) ? null : source.getAbsoluteFile().getParentFile();
+        if ((destDir == null) || (sourceDir == null)) return false;
+        if (destDir.equals(sourceDir)) return true;
+        long destSpace = destDir.getTotalSpace();
+        return (destSpace != 0) && (destSpace == sourceDir.getTotalSpace());
+    }
+
+    /** may be called from several worker threads */
+    private synchronized void addProcessedFiles(boolean move, File dest, File source) {
         mModifiedDestFiles.add(dest.getAbsolutePath());
         if (move) {
             mModifiedSrcFiles.add(source.getAbsolutePath());
@@ -500,9 +692,14 @@ public class FileCommands extends FileProcessor implements  Cloneable, IProgessL
         try {
             in = new FileInputStream(sourceFullPath).getChannel();
             out = new FileOutputStream(targetFullPath).getChannel();
+            // positional transfer in chunks: no need to map the whole file into memory
             long size = in.size();
-            MappedByteBuffer buf = in.map(FileChannel.MapMode.READ_ONLY, 0,	size);
-            out.write(buf);
+            long pos = 0;
+            while (pos < size) {
+                long count = in.transferTo(pos, Math.min(COPY_CHUNK_SIZE, size - pos), out);
+                if (count <= 0) throw new IOException("transfer stopped at " + pos + " of " + size);
+                pos += count;
+            }
         } catch (Throwable e) {
             result = false;
             if (owner != null) {
@@ -521,6 +718,7 @@ public class FileCommands extends FileProcessor implements  Cloneable, IProgessL
 
     /** to be replaced by mock/stub in unittests */
     protected boolean osDeleteFile(File file) {
+        XmpSidecarCache.getInstance().invalidate(file);
         final boolean result = file.delete();
         if (FotoLibGlobal.debugEnabledJpg) logger.info("osDeleteFile '" + file + "' success=" + result);
         return result;
@@ -556,6 +754,15 @@ public class FileCommands extends FileProcessor implements  Cloneable, IProgessL
         this.log(mediaTransactionLogEntryType.getCommand(fileFullPath, commandData));
     }
 
+    /** batch version of {@link #addTransactionLog(long, String, long, MediaTransactionLogEntryType, String)}.
+     * android specific database logging can write all entries in one transaction. */
+    protected void addTransactionLogs(List<MediaTransactionLogEntryDto> entries) {
+        for (MediaTransactionLogEntryDto entry : entries) {
+            addTransactionLog(entry.getMediaID(), entry.getFullPath(), entry.getModificationDate(),
+                    entry.getCommand(), entry.getCommandData());
+        }
+    }
+
     public String getDefaultLogFile() {
         return "apmLog.log";
     }
@@ -0,0 +1,414 @@
+/*
+ * Copyright (c) 2018 by k3b.
+ *
+ * This file is part of AndroFotoFinder / #APhotoManager.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>
+ */
+
+package de.k3b.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In memory index of geo-tagged photos that groups them into clusters (grid cells) the same way
+ * as the sql "group by round(lat * groupingFactor)" of the map view.
+ *
+ * The points (id, lat, lon) can be saved to/loaded from a file. The cells of one grouping factor
+ * (i.e. one zoom level) are calculated on demand and cached as arrays sorted by cell so that
+ * the clusters of a viewport are found with a range lookup. {@link #put(int, double, double)} and
+ * {@link #remove(int)} update the cell counts of the cached levels instead of recalculating them.
+ *
+ * Created by k3b on 17.03.2018.
+ */
+public class GeoClusterIndex implements IPersistedIndex {
+    private static final int FILE_VERSION = 1;
+
+    /** max difference of lat/lon sums in {@link #isConsistent(long, long, double, double)} */
+    private static final double SUM_TOLERANCE = 0.0001;
+
+    /** public to allow global settings to change the value: max number of zoom levels kept in memory */
+    public static int maxCachedLevels = 6;
+
+    /** result item: all photos of one grid cell */
+    public static class Cluster {
+        /** representative photo of the cluster: the one with the highest id */
+        public final int id;
+        /** center of the cell */
+        public final double latitude;
+        public final double longitude;
+        public final int count;
+
+        Cluster(int id, double latitude, double longitude, int count) {
+            this.id = id;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.count = count;
+        }
+
+        @Override
+        public String toString() {
+            return "#" + id + "(" + latitude + "," + longitude + ")*" + count;
+        }
+    }
+
+    /** cells of one grouping factor sorted by key */
+    private static class Level {
+        final double factor;
+        long[] keys;
+        int[] ids;
+        int[] counts;
+
+        Level(double factor, long[] keys, int[] ids, int[] counts) {
+            this.factor = factor;
+            this.keys = keys;
+            this.ids = ids;
+            this.counts = counts;
+        }
+
+        void add(double latitude, double longitude, int id) {
+            final long key = getKey(getCell(latitude, factor), getCell(longitude, factor));
+            int pos = Arrays.binarySearch(keys, key);
+            if (pos >= 0) {
+                counts[pos]++;
+                if (id > ids[pos]) ids[pos] = id;
+                return;
+            }
+
+            // new cell
+            pos = -(pos + 1);
+            final int size = keys.length;
+            long[] newKeys = new long[size + 1];
+            int[] newIds = new int[size + 1];
+            int[] newCounts = new int[size + 1];
+            System.arraycopy(keys, 0, newKeys, 0, pos);
+            System.arraycopy(ids, 0, newIds, 0, pos);
+            System.arraycopy(counts, 0, newCounts, 0, pos);
+            newKeys[pos] = key;
+            newIds[pos] = id;
+            newCounts[pos] = 1;
+            System.arraycopy(keys, pos, newKeys, pos + 1, size - pos);
+            System.arraycopy(ids, pos, newIds, pos + 1, size - pos);
+            System.arraycopy(counts, pos, newCounts, pos + 1, size - pos);
+            keys = newKeys;
+            ids = newIds;
+            counts = newCounts;
+        }
+
+        /** @return false if the level must be recalculated because the representative of a cell was removed */
+        boolean remove(double latitude, double longitude, int id) {
+            final long key = getKey(getCell(latitude, factor), getCell(longitude, factor));
+            int pos = Arrays.binarySearch(keys, key);
+            if (pos < 0) return false;
+            if (counts[pos] > 1) {
+                counts[pos]--;
+                return ids[pos] != id;
+            }
+
+            // last photo of the cell
+            final int size = keys.length;
+            long[] newKeys = new long[size - 1];
+            int[] newIds = new int[size - 1];
+            int[] newCounts = new int[size - 1];
+            System.arraycopy(keys, 0, newKeys, 0, pos);
+            System.arraycopy(ids, 0, newIds, 0, pos);
+            System.arraycopy(counts, 0, newCounts, 0, pos);
+            System.arraycopy(keys, pos + 1, newKeys, pos, size - pos - 1);
+            System.arraycopy(ids, pos + 1, newIds, pos, size - pos - 1);
+            System.arraycopy(counts, pos + 1, newCounts, pos, size - pos - 1);
+            keys = newKeys;
+            ids = newIds;
+            counts = newCounts;
+            return true;
+        }
+    }
+
+    /** photo-id to {latitude, longitude} */
+    private final Map<Integer, double[]> mPoints = new HashMap<Integer, double[]>();
+
+    /** grouping factor to cells. Least recently used first */
+    private final Map<Double, Level> mLevels = new LinkedHashMap<Double, Level>(16, 0.75f, true);
+
+    /** identifies the state of the data source this index was created from. */
+    private String mStamp = null;
+
+    /** aggregates of mPoints for {@link #isConsistent(long, long, double, double)}.
+     * mMaxId < 0: must be recalculated */
+    private int mMaxId = 0;
+    private double mLatitudeSum = 0;
+    private double mLongitudeSum = 0;
+
+    @Override
+    public String getStamp() {
+        return mStamp;
+    }
+
+    @Override
+    public GeoClusterIndex setStamp(String stamp) {
+        mStamp = stamp;
+        return this;
+    }
+
+    @Override
+    public int size() {
+        return mPoints.size();
+    }
+
+    /** insert or update the position of a photo */
+    public GeoClusterIndex put(int id, double latitude, double longitude) {
+        final double[] old = mPoints.put(id, new double[]{latitude, longitude});
+        if (old != null) onRemoved(id, old);
+
+        mLatitudeSum += latitude;
+        mLongitudeSum += longitude;
+        if ((mMaxId >= 0) && (id > mMaxId)) mMaxId = id;
+        for (Level level : mLevels.values()) {
+            level.add(latitude, longitude, id);
+        }
+        return this;
+    }
+
+    /** @return true if id was in the index */
+    public boolean remove(int id) {
+        final double[] old = mPoints.remove(id);
+        if (old == null) return false;
+        onRemoved(id, old);
+        return true;
+    }
+
+    private void onRemoved(int id, double[] old) {
+        mLatitudeSum -= old[0];
+        mLongitudeSum -= old[1];
+        if (id == mMaxId) mMaxId = -1;
+
+        Iterator<Level> levels = mLevels.values().iterator();
+        while (levels.hasNext()) {
+            if (!levels.next().remove(old[0], old[1], id)) levels.remove();
+        }
+    }
+
+    @Override
+    public GeoClusterIndex clear() {
+        mPoints.clear();
+        mLevels.clear();
+        mMaxId = 0;
+        mLatitudeSum = 0;
+        mLongitudeSum = 0;
+        return this;
+    }
+
+    /**
+     * Compares the index with aggregates of the data source.
+     * The sums may differ by rounding errors because they are added in a different order.
+     *
+     * @return true if count, maxId and the sums of latitude and longitude match the index
+     */
+    public boolean isConsistent(long count, long maxId, double latitudeSum, double longitudeSum) {
+        if (mMaxId < 0) {
+            mMaxId = 0;
+            for (Integer id : mPoints.keySet()) {
+                if (id > mMaxId) mMaxId = id;
+            }
+        }
+        return (count == mPoints.size()) && (maxId == mMaxId)
+                && (Math.abs(latitudeSum - mLatitudeSum) < SUM_TOLERANCE)
+                && (Math.abs(longitudeSum - mLongitudeSum) < SUM_TOLERANCE);
+    }
+
+    /**
+     * @param groupingFactor cell size is 1/groupingFactor degrees.
+     * @param area if not null only clusters whose cell intersects this area.
+     * @return all clusters sorted by latitude, longitude
+     */
+    public List<Cluster> getClusters(double groupingFactor, IGeoRectangle area) {
+        final Level level = getLevel(groupingFactor);
+        final List<Cluster> result = new ArrayList<Cluster>();
+        final int size = level.keys.length;
+
+        if ((area == null) || Double.isNaN(area.getLatitudeMin()) || Double.isNaN(area.getLatitudeMax())
+                || Double.isNaN(area.getLogituedMin()) || Double.isNaN(area.getLogituedMax())) {
+            for (int i = 0; i < size; i++) {
+                result.add(createCluster(level, i));
+            }
+            return result;
+        }
+
+        final int latCellMin = getCell(area.getLatitudeMin(), groupingFactor);
+        final int latCellMax = getCell(area.getLatitudeMax(), groupingFactor);
+        final int lonCellMin = getCell(area.getLogituedMin(), groupingFactor);
+        final int lonCellMax = getCell(area.getLogituedMax(), groupingFactor);
+
+        if ((long) latCellMax - latCellMin > size) {
+            // area is much bigger than the data: a linear scan is cheaper than one lookup per lat cell
+            for (int i = 0; i < size; i++) {
+                final long key = level.keys[i];
+                final int latCell = getLatCell(key);
+                final int lonCell = getLonCell(key);
+                if ((latCell >= latCellMin) && (latCell <= latCellMax)
+                        && (lonCell >= lonCellMin) && (lonCell <= lonCellMax)) {
+                    result.add(createCluster(level, i));
+                }
+            }
+            return result;
+        }
+
+        for (int latCell = latCellMin; latCell <= latCellMax; latCell++) {
+            final long maxKey = getKey(latCell, lonCellMax);
+            int pos = Arrays.binarySearch(level.keys, getKey(latCell, lonCellMin));
+            if (pos < 0) pos = -(pos + 1);
+            while ((pos < size) && (level.keys[pos] <= maxKey)) {
+                result.add(createCluster(level, pos++));
+            }
+        }
+        return result;
+    }
+
+    private static Cluster createCluster(Level level, int pos) {
+        final long key = level.keys[pos];
+        final double halfCell = 1 / level.factor / 2;
+        return new Cluster(level.ids[pos],
+                (getLatCell(key) / level.factor) + halfCell,
+                (getLonCell(key) / level.factor) + halfCell,
+                level.counts[pos]);
+    }
+
+    private Level getLevel(double groupingFactor) {
+        Level result = mLevels.get(groupingFactor);
+        if (result == null) {
+            result = createLevel(groupingFactor);
+            mLevels.put(groupingFactor, result);
+
+            while (mLevels.size() > Math.max(1, maxCachedLevels)) {
+                mLevels.remove(mLevels.keySet().iterator().next());
+            }
+        }
+        return result;
+    }
+
+    private Level createLevel(double groupingFactor) {
+        // key to {id, count}
+        Map<Long, int[]> cells = new HashMap<Long, int[]>();
+        for (Map.Entry<Integer, double[]> point : mPoints.entrySet()) {
+            final double[] pos = point.getValue();
+            final int id = point.getKey();
+            final Long key = getKey(getCell(pos[0], groupingFactor), getCell(pos[1], groupingFactor));
+
+            int[] cell = cells.get(key);
+            if (cell == null) {
+                cells.put(key, new int[]{id, 1});
+            } else {
+                if (id > cell[0]) cell[0] = id;
+                cell[1]++;
+            }
+        }
+
+        final int size = cells.size();
+        final long[] keys = new long[size];
+        int i = 0;
+        for (Long key : cells.keySet()) {
+            keys[i++] = key;
+        }
+        Arrays.sort(keys);
+
+        final int[] ids = new int[size];
+        final int[] counts = new int[size];
+        for (i = 0; i < size; i++) {
+            final int[] cell = cells.get(keys[i]);
+            ids[i] = cell[0];
+            counts[i] = cell[1];
+        }
+        return new Level(groupingFactor, keys, ids, counts);
+    }
+
+    /** same as sql "round((value * groupingFactor) - 0.5)" */
+    private static int getCell(double value, double groupingFactor) {
+        return (int) Math.floor(value * groupingFactor);
+    }
+
+    /** sorted by latCell then lonCell. lonCell is shifted so that negative values sort before positive */
+    private static long getKey(int latCell, int lonCell) {
+        return (((long) latCell) << 32) | (((long) lonCell - Integer.MIN_VALUE) & 0xffffffffL);
+    }
+
+    private static int getLatCell(long key) {
+        return (int) (key >> 32);
+    }
+
+    private static int getLonCell(long key) {
+        return (int) ((key & 0xffffffffL) + Integer.MIN_VALUE);
+    }
+
+    /** Save points to file via temp file */
+    @Override
+    public void save(File file) throws IOException {
+        File tempFile = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+        try {
+            out.writeInt(FILE_VERSION);
+            out.writeUTF((mStamp == null) ? "" : mStamp);
+            out.writeInt(mPoints.size());
+            for (Map.Entry<Integer, double[]> point : mPoints.entrySet()) {
+                out.writeInt(point.getKey());
+                out.writeDouble(point.getValue()[0]);
+                out.writeDouble(point.getValue()[1]);
+            }
+        } finally {
+            out.close();
+        }
+
+        if (file.exists()) file.delete();
+        if (!tempFile.renameTo(file)) {
+            throw new IOException("Cannot rename " + tempFile + " to " + file);
+        }
+    }
+
+    /** Replace content with points from file */
+    @Override
+    public GeoClusterIndex load(File file) throws IOException {
+        clear();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != FILE_VERSION) {
+                throw new IOException("Unsupported version in " + file);
+            }
+            String stamp = in.readUTF();
+            mStamp = (stamp.length() == 0) ? null : stamp;
+            for (int count = in.readInt(); count > 0; count--) {
+                final int id = in.readInt();
+                put(id, in.readDouble(), in.readDouble());
+            }
+        } catch (IOException ex) {
+            clear();
+            mStamp = null;
+            throw ex;
+        } finally {
+            in.close();
+        }
+        return this;
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2018 by k3b.
+ *
+ * This file is part of AndroFotoFinder / #APhotoManager.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>
+ */
+
+package de.k3b.io;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * An in memory index that can be saved to/loaded from a file together with a stamp
+ * that identifies the state of the data source the index was created from.
+ *
+ * Created by k3b on 18.03.2018.
+ */
+public interface IPersistedIndex {
+    String getStamp();
+    IPersistedIndex setStamp(String stamp);
+
+    int size();
+    IPersistedIndex clear();
+
+    void save(File file) throws IOException;
+
+    /** Replace content with content from file */
+    IPersistedIndex load(File file) throws IOException;
+}
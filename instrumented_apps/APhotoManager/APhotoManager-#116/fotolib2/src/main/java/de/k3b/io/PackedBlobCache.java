@@ -0,0 +1,382 @@
+/*
+ * Copyright (c) 2018 by k3b.
+ *
+ * This file is part of AndroFotoFinder / #APhotoManager.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>
+ */
+
+package de.k3b.io;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.k3b.FotoLibGlobal;
+
+/**
+ * Two tier key to byte[] cache (i.e. for thumbnails):
+ * a small least recently used memory tier and a disk tier where all values are packed
+ * into one append-only blob file plus one index file instead of one file per value.
+ *
+ * Each blob record contains its key so that the index can be recreated from the blob
+ * if the index file is missing or outdated.
+ * If the blob grows above maxDiskBytes the most recently used values are copied into a new blob.
+ *
+ * Created by k3b on 20.03.2018.
+ */
+public class PackedBlobCache {
+    private static final Logger logger = LoggerFactory.getLogger(FotoLibGlobal.LOG_TAG);
+    private static final int FILE_VERSION = 1;
+
+    /** index is saved after this number of puts */
+    private static final int PUTS_PER_FLUSH = 256;
+
+    private final File mBlobFile;
+    private final File mIndexFile;
+    private final long mMaxDiskBytes;
+    private final int mMaxMemoryBytes;
+
+    /** key to {offset of value in blob, length of value} in access order */
+    private final LinkedHashMap<String, long[]> mIndex = new LinkedHashMap<String, long[]>(16, 0.75f, true);
+
+    /** key to value in access order */
+    private final LinkedHashMap<String, byte[]> mMemory = new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+    private int mMemorySize = 0;
+
+    private RandomAccessFile mBlob = null;
+    private boolean mIndexLoaded = false;
+    private boolean mIndexModified = false;
+    private int mUnflushedPuts = 0;
+
+    private int mHitCount = 0;
+    private int mMissCount = 0;
+
+    /**
+     * @param dir where the files "name.blob" and "name.idx" are stored.
+     * @param maxDiskBytes max size of the blob file.
+     * @param maxMemoryBytes max size of all values in the memory tier.
+     */
+    public PackedBlobCache(File dir, String name, long maxDiskBytes, int maxMemoryBytes) {
+        mBlobFile = new File(dir, name + ".blob");
+        mIndexFile = new File(dir, name + ".idx");
+        mMaxDiskBytes = maxDiskBytes;
+        mMaxMemoryBytes = maxMemoryBytes;
+    }
+
+    /** @return value of key or null if not in cache */
+    public synchronized byte[] get(String key) {
+        byte[] result = mMemory.get(key);
+        if (result == null) {
+            long[] pos = getIndex().get(key);
+            if (pos != null) {
+                try {
+                    RandomAccessFile blob = openBlob();
+                    result = new byte[(int) pos[1]];
+                    blob.seek(pos[0]);
+                    blob.readFully(result);
+                    putMemory(key, result);
+                } catch (IOException ex) {
+                    logger.warn(getClass().getSimpleName() + ".get(" + key + ") failed: " + ex.getMessage());
+                    mIndex.remove(key);
+                    result = null;
+                }
+            }
+        }
+
+        if (result != null) {
+            mHitCount++;
+        } else {
+            mMissCount++;
+        }
+        return result;
+    }
+
+    /** appends value of key to the blob */
+    public synchronized void put(String key, byte[] value) {
+        if ((key != null) && (value != null)) {
+            try {
+                Map<String, long[]> index = getIndex();
+                RandomAccessFile blob = openBlob();
+                long offset = appendRecord(blob, key, value);
+                index.put(key, new long[]{offset, value.length});
+                mIndexModified = true;
+                putMemory(key, value);
+
+                if (blob.length() > mMaxDiskBytes) {
+                    compact(mMaxDiskBytes / 2);
+                }
+                if (++mUnflushedPuts >= PUTS_PER_FLUSH) {
+                    flush();
+                }
+            } catch (IOException ex) {
+                logger.warn(getClass().getSimpleName() + ".put(" + key + ") failed: " + ex.getMessage());
+            }
+        }
+    }
+
+    /** the space of the removed value is reclaimed when the blob is compacted */
+    public synchronized void remove(String key) {
+        byte[] old = mMemory.remove(key);
+        if (old != null) mMemorySize -= old.length;
+        if (getIndex().remove(key) != null) mIndexModified = true;
+    }
+
+    /** persists the index so that the next instance does not have to scan the blob */
+    public synchronized void flush() {
+        if (mIndexModified) {
+            try {
+                saveIndex();
+                mIndexModified = false;
+                mUnflushedPuts = 0;
+            } catch (IOException ex) {
+                logger.warn(getClass().getSimpleName() + ".flush() failed: " + ex.getMessage());
+            }
+        }
+    }
+
+    public synchronized void close() {
+        flush();
+        closeBlob();
+    }
+
+    public synchronized void clear() {
+        closeBlob();
+        mIndex.clear();
+        mMemory.clear();
+        mMemorySize = 0;
+        mIndexModified = false;
+        mIndexLoaded = true;
+        mBlobFile.delete();
+        mIndexFile.delete();
+    }
+
+    /** number of values on disk */
+    public synchronized int size() {
+        return getIndex().size();
+    }
+
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return this.getClass().getSimpleName() + "[" + mBlobFile + ": " + mIndex.size() + " items, " +
+                mMemory.size() + " in memory, hit=" + mHitCount + ", miss=" + mMissCount + "]";
+    }
+
+    private Map<String, long[]> getIndex() {
+        if (!mIndexLoaded) {
+            mIndexLoaded = true;
+            try {
+                if (!loadIndex()) {
+                    rebuildIndex();
+                }
+            } catch (IOException ex) {
+                logger.warn(getClass().getSimpleName() + " cannot load " + mBlobFile + ": " + ex.getMessage());
+                clear();
+            }
+        }
+        return mIndex;
+    }
+
+    private RandomAccessFile openBlob() throws IOException {
+        if (mBlob == null) {
+            File dir = mBlobFile.getParentFile();
+            if ((dir != null) && !dir.exists()) dir.mkdirs();
+            mBlob = new RandomAccessFile(mBlobFile, "rw");
+        }
+        return mBlob;
+    }
+
+    private void closeBlob() {
+        if (mBlob != null) {
+            try {
+                mBlob.close();
+            } catch (IOException ignore) {
+            }
+            mBlob = null;
+        }
+    }
+
+    /** @return offset of value */
+    private static long appendRecord(RandomAccessFile blob, String key, byte[] value) throws IOException {
+        long start = blob.length();
+        blob.seek(start);
+        blob.writeUTF(key);
+        blob.writeInt(value.length);
+        long offset = blob.getFilePointer();
+        blob.write(value);
+        return offset;
+    }
+
+    /** @return false if there is no valid index for the current blob */
+    private boolean loadIndex() throws IOException {
+        mIndex.clear();
+        if (!mIndexFile.exists()) return false;
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(mIndexFile)));
+        try {
+            if ((in.readInt() != FILE_VERSION) || (in.readLong() != mBlobFile.length())) {
+                return false;
+            }
+            for (int count = in.readInt(); count > 0; count--) {
+                String key = in.readUTF();
+                mIndex.put(key, new long[]{in.readLong(), in.readInt()});
+            }
+            return true;
+        } catch (EOFException ex) {
+            mIndex.clear();
+            return false;
+        } finally {
+            in.close();
+        }
+    }
+
+    private void saveIndex() throws IOException {
+        File tempFile = new File(mIndexFile.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+        try {
+            out.writeInt(FILE_VERSION);
+            out.writeLong(mBlobFile.length());
+            out.writeInt(mIndex.size());
+
+            // iterating entrySet does not change the access order
+            for (Map.Entry<String, long[]> entry : mIndex.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue()[0]);
+                out.writeInt((int) entry.getValue()[1]);
+            }
+        } finally {
+            out.close();
+        }
+
+        if (mIndexFile.exists()) mIndexFile.delete();
+        if (!tempFile.renameTo(mIndexFile)) {
+            throw new IOException("Cannot rename " + tempFile + " to " + mIndexFile);
+        }
+    }
+
+    /** recreate index by scanning all records of the blob. later records win. */
+    private void rebuildIndex() throws IOException {
+        mIndex.clear();
+        if (!mBlobFile.exists()) return;
+
+        RandomAccessFile blob = openBlob();
+        long length = blob.length();
+        long pos = 0;
+        blob.seek(0);
+        try {
+            while (pos < length) {
+                String key = blob.readUTF();
+                int valueLength = blob.readInt();
+                long offset = blob.getFilePointer();
+                if ((valueLength < 0) || (offset + valueLength > length)) break;
+                mIndex.put(key, new long[]{offset, valueLength});
+                pos = offset + valueLength;
+                blob.seek(pos);
+            }
+        } catch (EOFException ignore) {
+            // incomplete last record is ignored
+        }
+
+        if (pos < length) {
+            // remove incomplete last record so that new records can be appended
+            blob.setLength(pos);
+        }
+        mIndexModified = true;
+    }
+
+    /** copy the most recently used values into a new blob that is smaller than maxBytes */
+    private void compact(long maxBytes) throws IOException {
+        RandomAccessFile oldBlob = openBlob();
+
+        // most recently used are at the end of the index
+        List<Map.Entry<String, long[]>> entries = new ArrayList<Map.Entry<String, long[]>>(mIndex.entrySet());
+        List<Map.Entry<String, long[]>> keep = new ArrayList<Map.Entry<String, long[]>>();
+        long size = 0;
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            Map.Entry<String, long[]> entry = entries.get(i);
+            size += entry.getValue()[1] + entry.getKey().length() + 6;
+            if (size > maxBytes) break;
+            keep.add(0, entry);
+        }
+
+        File tempFile = new File(mBlobFile.getPath() + ".tmp");
+        tempFile.delete();
+        RandomAccessFile newBlob = new RandomAccessFile(tempFile, "rw");
+        LinkedHashMap<String, long[]> newIndex = new LinkedHashMap<String, long[]>();
+        try {
+            for (Map.Entry<String, long[]> entry : keep) {
+                byte[] value = new byte[(int) entry.getValue()[1]];
+                oldBlob.seek(entry.getValue()[0]);
+                oldBlob.readFully(value);
+                newIndex.put(entry.getKey(), new long[]{appendRecord(newBlob, entry.getKey(), value), value.length});
+            }
+        } finally {
+            newBlob.close();
+        }
+
+        closeBlob();
+        if (mBlobFile.exists()) mBlobFile.delete();
+        if (!tempFile.renameTo(mBlobFile)) {
+            throw new IOException("Cannot rename " + tempFile + " to " + mBlobFile);
+        }
+
+        mIndex.clear();
+        mIndex.putAll(newIndex);
+        mIndexModified = true;
+
+        Iterator<Map.Entry<String, byte[]>> memoryEntries = mMemory.entrySet().iterator();
+        while (memoryEntries.hasNext()) {
+            Map.Entry<String, byte[]> entry = memoryEntries.next();
+            if (!mIndex.containsKey(entry.getKey())) {
+                mMemorySize -= entry.getValue().length;
+                memoryEntries.remove();
+            }
+        }
+    }
+
+    private void putMemory(String key, byte[] value) {
+        byte[] old = mMemory.put(key, value);
+        if (old != null) mMemorySize -= old.length;
+        mMemorySize += value.length;
+
+        Iterator<byte[]> iterator = mMemory.values().iterator();
+        while ((mMemorySize > mMaxMemoryBytes) && iterator.hasNext()) {
+            mMemorySize -= iterator.next().length;
+            iterator.remove();
+        }
+    }
+}
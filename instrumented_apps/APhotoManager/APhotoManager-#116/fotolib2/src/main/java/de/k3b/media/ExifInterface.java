@@ -25,6 +25,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.DataInputStream;
 import java.io.EOFException;
@@ -35,9 +36,12 @@ import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.io.UnsupportedEncodingException;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.text.ParsePosition;
 import java.text.SimpleDateFormat;
@@ -73,6 +77,18 @@ public class ExifInterface {
     // false for unittests because UserComment = null is not implemented for COM - Marker
     protected static boolean fixDateOnSave = true;
 
+    // public to allow global settings to enable/disable.
+    // true: files are memory mapped and tag values are decoded on demand (see getJpegAttributes(ByteBuffer))
+    public static boolean useMappedParser = true;
+
+    // public to allow global settings to enable/disable.
+    // true: saveAttributes() on the same file only overwrites the exif segment if the new one fits.
+    public static boolean useInPlaceSave = true;
+
+    // number of zero bytes appended to a rewritten exif segment so that later changes can be
+    // saved in place.
+    public static int exifSegmentReserve = 1024;
+
     // The Exif tag names
     /** Type is String. */
     public static final String TAG_ARTIST = "Artist";
@@ -447,16 +463,66 @@ public class ExifInterface {
         }
     }
     // A class to store an EXIF attribute.
+    // The value is either owned (bytes) or a not yet decoded region of the exif segment (source).
     private static class ExifAttribute implements Comparable {
         private final ExifTag exifTag;
         public final int format;
         public final int numberOfComponents;
-        public final byte[] bytes;
+        private byte[] bytes;
+        private ByteBuffer source;
+        private final int sourceOffset;
+        private final int byteCount;
         private ExifAttribute(ExifTag exifTag, int format, int numberOfComponents, byte[] bytes) {
             this.exifTag = exifTag;
             this.format = format;
             this.numberOfComponents = numberOfComponents;
             this.bytes = bytes;
+            this.source = null;
+            this.sourceOffset = 0;
+            this.byteCount = bytes.length;
+        }
+
+        /** lazy attribute: value is decoded from source[sourceOffset...] when it is requested */
+        private ExifAttribute(ExifTag exifTag, int format, int numberOfComponents,
+                              ByteBuffer source, int sourceOffset, int byteCount) {
+            this.exifTag = exifTag;
+            this.format = format;
+            this.numberOfComponents = numberOfComponents;
+            this.bytes = null;
+            this.source = source;
+            this.sourceOffset = sourceOffset;
+            this.byteCount = byteCount;
+        }
+
+        /** the raw value. For lazy attributes this is a copy of the source region */
+        public byte[] getBytes() {
+            if (bytes != null) {
+                return bytes;
+            }
+            final byte[] result = new byte[byteCount];
+            getData(ByteOrder.BIG_ENDIAN).get(result);
+            return result;
+        }
+
+        /** copies the value out of the source so that the source (exif segment) is no longer needed */
+        public void detach() {
+            if (bytes == null) {
+                bytes = getBytes();
+                source = null;
+            }
+        }
+
+        /** view on the raw value without copying */
+        private ByteBuffer getData(ByteOrder byteOrder) {
+            final ByteBuffer data;
+            if (bytes != null) {
+                data = ByteBuffer.wrap(bytes);
+            } else {
+                data = source.duplicate();
+                data.limit(sourceOffset + byteCount);
+                data.position(sourceOffset);
+            }
+            return data.order(byteOrder);
         }
         public static ExifAttribute createUShort(ExifTag id, int[] values, ByteOrder byteOrder) {
             final ByteBuffer buffer = ByteBuffer.wrap(
@@ -558,49 +624,52 @@ public class ExifInterface {
         }
         @Override
         public String toString() {
-            return "(" + ExifAttribute.getFormatName(format) + ", data length:" + bytes.length + ")";
+            return "(" + ExifAttribute.getFormatName(format) + ", data length:" + byteCount + ")";
         }
         private Object getValue(ByteOrder byteOrder) {
             try {
-                ByteOrderAwarenessDataInputStream inputStream =
-                        new ByteOrderAwarenessDataInputStream(bytes);
-                inputStream.setByteOrder(byteOrder);
+                final ByteBuffer data = getData(byteOrder);
                 switch (format) {
                     case IFD_FORMAT_UCS2LE_STRING: {
+                        final byte[] bytes = getBytes();
                         return decodePrefixString(bytes.length, bytes, UCS2);
                     }
                     case IFD_FORMAT_BYTE:
                     case IFD_FORMAT_SBYTE: {
                         // Exception for GPSAltitudeRef tag
-                        if (bytes.length == 1 && bytes[0] >= 0 && bytes[0] <= 1) {
-                            return new String(new char[] { (char) (bytes[0] + '0') });
+                        if (byteCount == 1) {
+                            final byte value = data.get(0);
+                            if (value >= 0 && value <= 1) {
+                                return new String(new char[] { (char) (value + '0') });
+                            }
                         }
+                        final byte[] bytes = getBytes();
                         return decodePrefixString(bytes.length, bytes, ASCII);
                     }
                     case IFD_FORMAT_UNDEFINED:
                     case IFD_FORMAT_PREFIX_STRING:
                     case IFD_FORMAT_STRING: {
-                        return decodePrefixString(numberOfComponents, bytes, ASCII);
+                        return decodePrefixString(numberOfComponents, getBytes(), ASCII);
                     }
                     case IFD_FORMAT_USHORT: {
                         final int[] values = new int[numberOfComponents];
                         for (int i = 0; i < numberOfComponents; ++i) {
-                            values[i] = inputStream.readUnsignedShort();
+                            values[i] = data.getShort() & 0xffff;
                         }
                         return values;
                     }
                     case IFD_FORMAT_ULONG: {
                         final long[] values = new long[numberOfComponents];
                         for (int i = 0; i < numberOfComponents; ++i) {
-                            values[i] = inputStream.readUnsignedInt();
+                            values[i] = data.getInt() & 0xffffffffL;
                         }
                         return values;
                     }
                     case IFD_FORMAT_URATIONAL: {
                         final Rational[] values = new Rational[numberOfComponents];
                         for (int i = 0; i < numberOfComponents; ++i) {
-                            final long numerator = inputStream.readUnsignedInt();
-                            final long denominator = inputStream.readUnsignedInt();
+                            final long numerator = data.getInt() & 0xffffffffL;
+                            final long denominator = data.getInt() & 0xffffffffL;
                             values[i] = new Rational(numerator, denominator);
                         }
                         return values;
@@ -608,22 +677,22 @@ public class ExifInterface {
                     case IFD_FORMAT_SSHORT: {
                         final int[] values = new int[numberOfComponents];
                         for (int i = 0; i < numberOfComponents; ++i) {
-                            values[i] = inputStream.readShort();
+                            values[i] = data.getShort();
                         }
                         return values;
                     }
                     case IFD_FORMAT_SLONG: {
                         final int[] values = new int[numberOfComponents];
                         for (int i = 0; i < numberOfComponents; ++i) {
-                            values[i] = inputStream.readInt();
+                            values[i] = data.getInt();
                         }
                         return values;
                     }
                     case IFD_FORMAT_SRATIONAL: {
                         final Rational[] values = new Rational[numberOfComponents];
                         for (int i = 0; i < numberOfComponents; ++i) {
-                            final long numerator = inputStream.readInt();
-                            final long denominator = inputStream.readInt();
+                            final long numerator = data.getInt();
+                            final long denominator = data.getInt();
                             values[i] = new Rational(numerator, denominator);
                         }
                         return values;
@@ -631,21 +700,21 @@ public class ExifInterface {
                     case IFD_FORMAT_SINGLE: {
                         final double[] values = new double[numberOfComponents];
                         for (int i = 0; i < numberOfComponents; ++i) {
-                            values[i] = inputStream.readFloat();
+                            values[i] = data.getFloat();
                         }
                         return values;
                     }
                     case IFD_FORMAT_DOUBLE: {
                         final double[] values = new double[numberOfComponents];
                         for (int i = 0; i < numberOfComponents; ++i) {
-                            values[i] = inputStream.readDouble();
+                            values[i] = data.getDouble();
                         }
                         return values;
                     }
                     default:
                         return null;
                 }
-            } catch (IOException e) {
+            } catch (BufferUnderflowException e) {
                 logWarn( "IOException occurred during reading a value", e);
                 return null;
             }
@@ -1012,6 +1081,9 @@ public class ExifInterface {
     private static final int IFD_INTEROPERABILITY_HINT = 3;
     private static final int IFD_THUMBNAIL_HINT = 4;
 
+    // protects the mapped parser against cyclic ifd offsets in corrupt files
+    private static final int MAX_IFD_DEPTH = 8;
+
     //!!!
     // List of Exif tag groups or subSegments. EXIF_TAGS and EXIF_TAG_NAMES must have the same order.
     private static final ExifTag[][] EXIF_TAGS = new ExifTag[][] {
@@ -1108,6 +1180,10 @@ public class ExifInterface {
     private int mThumbnailOffset;
     private int mThumbnailLength;
     private byte[] mThumbnailBytes;
+    // Position of the exif APP1 segment (starting with MARKER) inside mExifFile or -1 if unknown.
+    private int mExifSegmentOffset = -1;
+    // Size of the exif APP1 segment including MARKER, MARKER_APP1 and length.
+    private int mExifSegmentLength = 0;
     // Pattern to check non zero timestamp
     private static final Pattern sNonZeroTimePattern = Pattern.compile(".*[1-9].*");
     // Pattern to check gps timestamp
@@ -1128,7 +1204,11 @@ public class ExifInterface {
             FileInputStream fileInputStream = null;
             try {
                 fileInputStream = new FileInputStream(mExifFile);
-                loadAttributes(fileInputStream);
+                if (useMappedParser) {
+                    loadAttributes(fileInputStream.getChannel());
+                } else {
+                    loadAttributes(fileInputStream);
+                }
             } finally {
                 closeQuietly(fileInputStream);
             }
@@ -1421,10 +1501,7 @@ public class ExifInterface {
      */
     private void loadAttributes(InputStream in) throws IOException {
         try {
-            // Initialize mAttributes.
-            for (int i = 0; i < EXIF_TAGS.length; ++i) {
-                mAttributes[i] = new HashMap();
-            }
+            initAttributes();
             getJpegAttributes(in);
         } catch (IOException e) {
             // Ignore exceptions in order to keep the compatibility with the old versions of
@@ -1438,6 +1515,48 @@ public class ExifInterface {
         }
     }
 
+    /**
+     * Same as {@link #loadAttributes(InputStream)} but the file is memory mapped.
+     * Only the ifd entries are indexed. Tag values are decoded when they are requested.
+     *
+     * The exif segment is copied to the heap so the mapping is not used after parsing.
+     */
+    private void loadAttributes(FileChannel channel) throws IOException {
+        try {
+            initAttributes();
+            getJpegAttributes(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } catch (IOException e) {
+            // Ignore exceptions in order to keep the compatibility with the old versions of
+            // ExifInterface.
+            logWarn( "Invalid image.", e);
+            validJpgExifFormat = false;
+        } finally {
+            if (DEBUG_INTERNAL) {
+                logDebug(this.toString());
+            }
+        }
+    }
+
+    private void initAttributes() {
+        // Initialize mAttributes.
+        for (int i = 0; i < EXIF_TAGS.length; ++i) {
+            mAttributes[i] = new HashMap();
+        }
+    }
+
+    /** copies all lazy loaded values out of the exif segment before the segment is rewritten. */
+    private void detachAttributes() {
+        for (HashMap<String, ExifAttribute> exifSegment : mAttributes) {
+            if (exifSegment != null) {
+                for (ExifAttribute attribute : exifSegment.values()) {
+                    if (attribute != null) {
+                        attribute.detach();
+                    }
+                }
+            }
+        }
+    }
+
     @Override
     public String toString() {
         return getDebugString("\n", TAG_DATETIME, TAG_GPS_VERSION_ID);
@@ -1488,6 +1607,7 @@ public class ExifInterface {
     }
 
     public void saveAttributes(File inFile, File outFile, boolean deleteInFileOnFinish) throws IOException {
+        detachAttributes();
         fixAttributes();
 
         // Keep the thumbnail in memory
@@ -1496,6 +1616,12 @@ public class ExifInterface {
 
         boolean overwriteOriginal = inFile.equals(outFile);
 
+        if (overwriteOriginal && useInPlaceSave && saveAttributesInPlace(inFile)) {
+            // Discard the thumbnail in memory
+            mThumbnailBytes = null;
+            return;
+        }
+
         if (overwriteOriginal) {
             // Move the original file to temporary file.
             renamedInFile = new File(inFile.getAbsolutePath() + ".tmp");
@@ -1525,6 +1651,63 @@ public class ExifInterface {
         mThumbnailBytes = null;
     }
 
+    /**
+     * Overwrites only the exif segment of file if the new exif segment fits into the old one
+     * (including the padding left behind by {@link #exifSegmentReserve}).
+     *
+     * @return false if the file must be copied because the exif segment has to grow.
+     */
+    private boolean saveAttributesInPlace(File file) throws IOException {
+        if ((mExifSegmentOffset < 0) || !file.equals(mExifFile)) {
+            return false;
+        }
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(mExifSegmentLength);
+        ByteOrderAwarenessDataOutputStream dataOutputStream =
+                new ByteOrderAwarenessDataOutputStream(buffer, ByteOrder.BIG_ENDIAN);
+        dataOutputStream.writeByte(MARKER);
+        dataOutputStream.writeByte(MARKER_APP1);
+        writeExifSegment(dataOutputStream, mExifSegmentOffset + 4 + IDENTIFIER_EXIF_APP1.length,
+                mThumbnailBytes, mExifSegmentLength - 2, 0);
+        dataOutputStream.flush();
+        if (buffer.size() != mExifSegmentLength) {
+            if (DEBUG_INTERNAL) {
+                logDebug( "saveAttributesInPlace: exif segment grows from " + mExifSegmentLength
+                        + " to " + buffer.size());
+            }
+            return false;
+        }
+
+        RandomAccessFile randomAccessFile = null;
+        try {
+            randomAccessFile = new RandomAccessFile(file, "rw");
+            FileChannel channel = randomAccessFile.getChannel();
+            if (!isExifSegmentAt(channel, mExifSegmentOffset, mExifSegmentLength)) {
+                return false;
+            }
+            ByteBuffer data = ByteBuffer.wrap(buffer.toByteArray());
+            while (data.hasRemaining()) {
+                channel.write(data, mExifSegmentOffset + data.position());
+            }
+        } finally {
+            closeQuietly(randomAccessFile);
+        }
+        return true;
+    }
+
+    // true if the file still contains an exif segment of the expected size at position
+    private static boolean isExifSegmentAt(FileChannel channel, long position, int segmentLength)
+            throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(4 + IDENTIFIER_EXIF_APP1.length);
+        while (header.hasRemaining()) {
+            if (channel.read(header, position + header.position()) < 0) {
+                return false;
+            }
+        }
+        return (header.get(0) == MARKER) && (header.get(1) == MARKER_APP1)
+                && ((header.getShort(2) & 0xffff) == segmentLength - 2)
+                && startsWith(header, 4, IDENTIFIER_EXIF_APP1);
+    }
+
     protected boolean deleteFile(File renamedInFile) {
         return renamedInFile.delete();
     }
@@ -1698,7 +1881,11 @@ public class ExifInterface {
         try {
             // The exif field is in local time. Parsing it as if it is UTC will yield time
             // since 1/1/1970 local time
-            Date datetime = sFormatter.parse(dateTimeString, pos);
+            Date datetime;
+            synchronized (sFormatter) {
+                // SimpleDateFormat is not thread safe
+                datetime = sFormatter.parse(dateTimeString, pos);
+            }
             if (datetime == null) return -1;
             long msecs = datetime.getTime();
             String subSecs = getAttribute(TAG_SUBSEC_TIME);
@@ -1734,7 +1921,10 @@ public class ExifInterface {
         String dateTimeString = date + ' ' + time;
         ParsePosition pos = new ParsePosition(0);
         try {
-            Date datetime = sFormatter.parse(dateTimeString, pos);
+            Date datetime;
+            synchronized (sFormatter) {
+                datetime = sFormatter.parse(dateTimeString, pos);
+            }
             if (datetime == null) return -1;
             return datetime.getTime();
         } catch (IllegalArgumentException e) {
@@ -1825,6 +2015,8 @@ public class ExifInterface {
                         // Skip if it's not an EXIF APP1 segment.
                         break;
                     }
+                    mExifSegmentOffset = bytesRead - 10;
+                    mExifSegmentLength = length + 10;
                     if (length <= 0) {
                         throw new IOException("Invalid exif");
                     }
@@ -1889,6 +2081,104 @@ public class ExifInterface {
             bytesRead += length;
         }
     }
+    // Loads EXIF attributes from a memory mapped JPEG file. Same as getJpegAttributes(InputStream)
+    // but segments that are not needed are not read at all and the EXIF segment is copied only once.
+    private void getJpegAttributes(ByteBuffer jpg) throws IOException {
+        try {
+            jpg.order(ByteOrder.BIG_ENDIAN);
+            int position = 0;
+            byte marker;
+            if ((marker = jpg.get(position++)) != MARKER) {
+                throw new IOException("Invalid marker: " + Integer.toHexString(marker & 0xff));
+            }
+            if (jpg.get(position++) != MARKER_SOI) {
+                throw new IOException("Invalid marker: " + Integer.toHexString(marker & 0xff));
+            }
+            while (true) {
+                marker = jpg.get(position++);
+                if (marker != MARKER) {
+                    throw new IOException("Invalid marker:" + Integer.toHexString(marker & 0xff));
+                }
+                marker = jpg.get(position++);
+                if (DEBUG_INTERNAL) {
+                    logDebug( "Found JPEG segment indicator: " + Integer.toHexString(marker & 0xff));
+                }
+                // EOI indicates the end of an image and in case of SOS, JPEG image stream starts and
+                // the image data will terminate right after.
+                if (marker == MARKER_EOI || marker == MARKER_SOS) {
+                    break;
+                }
+                int length = (jpg.getShort(position) & 0xffff) - 2;
+                position += 2;
+                if (length < 0) {
+                    throw new IOException("Invalid length");
+                }
+                if (position + length > jpg.limit()) {
+                    throw new IOException("Invalid JPEG segment");
+                }
+                switch (marker) {
+                    case MARKER_APP1: {
+                        if ((length >= 6) && startsWith(jpg, position, IDENTIFIER_EXIF_APP1)) {
+                            if (length == 6) {
+                                throw new IOException("Invalid exif");
+                            }
+                            mExifSegmentOffset = position - 4;
+                            mExifSegmentLength = length + 4;
+                            // copy the segment (max 64k) once so that lazy tag values
+                            // do not depend on the mapped file after parsing.
+                            final byte[] exif = new byte[length - 6];
+                            final ByteBuffer segment = jpg.duplicate();
+                            segment.position(position + 6);
+                            segment.get(exif);
+                            readExifSegment(ByteBuffer.wrap(exif), position + 6);
+                        }
+                        break;
+                    }
+                    case MARKER_COM: {
+                        if (getAttribute(TAG_USER_COMMENT) == null) {
+                            byte[] bytes = new byte[length];
+                            final ByteBuffer comment = jpg.duplicate();
+                            comment.position(position);
+                            comment.get(bytes);
+                            setAttribute(IFD_EXIF_HINT, TAG_USER_COMMENT, ExifAttribute.createString(
+                                    EXIF_TAG_USER_COMMENT,
+                                    decodePrefixString(bytes.length, bytes, ASCII)));
+                        }
+                        break;
+                    }
+                    case MARKER_SOF0:
+                    case MARKER_SOF1:
+                    case MARKER_SOF2:
+                    case MARKER_SOF3:
+                    case MARKER_SOF5:
+                    case MARKER_SOF6:
+                    case MARKER_SOF7:
+                    case MARKER_SOF9:
+                    case MARKER_SOF10:
+                    case MARKER_SOF11:
+                    case MARKER_SOF13:
+                    case MARKER_SOF14:
+                    case MARKER_SOF15: {
+                        if (length < 5) {
+                            throw new IOException("Invalid SOFx");
+                        }
+                        setAttribute(IFD_TIFF_HINT, TAG_IMAGE_LENGTH, ExifAttribute.createULong(EXIF_TAG_IMAGE_LENGTH,
+                                jpg.getShort(position + 1) & 0xffff, mExifByteOrder));
+                        setAttribute(IFD_TIFF_HINT, TAG_IMAGE_WIDTH, ExifAttribute.createULong(EXIF_TAG_IMAGE_WIDTH,
+                                jpg.getShort(position + 3) & 0xffff, mExifByteOrder));
+                        break;
+                    }
+                    default: {
+                        break;
+                    }
+                }
+                position += length;
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Invalid JPEG segment", e);
+        }
+    }
+
     // Stores a new JPEG image with EXIF attributes into a given output stream.
     public void saveJpegAttributes(InputStream inputStream, OutputStream outputStream, byte[] thumbnail)
             throws IOException {
@@ -1897,6 +2187,7 @@ public class ExifInterface {
             logDebug( "saveJpegAttributes starting with (inputStream: " + inputStream
                     + ", outputStream: " + outputStream + ")");
         }
+        detachAttributes();
         DataInputStream dataInputStream = new DataInputStream(inputStream);
         ByteOrderAwarenessDataOutputStream dataOutputStream =
                 new ByteOrderAwarenessDataOutputStream(outputStream, ByteOrder.BIG_ENDIAN);
@@ -1912,7 +2203,10 @@ public class ExifInterface {
         dataOutputStream.writeByte(MARKER);
         dataOutputStream.writeByte(MARKER_APP1);
 
-        writeExifSegment(dataOutputStream, 6, thumbnail);
+        int segmentSize = writeExifSegment(dataOutputStream, 6, thumbnail, 0, exifSegmentReserve);
+        // the new exif segment follows MARKER_SOI
+        mExifSegmentOffset = 2;
+        mExifSegmentLength = segmentSize + 2;
         byte[] bytes = new byte[4096];
         while (true) {
             byte marker = dataInputStream.readByte();
@@ -2035,7 +2329,11 @@ public class ExifInterface {
         }
         // Read primary image TIFF image file directory.
         readImageFileDirectory(dataInputStream, IFD_TIFF_HINT);
-        // Process thumbnail.
+        setThumbnailRange(exifBytes.length, exifOffsetFromBeginning);
+    }
+
+    // Process thumbnail.
+    private void setThumbnailRange(int exifLength, int exifOffsetFromBeginning) {
         String jpegInterchangeFormatString = getAttribute(JPEG_INTERCHANGE_FORMAT_TAG.name);
         String jpegInterchangeFormatLengthString =
                 getAttribute(JPEG_INTERCHANGE_FORMAT_LENGTH_TAG.name);
@@ -2046,7 +2344,7 @@ public class ExifInterface {
                         .parseInt(jpegInterchangeFormatLengthString);
                 // The following code limits the size of thumbnail size not to overflow EXIF data area.
                 jpegInterchangeFormatLength = Math.min(jpegInterchangeFormat
-                        + jpegInterchangeFormatLength, exifBytes.length) - jpegInterchangeFormat;
+                        + jpegInterchangeFormatLength, exifLength) - jpegInterchangeFormat;
                 if (jpegInterchangeFormat > 0 && jpegInterchangeFormatLength > 0) {
                     mHasThumbnail = true;
                     mThumbnailOffset = exifOffsetFromBeginning + jpegInterchangeFormat;
@@ -2198,6 +2496,140 @@ public class ExifInterface {
         }
     }
 
+    // Same as readExifSegment(byte[], int) but the ifd entries only point into exif.
+    private void readExifSegment(ByteBuffer exif, int exifOffsetFromBeginning) throws IOException {
+        // Parse TIFF Headers. See JEITA CP-3451C Table 1. page 10.
+        short byteOrder = exif.order(ByteOrder.BIG_ENDIAN).getShort(0);
+        switch (byteOrder) {
+            case BYTE_ALIGN_II:
+                mExifByteOrder = ByteOrder.LITTLE_ENDIAN;
+                break;
+            case BYTE_ALIGN_MM:
+                mExifByteOrder = ByteOrder.BIG_ENDIAN;
+                break;
+            default:
+                throw new IOException("Invalid byte order: " + Integer.toHexString(byteOrder));
+        }
+        exif.order(mExifByteOrder);
+        int startCode = exif.getShort(2) & 0xffff;
+        if (startCode != 0x2a) {
+            throw new IOException("Invalid exif start: " + Integer.toHexString(startCode));
+        }
+        // Read first ifd offset
+        long firstIfdOffset = exif.getInt(4) & 0xffffffffL;
+        if (firstIfdOffset < 8 || firstIfdOffset >= exif.limit()) {
+            throw new IOException("Invalid first Ifd offset: " + firstIfdOffset);
+        }
+        // Read primary image TIFF image file directory.
+        readImageFileDirectory(exif, (int) firstIfdOffset, IFD_TIFF_HINT, 0);
+        setThumbnailRange(exif.limit(), exifOffsetFromBeginning);
+    }
+
+    // Indexes the entries of an image file directory. Tag values are not decoded here.
+    private void readImageFileDirectory(ByteBuffer exif, int position, int hint, int depth) {
+        final int length = exif.limit();
+        if (position + 2 > length) {
+            // Return if there is no data from the offset.
+            return;
+        }
+        // See JEITA CP-3451 Figure 5. page 9.
+        short numberOfDirectoryEntry = exif.getShort(position);
+        position += 2;
+        if (position + 12 * numberOfDirectoryEntry > length) {
+            // Return if the size of entries is too big.
+            return;
+        }
+        for (short i = 0; i < numberOfDirectoryEntry; ++i, position += 12) {
+            int tagNumber = exif.getShort(position) & 0xffff;
+            int dataFormat = exif.getShort(position + 2) & 0xffff;
+            int numberOfComponents = exif.getInt(position + 4);
+            // Look up a corresponding tag from tag number
+            final ExifTag tag = sNumner2ExifTag[hint].get(tagNumber);
+            if (DEBUG_INTERNAL) {
+                logDebug(getContextDebugMessage(hint, tagNumber, dataFormat, numberOfComponents, tag));
+            }
+            if (tag == null || dataFormat <= 0 ||
+                    dataFormat >= IFD_FORMAT_BYTES_PER_FORMAT.length || numberOfComponents < 0) {
+                // Skip if the parsed tag number is not defined or invalid data format.
+                logWarn( "Skip tag entry[undefined tag or invalid format]: "
+                        + getContextDebugMessage(hint, tagNumber, dataFormat
+                        , numberOfComponents, tag));
+                continue;
+            }
+            // The value is stored in the data field or at the offset stored in the data field
+            // if the size of the entry value is bigger than 4.
+            long byteCount = (long) numberOfComponents * IFD_FORMAT_BYTES_PER_FORMAT[dataFormat];
+            int valueOffset = position + 8;
+            if (byteCount > 4) {
+                long offset = exif.getInt(valueOffset) & 0xffffffffL;
+                if (offset + byteCount <= length) {
+                    valueOffset = (int) offset;
+                } else {
+                    // Skip if invalid data offset.
+                    logWarn( "Skip tag entry[offset invalid " + offset + "(0x" +
+                            Long.toHexString(offset) +")]: "
+                            + getContextDebugMessage(hint, tagNumber, dataFormat
+                            , numberOfComponents, tag));
+                    continue;
+                }
+            }
+            // Recursively parse IFD when a IFD pointer tag appears.
+            int innerIfdHint = getIfdHintFromTagNumber(tagNumber);
+            if (innerIfdHint >= 0) {
+                long offset = -1L;
+                // Get offset from data field
+                switch (dataFormat) {
+                    case IFD_FORMAT_USHORT: {
+                        offset = exif.getShort(valueOffset) & 0xffff;
+                        break;
+                    }
+                    case IFD_FORMAT_SSHORT: {
+                        offset = exif.getShort(valueOffset);
+                        break;
+                    }
+                    case IFD_FORMAT_ULONG: {
+                        offset = exif.getInt(valueOffset) & 0xffffffffL;
+                        break;
+                    }
+                    case IFD_FORMAT_SLONG: {
+                        offset = exif.getInt(valueOffset);
+                        break;
+                    }
+                    default: {
+                        // Nothing to do
+                        break;
+                    }
+                }
+                if (offset > 0L && offset < length && depth < MAX_IFD_DEPTH) {
+                    readImageFileDirectory(exif, (int) offset, innerIfdHint, depth + 1);
+                } else {
+                    logWarn( "Skip jump into IFD [offset invalid " + offset + "(0x" +
+                            Long.toHexString(offset) +")]: "
+                            + getContextDebugMessage(hint, tagNumber, dataFormat
+                            , numberOfComponents, tag));
+                }
+                continue;
+            }
+
+            if ((tag.secondaryFormat == dataFormat) && (tag.primaryFormat == IFD_FORMAT_UCS2LE_STRING)) {
+                dataFormat = IFD_FORMAT_UCS2LE_STRING;
+            }
+            if ((tag.secondaryFormat == dataFormat) && (tag.primaryFormat == IFD_FORMAT_PREFIX_STRING)) {
+                dataFormat = IFD_FORMAT_PREFIX_STRING;
+            }
+            setAttribute(hint, tag.name, new ExifAttribute(tag, dataFormat, numberOfComponents,
+                    exif, valueOffset, (int) byteCount));
+        }
+        if (position + 4 <= length) {
+            long nextIfdOffset = exif.getInt(position) & 0xffffffffL;
+            // The next IFD offset needs to be bigger than 8
+            // since the first IFD offset is at least 8.
+            if (nextIfdOffset > 8 && nextIfdOffset < length && depth < MAX_IFD_DEPTH) {
+                readImageFileDirectory(exif, (int) nextIfdOffset, IFD_THUMBNAIL_HINT, depth + 1);
+            }
+        }
+    }
+
     private static String getContextDebugMessage(int hint, int tagNumber, int dataFormat, long numberOfComponents, ExifTag tag) {
         return String.format("hint: %d, tagNumber: %d(%05X), tagName: %s, dataFormat: %d(%s), " +
                         "numberOfComponents: %d", hint, tagNumber, tagNumber, tag != null ? tag.name : null,
@@ -2214,8 +2646,11 @@ public class ExifInterface {
         return -1;
     }
     // Writes an Exif segment into the given output stream.
+    // The segment is padded with zeros to at least minSegmentSize or totalSize + reserve.
+    // Returns the value of the segment length field.
     private int writeExifSegment(ByteOrderAwarenessDataOutputStream dataOutputStream,
-            int exifOffsetFromBeginning, byte[] thumbnail) throws IOException {
+            int exifOffsetFromBeginning, byte[] thumbnail, int minSegmentSize, int reserve)
+            throws IOException {
         // The following variables are for calculating each IFD tag group size in bytes.
         int[] ifdOffsets = new int[EXIF_TAGS.length];
         int[] ifdDataSizes = new int[EXIF_TAGS.length];
@@ -2305,8 +2740,10 @@ public class ExifInterface {
             setAttribute(IFD_EXIF_HINT,IFD_POINTER_TAGS[2].name, ExifAttribute.createULong(
                     IFD_POINTER_TAGS[2], ifdOffsets[IFD_INTEROPERABILITY_HINT], mExifByteOrder));
         }
+        int exifSegmentSize = Math.max(minSegmentSize, Math.min(totalSize + Math.max(reserve, 0), 0xffff));
+        exifSegmentSize = Math.max(exifSegmentSize, totalSize);
         // Write TIFF Headers. See JEITA CP-3451C Table 1. page 10.
-        dataOutputStream.writeUnsignedShort(totalSize);
+        dataOutputStream.writeUnsignedShort(exifSegmentSize);
         dataOutputStream.write(IDENTIFIER_EXIF_APP1);
         dataOutputStream.writeShort(mExifByteOrder == ByteOrder.BIG_ENDIAN
                 ? BYTE_ALIGN_MM : BYTE_ALIGN_II);
@@ -2345,7 +2782,7 @@ public class ExifInterface {
                         dataOutputStream.writeUnsignedInt(dataOffset);
                         dataOffset += size;
                     } else {
-                        dataOutputStream.write(attribute.bytes);
+                        dataOutputStream.write(attribute.getBytes());
                         // Fill zero up to 4 bytes
                         if (size < 4) {
                             for (int i = size; i < 4; ++i) {
@@ -2364,8 +2801,8 @@ public class ExifInterface {
                 }
                 // Write values of data field exceeding 4 bytes after the next offset.
                 for (final ExifAttribute attribute : values) {
-                    if (attribute.bytes.length > 4) {
-                        dataOutputStream.write(attribute.bytes, 0, attribute.bytes.length);
+                    if (attribute.byteCount > 4) {
+                        dataOutputStream.write(attribute.getBytes(), 0, attribute.byteCount);
                     }
                 }
             }
@@ -2375,9 +2812,14 @@ public class ExifInterface {
             dataOutputStream.write(thumbnail);
         }
 
+        if (exifSegmentSize > totalSize) {
+            // padding is ignored by exif readers
+            dataOutputStream.write(new byte[exifSegmentSize - totalSize]);
+        }
+
         // Reset the byte order to big endian in order to write remaining parts of the JPEG file.
         dataOutputStream.setByteOrder(ByteOrder.BIG_ENDIAN);
-        return totalSize;
+        return exifSegmentSize;
     }
     /**
      * Determines the data format of EXIF entry value.
@@ -2723,6 +3165,15 @@ public class ExifInterface {
         return "???";
     }
 
+    private static boolean startsWith(ByteBuffer content, int position, byte[] prefix) {
+        for (int i = 0; i < prefix.length; i++) {
+            if (content.get(position + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private static boolean startsWith(byte[] content, byte[] prefix) {
         for (int i = 0; i < prefix.length; ++i) {
             if (content[i] != prefix[i]) {
@@ -415,15 +415,20 @@ public class ExifInterfaceEx extends ExifInterface implements IMetaApi {
 
         ParsePosition pos = new ParsePosition(0);
         try {
-            return sExifDateTimeFormatter.parse(dateTimeString, pos);
+            // SimpleDateFormat is not thread safe
+            synchronized (sExifDateTimeFormatter) {
+                return sExifDateTimeFormatter.parse(dateTimeString, pos);
+            }
         } catch (IllegalArgumentException ex) {
             return null;
         }
     }
 
     protected static String toExifDateTimeString(Date value) {
-        final String exifDate = (value != null) ? sExifDateTimeFormatter.format(value) : null;
-        return exifDate;
+        if (value == null) return null;
+        synchronized (sExifDateTimeFormatter) {
+            return sExifDateTimeFormatter.format(value);
+        }
     }
 
     private void loadLatLon() {
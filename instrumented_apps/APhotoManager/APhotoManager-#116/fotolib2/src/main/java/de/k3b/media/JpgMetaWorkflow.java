@@ -187,7 +187,7 @@ public class JpgMetaWorkflow {
 
             if (newAbsoluteOutPath != null) {
                 String sourcePath = exif.getPath();
-                if ((sourcePath != null) && (sourcePath.compareTo(oldAbsoluteOutPath) == 0)) {
+                if ((transactionLogger != null) && (sourcePath != null) && (sourcePath.compareTo(oldAbsoluteOutPath) == 0)) {
                     // original intend was "change in same file" so add to log that filename has changed (rename/move)
                     transactionLogger.addChangesCopyMove(true, newAbsoluteOutPath, "handleVisibility");
                 }
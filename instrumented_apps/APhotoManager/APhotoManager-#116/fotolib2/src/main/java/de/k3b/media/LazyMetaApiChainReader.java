@@ -0,0 +1,327 @@
+/*
+ * Copyright (c) 2018 by k3b.
+ *
+ * This file is part of AndroFotoFinder / #APhotoManager.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>
+ */
+
+package de.k3b.media;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.k3b.FotoLibGlobal;
+import de.k3b.io.VISIBILITY;
+
+/**
+ * Read only {@link IMetaApi} that asks its sources in priority order and opens a source
+ * (i.e. parses exif or xmp) only when a needed field is not answered by the sources before it.
+ *
+ * Only the fields given in the constructor can be read. All other getters return null
+ * without opening any source.
+ *
+ * Unlike {@link MetaApiChainReader} this supports more than two sources.
+ *
+ * Created by k3b on 20.03.2018.
+ */
+public class LazyMetaApiChainReader implements IMetaApi {
+    private static final Logger logger = LoggerFactory.getLogger(FotoLibGlobal.LOG_TAG);
+
+    /** all fields that can be read via {@link IMetaApi} */
+    public static final EnumSet<MediaUtil.FieldID> ALL_FIELDS = EnumSet.of(
+            MediaUtil.FieldID.path, MediaUtil.FieldID.dateTimeTaken, MediaUtil.FieldID.title,
+            MediaUtil.FieldID.description, MediaUtil.FieldID.latitude_longitude,
+            MediaUtil.FieldID.rating, MediaUtil.FieldID.tags, MediaUtil.FieldID.visibility);
+
+    /** name of source to {opened, answered} counts. for tuning source order */
+    private static final Map<String, long[]> statistics = new LinkedHashMap<String, long[]>();
+
+    /** opens one meta data source on demand */
+    public static abstract class Source {
+        private final String name;
+
+        protected Source(String name) {
+            this.name = name;
+        }
+
+        /** @return null if source is not available */
+        protected abstract IMetaApi open() throws IOException;
+
+        public String getName() {
+            return name;
+        }
+
+        /** a source that is already open */
+        public static Source of(String name, final IMetaApi opened) {
+            return new Source(name) {
+                @Override
+                protected IMetaApi open() {
+                    return opened;
+                }
+            };
+        }
+    }
+
+    /** lazy reads the xmp sidecar file of a jpg */
+    public static Source createXmpSidecarSource(final String absoluteJpgPath, final String dbg_context) {
+        return new Source("xmp") {
+            @Override
+            protected IMetaApi open() {
+                return MediaXmpSegment.loadXmpSidecarContentOrNull(absoluteJpgPath, dbg_context);
+            }
+        };
+    }
+
+    private final EnumSet<MediaUtil.FieldID> neededFields;
+    private final Source[] sources;
+
+    /** sources[i] is opened if opened[i] */
+    private final IMetaApi[] openedSources;
+    private final boolean[] opened;
+
+    /** field => index of the source that answered it or -1 if no source answered */
+    private final Map<MediaUtil.FieldID, Integer> resolved = new EnumMap<MediaUtil.FieldID, Integer>(MediaUtil.FieldID.class);
+
+    /**
+     * @param neededFields fields that the caller wants to read.
+     * @param sources in priority order. first non empty value wins.
+     */
+    public LazyMetaApiChainReader(EnumSet<MediaUtil.FieldID> neededFields, Source... sources) {
+        this.neededFields = neededFields;
+        this.sources = sources;
+        this.openedSources = new IMetaApi[sources.length];
+        this.opened = new boolean[sources.length];
+    }
+
+    /** @return number of sources that have been opened so far */
+    public int getOpenedCount() {
+        int result = 0;
+        for (boolean isOpen : opened) {
+            if (isOpen) result++;
+        }
+        return result;
+    }
+
+    /** @return source that answered field or null. opens sources as needed */
+    private IMetaApi getSourceFor(MediaUtil.FieldID field) {
+        if (!neededFields.contains(field)) return null;
+
+        Integer index = resolved.get(field);
+        if (index == null) {
+            index = -1;
+            for (int i = 0; i < sources.length; i++) {
+                IMetaApi source = getOrOpen(i);
+                if ((source != null) && !isEmpty(source, field)) {
+                    index = i;
+                    count(sources[i].getName(), 1);
+                    break;
+                }
+            }
+            resolved.put(field, index);
+        }
+        return (index >= 0) ? openedSources[index] : null;
+    }
+
+    private IMetaApi getOrOpen(int index) {
+        if (!opened[index]) {
+            opened[index] = true;
+            count(sources[index].getName(), 0);
+            try {
+                openedSources[index] = sources[index].open();
+            } catch (IOException ex) {
+                logger.warn("LazyMetaApiChainReader: cannot open " + sources[index].getName() + ": " + ex.getMessage());
+            }
+        }
+        return openedSources[index];
+    }
+
+    private static boolean isEmpty(IMetaApi source, MediaUtil.FieldID field) {
+        switch (field) {
+            case path:
+                return isEmpty(source.getPath());
+            case dateTimeTaken:
+                return source.getDateTimeTaken() == null;
+            case title:
+                return isEmpty(source.getTitle());
+            case description:
+                return isEmpty(source.getDescription());
+            case latitude_longitude:
+                return source.getLatitude() == null;
+            case rating:
+                return source.getRating() == null;
+            case tags:
+                List<String> tags = source.getTags();
+                return (tags == null) || (tags.size() == 0);
+            case visibility:
+                return source.getVisibility() == null;
+            default:
+                return true;
+        }
+    }
+
+    private static boolean isEmpty(String value) {
+        return (value == null) || (value.length() == 0);
+    }
+
+    private static void count(String name, int what) {
+        synchronized (statistics) {
+            long[] counts = statistics.get(name);
+            if (counts == null) {
+                counts = new long[2];
+                statistics.put(name, counts);
+            }
+            counts[what]++;
+        }
+    }
+
+    /** @return per source: how often it was opened and how many fields it answered. */
+    public static String getStatistics() {
+        StringBuilder result = new StringBuilder();
+        synchronized (statistics) {
+            for (Map.Entry<String, long[]> entry : statistics.entrySet()) {
+                result.append(entry.getKey()).append(": opened=").append(entry.getValue()[0])
+                        .append(", answered=").append(entry.getValue()[1]).append("\n");
+            }
+        }
+        return result.toString();
+    }
+
+    /** @return how many fields have been answered by the source with name */
+    public static long getAnsweredCount(String name) {
+        synchronized (statistics) {
+            long[] counts = statistics.get(name);
+            return (counts == null) ? 0 : counts[1];
+        }
+    }
+
+    /** @return how often the source with name has been opened */
+    public static long getOpenCount(String name) {
+        synchronized (statistics) {
+            long[] counts = statistics.get(name);
+            return (counts == null) ? 0 : counts[0];
+        }
+    }
+
+    public static void resetStatistics() {
+        synchronized (statistics) {
+            statistics.clear();
+        }
+    }
+
+    @Override
+    public String getPath() {
+        IMetaApi source = getSourceFor(MediaUtil.FieldID.path);
+        return (source == null) ? null : source.getPath();
+    }
+
+    @Override
+    public Date getDateTimeTaken() {
+        IMetaApi source = getSourceFor(MediaUtil.FieldID.dateTimeTaken);
+        return (source == null) ? null : source.getDateTimeTaken();
+    }
+
+    /** latitude and longitude always come from the same source */
+    @Override
+    public Double getLatitude() {
+        IMetaApi source = getSourceFor(MediaUtil.FieldID.latitude_longitude);
+        return (source == null) ? null : source.getLatitude();
+    }
+
+    @Override
+    public Double getLongitude() {
+        IMetaApi source = getSourceFor(MediaUtil.FieldID.latitude_longitude);
+        return (source == null) ? null : source.getLongitude();
+    }
+
+    @Override
+    public String getTitle() {
+        IMetaApi source = getSourceFor(MediaUtil.FieldID.title);
+        return (source == null) ? null : source.getTitle();
+    }
+
+    @Override
+    public String getDescription() {
+        IMetaApi source = getSourceFor(MediaUtil.FieldID.description);
+        return (source == null) ? null : source.getDescription();
+    }
+
+    @Override
+    public List<String> getTags() {
+        IMetaApi source = getSourceFor(MediaUtil.FieldID.tags);
+        return (source == null) ? null : source.getTags();
+    }
+
+    @Override
+    public Integer getRating() {
+        IMetaApi source = getSourceFor(MediaUtil.FieldID.rating);
+        return (source == null) ? null : source.getRating();
+    }
+
+    @Override
+    public VISIBILITY getVisibility() {
+        IMetaApi source = getSourceFor(MediaUtil.FieldID.visibility);
+        return (source == null) ? null : source.getVisibility();
+    }
+
+    /* read only: changes are ignored */
+
+    @Override
+    public IMetaApi setPath(String filePath) {
+        return this;
+    }
+
+    @Override
+    public IMetaApi setDateTimeTaken(Date value) {
+        return this;
+    }
+
+    @Override
+    public IMetaApi setLatitudeLongitude(Double latitude, Double longitude) {
+        return this;
+    }
+
+    @Override
+    public IMetaApi setTitle(String title) {
+        return this;
+    }
+
+    @Override
+    public IMetaApi setDescription(String description) {
+        return this;
+    }
+
+    @Override
+    public IMetaApi setTags(List<String> tags) {
+        return this;
+    }
+
+    @Override
+    public IMetaApi setRating(Integer value) {
+        return this;
+    }
+
+    @Override
+    public IMetaApi setVisibility(VISIBILITY visibility) {
+        return this;
+    }
+}
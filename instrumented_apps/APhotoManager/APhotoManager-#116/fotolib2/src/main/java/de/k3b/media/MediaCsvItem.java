@@ -23,6 +23,7 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
+import de.k3b.csv2db.csv.CsvField;
 import de.k3b.csv2db.csv.CsvItem;
 import de.k3b.io.GeoUtil;
 import de.k3b.io.VISIBILITY;
@@ -45,6 +46,8 @@ public class MediaCsvItem extends CsvItem implements IMetaApi {
             MediaXmpFieldDefinition.Rating.getShortName() + DEFAULT_CSV_FIELD_DELIMITER +
             MediaXmpFieldDefinition.Visibility.getShortName();
 
+    private static final VISIBILITY[] VISIBILITY_VALUES = VISIBILITY.values();
+
     private int colFilePath;
     private int colFileModifyDate;
 
@@ -128,12 +131,20 @@ public class MediaCsvItem extends CsvItem implements IMetaApi {
 
     @Override
     public Double getLatitude() {
-        return GeoUtil.parse(getString("getLatitude", colLatitude),"NS");
+        return getLatLon("getLatitude", colLatitude, "NS");
     }
 
     @Override
     public Double getLongitude() {
-        return GeoUtil.parse(getString("getLongitude", colLongitude),"EW");
+        return getLatLon("getLongitude", colLongitude, "EW");
+    }
+
+    private Double getLatLon(String debugContext, int columnNumber, String plusMinus) {
+        // plain decimal numbers without creating a String
+        CharSequence value = getChars(debugContext, columnNumber);
+        Double result = CsvField.parseDecimal(value);
+        if ((result != null) || (value == null)) return result;
+        return GeoUtil.parse(value.toString(), plusMinus);
     }
 
     @Override
@@ -183,9 +194,12 @@ public class MediaCsvItem extends CsvItem implements IMetaApi {
 
     @Override
     public VISIBILITY getVisibility() {
-        String sValue = getString("getVisibility", colVisibility);
-        if (sValue == null) return null;
-        return VISIBILITY.valueOf(sValue);
+        CharSequence value = getChars("getVisibility", colVisibility);
+        if (value == null) return null;
+        for (VISIBILITY candidate : VISIBILITY_VALUES) {
+            if (CsvField.contentEquals(value, candidate.name())) return candidate;
+        }
+        return VISIBILITY.valueOf(value.toString());
     }
 
     @Override
@@ -163,6 +163,26 @@ public class MediaDiffCopy {
         return null;
     }
 
+    /** Additional incremental tag changes: addedTags will be added and removedTags will be removed
+     * when applied. return null if there is no diff at all */
+    public MediaDiffCopy addTagChanges(IMetaApi newData, List<String> addedTags, List<String> removedTags) {
+        int changeCount = 0;
+        if (addedTags != null) {
+            changeCount += TagProcessor.getDiff(this.addedTags, addedTags, this.addedTags, null);
+        }
+        if (removedTags != null) {
+            changeCount += TagProcessor.getDiff(this.removedTags, removedTags, this.removedTags, null);
+        }
+
+        if (changeCount > 0) {
+            if (this.diffSet == null) this.diffSet = EnumSet.noneOf(FieldID.class);
+            if (this.newData == null) this.newData = newData;
+            this.numberOfChangedFields += changeCount;
+        }
+
+        return (this.numberOfChangedFields > 0) ? this : null;
+    }
+
     /** Similar to {@link MediaUtil#copySpecificProperties(IMetaApi, IMetaApi, boolean, EnumSet)} but with special diff handling. */
     public List<FieldID> applyChanges(IMetaApi destination) {
         if (this.numberOfChangedFields > 0) {
@@ -199,6 +199,7 @@ public class MediaXmpSegment extends XmpSegment implements IMetaApi {
     @Override
     public XmpSegment save(File file, boolean humanReadable, String dbg_context) throws FileNotFoundException {
         fixAttributes(file);
+        XmpSidecarCache.getInstance().invalidate(file);
         return super.save(file, humanReadable, dbg_context);
     }
 
@@ -229,7 +230,15 @@ public class MediaXmpSegment extends XmpSegment implements IMetaApi {
         if ((xmpFile != null) && xmpFile.isFile() && xmpFile.exists() && xmpFile.canRead()) {
             xmpContent = new MediaXmpSegment();
             try {
-                xmpContent.load(xmpFile, dbg_context);
+                final XmpSidecarCache cache = XmpSidecarCache.getInstance();
+                XMPMeta cached = cache.get(xmpFile);
+                if (cached != null) {
+                    xmpContent.setXmpMeta(cached, dbg_context + " file:" + xmpFile);
+                    xmpContent.setFilelastModified(xmpFile);
+                } else {
+                    xmpContent.load(xmpFile, dbg_context);
+                    cache.put(xmpFile, xmpContent.getXmpMeta());
+                }
                 xmpContent.setLongFormat(xmpFile.isLongFormat());
                 xmpContent.setHasAlsoOtherFormat(xmpFile.isHasAlsoOtherFormat());
             } catch (FileNotFoundException e) {
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2018 by k3b.
+ *
+ * This file is part of AndroFotoFinder / #APhotoManager.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>
+ */
+
+package de.k3b.media;
+
+import com.adobe.xmp.XMPMeta;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import de.k3b.FotoLibGlobal;
+
+/**
+ * Least recently used cache of parsed xmp sidecar files so that
+ * the same xmp file is not parsed again while it is unchanged.
+ *
+ * Entries are identified by absolute path, file length and file modification date.
+ * Memory usage is estimated by the xmp file length and limited to
+ * {@link FotoLibGlobal#xmpCacheMaxBytes}.
+ *
+ * Cached content is copied on put and on get so that callers may modify their copy.
+ *
+ * Created by k3b on 20.03.2018.
+ */
+public class XmpSidecarCache {
+    private static XmpSidecarCache sInstance = null;
+
+    private static class Entry {
+        private final long length;
+        private final long lastModified;
+        private final XMPMeta xmpMeta;
+
+        Entry(long length, long lastModified, XMPMeta xmpMeta) {
+            this.length = length;
+            this.lastModified = lastModified;
+            this.xmpMeta = xmpMeta;
+        }
+    }
+
+    /** absolute xmp path to content in access order */
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    /** sum of all cached xmp file lengths */
+    private long mSize = 0;
+
+    private int mHitCount = 0;
+    private int mMissCount = 0;
+
+    public static synchronized XmpSidecarCache getInstance() {
+        if (sInstance == null) {
+            sInstance = new XmpSidecarCache();
+        }
+        return sInstance;
+    }
+
+    /** @return a copy of the cached content of xmpFile or null if not in cache or if xmpFile has changed. */
+    public synchronized XMPMeta get(File xmpFile) {
+        if ((xmpFile != null) && (FotoLibGlobal.xmpCacheMaxBytes > 0)) {
+            final String key = xmpFile.getAbsolutePath();
+            Entry entry = mEntries.get(key);
+            if (entry != null) {
+                if ((entry.length == xmpFile.length()) && (entry.lastModified == xmpFile.lastModified())) {
+                    mHitCount++;
+                    return (XMPMeta) entry.xmpMeta.clone();
+                }
+                remove(key);
+            }
+            mMissCount++;
+        }
+        return null;
+    }
+
+    /** remember a copy of xmpMeta as the content of xmpFile */
+    public synchronized void put(File xmpFile, XMPMeta xmpMeta) {
+        if ((xmpFile != null) && (xmpMeta != null)) {
+            final String key = xmpFile.getAbsolutePath();
+            remove(key);
+
+            final long length = xmpFile.length();
+            if ((length > 0) && (length <= FotoLibGlobal.xmpCacheMaxBytes)) {
+                mEntries.put(key, new Entry(length, xmpFile.lastModified(), (XMPMeta) xmpMeta.clone()));
+                mSize += length;
+                trim(FotoLibGlobal.xmpCacheMaxBytes);
+            }
+        }
+    }
+
+    /** must be called if xmpFile is written, moved or deleted */
+    public synchronized void invalidate(File xmpFile) {
+        if ((xmpFile != null) && (mEntries.size() > 0)) {
+            remove(xmpFile.getAbsolutePath());
+        }
+    }
+
+    public synchronized void clear() {
+        mEntries.clear();
+        mSize = 0;
+    }
+
+    /** number of entries in the cache */
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    /** estimated memory usage in bytes */
+    public synchronized long getSizeInBytes() {
+        return mSize;
+    }
+
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return this.getClass().getSimpleName() + "[" + mEntries.size() + " files, " + mSize +
+                " bytes, hit=" + mHitCount + ", miss=" + mMissCount + "]";
+    }
+
+    private void remove(String key) {
+        Entry old = mEntries.remove(key);
+        if (old != null) {
+            mSize -= old.length;
+        }
+    }
+
+    /** remove least recently used entries until size is below maxBytes */
+    private void trim(long maxBytes) {
+        Iterator<Map.Entry<String, Entry>> iterator = mEntries.entrySet().iterator();
+        while ((mSize > maxBytes) && iterator.hasNext()) {
+            mSize -= iterator.next().getValue().length;
+            iterator.remove();
+        }
+    }
+}
@@ -22,6 +22,7 @@ package de.k3b.tagDB;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import de.k3b.io.StringUtils;
 
@@ -52,13 +53,25 @@ public class Tag{
         }
     };
 
+    /** incremented every time name or parent of a tag that belongs to a {@link TagList} changes.
+     * Used to detect that the indexes of a {@link TagList} are outdated. */
+    private static final AtomicInteger sModificationCount = new AtomicInteger(0);
+
     private String name;
     private Tag parent;
 
+    /** true: tag was added to a {@link TagList} */
+    boolean inTagList = false;
+
+    static int getModificationCount() {
+        return sModificationCount.get();
+    }
+
     public String getName() {
         return name;
     }
     public Tag setName(String name) {
+        if (inTagList) sModificationCount.incrementAndGet();
         this.name = name;
         return this;
     }
@@ -75,6 +88,7 @@ public class Tag{
         }
 
         // there is no recursion
+        if (inTagList && (this.parent != parent)) sModificationCount.incrementAndGet();
         this.parent = parent;
         return this;
     }
@@ -163,6 +177,9 @@ public class Tag{
     }
 
     public static Tag findFirstChildByName(List<Tag> all, Tag parent, String name) {
+        if (all instanceof TagList) {
+            return ((TagList) all).findFirstChildByName(parent, name);
+        }
         if (all != null) {
             for(Tag candidate : all) {
                 if ((candidate != null) && (candidate.parent == parent) && name.equals(candidate.getName())) {
@@ -206,7 +223,7 @@ public class Tag{
                         if (recursive) {
                             result += child.delete(all, recursive);
                         } else {
-                            child.parent = this.parent;
+                            child.setParent(this.parent);
                         }
                     }
                 }
@@ -37,11 +37,13 @@ public class TagConverter {
         String[] tagsArray = ListUtils.asStringArray(tags);
         if (tagsArray == null) return null;
         if (wildcard == null)
-            return asDbString("","", ", ", "", tagsArray);
+            return asDbString("","", ", ", "", false, tagsArray);
         return asDbString(wildcard, tagsArray);
     }
 
-    private static String asDbString(String wildcard, String prefix, String seperator, String Suffix, String... tags) {
+    /** @param quoted true: tags are enclosed in quotes and may contain blanks and commas */
+    private static String asDbString(String wildcard, String prefix, String seperator, String Suffix,
+                                     boolean quoted, String... tags) {
         StringBuilder result = null;
         if ((tags != null) && (tags.length > 0)) {
             Arrays.sort(tags);
@@ -51,7 +53,7 @@ public class TagConverter {
                     if (result == null) result = new StringBuilder().append(wildcard);
                     result  .append(nextSeperator)
                             .append(prefix)
-                            .append(tag.replace(",", "").replace(" ", ""))
+                            .append(quoted ? tag.replace("\"", "") : tag.replace(",", "").replace(" ", ""))
                             .append(Suffix).append(wildcard);
                     nextSeperator = seperator;
                 }
@@ -69,7 +71,7 @@ public class TagConverter {
     }
 
     public static String asBatString(String... tagsArray) {
-        String tagsString = (tagsArray != null) ? asDbString("", "\"", " ", "\"", tagsArray) : null;
+        String tagsString = (tagsArray != null) ? asDbString("", "\"", " ", "\"", true, tagsArray) : null;
 
         return tagsString;
     }
@@ -79,8 +81,40 @@ public class TagConverter {
      * @param tags  @return i.e. "%;tag1;%;tag2;%" or ";tag1;;tag2;%"
      * */
     public static String asDbString(String wildcard, String... tags) {
-        return asDbString(wildcard,TAG_DB_DELIMITER, "", TAG_DB_DELIMITER, tags);
+        return asDbString(wildcard,TAG_DB_DELIMITER, "", TAG_DB_DELIMITER, false, tags);
     }
+    /** parse bat-command format "tag one" "tag2" ... created by {@link #asBatString(String...)}.
+     * Tags may contain blanks if they are quoted. */
+    public static List<String> fromBatString(String tags) {
+        if (tags == null) return null;
+        ArrayList<String> result = new ArrayList<String>();
+        final int length = tags.length();
+        int pos = 0;
+        while (pos < length) {
+            final char c = tags.charAt(pos);
+            int end;
+            if (Character.isWhitespace(c)) {
+                pos++;
+                continue;
+            } else if (c == '"') {
+                // "tag one"
+                pos++;
+                end = tags.indexOf('"', pos);
+                if (end < 0) end = length;
+            } else {
+                // unquoted: until next blank
+                end = pos;
+                while ((end < length) && !Character.isWhitespace(tags.charAt(end))) end++;
+            }
+            if (end > pos) {
+                result.add(tags.substring(pos, end));
+            }
+            pos = end + 1;
+        }
+        if (result.size() == 0) return null;
+        return result;
+    }
+
     public static List<String> fromString(Object tags) {
         if (tags == null) return null;
         ArrayList<String> result = new ArrayList<String>();
@@ -0,0 +1,337 @@
+/*
+ * Copyright (c) 2018 by k3b.
+ *
+ * This file is part of AndroFotoFinder / #APhotoManager.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>
+ */
+
+package de.k3b.tagDB;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The list of all tags of a {@link TagRepository}.
+ *
+ * Keeps a case insensitive name index and sorted name and path indexes so that lookups and
+ * prefix searches do not have to scan all tags. Indexes are updated while items are appended and rebuilt on demand
+ * after any other modification (including rename or move of a contained {@link Tag}).
+ *
+ * Also remembers which tags were appended since the last save so that
+ * {@link TagRepository#save()} can append instead of rewriting the whole file.
+ *
+ * Created by k3b on 16.03.2018.
+ */
+class TagList extends ArrayList<Tag> {
+    private static final long serialVersionUID = 1L;
+
+    /** lower case name to all tags with that name in list order. null: must be rebuilt */
+    private Map<String, List<Tag>> mNameIndex = null;
+
+    /** lower case paths sorted for prefix search. null: must be rebuilt */
+    private SortedIndex mPathIndex = null;
+
+    /** lower case names sorted for prefix search. null: must be rebuilt */
+    private SortedIndex mNamePrefixIndex = null;
+
+    /** {@link #modCount} and {@link Tag#getModificationCount()} the indexes belong to */
+    private int mExpectedModCount = 0;
+    private int mExpectedTagModCount = Tag.getModificationCount();
+
+    /** tags appended since last {@link #markSaved()} */
+    private final List<Tag> mAppended = new ArrayList<Tag>();
+
+    /** true: there was a modification other than append since last {@link #markSaved()} */
+    private boolean mRewriteRequired = true;
+
+    TagList() {
+        super();
+    }
+
+    /** lower case key used by the indexes */
+    static String toKey(String value) {
+        return (value == null) ? null : value.toLowerCase(Locale.ROOT);
+    }
+
+    // ---------- queries
+
+    /** @return first tag where name equals ignoring case or null if not found */
+    Tag findFirstByName(String name) {
+        List<Tag> candidates = getByName(name);
+        if (candidates != null) {
+            for (Tag candidate : candidates) {
+                if (name.equalsIgnoreCase(candidate.getName())) return candidate;
+            }
+        }
+        return null;
+    }
+
+    /** @return first tag below parent where name equals (case sensitive) or null if not found */
+    Tag findFirstChildByName(Tag parent, String name) {
+        List<Tag> candidates = getByName(name);
+        if (candidates != null) {
+            for (Tag candidate : candidates) {
+                if ((candidate.getParent() == parent) && name.equals(candidate.getName())) return candidate;
+            }
+        }
+        return null;
+    }
+
+    /** @return all tags whose name equals ignoring case. null if there is none. Do not modify the result. */
+    List<Tag> getByName(String name) {
+        if (name == null) return null;
+        return getNameIndex().get(toKey(name));
+    }
+
+    /** @return all tags where {@link Tag#getPath()} starts with pathPrefix ignoring case, sorted by path */
+    List<Tag> findByPathPrefix(String pathPrefix) {
+        if (pathPrefix == null) return new ArrayList<Tag>();
+        checkModification();
+        if (mPathIndex == null) mPathIndex = new SortedIndex(this, true);
+        return mPathIndex.findByPrefix(toKey(pathPrefix));
+    }
+
+    /** @return all tags where {@link Tag#getName()} starts with namePrefix ignoring case, sorted by name */
+    List<Tag> findByNamePrefix(String namePrefix) {
+        if (namePrefix == null) return new ArrayList<Tag>();
+        checkModification();
+        if (mNamePrefixIndex == null) mNamePrefixIndex = new SortedIndex(this, false);
+        return mNamePrefixIndex.findByPrefix(toKey(namePrefix));
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (o instanceof Tag) {
+            List<Tag> candidates = getByName(((Tag) o).getName());
+            if (candidates != null) {
+                for (Tag candidate : candidates) {
+                    if (o.equals(candidate)) return true;
+                }
+            }
+            return false;
+        }
+        return super.contains(o);
+    }
+
+    // ---------- persistence support
+
+    /** true: file must be rewritten because there are changes other than appending tags. */
+    boolean isRewriteRequired() {
+        checkModification();
+        return mRewriteRequired;
+    }
+
+    /** tags appended since last save */
+    List<Tag> getAppended() {
+        checkModification();
+        return mAppended;
+    }
+
+    /** current content is in sync with the repository file */
+    void markSaved() {
+        checkModification();
+        mAppended.clear();
+        mRewriteRequired = false;
+    }
+
+    // ---------- modification
+
+    @Override
+    public boolean add(Tag tag) {
+        checkModification();
+        boolean result = super.add(tag);
+        mExpectedModCount = modCount;
+        onAppended(tag);
+        return result;
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends Tag> tags) {
+        checkModification();
+        boolean result = super.addAll(tags);
+        mExpectedModCount = modCount;
+        for (Tag tag : tags) {
+            onAppended(tag);
+        }
+        return result;
+    }
+
+    @Override
+    public void add(int index, Tag tag) {
+        super.add(index, tag);
+        if (tag != null) tag.inTagList = true;
+        onOtherModification();
+    }
+
+    @Override
+    public boolean addAll(int index, Collection<? extends Tag> tags) {
+        boolean result = super.addAll(index, tags);
+        for (Tag tag : tags) {
+            if (tag != null) tag.inTagList = true;
+        }
+        onOtherModification();
+        return result;
+    }
+
+    @Override
+    public Tag set(int index, Tag tag) {
+        Tag result = super.set(index, tag);
+        if (tag != null) tag.inTagList = true;
+        onOtherModification();
+        return result;
+    }
+
+    @Override
+    public Tag remove(int index) {
+        Tag result = super.remove(index);
+        onOtherModification();
+        return result;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        boolean result = super.remove(o);
+        if (result) onOtherModification();
+        return result;
+    }
+
+    @Override
+    public boolean removeAll(Collection<?> c) {
+        boolean result = super.removeAll(c);
+        if (result) onOtherModification();
+        return result;
+    }
+
+    @Override
+    public boolean retainAll(Collection<?> c) {
+        boolean result = super.retainAll(c);
+        if (result) onOtherModification();
+        return result;
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        onOtherModification();
+    }
+
+    private void onAppended(Tag tag) {
+        if (tag != null) {
+            tag.inTagList = true;
+            if (mNameIndex != null) addToNameIndex(mNameIndex, tag);
+        }
+        mPathIndex = null;
+        mNamePrefixIndex = null;
+        if (!mRewriteRequired) mAppended.add(tag);
+    }
+
+    private void onOtherModification() {
+        mExpectedModCount = modCount;
+        invalidate();
+    }
+
+    /** detects modifications that did not go through the overwritten methods, i.e. iterator.remove() or tag rename */
+    private void checkModification() {
+        if ((mExpectedModCount != modCount) || (mExpectedTagModCount != Tag.getModificationCount())) {
+            mExpectedModCount = modCount;
+            mExpectedTagModCount = Tag.getModificationCount();
+            invalidate();
+        }
+    }
+
+    private void invalidate() {
+        mNameIndex = null;
+        mPathIndex = null;
+        mNamePrefixIndex = null;
+        mAppended.clear();
+        mRewriteRequired = true;
+    }
+
+    // ---------- index maintenance
+
+    private Map<String, List<Tag>> getNameIndex() {
+        checkModification();
+        if (mNameIndex == null) {
+            Map<String, List<Tag>> index = new HashMap<String, List<Tag>>(size() * 2);
+            for (Tag tag : this) {
+                addToNameIndex(index, tag);
+            }
+            mNameIndex = index;
+        }
+        return mNameIndex;
+    }
+
+    private static void addToNameIndex(Map<String, List<Tag>> index, Tag tag) {
+        final String key = (tag != null) ? toKey(tag.getName()) : null;
+        if (key != null) {
+            List<Tag> tags = index.get(key);
+            if (tags == null) {
+                // most names are unique
+                tags = new ArrayList<Tag>(1);
+                index.put(key, tags);
+            }
+            tags.add(tag);
+        }
+    }
+
+    /** lower case paths or names sorted for prefix search with the corresponding tags */
+    private static class SortedIndex {
+        private final String[] mKeys;
+        private final Tag[] mTags;
+
+        SortedIndex(List<Tag> tags, boolean byPath) {
+            final int size = tags.size();
+            final String[] keys = new String[size];
+            final Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                final Tag tag = tags.get(i);
+                final String key = (tag == null) ? null : toKey(byPath ? tag.getPath() : tag.getName());
+                keys[i] = (key != null) ? key : "";
+                order[i] = i;
+            }
+
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer lhs, Integer rhs) {
+                    return keys[lhs].compareTo(keys[rhs]);
+                }
+            });
+
+            mKeys = new String[size];
+            mTags = new Tag[size];
+            for (int i = 0; i < size; i++) {
+                mKeys[i] = keys[order[i]];
+                mTags[i] = tags.get(order[i]);
+            }
+        }
+
+        /** @param key lower case prefix */
+        List<Tag> findByPrefix(String key) {
+            List<Tag> result = new ArrayList<Tag>();
+            int pos = Arrays.binarySearch(mKeys, key);
+            if (pos < 0) pos = -(pos + 1);
+            while ((pos < mKeys.length) && mKeys[pos].startsWith(key)) {
+                result.add(mTags[pos++]);
+            }
+            return result;
+        }
+    }
+}
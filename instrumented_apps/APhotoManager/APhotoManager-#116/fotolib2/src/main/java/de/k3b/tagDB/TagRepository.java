@@ -31,13 +31,21 @@ import java.io.Reader;
 import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
 import de.k3b.FotoLibGlobal;
 
 /**
  * Persistence for all known tags.
  *
+ * The file contains one tag per line where children are indented below their parent.
+ * New tags are appended to the end of the file (together with their parents) so that
+ * {@link #save()} does not have to rewrite the whole file. Duplicate lines are merged while loading.
+ * The file is compacted (rewritten) if there are other modifications or too many appended lines.
+ *
  * Created by k3b on 04.10.2016.
  */
 
@@ -52,6 +60,10 @@ public class TagRepository {
     private static final String IMPORT_ROOT = "unsorted";
     public static final String INDENT = "\t";
 
+    /** public to allow global settings to enable/disable.
+     * Rewrite the whole file if appended lines exceed this number and 25% of the tags. */
+    public static int compactAfterAppendedLines = 200;
+
     private static TagRepository sInstance = null;
 
     /** Where data is loaded from/saved to */
@@ -63,6 +75,9 @@ public class TagRepository {
     /** where new, unknown items are added to */
     private Tag mImportRoot = null;
 
+    /** number of redundant lines in the file that were appended since last compaction */
+    private int mAppendedLineCount = 0;
+
     /** Connect repository to a {@link File}. */
     public TagRepository(File file) {
         this.mFile = file;
@@ -203,12 +218,15 @@ public class TagRepository {
      */
     public List<Tag> load() {
         if (mItemList == null) {
-            mItemList = new ArrayList<>();
+            TagList items = new TagList();
+            mItemList = items;
+            mAppendedLineCount = 0;
             if (this.mFile.exists()) {
                 try {
-                    load(mItemList, new FileReader(this.mFile));
+                    mAppendedLineCount = load(mItemList, new FileReader(this.mFile));
 
                     sortByFullPathIgnoreCase();
+                    items.markSaved();
                 } catch (IOException e) {
                     e.printStackTrace();
                 }
@@ -257,19 +275,39 @@ public class TagRepository {
     }
 
     /** Save from meomory to repositoryfile.
+     * Appends new tags if possible else rewrites the file.
      *
      * @return false: error.
      */
     public TagRepository save() {
         try {
             if ((mItemList != null) && (mItemList.size() > 0)) {
+                final TagList items = (mItemList instanceof TagList) ? (TagList) mItemList : null;
                 if (!this.mFile.exists()) {
                     this.mFile.getParentFile().mkdirs();
+                } else if ((items != null) && !items.isRewriteRequired()) {
+                    List<Tag> appended = items.getAppended();
+                    if (appended.isEmpty()) {
+                        if (FotoLibGlobal.debugEnabled) {
+                            logger.debug(dbg_context + "save(): no changes for " + this.mFile);
+                        }
+                        return this;
+                    }
+
+                    if (mAppendedLineCount + appended.size() <= Math.max(compactAfterAppendedLines, items.size() / 4)) {
+                        logger.debug(dbg_context + "save(): append " + appended.size() + " items to " + this.mFile);
+
+                        mAppendedLineCount += append(appended, new FileWriter(this.mFile, true), INDENT);
+                        items.markSaved();
+                        return this;
+                    }
                 }
 
                 logger.debug(dbg_context + "save(): " + mItemList.size() + " items to " + this.mFile);
 
                 save(mItemList, new FileWriter(this.mFile, false), INDENT);
+                mAppendedLineCount = 0;
+                if (items != null) items.markSaved();
             }
         } catch (IOException e) {
             e.printStackTrace();
@@ -281,11 +319,13 @@ public class TagRepository {
     }
 
     // Load(new InputStreamReader(inputStream, "UTF-8"))
-    /** Load points from reader */
-    public void load(List<Tag> result, Reader reader) throws IOException {
+    /** Load points from reader. Lines with the same path as a previous line are merged.
+     *
+     * @return number of merged duplicate lines */
+    public int load(List<Tag> result, Reader reader) throws IOException {
         String rawLine;
         BufferedReader br = new BufferedReader(reader);
-        int initialResultSize = result.size();
+        List<Tag> lineItems = new ArrayList<Tag>();
         List<Integer> indents = new ArrayList<Integer>();
         while ((rawLine = br.readLine()) != null) {
             String line = rawLine.trim();
@@ -299,7 +339,7 @@ public class TagRepository {
                 */
 
                 if (valid) {
-                    result.add((Tag) item);
+                    lineItems.add((Tag) item);
                     indents.add(getIndent(rawLine));
                 }
 
@@ -307,31 +347,57 @@ public class TagRepository {
         }
         br.close();
 
-        inferParentsFromIndents(result, initialResultSize, indents);
+        return inferParentsFromIndents(result, lineItems, indents);
     }
 
-    private void inferParentsFromIndents(List<Tag> result, int initialResultSize, List<Integer> indents) {
+    /** sets the parents of lineItems and adds them to result.
+     * Lines with same parent and name as a previous line (i.e. appended by save()) are merged.
+     *
+     * @return number of merged lines */
+    private int inferParentsFromIndents(List<Tag> result, List<Tag> lineItems, List<Integer> indents) {
+        if (lineItems.isEmpty()) return 0;
+
+        // parent to (name to child)
+        Map<Tag, Map<String, Tag>> children = new IdentityHashMap<Tag, Map<String, Tag>>();
+        int merged = 0;
         Tag lastTag     = null;
         int lastIndent  = indents.get(0);
         Tag lastParent     = null;
 
         for (int i = 0; i < indents.size(); i++) {
-            Tag cur = result.get(initialResultSize + i);
+            Tag cur = lineItems.get(i);
             int indent = indents.get(i);
             if (indent > lastIndent) {
                 lastParent = lastTag;
             } else if (indent < lastIndent) {
                 int parentIndex = findParentIndexByIndent(indents, i, indent);
                 if (parentIndex >= 0) {
-                    lastParent  = result.get(initialResultSize + parentIndex);
+                    lastParent  = lineItems.get(parentIndex);
                 } else {
                     lastParent     = null;
                 }
             } // else if (indent == lastIndent) lastParent remains the same
-            cur.setParent(lastParent);
+
+            Map<String, Tag> siblings = children.get(lastParent);
+            if (siblings == null) {
+                siblings = new HashMap<String, Tag>();
+                children.put(lastParent, siblings);
+            }
+            Tag existing = siblings.get(cur.getName());
+            if (existing != null) {
+                // duplicate: following children belong to the existing tag
+                lineItems.set(i, existing);
+                cur = existing;
+                merged++;
+            } else {
+                cur.setParent(lastParent);
+                siblings.put(cur.getName(), cur);
+                result.add(cur);
+            }
             lastIndent = indent;
             lastTag = cur;
         }
+        return merged;
     }
 
     private int findParentIndexByIndent(List<Integer> indents, int index, int indent) {
@@ -376,6 +442,42 @@ public class TagRepository {
         writer.close();
     }
 
+    /** Appends new items including their parents to writer.
+     *
+     * @return number of lines written */
+    protected int append(List<Tag> newItems, Writer writer, String indent) throws IOException {
+        List<Tag> sorted = new ArrayList<>(newItems);
+        Collections.sort(sorted, Tag.COMPARATOR_HIERARCHY);
+
+        int lines = 0;
+        // parents (root first) of the previous written item
+        List<Tag> lastPath = new ArrayList<Tag>();
+        try {
+            for (Tag item : sorted) {
+                if (!isValid(item)) continue;
+
+                List<Tag> path = new ArrayList<Tag>();
+                for (Tag cur = item; cur != null; cur = cur.getParent()) {
+                    path.add(0, cur);
+                }
+
+                // parents that were already written for the previous item are not repeated
+                int common = 0;
+                while ((common < path.size()) && (common < lastPath.size()) && (path.get(common) == lastPath.get(common))) {
+                    common++;
+                }
+
+                for (int level = common; level < path.size(); level++) {
+                    if (saveItem(writer, path.get(level), indent)) lines++;
+                }
+                lastPath = path;
+            }
+        } finally {
+            writer.close();
+        }
+        return lines;
+    }
+
     /** Saves one point to writer */
     protected boolean saveItem(Writer writer, Tag item, String indent) throws IOException {
         final boolean valid = isValid(item);
@@ -423,6 +525,9 @@ public class TagRepository {
     }
 
     public static Tag findFirstByName(List<Tag> items, String name) {
+        if (items instanceof TagList) {
+            return ((TagList) items).findFirstByName(name);
+        }
         if (items != null) {
             for (Tag item : items) {
                 if (name.equalsIgnoreCase(item.getName())) return item;
@@ -431,6 +536,52 @@ public class TagRepository {
         return null;
     }
 
+    /**
+     * Prefix search over the tag names ignoring case.
+     *
+     * @return matching tags sorted by name.
+     */
+    public List<Tag> findByNamePrefix(String namePrefix) {
+        List<Tag> items = load();
+        if (items instanceof TagList) {
+            return ((TagList) items).findByNamePrefix(namePrefix);
+        }
+
+        List<Tag> result = new ArrayList<Tag>();
+        if (namePrefix != null) {
+            for (Tag item : items) {
+                String name = (item != null) ? item.getName() : null;
+                if ((name != null) && name.regionMatches(true, 0, namePrefix, 0, namePrefix.length())) {
+                    result.add(item);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Prefix search over the full tag paths ("/parent/child") ignoring case.
+     *
+     * @return matching tags sorted by path.
+     */
+    public List<Tag> findByPathPrefix(String pathPrefix) {
+        List<Tag> items = load();
+        if (items instanceof TagList) {
+            return ((TagList) items).findByPathPrefix(pathPrefix);
+        }
+
+        List<Tag> result = new ArrayList<Tag>();
+        if (pathPrefix != null) {
+            for (Tag item : items) {
+                if ((item != null) && item.getPath().regionMatches(true, 0, pathPrefix, 0, pathPrefix.length())) {
+                    result.add(item);
+                }
+            }
+            Collections.sort(result, Tag.COMPARATOR_HIERARCHY);
+        }
+        return result;
+    }
+
     /** get or create parent-tag where alle import are appendend as children
      * if they are not contained yet */
     public Tag getImportRoot() {
@@ -480,6 +631,11 @@ public class TagRepository {
         int changes = 0;
         if (oldTagName.compareTo(newTagName) != 0) {
             List<Tag> items = load();
+            if (items instanceof TagList) {
+                // copy: the index is rebuilt after the first rename
+                List<Tag> candidates = ((TagList) items).getByName(oldTagName);
+                items = (candidates != null) ? new ArrayList<Tag>(candidates) : new ArrayList<Tag>();
+            }
             for (Tag t : items) {
                 if (oldTagName.compareTo(t.getName()) == 0) {
                     t.setName(newTagName);
@@ -21,14 +21,25 @@ package de.k3b.transactionlog;
 import java.io.BufferedWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.Iterator;
 import java.util.List;
 
+import de.k3b.io.DateUtil;
+import de.k3b.io.VISIBILITY;
 import de.k3b.media.MediaDTO;
+import de.k3b.media.MediaDiffCopy;
+import de.k3b.media.MediaUtil;
+import de.k3b.media.MediaUtil.FieldID;
+import de.k3b.tagDB.TagConverter;
+import de.k3b.tagDB.TagProcessor;
 
 /**
  * Analyses TransactionLog to generate move/copy/delete script and update-dtos.
  *
+ * All entries of one media item are folded into one {@link Status} so that
+ * the changes can be written with one {@link MediaDiffCopy} per file.
+ *
  * Created by k3b on 21.02.2017.
  */
 
@@ -44,10 +55,127 @@ public class TransactionLogParser {
         private long lastId=-1;
         private String path;
 
+        /** the fields of dto that were changed by the log */
+        private final EnumSet<FieldID> changes = EnumSet.noneOf(FieldID.class);
+
+        /** incremental tag changes that are not covered by an absolute TAGS entry */
+        private final List<String> addedTags = new ArrayList<String>();
+        private final List<String> removedTags = new ArrayList<String>();
+
         public Status(IMediaTransactionLogEntry log) {
             lastId = log.getMediaID();
         }
 
+        public long getMediaID() {
+            return lastId;
+        }
+
+        /** folds one log entry into dto. later entries overwrite earlier values. */
+        protected void add(MediaTransactionLogEntryType command, String data) {
+            switch (command) {
+                case GPS: {
+                    String[] latLon = (data == null) ? null : data.trim().split("\\s+");
+                    if ((latLon != null) && (latLon.length == 2)) {
+                        try {
+                            dto.setLatitudeLongitude(Double.valueOf(latLon[0]), Double.valueOf(latLon[1]));
+                            changes.add(FieldID.latitude_longitude);
+                        } catch (NumberFormatException ignore) {
+                            // invalid log data is ignored
+                        }
+                    }
+                    break;
+                }
+                case DESCRIPTION:
+                    dto.setDescription(data);
+                    changes.add(FieldID.description);
+                    break;
+                case HEADER:
+                    dto.setTitle(data);
+                    changes.add(FieldID.title);
+                    break;
+                case RATING:
+                    try {
+                        dto.setRating((data == null) ? null : Integer.valueOf(data.trim()));
+                        changes.add(FieldID.rating);
+                    } catch (NumberFormatException ignore) {
+                        // invalid log data is ignored
+                    }
+                    break;
+                case DATE:
+                    dto.setDateTimeTaken(DateUtil.parseIsoDate(data));
+                    changes.add(FieldID.dateTimeTaken);
+                    break;
+                case VISIBILITY: {
+                    // i.e. "1 PRIVATE"
+                    String value = (data == null) ? null : data.trim();
+                    int lastBlank = (value == null) ? -1 : value.lastIndexOf(' ');
+                    VISIBILITY visibility = VISIBILITY.fromString((lastBlank >= 0) ? value.substring(lastBlank + 1) : value);
+                    if (visibility != null) {
+                        dto.setVisibility(visibility);
+                        changes.add(FieldID.visibility);
+                    }
+                    break;
+                }
+                case TAGS:
+                    dto.setTags(TagConverter.fromBatString(data));
+                    changes.add(FieldID.tags);
+                    addedTags.clear();
+                    removedTags.clear();
+                    break;
+                case TAGSADD:
+                    addTags(TagConverter.fromBatString(data), addedTags, removedTags);
+                    break;
+                case TAGSREMOVE:
+                    addTags(TagConverter.fromBatString(data), removedTags, addedTags);
+                    break;
+                default:
+                    // file operations and comments do not modify the media content
+                    break;
+            }
+        }
+
+        private void addTags(List<String> tags, List<String> to, List<String> from) {
+            if (tags != null) {
+                if (changes.contains(FieldID.tags)) {
+                    // absolute tags are already known: apply to them
+                    List<String> updated = (to == addedTags)
+                            ? TagProcessor.getUpdated(dto.getTags(), tags, null)
+                            : TagProcessor.getUpdated(dto.getTags(), null, tags);
+                    if (updated != null) dto.setTags(updated);
+                } else {
+                    from.removeAll(tags);
+                    TagProcessor.getDiff(to, tags, to, null);
+                }
+            }
+        }
+
+        /** folds the changes of a later media item with the same path into this
+         * so that the file is written only once. Afterwards this belongs to the later media item. */
+        public Status merge(Status later) {
+            lastId = later.lastId;
+            if (later.changes.size() > 0) {
+                MediaUtil.copySpecificProperties(dto, later.dto, true, later.changes);
+                changes.addAll(later.changes);
+            }
+            if (later.changes.contains(FieldID.tags)) {
+                // later absolute tags replace all previous tag changes
+                addedTags.clear();
+                removedTags.clear();
+            }
+            addTags(later.addedTags, addedTags, removedTags);
+            addTags(later.removedTags, removedTags, addedTags);
+            return this;
+        }
+
+        /** @return all changes of this media item as one diff or null if there are no changes. */
+        public MediaDiffCopy createDiffCopy() {
+            MediaDiffCopy result = new MediaDiffCopy(true, true);
+            if (changes.size() > 0) {
+                result.setDiff(dto, EnumSet.copyOf(changes));
+            }
+            return result.addTagChanges(dto, addedTags, removedTags);
+        }
+
         public void setPath(String path) {
             this.path = path;
         }
@@ -93,16 +221,19 @@ public class TransactionLogParser {
         if (log != null) {
             Status status = createMedia(log);
             while (null != (log = getNextLog())) {
-                if (null == process(status, log)) {
+                if (status == null) {
+                    // previous media was deleted: continue with next media
+                    status = createMedia(log);
+                } else if (null == process(status, log)) {
                     if (status.isDelete) {
-                        log = getNextLog();
-                        status = createMedia(log);
+                        status = null;
                     } else {
                         this.lastLog = log;
                         return status;
                     }
                 }
             }
+            return status;
         }
         return null;
     }
@@ -128,6 +259,11 @@ public class TransactionLogParser {
             return null;
         }
         status.setPath(log.getFullPath());
+        if (command.compareTo(MediaTransactionLogEntryType.MOVE) == 0) {
+            // following entries will use the new path
+            status.setPath(log.getCommandData());
+        }
+        status.add(command, log.getCommandData());
         return status;
     }
 }
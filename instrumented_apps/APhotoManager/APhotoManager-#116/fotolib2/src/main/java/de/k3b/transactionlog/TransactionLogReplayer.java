@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2018 by k3b.
+ *
+ * This file is part of AndroFotoFinder / #APhotoManager.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>
+ */
+package de.k3b.transactionlog;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import de.k3b.FotoLibGlobal;
+import de.k3b.media.JpgMetaWorkflow;
+import de.k3b.media.MediaDiffCopy;
+
+/**
+ * Replays a TransactionLog into the photo files.
+ *
+ * All pending entries of a photo are folded into one {@link MediaDiffCopy} so that
+ * every photo file is read and written only once. Media items that share the same file
+ * are merged in log order.
+ * Different photo files are updated in parallel
+ * (see {@link FotoLibGlobal#transactionLogReplayThreads}).
+ *
+ * File operations (delete/move/copy) are not executed: deletes are written to the
+ * fileUpdateBatch and metadata is written to the file at its latest (moved) path.
+ *
+ * Created by k3b on 20.03.2018.
+ */
+public class TransactionLogReplayer {
+    private static final Logger logger = LoggerFactory.getLogger(FotoLibGlobal.LOG_TAG);
+
+    private final JpgMetaWorkflow workflow;
+
+    /**
+     * @param workflow that writes the changes. It should not have a transactionLogger
+     *                 so that replayed changes are not logged again.
+     */
+    public TransactionLogReplayer(JpgMetaWorkflow workflow) {
+        this.workflow = workflow;
+    }
+
+    /** @return number of modified photo files */
+    public int replay(Iterator<IMediaTransactionLogEntry> transactions, BufferedWriter fileUpdateBatch) throws IOException {
+        TransactionLogParser parser = new TransactionLogParser(groupByMediaID(transactions), fileUpdateBatch);
+
+        // one diff per file. multiple media items with the same path are merged in log order
+        Map<String, TransactionLogParser.Status> statusByPath = new LinkedHashMap<String, TransactionLogParser.Status>();
+        TransactionLogParser.Status status;
+        while (null != (status = parser.getNext())) {
+            String path = status.getPath();
+            if (path != null) {
+                TransactionLogParser.Status previous = statusByPath.get(path);
+                if (previous == null) {
+                    statusByPath.put(path, status);
+                } else {
+                    previous.merge(status);
+                }
+            }
+        }
+
+        Map<String, MediaDiffCopy> diffByPath = new LinkedHashMap<String, MediaDiffCopy>();
+        Map<String, Long> idsByPath = new LinkedHashMap<String, Long>();
+        for (Map.Entry<String, TransactionLogParser.Status> file : statusByPath.entrySet()) {
+            MediaDiffCopy diff = file.getValue().createDiffCopy();
+            if (diff != null) {
+                diffByPath.put(file.getKey(), diff);
+                idsByPath.put(file.getKey(), file.getValue().getMediaID());
+            }
+        }
+
+        int modifyCount = 0;
+        int threads = Math.min(FotoLibGlobal.transactionLogReplayThreads, diffByPath.size());
+        if (threads <= 1) {
+            for (Map.Entry<String, MediaDiffCopy> file : diffByPath.entrySet()) {
+                modifyCount += applyChanges(file.getKey(), idsByPath.get(file.getKey()), file.getValue());
+            }
+        } else {
+            modifyCount = applyChangesParallel(threads, diffByPath, idsByPath);
+        }
+
+        // TagRepository is not thread safe
+        for (MediaDiffCopy diff : diffByPath.values()) {
+            diff.fixTagRepository();
+            diff.close();
+        }
+        return modifyCount;
+    }
+
+    private int applyChangesParallel(int threads, Map<String, MediaDiffCopy> diffByPath,
+                                     final Map<String, Long> idsByPath) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+            for (final Map.Entry<String, MediaDiffCopy> file : diffByPath.entrySet()) {
+                results.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        return applyChanges(file.getKey(), idsByPath.get(file.getKey()), file.getValue());
+                    }
+                }));
+            }
+
+            int modifyCount = 0;
+            for (Future<Integer> result : results) {
+                modifyCount += result.get();
+            }
+            return modifyCount;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("replay interrupted", ex);
+        } catch (ExecutionException ex) {
+            throw new IOException("replay failed", ex.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /** write all changes of one file. @return 1 if file was modified else 0 */
+    protected int applyChanges(String path, long id, MediaDiffCopy diff) {
+        File file = new File(path);
+        if (!file.exists()) {
+            logger.warn(TransactionLogReplayer.class.getSimpleName() + ": file not found " + path);
+            return 0;
+        }
+
+        return (null != workflow.applyChanges(file, null, id, false, diff)) ? 1 : 0;
+    }
+
+    /**
+     * @return all entries where the entries of the same media item are next to each other
+     * in their original order. Media items are ordered by their first entry.
+     */
+    public static Iterator<IMediaTransactionLogEntry> groupByMediaID(Iterator<IMediaTransactionLogEntry> transactions) {
+        Map<Long, List<IMediaTransactionLogEntry>> groups = new LinkedHashMap<Long, List<IMediaTransactionLogEntry>>();
+        while (transactions.hasNext()) {
+            IMediaTransactionLogEntry entry = transactions.next();
+            List<IMediaTransactionLogEntry> group = groups.get(entry.getMediaID());
+            if (group == null) {
+                group = new ArrayList<IMediaTransactionLogEntry>();
+                groups.put(entry.getMediaID(), group);
+            }
+            group.add(entry);
+        }
+
+        List<IMediaTransactionLogEntry> result = new ArrayList<IMediaTransactionLogEntry>();
+        for (List<IMediaTransactionLogEntry> group : groups.values()) {
+            result.addAll(group);
+        }
+        return result.iterator();
+    }
+}
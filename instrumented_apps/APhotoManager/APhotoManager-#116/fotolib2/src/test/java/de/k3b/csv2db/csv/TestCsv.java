@@ -97,6 +97,48 @@ public class TestCsv {
 	}
 
 
+	@Test
+	public void shouldReadRecordAsFieldSlices() throws Throwable {
+		Reader inputStream = TestUtil.createReader("a;;\"b;c\"\r\nd");
+		CsvReader parser = new CsvReader(inputStream);
+
+		assertTrue(parser.readRecord());
+		assertEquals(3, parser.getFieldCount());
+		assertEquals("a", parser.getField(0).toString());
+		assertNull(parser.getField(1));
+		assertTrue(CsvField.contentEquals(parser.getField(2), "b;c"));
+
+		assertTrue(parser.readRecord());
+		assertEquals("d", parser.getField(0).toString());
+		assertFalse(parser.readRecord());
+	}
+
+	@Test
+	public void shouldReadLongRecord() throws Throwable {
+		StringBuilder csv = new StringBuilder();
+		for (int i = 0; i < 10000; i++) {
+			csv.append(i).append(';');
+		}
+		CsvReader parser = new CsvReader(TestUtil.createReader(csv.toString()));
+
+		String[] line = parser.readLine();
+		assertEquals(10000, line.length);
+		assertEquals("9999", line[9999]);
+	}
+
+	@Test
+	public void shouldParseTypedFields() {
+		assertEquals(Integer.valueOf(-42), CsvField.parseInteger("-42"));
+		assertEquals(Integer.valueOf(Integer.MIN_VALUE), CsvField.parseInteger("" + Integer.MIN_VALUE));
+		assertNull(CsvField.parseInteger("" + (Integer.MAX_VALUE + 1L)));
+		assertNull(CsvField.parseInteger("4a"));
+
+		assertEquals(Double.valueOf(Double.parseDouble("-12.345678")), CsvField.parseDecimal("-12.345678"));
+		assertEquals(Double.valueOf(0.1), CsvField.parseDecimal(".1"));
+		assertNull(CsvField.parseDecimal("12.5N"));
+		assertNull(CsvField.parseDecimal("-"));
+	}
+
 	@Test
 	public void shouldQuote() {
 		CsvItem sut = new CsvItem() {
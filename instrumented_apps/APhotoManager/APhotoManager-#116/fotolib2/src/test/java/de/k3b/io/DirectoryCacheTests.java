@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2018 by k3b.
+ *
+ * This file is part of AndroFotoFinder / #APhotoManager.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>
+ */
+
+package de.k3b.io;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+
+import de.k3b.TestUtil;
+
+/**
+ * Created by k3b on 18.03.2018.
+ */
+public class DirectoryCacheTests {
+    private static final File OUTDIR = new File(TestUtil.OUTDIR_ROOT, "DirectoryCacheTests");
+
+    private DirectoryCache sut;
+
+    @Before
+    public void setup() {
+        sut = new DirectoryCache()
+                .put("/storage/DCIM/2017/", 3, 17)
+                .put("/storage/DCIM/2018/", 4, 18)
+                .put("/storage/Pictures/", 1, 5);
+    }
+
+    @Test
+    public void shouldCreateTreeWithStatistics() {
+        IDirectory root = sut.createRoot().getChildren().get(0);
+        Assert.assertEquals("storage(2+2):(+8)|DCIM(2):(+7)|2017:(3)|2018:(4)|Pictures:(1)|",
+                Directory.toTreeString(new StringBuilder(), (Directory) root, "|",
+                        Directory.OPT_ALL - Directory.OPT_AS_HTML).toString());
+        Assert.assertEquals(18, root.getSelectionIconID());
+    }
+
+    @Test
+    public void shouldPatchRows() {
+        sut.put("/storage/DCIM/2018/", 5, 20).remove("/storage/Pictures/");
+        Assert.assertEquals(8, sut.getTotalCount());
+        Assert.assertEquals(20, sut.getMaxIconID());
+        Assert.assertNull(sut.createRoot().find("/storage/Pictures/"));
+    }
+
+    @Test
+    public void shouldSaveLoad() throws Exception {
+        OUTDIR.mkdirs();
+        File file = new File(OUTDIR, "shouldSaveLoad.bin");
+        sut.setStamp("8|18").save(file);
+
+        DirectoryCache loaded = new DirectoryCache().load(file);
+        Assert.assertEquals("8|18", loaded.getStamp());
+        Assert.assertEquals(3, loaded.size());
+        Assert.assertEquals(8, loaded.getTotalCount());
+        Assert.assertNotNull(loaded.createRoot().find("/storage/DCIM/2017/"));
+    }
+}
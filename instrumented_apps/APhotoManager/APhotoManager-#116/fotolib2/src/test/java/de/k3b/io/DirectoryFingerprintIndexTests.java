@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2018 by k3b.
+ *
+ * This file is part of AndroFotoFinder / #APhotoManager.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>
+ */
+
+package de.k3b.io;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import de.k3b.TestUtil;
+import de.k3b.media.MediaUtil;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Created by k3b on 15.03.2018.
+ */
+public class DirectoryFingerprintIndexTests {
+    private static final File OUTDIR = new File(TestUtil.OUTDIR_ROOT, "DirectoryFingerprintIndexTests");
+    private static final File INDEX_FILE = new File(OUTDIR, "dirFingerprints.txt");
+
+    private File mDir;
+    private String mDirPath;
+
+    @Before
+    public void setup() throws IOException {
+        FileUtils.delete(OUTDIR, null);
+        mDir = new File(OUTDIR, "photos");
+        mDir.mkdirs();
+        mDirPath = FileUtils.tryGetCanonicalPath(mDir, null);
+        createFile("a.jpg", "a");
+        createFile("b.jpg", "bb");
+        createFile("c.txt", "not a photo");
+    }
+
+    @Test
+    public void shouldReturnAllFilesOnFirstScan() {
+        DirectoryFingerprintIndex sut = new DirectoryFingerprintIndex(INDEX_FILE);
+        assertEquals(2, getModifiedFiles(sut).length);
+    }
+
+    @Test
+    public void shouldSkipUnchangedDirAfterReload() {
+        new DirectoryFingerprintIndex(INDEX_FILE).save(); // nothing loaded: no file
+        DirectoryFingerprintIndex sut = new DirectoryFingerprintIndex(INDEX_FILE);
+        getModifiedFiles(sut);
+        sut.save();
+
+        sut = new DirectoryFingerprintIndex(INDEX_FILE);
+        assertEquals(0, getModifiedFiles(sut).length);
+    }
+
+    @Test
+    public void shouldReturnOnlyChangedFiles() throws IOException {
+        DirectoryFingerprintIndex sut = new DirectoryFingerprintIndex(INDEX_FILE);
+        getModifiedFiles(sut);
+
+        createFile("b.jpg", "changed content");
+        createFile("d.jpg", "new");
+
+        String[] modified = getModifiedFiles(sut);
+        assertEquals(2, modified.length);
+        assertEquals(0, getModifiedFiles(sut).length);
+    }
+
+    @Test
+    public void shouldReturnAllFilesAfterRemove() {
+        DirectoryFingerprintIndex sut = new DirectoryFingerprintIndex(INDEX_FILE);
+        getModifiedFiles(sut);
+
+        assertEquals(1, sut.remove(FileUtils.tryGetCanonicalPath(OUTDIR, null)));
+        assertEquals(2, getModifiedFiles(sut).length);
+    }
+
+    @Test
+    public void shouldReturnInvalidatedFileAgain() {
+        DirectoryFingerprintIndex sut = new DirectoryFingerprintIndex(INDEX_FILE);
+        getModifiedFiles(sut);
+
+        assertEquals(true, sut.invalidate(mDirPath + "/b.jpg"));
+        sut.save();
+
+        sut = new DirectoryFingerprintIndex(INDEX_FILE);
+        String[] modified = getModifiedFiles(sut);
+        assertEquals(1, modified.length);
+        assertEquals(mDirPath + "/b.jpg", modified[0]);
+    }
+
+    private String[] getModifiedFiles(DirectoryFingerprintIndex sut) {
+        return sut.getModifiedFiles(mDir, mDirPath, MediaUtil.JPG_FILENAME_FILTER, null);
+    }
+
+    private void createFile(String name, String content) throws IOException {
+        FileWriter writer = new FileWriter(new File(mDir, name), false);
+        writer.write(content);
+        writer.close();
+    }
+}
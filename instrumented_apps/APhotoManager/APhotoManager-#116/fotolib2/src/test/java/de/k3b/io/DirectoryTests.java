@@ -124,6 +124,40 @@ public class DirectoryTests {
         Assert.assertEquals(expected, root.find("/a/b/c/d/"));
     }
 
+    @Test
+    public void shoudNotFindPartialSegment() {
+        DirectoryBuilder builder = new DirectoryBuilder();
+        builder.add("/a/bc/d", 1, 0);
+        builder.add("/a/x", 1, 0);
+        IDirectory root = builder.getRoot();
+
+        Assert.assertNotNull(root.find("/a/bc/d"));
+        Assert.assertNull(root.find("/a/b"));
+        Assert.assertNull(root.find("/a/bc/e"));
+    }
+
+    @Test
+    public void shoudFindAfterRename() {
+        DirectoryBuilder builder = new DirectoryBuilder();
+        builder.add("/a/b1", 1, 0);
+        builder.add("/a/b2", 1, 0);
+        IDirectory root = builder.getRoot();
+        IDirectory b1 = root.find("/a/b1");
+
+        b1.rename("b1", "c1");
+        Assert.assertEquals(b1, root.find("/a/c1"));
+        Assert.assertNull(root.find("/a/b1"));
+    }
+
+    @Test
+    public void shoudMergeSegmentsIgnoringCase() {
+        DirectoryBuilder builder = new DirectoryBuilder();
+        builder.add("/a/B/c1", 1, 0);
+        builder.add("/a/b/c2", 2, 0);
+        IDirectory root = builder.getRoot().getChildren().get(0);
+        assertTree("a/B(2):(+3)|c1:(1)|c2:(2)|", root);
+    }
+
     protected void assertTree(String expected, IDirectory root) {
         Assert.assertEquals(expected, Directory.toTreeString(new StringBuilder(),(Directory) root, "|", Directory.OPT_ALL - Directory.OPT_AS_HTML).toString());
     }
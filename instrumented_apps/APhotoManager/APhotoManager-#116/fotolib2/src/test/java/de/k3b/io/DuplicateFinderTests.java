@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2018 by k3b.
+ *
+ * This file is part of AndroFotoFinder / #APhotoManager.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>
+ */
+
+package de.k3b.io;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import de.k3b.TestUtil;
+
+/**
+ * Created by k3b on 20.03.2018.
+ */
+public class DuplicateFinderTests {
+    private static final File OUTDIR = new File(TestUtil.OUTDIR_ROOT, "DuplicateFinderTests").getAbsoluteFile();
+    private static final File INDEX = new File(OUTDIR, "index.bin");
+
+    private List<File> files;
+
+    @Before
+    public void setup() throws IOException {
+        FileUtils.delete(OUTDIR, null);
+        new File(OUTDIR, "sub").mkdirs();
+
+        byte[] content = createContent(10000, 1);
+        byte[] sameSizeOtherMiddle = createContent(10000, 1);
+        sameSizeOtherMiddle[5000]++; // same head and tail
+
+        files = new ArrayList<File>();
+        files.add(write("a.jpg", content));
+        files.add(write("sub/copy of a.jpg", content));
+        files.add(write("b.jpg", sameSizeOtherMiddle));
+        files.add(write("c.jpg", createContent(10000, 2)));
+        files.add(write("d.jpg", createContent(500, 1)));
+    }
+
+    @Test
+    public void shouldFindSameContentWithDifferentName() {
+        List<List<File>> result = new DuplicateFinder(INDEX).findDuplicates(files, null);
+
+        Assert.assertEquals("groups", 1, result.size());
+        Assert.assertEquals(Arrays.asList(files.get(0), files.get(1)), result.get(0));
+    }
+
+    @Test
+    public void shouldOnlyDigestFilesWithSameSizeAndSample() {
+        DuplicateFinder sut = new DuplicateFinder(INDEX);
+        sut.findDuplicates(files, null);
+
+        Assert.assertEquals("samples: all with size 10000", 4, sut.getSampleCount());
+        Assert.assertEquals("digests: a, copy of a, b", 3, sut.getDigestCount());
+    }
+
+    @Test
+    public void shouldReuseIndexInNextRun() {
+        new DuplicateFinder(INDEX).findDuplicates(files, null);
+
+        DuplicateFinder sut = new DuplicateFinder(INDEX);
+        List<List<File>> result = sut.findDuplicates(files, null);
+
+        Assert.assertEquals("groups", 1, result.size());
+        Assert.assertEquals("samples", 0, sut.getSampleCount());
+        Assert.assertEquals("digests", 0, sut.getDigestCount());
+    }
+
+    @Test
+    public void shouldKeepSamplesIfCancelled() {
+        new DuplicateFinder(INDEX).findDuplicates(files, new IProgessListener() {
+            @Override
+            public boolean onProgress(int itemcount, int size, String message) {
+                return false;
+            }
+        });
+
+        DuplicateFinder sut = new DuplicateFinder(INDEX);
+        sut.findDuplicates(files, null);
+
+        Assert.assertTrue("some samples reused", sut.getSampleCount() < 4);
+    }
+
+    @Test
+    public void shouldRemoveEntriesOfDeletedFiles() {
+        new DuplicateFinder(INDEX).findDuplicates(files, null);
+        files.remove(1).delete();
+
+        DuplicateFinder sut = new DuplicateFinder(INDEX);
+        sut.findDuplicates(files, null);
+
+        Assert.assertEquals("a, b, c, d without deleted copy of a",
+                "DuplicateFinder(" + INDEX + ": 4 files, samples=0, digests=0)", sut.toString());
+    }
+
+    private static byte[] createContent(int size, int seed) {
+        byte[] result = new byte[size];
+        for (int i = 0; i < size; i++) {
+            result[i] = (byte) (i * seed);
+        }
+        return result;
+    }
+
+    private static File write(String name, byte[] content) throws IOException {
+        File file = new File(OUTDIR, name);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+}
@@ -78,6 +78,18 @@ public class FileCommandTests {
         verify(sut).osFileMoveOrCopy(false, new File(X_FAKE_OUTPUT_DIR, "b(2).png"), createTestFile(X_FAKE_INPUT_DIR, "b.png"));
     }
 
+    @Test
+    public void shouldCopyWitRenamePlannedSidecarConflict() {
+        registerFakeFiles(sut);
+        // a.jpg and a.png would share the same sidecar a.xmp
+        SelectedFiles selectedFiles = createTestSelectedFiles(X_FAKE_INPUT_DIR, "a.jpg", "a.png");
+
+        sut.moveOrCopyFilesTo(false, selectedFiles, X_FAKE_OUTPUT_DIR, null);
+
+        verify(sut).osFileMoveOrCopy(false, new File(X_FAKE_OUTPUT_DIR, "a.jpg"), createTestFile(X_FAKE_INPUT_DIR, "a.jpg"));
+        verify(sut).osFileMoveOrCopy(false, new File(X_FAKE_OUTPUT_DIR, "a(1).png"), createTestFile(X_FAKE_INPUT_DIR, "a.png"));
+    }
+
     @Test
     public void shouldMoveExistingWithXmp() {
         registerFakeFiles(sut, "a.jpg", "a.xmp", "a.jpg.xmp"); // a(3) is next possible
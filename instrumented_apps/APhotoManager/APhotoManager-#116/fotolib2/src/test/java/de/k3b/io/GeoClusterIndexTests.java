@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2018 by k3b.
+ *
+ * This file is part of AndroFotoFinder / #APhotoManager.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>
+ */
+
+package de.k3b.io;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.List;
+
+import de.k3b.TestUtil;
+
+/**
+ * Created by k3b on 17.03.2018.
+ */
+public class GeoClusterIndexTests {
+    private static final File OUTDIR = new File(TestUtil.OUTDIR_ROOT, "GeoClusterIndexTests");
+
+    private GeoClusterIndex sut;
+
+    @Before
+    public void setup() {
+        sut = new GeoClusterIndex()
+                .put(1, 52.51, 13.41)
+                .put(2, 52.52, 13.42)
+                .put(3, 48.13, 11.57)
+                .put(4, -33.86, -151.21)
+                .put(5, -33.87, 151.21);
+    }
+
+    @Test
+    public void shouldGroupByCell() {
+        // cell size 1 degree
+        List<GeoClusterIndex.Cluster> clusters = sut.getClusters(1, null);
+        Assert.assertEquals(4, clusters.size());
+
+        // sorted by lat: -33.86, -33.87, 48.13, 52.51
+        GeoClusterIndex.Cluster berlin = clusters.get(3);
+        Assert.assertEquals("count", 2, berlin.count);
+        Assert.assertEquals("max id", 2, berlin.id);
+        Assert.assertEquals("center", 52.5, berlin.latitude, 0.0001);
+        Assert.assertEquals("center", 13.5, berlin.longitude, 0.0001);
+    }
+
+    @Test
+    public void shouldFindInArea() {
+        GeoRectangle area = new GeoRectangle();
+        area.setLatitude(45, 53);
+        area.setLogitude(10, 14);
+
+        Assert.assertEquals(2, sut.getClusters(1, area).size());
+        Assert.assertEquals(3, sut.getClusters(100, area).size());
+    }
+
+    @Test
+    public void shouldFindInSmallArea() {
+        GeoRectangle area = new GeoRectangle();
+        area.setLatitude(52.3, 52.9);
+        area.setLogitude(13.0, 13.9);
+
+        List<GeoClusterIndex.Cluster> clusters = sut.getClusters(1, area);
+        Assert.assertEquals(1, clusters.size());
+        Assert.assertEquals(2, clusters.get(0).count);
+    }
+
+    @Test
+    public void shouldFindNegativeLongitudeInArea() {
+        GeoRectangle area = new GeoRectangle();
+        area.setLatitude(-34, -33);
+        area.setLogitude(-152, 152);
+
+        Assert.assertEquals(2, sut.getClusters(1, area).size());
+    }
+
+    @Test
+    public void shouldUpdateClustersAfterChange() {
+        Assert.assertEquals(4, sut.getClusters(1, null).size());
+
+        sut.remove(3);
+        sut.put(2, 0.5, 0.5);
+        Assert.assertEquals(4, sut.getClusters(1, null).size());
+        Assert.assertEquals(1, sut.getClusters(1, null).get(2).count);
+    }
+
+    @Test
+    public void shouldUpdateCachedLevelAfterChange() {
+        List<GeoClusterIndex.Cluster> before = sut.getClusters(1, null);
+        sut.put(6, 52.53, 13.43);   // berlin
+        sut.put(7, 10.5, 10.5);     // new cell
+        sut.remove(1);              // not the representative of berlin
+        sut.remove(3);              // last of munich
+
+        List<GeoClusterIndex.Cluster> after = sut.getClusters(1, null);
+        Assert.assertEquals(before.toString(), 4, after.size());
+        Assert.assertEquals(after.toString(), 7, after.get(2).id);
+        Assert.assertEquals(after.toString(), 2, after.get(3).count);
+        Assert.assertEquals(after.toString(), 6, after.get(3).id);
+        Assert.assertEquals("same as recalculated",
+                new GeoClusterIndex().put(2, 52.52, 13.42).put(4, -33.86, -151.21).put(5, -33.87, 151.21)
+                        .put(6, 52.53, 13.43).put(7, 10.5, 10.5).getClusters(1, null).toString(),
+                after.toString());
+    }
+
+    @Test
+    public void shouldBeConsistentWithAggregates() {
+        double latSum = 52.51 + 52.52 + 48.13 - 33.86 - 33.87;
+        double lonSum = 13.41 + 13.42 + 11.57 - 151.21 + 151.21;
+        Assert.assertTrue(sut.isConsistent(5, 5, latSum, lonSum));
+
+        sut.remove(5);
+        Assert.assertFalse("old aggregates", sut.isConsistent(5, 5, latSum, lonSum));
+        Assert.assertTrue(sut.isConsistent(4, 4, latSum + 33.87, lonSum - 151.21));
+    }
+
+    @Test
+    public void shouldSaveLoad() throws Exception {
+        OUTDIR.mkdirs();
+        File file = new File(OUTDIR, "shouldSaveLoad.bin");
+        sut.setStamp("5|5").save(file);
+
+        GeoClusterIndex loaded = new GeoClusterIndex().load(file);
+        Assert.assertEquals("5|5", loaded.getStamp());
+        Assert.assertEquals(5, loaded.size());
+        Assert.assertEquals(4, loaded.getClusters(1, null).size());
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2018 by k3b.
+ *
+ * This file is part of AndroFotoFinder / #APhotoManager.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>
+ */
+
+package de.k3b.io;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+
+import de.k3b.TestUtil;
+
+/**
+ * Created by k3b on 20.03.2018.
+ */
+public class PackedBlobCacheTests {
+    private static final File OUTDIR = new File(TestUtil.OUTDIR_ROOT, "PackedBlobCacheTests");
+
+    @Before
+    public void setup() {
+        new PackedBlobCache(OUTDIR, "test", 1000, 0).clear();
+    }
+
+    @Test
+    public void shouldReadFromDiskAfterReopen() {
+        PackedBlobCache sut = new PackedBlobCache(OUTDIR, "test", 1000, 100);
+        sut.put("a", "value-a".getBytes());
+        sut.put("b", "value-b".getBytes());
+        sut.put("a", "value-a2".getBytes());
+        sut.close();
+
+        sut = new PackedBlobCache(OUTDIR, "test", 1000, 100);
+        Assert.assertEquals("value-a2", new String(sut.get("a")));
+        Assert.assertEquals("value-b", new String(sut.get("b")));
+        Assert.assertNull(sut.get("c"));
+        Assert.assertEquals("hit", 2, sut.getHitCount());
+        Assert.assertEquals("miss", 1, sut.getMissCount());
+        sut.close();
+    }
+
+    @Test
+    public void shouldRebuildIndexWithoutIndexFile() {
+        PackedBlobCache sut = new PackedBlobCache(OUTDIR, "test", 1000, 100);
+        sut.put("a", "value-a".getBytes());
+        sut.put("b", "value-b".getBytes());
+
+        // not flushed: index file is missing
+        sut = new PackedBlobCache(OUTDIR, "test", 1000, 100);
+        Assert.assertEquals(2, sut.size());
+        Assert.assertEquals("value-b", new String(sut.get("b")));
+        sut.close();
+    }
+
+    @Test
+    public void shouldKeepRecentlyUsedWhenCompacting() {
+        PackedBlobCache sut = new PackedBlobCache(OUTDIR, "test", 200, 0);
+        byte[] value = new byte[40];
+        for (int i = 0; i < 5; i++) {
+            sut.put("k" + i, value);
+        }
+
+        Assert.assertEquals("compacted", true, sut.size() < 5);
+        Assert.assertEquals("most recent kept", true, sut.get("k4") != null);
+        Assert.assertEquals("oldest removed", null, sut.get("k0"));
+        Assert.assertEquals("blob below max", true, new File(OUTDIR, "test.blob").length() <= 200);
+        sut.close();
+    }
+}
@@ -116,6 +116,50 @@ public class ExifInterfaceIntegrationTests {
 
     }
 
+    @Test
+    public void shouldLoadSameWithMappedParser() throws IOException
+    {
+        String fileNameSrc = "test-WitExtraData.jpg";
+        final File sutFile = new File(OUTDIR, "shouldLoadSameWithMappedParser.jpg");
+        TestUtil.saveTestResourceAs(fileNameSrc, sutFile);
+
+        InputStream inputStream = TestUtil.getResourceInputStream(fileNameSrc);
+        ExifInterface expected = new ExifInterface(sutFile.getAbsolutePath(), inputStream);
+        FileUtils.close(inputStream, fileNameSrc);
+
+        ExifInterface.useMappedParser = true;
+        ExifInterface sutRead = new ExifInterface(sutFile.getAbsolutePath());
+
+        Assert.assertEquals(expected.toString(), sutRead.toString());
+        Assert.assertEquals(expected.hasThumbnail(), sutRead.hasThumbnail());
+        Assert.assertArrayEquals(expected.getThumbnailRange(), sutRead.getThumbnailRange());
+    }
+
+    @Test
+    public void shouldSaveInPlaceIfExifSegmentFits() throws IOException
+    {
+        final File sutFile = new File(OUTDIR, "shouldSaveInPlaceIfExifSegmentFits.jpg");
+        TestUtil.saveTestResourceAs("NoExif.jpg", sutFile);
+
+        // first save must copy the file and leaves reserved padding behind
+        ExifInterface sutWrite = new ExifInterface(sutFile.getAbsolutePath());
+        sutWrite.setAttribute(ExifInterface.TAG_ARTIST, "Artist");
+        sutWrite.saveAttributes();
+        long lengthAfterCopy = sutFile.length();
+
+        sutWrite = new ExifInterface(sutFile.getAbsolutePath());
+        sutWrite.setAttribute(ExifInterface.TAG_ARTIST, "Other Artist");
+        sutWrite.setAttribute(ExifInterface.TAG_WIN_RATING, "3");
+        String sutWriteText = sutWrite.toString();
+        sutWrite.saveAttributes();
+
+        Assert.assertFalse("no tmp file", new File(sutFile.getAbsolutePath() + ".tmp").exists());
+        Assert.assertEquals("in place: same file size", lengthAfterCopy, sutFile.length());
+
+        ExifInterface sutRead = new ExifInterface(sutFile.getAbsolutePath());
+        Assert.assertEquals(sutWriteText, sutRead.toString());
+    }
+
     @Test
     @Ignore("Not implemented ExifInterface.UserComment=null for tif-com-segment is not implemented :-(")
     public void shouldClearUsercommentFromExistingExif() throws IOException
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2018 by k3b.
+ *
+ * This file is part of AndroFotoFinder / #APhotoManager.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>
+ */
+
+package de.k3b.media;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.EnumSet;
+
+/**
+ * Created by k3b on 20.03.2018.
+ */
+public class LazyMetaApiChainReaderTests {
+    private MediaDTO first;
+    private MediaDTO second;
+
+    @Before
+    public void setup() {
+        LazyMetaApiChainReader.resetStatistics();
+        first = new MediaDTO();
+        first.setLatitudeLongitude(1.0, 2.0);
+        second = new MediaDTO();
+        second.setLatitudeLongitude(3.0, 4.0);
+        second.setTitle("title2");
+    }
+
+    @Test
+    public void shouldNotOpenSecondIfFirstAnswersAll() {
+        LazyMetaApiChainReader sut = new LazyMetaApiChainReader(EnumSet.of(MediaUtil.FieldID.latitude_longitude),
+                LazyMetaApiChainReader.Source.of("first", first), LazyMetaApiChainReader.Source.of("second", second));
+
+        Assert.assertEquals(1.0, sut.getLatitude(), 0.001);
+        Assert.assertEquals(2.0, sut.getLongitude(), 0.001);
+
+        Assert.assertEquals("opened", 1, sut.getOpenedCount());
+        Assert.assertEquals("first answered", 1, LazyMetaApiChainReader.getAnsweredCount("first"));
+        Assert.assertEquals("second opened", 0, LazyMetaApiChainReader.getOpenCount("second"));
+    }
+
+    @Test
+    public void shouldOpenSecondForMissingField() {
+        LazyMetaApiChainReader sut = new LazyMetaApiChainReader(LazyMetaApiChainReader.ALL_FIELDS,
+                LazyMetaApiChainReader.Source.of("first", first), LazyMetaApiChainReader.Source.of("second", second));
+
+        Assert.assertEquals("title2", sut.getTitle());
+        Assert.assertEquals(1.0, sut.getLatitude(), 0.001);
+        Assert.assertEquals("opened", 2, sut.getOpenedCount());
+    }
+
+    @Test
+    public void shouldNotReadFieldThatIsNotNeeded() {
+        LazyMetaApiChainReader sut = new LazyMetaApiChainReader(EnumSet.of(MediaUtil.FieldID.latitude_longitude),
+                LazyMetaApiChainReader.Source.of("first", first), LazyMetaApiChainReader.Source.of("second", second));
+
+        Assert.assertNull(sut.getTitle());
+        Assert.assertEquals("opened", 0, sut.getOpenedCount());
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2018 by k3b.
+ *
+ * This file is part of AndroFotoFinder / #APhotoManager.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>
+ */
+
+package de.k3b.media;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import de.k3b.FotoLibGlobal;
+import de.k3b.TestUtil;
+
+/**
+ * Created by k3b on 20.03.2018.
+ */
+public class XmpSidecarCacheTests {
+    private static final File OUTDIR = new File(TestUtil.OUTDIR_ROOT, "XmpSidecarCacheTests");
+
+    private final long oldMaxBytes = FotoLibGlobal.xmpCacheMaxBytes;
+    private XmpSidecarCache sut;
+
+    @BeforeClass
+    public static void initDirectories() {
+        OUTDIR.mkdirs();
+    }
+
+    @Before
+    public void setup() {
+        FotoLibGlobal.xmpCacheMaxBytes = 1024 * 1024;
+        sut = XmpSidecarCache.getInstance();
+        sut.clear();
+    }
+
+    @After
+    public void teardown() {
+        FotoLibGlobal.xmpCacheMaxBytes = oldMaxBytes;
+        sut.clear();
+    }
+
+    @Test
+    public void shouldParseOnlyOnceWhenUnchanged() throws IOException {
+        String jpg = createXmp("unchanged", "title1");
+        int misses = sut.getMissCount();
+        int hits = sut.getHitCount();
+
+        Assert.assertEquals("title1", MediaXmpSegment.loadXmpSidecarContentOrNull(jpg, "").getTitle());
+        Assert.assertEquals("title1", MediaXmpSegment.loadXmpSidecarContentOrNull(jpg, "").getTitle());
+
+        Assert.assertEquals("misses", misses + 1, sut.getMissCount());
+        Assert.assertEquals("hits", hits + 1, sut.getHitCount());
+    }
+
+    @Test
+    public void shouldNotShareModifiedContent() throws IOException {
+        String jpg = createXmp("shared", "title1");
+
+        MediaXmpSegment.loadXmpSidecarContentOrNull(jpg, "").setTitle("changed");
+
+        Assert.assertEquals("title1", MediaXmpSegment.loadXmpSidecarContentOrNull(jpg, "").getTitle());
+    }
+
+    @Test
+    public void shouldReloadAfterSave() throws IOException {
+        String jpg = createXmp("saved", "title1");
+        Assert.assertEquals("title1", MediaXmpSegment.loadXmpSidecarContentOrNull(jpg, "").getTitle());
+
+        createXmp("saved", "title2");
+
+        Assert.assertEquals("title2", MediaXmpSegment.loadXmpSidecarContentOrNull(jpg, "").getTitle());
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsed() throws IOException {
+        String jpg1 = createXmp("lru1", "title1");
+        String jpg2 = createXmp("lru2", "title2");
+        FotoLibGlobal.xmpCacheMaxBytes = (new File(OUTDIR, "lru1.xmp").length() * 3) / 2;
+
+        MediaXmpSegment.loadXmpSidecarContentOrNull(jpg1, "");
+        MediaXmpSegment.loadXmpSidecarContentOrNull(jpg2, "");
+
+        Assert.assertEquals("size", 1, sut.size());
+        Assert.assertEquals("lru2 cached", true, sut.get(new File(OUTDIR, "lru2.xmp")) != null);
+        Assert.assertEquals("lru1 evicted", null, sut.get(new File(OUTDIR, "lru1.xmp")));
+    }
+
+    /** @return path of jpg that belongs to the new xmp */
+    private static String createXmp(String name, String title) throws IOException {
+        MediaXmpSegment xmp = new MediaXmpSegment();
+        xmp.setTitle(title);
+        xmp.save(new File(OUTDIR, name + ".xmp"), false, "XmpSidecarCacheTests");
+        return new File(OUTDIR, name + ".jpg").getAbsolutePath();
+    }
+}
@@ -88,5 +88,12 @@ public class TagProcessorTests {
         Assert.assertEquals("empty", "'a' 'b'".replaceAll("'","\""), TagConverter.asBatString("a","b"));
     }
 
+    @Test
+    public void shouldParseBatTagsWithBlanks() throws Exception {
+        String batString = TagConverter.asBatString("tag one", "tag2");
+        Assert.assertEquals("tag one|tag2", ListUtils.toString("|", TagConverter.fromBatString(batString)));
+        Assert.assertEquals("empty", null, TagConverter.fromBatString(" "));
+    }
+
 
 }
\ No newline at end of file
@@ -364,6 +364,75 @@ public class TagRepositoryTests {
         Assert.assertEquals("wrong root", null, found);
     }
 
+    @Test
+    public void shouldAppendNewItemsOnSave() throws Exception {
+        TagRepository sut = createUnsavedRepo("shouldAppendNewItemsOnSave", "a/b/c,x/y");
+        sut.save();
+        final long savedLength = repositoryFile.length();
+
+        sut.includePaths(null, "a/b/d,a/e");
+        sut.save();
+
+        // appended "a", " b", "  d", " e"
+        TagRepository reloaded = new TagRepository(this.repositoryFile);
+        Assert.assertTrue("appended", repositoryFile.length() > savedLength);
+        Assert.assertEquals(7, reloaded.load().size());
+        Assert.assertEquals("/a/b/d", reloaded.findFirstByName("d").getPath());
+        Assert.assertEquals("/a/e", reloaded.findFirstByName("e").getPath());
+    }
+
+    @Test
+    public void shouldMergeDuplicateLinesOnLoad() throws Exception {
+        String tagData =
+                "a\n" +
+                " b\n" +
+                "a\n" +
+                " b\n" +
+                "  c\n" +
+                "";
+
+        ArrayList<Tag> items = new ArrayList<>();
+        int merged = new TagRepository(null).load(items, new StringReader(tagData));
+
+        Assert.assertEquals("merged", 2, merged);
+        Assert.assertEquals(3, items.size());
+        Assert.assertEquals("/a/b/c", TagRepository.findFirstByName(items, "c").getPath());
+    }
+
+    @Test
+    public void shouldFindByPathPrefix() throws Exception {
+        TagRepository sut = createUnsavedRepo("shouldFindByPathPrefix", "animal/dog,animal/Duck,animal/cat,plant/dog");
+
+        List<Tag> found = sut.findByPathPrefix("/ANIMAL/d");
+        Assert.assertEquals(2, found.size());
+        Assert.assertEquals("/animal/dog", found.get(0).getPath());
+
+        sut.findFirstByName("cat").setName("dolphin");
+        Assert.assertEquals("after rename", 3, sut.findByPathPrefix("/animal/d").size());
+    }
+
+    @Test
+    public void shouldFindByNamePrefix() throws Exception {
+        TagRepository sut = createUnsavedRepo("shouldFindByNamePrefix", "animal/dog,animal/Duck,animal/cat,plant/dog");
+
+        List<Tag> found = sut.findByNamePrefix("D");
+        Assert.assertEquals("dog, Duck, dog", 3, found.size());
+        Assert.assertEquals("no infix match", 0, sut.findByNamePrefix("og").size());
+
+        sut.findFirstByName("cat").setName("dolphin");
+        Assert.assertEquals("after rename", 4, sut.findByNamePrefix("d").size());
+    }
+
+    @Test
+    public void shouldFindByNameAfterRename() throws Exception {
+        TagRepository sut = createUnsavedRepo("shouldFindByNameAfterRename", "a/b/old/c");
+        Assert.assertNotNull(sut.findFirstByName("OLD"));
+
+        sut.renameTags("old", "new");
+        Assert.assertNull(sut.findFirstByName("old"));
+        Assert.assertEquals("/a/b/new", sut.findFirstByName("New").getPath());
+    }
+
     @Test
     public void shouldGetPathElements() throws Exception {
         String[] pathElemens = TagExpression.getPathElemens("/a");
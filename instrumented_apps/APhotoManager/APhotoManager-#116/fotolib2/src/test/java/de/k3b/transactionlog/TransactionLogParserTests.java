@@ -23,10 +23,16 @@ import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 
 import org.junit.Assert;
 import org.junit.Test;
 
+import de.k3b.io.ListUtils;
+import de.k3b.media.MediaDTO;
+import de.k3b.media.MediaDiffCopy;
+
 /**
  * Analyses TransactionLog to generate move/copy/delete script and update-dtos.
  *
@@ -50,6 +56,103 @@ public class TransactionLogParserTests {
         fileUpdateBatch.close();
     }
 
+    @Test
+    public void shouldFoldAllEntriesOfOneMedia() throws IOException {
+        ArrayList<IMediaTransactionLogEntry> items = new ArrayList<IMediaTransactionLogEntry>();
+        addItems(items, "a.jpg"
+                , MediaTransactionLogEntryType.RATING.toString(),"2"
+                , MediaTransactionLogEntryType.HEADER.toString(),"title1"
+                , MediaTransactionLogEntryType.TAGSADD.toString(),"\"x\""
+                , MediaTransactionLogEntryType.MOVE.toString(),"b.jpg"
+                , MediaTransactionLogEntryType.RATING.toString(),"4"
+                , MediaTransactionLogEntryType.HEADER.toString(),"title2");
+        addItems(items, "c.jpg"
+                , MediaTransactionLogEntryType.GPS.toString(),"1.5 2.5");
+        TransactionLogParser parser = new TransactionLogParser(items.iterator(), new BufferedWriter(new StringWriter()));
+
+        TransactionLogParser.Status data = parser.getNext();
+        Assert.assertEquals("path", "b.jpg", data.getPath());
+        MediaDTO dest = new MediaDTO();
+        dest.setTags(ListUtils.fromString("y"));
+        applyChanges(data, dest);
+        Assert.assertEquals("rating", Integer.valueOf(4), dest.getRating());
+        Assert.assertEquals("title", "title2", dest.getTitle());
+        Assert.assertEquals("tags", "y,x", ListUtils.toString(",", dest.getTags()));
+        Assert.assertEquals("lat not changed", null, dest.getLatitude());
+
+        data = parser.getNext();
+        Assert.assertEquals("path", "c.jpg", data.getPath());
+        dest = new MediaDTO();
+        applyChanges(data, dest);
+        Assert.assertEquals("lat", 1.5, dest.getLatitude(), 0.00001);
+
+        Assert.assertEquals("no more", null, parser.getNext());
+    }
+
+    @Test
+    public void shouldApplyIncrementalTagsToAbsoluteTags() throws IOException {
+        ArrayList<IMediaTransactionLogEntry> items = new ArrayList<IMediaTransactionLogEntry>();
+        addItems(items, "a.jpg"
+                , MediaTransactionLogEntryType.TAGS.toString(),"\"a\" \"b\""
+                , MediaTransactionLogEntryType.TAGSREMOVE.toString(),"\"a\""
+                , MediaTransactionLogEntryType.TAGSADD.toString(),"\"c\"");
+        TransactionLogParser parser = new TransactionLogParser(items.iterator(), new BufferedWriter(new StringWriter()));
+
+        MediaDTO dest = new MediaDTO();
+        dest.setTags(ListUtils.fromString("z"));
+        applyChanges(parser.getNext(), dest);
+        Assert.assertEquals("tags", "b,c", ListUtils.toString(",", dest.getTags()));
+    }
+
+    @Test
+    public void shouldWriteMediaItemsWithSamePathOnce() throws IOException {
+        ArrayList<IMediaTransactionLogEntry> items = new ArrayList<IMediaTransactionLogEntry>();
+        addItems(items, "a.jpg"
+                , MediaTransactionLogEntryType.RATING.toString(),"2"
+                , MediaTransactionLogEntryType.TAGSADD.toString(),"\"tag one\"");
+        addItems(items, "a.jpg"
+                , MediaTransactionLogEntryType.HEADER.toString(),"title2"
+                , MediaTransactionLogEntryType.RATING.toString(),"3");
+
+        final List<String> written = new ArrayList<String>();
+        final MediaDTO dest = new MediaDTO();
+        TransactionLogReplayer sut = new TransactionLogReplayer(null) {
+            @Override
+            protected int applyChanges(String path, long id, MediaDiffCopy diff) {
+                written.add(path + "#" + id);
+                diff.applyChanges(dest);
+                return 1;
+            }
+        };
+
+        Assert.assertEquals("modified", 1, sut.replay(items.iterator(), new BufferedWriter(new StringWriter())));
+        Assert.assertEquals("written", "a.jpg#2", ListUtils.toString(",", written));
+        Assert.assertEquals("rating", Integer.valueOf(3), dest.getRating());
+        Assert.assertEquals("title", "title2", dest.getTitle());
+        Assert.assertEquals("tags", "tag one", ListUtils.toString(",", dest.getTags()));
+    }
+
+    @Test
+    public void shouldGroupByMediaID() {
+        ArrayList<IMediaTransactionLogEntry> items = new ArrayList<IMediaTransactionLogEntry>();
+        items.add(new MediaTransactionLogEntryDto(1, "a.jpg", 1, MediaTransactionLogEntryType.RATING, "1"));
+        items.add(new MediaTransactionLogEntryDto(2, "b.jpg", 2, MediaTransactionLogEntryType.RATING, "2"));
+        items.add(new MediaTransactionLogEntryDto(1, "a.jpg", 3, MediaTransactionLogEntryType.RATING, "3"));
+
+        StringBuilder result = new StringBuilder();
+        Iterator<IMediaTransactionLogEntry> grouped = TransactionLogReplayer.groupByMediaID(items.iterator());
+        while (grouped.hasNext()) {
+            result.append(grouped.next().getCommandData());
+        }
+        Assert.assertEquals("132", result.toString());
+    }
+
+    private void applyChanges(TransactionLogParser.Status data, MediaDTO dest) {
+        MediaDiffCopy diff = data.createDiffCopy();
+        diff.applyChanges(dest);
+        diff.close();
+    }
+
     private long currentMediaID = 0;
     private void addItems(ArrayList<IMediaTransactionLogEntry> items, String initialFileName, String... data) {
         String fileFullPath = initialFileName;
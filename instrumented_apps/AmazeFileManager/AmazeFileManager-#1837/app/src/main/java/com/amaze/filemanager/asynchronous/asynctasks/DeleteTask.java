@@ -34,6 +34,7 @@ import com.amaze.filemanager.R;
 import com.amaze.filemanager.activities.MainActivity;
 import com.amaze.filemanager.database.CryptHandler;
 import com.amaze.filemanager.exceptions.ShellNotRunningException;
+import com.amaze.filemanager.filesystem.FileNameIndex;
 import com.amaze.filemanager.filesystem.HybridFileParcelable;
 import com.amaze.filemanager.fragments.CompressedExplorerFragment;
 import com.amaze.filemanager.fragments.preference_fragments.PreferencesConstants;
@@ -157,6 +158,10 @@ public class DeleteTask extends AsyncTask<ArrayList<HybridFileParcelable>, Strin
             }
         }
 
+        for (HybridFileParcelable f : files) {
+            FileNameIndex.getInstance().refresh(f.getPath());
+        }
+
         // delete file entry from encrypted database
         for (HybridFileParcelable file : files) {
             if (file.getName().endsWith(CryptUtil.CRYPT_EXTENSION)) {
@@ -11,19 +11,18 @@ import com.amaze.filemanager.R;
 import com.amaze.filemanager.filesystem.ssh.SshClientSessionTemplate;
 import com.amaze.filemanager.filesystem.ssh.SshClientUtils;
 import com.amaze.filemanager.filesystem.HybridFileParcelable;
+import com.amaze.filemanager.utils.files.FileHasher;
 import com.amaze.filemanager.utils.files.FileUtils;
-import com.amaze.filemanager.utils.files.GenericCopyUtil;
 
 import net.schmizz.sshj.common.IOUtils;
 import net.schmizz.sshj.connection.channel.direct.Session;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
 /**
- * Generates hashes from files (MD5 and SHA256)
+ * Generates hashes from files (MD5 and SHA256), both from a single read of the file
  *
  * Created by Vishal on 05-02-2015 edited by Emmanuel Messulam<emmanuelbendavid@gmail.com>
  */
@@ -81,8 +80,9 @@ public class GenerateHashesTask extends AsyncTask<Void, String, String[]> {
                 });
             }
             else if (!file.isDirectory(context)) {
-                md5 = getMD5Checksum();
-                sha256 = getSHA256Checksum();
+                String[] hashes = hashFileContent();
+                md5 = hashes[0];
+                sha256 = hashes[1];
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -91,6 +91,12 @@ public class GenerateHashesTask extends AsyncTask<Void, String, String[]> {
         return new String[] {md5, sha256};
     }
 
+    @Override
+    protected void onProgressUpdate(String... values) {
+        md5HashText.setText(values[0]);
+        sha256Text.setText(values[0]);
+    }
+
     @Override
     protected void onPostExecute(final String[] hashes) {
         super.onPostExecute(hashes);
@@ -116,57 +122,30 @@ public class GenerateHashesTask extends AsyncTask<Void, String, String[]> {
         }
     }
 
-    // see this How-to for a faster way to convert a byte array to a HEX string
-
-    private String getMD5Checksum() throws Exception {
-        byte[] b = createChecksum();
-        String result = "";
-
-        for (byte aB : b) {
-            result += Integer.toString((aB & 0xff) + 0x100, 16).substring(1);
-        }
-        return result;
-    }
-
-    private String getSHA256Checksum() throws NoSuchAlgorithmException, IOException {
-        MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
-        byte[] input = new byte[GenericCopyUtil.DEFAULT_BUFFER_SIZE];
-        int length;
-        InputStream inputStream = file.getInputStream(context);
-        while ((length = inputStream.read(input)) != -1) {
-            if (length > 0)
-                messageDigest.update(input, 0, length);
-        }
+    private String[] hashFileContent() throws IOException, NoSuchAlgorithmException {
+        FileHasher.OnHashProgress progress = new FileHasher.OnHashProgress() {
+            private int lastPercent = -1;
 
-        byte[] hash = messageDigest.digest();
+            @Override
+            public void onProgress(long bytesHashed, long totalBytes) {
+                if (totalBytes <= 0) return;
 
-        StringBuilder hexString = new StringBuilder();
+                int percent = (int) (bytesHashed * 100 / totalBytes);
+                if (percent != lastPercent) {
+                    lastPercent = percent;
+                    publishProgress(percent + "%");
+                }
+            }
+        };
 
-        for (byte aHash : hash) {
-            // convert hash to base 16
-            String hex = Integer.toHexString(0xff & aHash);
-            if (hex.length() == 1) hexString.append('0');
-            hexString.append(hex);
+        byte[][] hashes;
+        if (file.isLocal()) {
+            hashes = FileHasher.hash(file.getFile(), progress, FileHasher.MD5, FileHasher.SHA256);
+        } else {
+            InputStream inputStream = file.getInputStream(context);
+            hashes = FileHasher.hash(inputStream, file.getSize(), progress, FileHasher.MD5, FileHasher.SHA256);
         }
-        inputStream.close();
-        return hexString.toString();
-    }
-
-    private byte[] createChecksum() throws Exception {
-        InputStream fis = file.getInputStream(context);
-
-        byte[] buffer = new byte[8192];
-        MessageDigest complete = MessageDigest.getInstance("MD5");
-        int numRead;
-
-        do {
-            numRead = fis.read(buffer);
-            if (numRead > 0) {
-                complete.update(buffer, 0, numRead);
-            }
-        } while (numRead != -1);
 
-        fis.close();
-        return complete.digest();
+        return new String[] {FileHasher.toHex(hashes[0]), FileHasher.toHex(hashes[1])};
     }
 }
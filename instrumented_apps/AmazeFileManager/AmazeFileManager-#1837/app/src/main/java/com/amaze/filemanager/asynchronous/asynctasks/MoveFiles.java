@@ -30,6 +30,7 @@ import com.amaze.filemanager.activities.superclasses.ThemedActivity;
 import com.amaze.filemanager.database.CryptHandler;
 import com.amaze.filemanager.database.models.EncryptedEntry;
 import com.amaze.filemanager.exceptions.ShellNotRunningException;
+import com.amaze.filemanager.filesystem.FileNameIndex;
 import com.amaze.filemanager.filesystem.HybridFile;
 import com.amaze.filemanager.filesystem.HybridFileParcelable;
 import com.amaze.filemanager.fragments.MainFragment;
@@ -124,6 +125,8 @@ public class MoveFiles extends AsyncTask<ArrayList<String>, String, Boolean> {
                                 }
                             } else return false;
                         }
+                        FileNameIndex.getInstance().refresh(source.getParent());
+                        FileNameIndex.getInstance().refresh(dest.getPath());
                     }
                 }
                 break;
@@ -0,0 +1,154 @@
+package com.amaze.filemanager.asynchronous.asynctasks;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.amaze.filemanager.filesystem.HybridFile;
+import com.amaze.filemanager.utils.OnFileFound;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Walks a directory tree on several threads and reports every file whose name passes a
+ * {@link SearchAsyncTask.SearchFilter}.
+ *
+ * Every directory is one task. Pending directories are kept in a LIFO queue shared by all
+ * threads, so the walk stays roughly depth first and an idle thread always picks up the most
+ * recently found subtree.
+ *
+ * @see SearchAsyncTask
+ */
+public class ParallelFileSearch {
+
+    private static final String TAG = "ParallelFileSearch";
+
+    private final Context context;
+    private final boolean rootMode;
+    private final SearchAsyncTask.SearchFilter filter;
+    private final OnFileFound onFileFound;
+    private final ThreadPoolExecutor executor;
+
+    // directories submitted but not yet listed, the search is done when this drops to 0
+    private final AtomicInteger pendingDirectories = new AtomicInteger();
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile boolean cancelled = false;
+
+    /**
+     * @param threads     number of directories listed concurrently
+     * @param onFileFound called for every match, from any of the search threads
+     */
+    public ParallelFileSearch(Context context, boolean rootMode, int threads,
+                              SearchAsyncTask.SearchFilter filter, OnFileFound onFileFound) {
+        this.context = context;
+        this.rootMode = rootMode;
+        this.filter = filter;
+        this.onFileFound = onFileFound;
+
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingDeque<Runnable>() {
+                    @Override
+                    public boolean offer(Runnable runnable) {
+                        return offerFirst(runnable);
+                    }
+                });
+    }
+
+    /**
+     * Starts searching below directory, returns immediately.
+     */
+    public void start(HybridFile directory) {
+        if (directory.isDirectory(context)) {// do you have permission to read this directory?
+            submit(directory);
+        } else {
+            Log.d(TAG, "Cannot search " + directory.getPath() + ": Permission Denied");
+            finish();
+        }
+    }
+
+    /**
+     * @return true if the search has finished or was cancelled
+     */
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        return done.await(timeout, unit);
+    }
+
+    public void cancel() {
+        cancelled = true;
+        finish();
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    private void submit(HybridFile directory) {
+        pendingDirectories.incrementAndGet();
+        try {
+            executor.execute(() -> list(directory));
+        } catch (RejectedExecutionException e) {
+            // cancelled meanwhile
+            pendingDirectories.decrementAndGet();
+        }
+    }
+
+    private void list(HybridFile directory) {
+        try {
+            if (!cancelled) {
+                directory.forEachChildrenFile(context, rootMode, file -> {
+                    if (!cancelled) {
+                        if (filter.searchFilter(file.getName())) {
+                            onFileFound.onFileFound(file);
+                        }
+                        // no isDirectory(context) again: the listing already knows, and
+                        // asking would cost a stat (or a shell command in root mode) per directory
+                        if (file.isDirectory()) {
+                            submit(file);
+                        }
+                    }
+                });
+            }
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Cannot search " + directory.getPath(), e);
+        } finally {
+            if (pendingDirectories.decrementAndGet() == 0) {
+                finish();
+            }
+        }
+    }
+
+    private void finish() {
+        executor.shutdownNow();
+        done.countDown();
+    }
+
+    /**
+     * Case insensitive substring filter. The query is prepared once, testing a name does not
+     * allocate (unlike lowercasing every name).
+     */
+    public static SearchAsyncTask.SearchFilter containsIgnoreCase(final String query) {
+        final int length = query.length();
+        if (length == 0) return fileName -> true;
+
+        // same folding as String.regionMatches(true, ...), used to skip most offsets cheaply
+        final char first = query.charAt(0);
+        final char firstUpper = Character.toUpperCase(first);
+        final char firstLower = Character.toLowerCase(firstUpper);
+
+        return fileName -> {
+            for (int i = 0, last = fileName.length() - length; i <= last; i++) {
+                char c = fileName.charAt(i);
+                if (c != first) {
+                    char upper = Character.toUpperCase(c);
+                    if (upper != firstUpper && Character.toLowerCase(upper) != firstLower) continue;
+                }
+                if (fileName.regionMatches(true, i + 1, query, 1, length - 1)) return true;
+            }
+            return false;
+        };
+    }
+}
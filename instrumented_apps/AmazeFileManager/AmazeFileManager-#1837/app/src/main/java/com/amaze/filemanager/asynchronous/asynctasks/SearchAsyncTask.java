@@ -4,6 +4,7 @@ import android.app.Activity;
 import android.os.AsyncTask;
 import android.util.Log;
 
+import com.amaze.filemanager.filesystem.FileNameIndex;
 import com.amaze.filemanager.filesystem.HybridFile;
 import com.amaze.filemanager.filesystem.HybridFileParcelable;
 import com.amaze.filemanager.fragments.SearchWorkerFragment;
@@ -11,6 +12,8 @@ import com.amaze.filemanager.utils.OnFileFound;
 import com.amaze.filemanager.utils.OpenMode;
 
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
 /**
@@ -22,12 +25,17 @@ public class SearchAsyncTask extends AsyncTask<String, HybridFileParcelable, Voi
 
     private static final String TAG = "SearchAsyncTask";
 
+    private static final long PUBLISH_INTERVAL_MILLIS = 100;
+
     private WeakReference<Activity> activity;
     private SearchWorkerFragment.HelperCallbacks mCallbacks;
     private String mInput;
     private OpenMode mOpenMode;
     private boolean mRootMode, isRegexEnabled, isMatchesEnabled;
 
+    // matches found by the search threads, not yet published
+    private final ArrayList<HybridFileParcelable> pendingResults = new ArrayList<>();
+
     public SearchAsyncTask(Activity a, SearchWorkerFragment.HelperCallbacks l,
                            String input, OpenMode openMode, boolean root, boolean regex,
                            boolean matches) {
@@ -90,33 +98,64 @@ public class SearchAsyncTask extends AsyncTask<String, HybridFileParcelable, Voi
 
     @Override
     public void onProgressUpdate(HybridFileParcelable... val) {
-        if (!isCancelled() && mCallbacks != null) {
-            mCallbacks.onProgressUpdate(val[0], mInput);
+        for (HybridFileParcelable file : val) {
+            if (isCancelled() || mCallbacks == null) return;
+            mCallbacks.onProgressUpdate(file, mInput);
         }
     }
 
     /**
-     * Recursively search for occurrences of a given text in file names and publish the result
+     * Recursively search for occurrences of a given text in file names and publish the result.
+     * Directories covered by the {@link FileNameIndex} are answered from the index. Other local
+     * trees are walked on one thread per core, results are published in batches at most
+     * every {@link #PUBLISH_INTERVAL_MILLIS}. In root mode directories are listed through the
+     * single shared root shell that runs one command at a time, so one thread is used
      *
      * @param directory the current path
      */
     private void search(HybridFile directory, final SearchFilter filter) {
-        if (directory.isDirectory(activity.get())) {// do you have permission to read this directory?
-            directory.forEachChildrenFile(activity.get(), mRootMode, file -> {
-                if (!isCancelled()) {
-                    if (filter.searchFilter(file.getName())) {
-                        publishProgress(file);
-                    }
-                    if (file.isDirectory() && !isCancelled()) {
-                        search(file, filter);
-                    }
+        FileNameIndex index = FileNameIndex.getInstance();
+        if (directory.isLocal() && index.covers(directory.getPath())) {
+            index.search(directory.getPath(), filter, this::addPendingResult);
+            publishPendingResults();
+            return;
+        }
+
+        int threads = directory.isLocal() && !mRootMode ? Runtime.getRuntime().availableProcessors() : 1;
+        ParallelFileSearch search = new ParallelFileSearch(activity.get(), mRootMode, threads, filter,
+                this::addPendingResult);
+        search.start(directory);
+
+        try {
+            while (!search.await(PUBLISH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (isCancelled()) {
+                    search.cancel();
+                    return;
                 }
-            });
-        } else {
-            Log.d(TAG, "Cannot search " + directory.getPath() + ": Permission Denied");
+                publishPendingResults();
+            }
+        } catch (InterruptedException e) {
+            search.cancel();
+            return;
+        }
+        publishPendingResults();
+    }
+
+    private void addPendingResult(HybridFileParcelable file) {
+        synchronized (pendingResults) {
+            pendingResults.add(file);
         }
     }
 
+    private void publishPendingResults() {
+        HybridFileParcelable[] results;
+        synchronized (pendingResults) {
+            if (pendingResults.isEmpty()) return;
+            results = pendingResults.toArray(new HybridFileParcelable[pendingResults.size()]);
+            pendingResults.clear();
+        }
+        if (!isCancelled()) publishProgress(results);
+    }
 
     /**
      * Recursively search for occurrences of a given text in file names and publish the result
@@ -125,7 +164,7 @@ public class SearchAsyncTask extends AsyncTask<String, HybridFileParcelable, Voi
      * @param query the searched text
      */
     private void search(HybridFile file, final String query) {
-        search(file, fileName -> fileName.toLowerCase().contains(query.toLowerCase()));
+        search(file, ParallelFileSearch.containsIgnoreCase(query));
     }
 
     /**
@@ -43,6 +43,7 @@ import com.amaze.filemanager.asynchronous.asynctasks.DeleteTask;
 import com.amaze.filemanager.database.CryptHandler;
 import com.amaze.filemanager.database.models.EncryptedEntry;
 import com.amaze.filemanager.exceptions.ShellNotRunningException;
+import com.amaze.filemanager.filesystem.FileNameIndex;
 import com.amaze.filemanager.filesystem.FileUtil;
 import com.amaze.filemanager.filesystem.HybridFile;
 import com.amaze.filemanager.filesystem.HybridFileParcelable;
@@ -253,6 +254,10 @@ public class CopyService extends AbstractProgressiveService {
             copy = new Copy();
             copy.execute(sourceFiles, targetPath, move, openMode);
 
+            for (HybridFileParcelable sourceFile : sourceFiles) {
+                FileNameIndex.getInstance().refresh(targetPath + "/" + sourceFile.getName());
+            }
+
             if (copy.failedFOps.size() == 0) {
 
                 // adding/updating new encrypted db entry if any encrypted file was copied/moved
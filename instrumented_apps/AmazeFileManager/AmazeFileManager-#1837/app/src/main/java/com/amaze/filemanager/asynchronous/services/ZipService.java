@@ -40,6 +40,7 @@ import com.amaze.filemanager.R;
 import com.amaze.filemanager.activities.MainActivity;
 import com.amaze.filemanager.filesystem.FileUtil;
 import com.amaze.filemanager.filesystem.HybridFileParcelable;
+import com.amaze.filemanager.filesystem.compressed.ParallelZipWriter;
 import com.amaze.filemanager.ui.notifications.NotificationConstants;
 import com.amaze.filemanager.utils.DatapointParcelable;
 import com.amaze.filemanager.utils.ObtainableServiceBinder;
@@ -47,18 +48,12 @@ import com.amaze.filemanager.utils.ProgressHandler;
 import com.amaze.filemanager.utils.ServiceWatcherUtil;
 import com.amaze.filemanager.utils.application.AppConfig;
 import com.amaze.filemanager.utils.files.FileUtils;
-import com.amaze.filemanager.utils.files.GenericCopyUtil;
 
-import net.lingala.zip4j.exception.ZipException;
-import net.lingala.zip4j.io.ZipOutputStream;
-import net.lingala.zip4j.model.ZipParameters;
-import net.lingala.zip4j.util.Zip4jConstants;
-
-import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.zip.Deflater;
 
 public class ZipService extends AbstractProgressiveService {
 
@@ -197,9 +192,11 @@ public class ZipService extends AbstractProgressiveService {
 
     public class CompressAsyncTask extends AsyncTask<Void, Void, Void> {
 
+        private final int threads = Math.max(1, Runtime.getRuntime().availableProcessors());
+
         @SuppressLint("StaticFieldLeak")
         private ZipService zipService;
-        private ZipOutputStream zos;
+        private ParallelZipWriter zipWriter;
         private String zipPath;
         private ServiceWatcherUtil watcherUtil;
         private long totalBytes = 0L;
@@ -253,50 +250,56 @@ public class ZipService extends AbstractProgressiveService {
 
             try {
                 out = FileUtil.getOutputStream(zipDirectory, context);
-                zos = new ZipOutputStream(new BufferedOutputStream(out));
+                zipWriter = new ParallelZipWriter(out, context.getCacheDir(), Deflater.DEFAULT_COMPRESSION,
+                        threads, ZipService::addProgress);
 
                 int fileProgress = 0;
                 for (File file : baseFiles) {
-                    if (isCancelled()) return;
+                    if (isCancelled() || progressHandler.getCancelled()) return;
 
                     progressHandler.setFileName(file.getName());
                     progressHandler.setSourceFilesProcessed(++fileProgress);
                     compressFile(file, "");
                 }
-            } catch (IOException | ZipException e) {
+                if (!progressHandler.getCancelled()) zipWriter.finish();
+            } catch (IOException e) {
                 e.printStackTrace();
             } finally {
                 try {
-                    zos.flush();
-                    zos.close();
+                    if (zipWriter != null) zipWriter.close();
                 } catch (IOException e) {
                     e.printStackTrace();
                 }
             }
         }
 
-        private void compressFile(File file, String path) throws IOException, NullPointerException, ZipException {
+        /**
+         * Entries are deflated by {@link #threads} threads, bytes are counted as they are read
+         */
+        private void compressFile(File file, String path) throws IOException {
             if (progressHandler.getCancelled()) return;
 
             if (!file.isDirectory()) {
-                byte[] buf = new byte[GenericCopyUtil.DEFAULT_BUFFER_SIZE];
-                int len;
-                ZipParameters parameters = new ZipParameters();
-                parameters.setCompressionLevel(Zip4jConstants.DEFLATE_LEVEL_NORMAL);
-                parameters.setFileNameInZip(path + "/" + file.getName());
-                zos.putNextEntry(file, parameters);
-                ServiceWatcherUtil.position += file.length();
+                zipWriter.addFile(file, path + file.getName());
                 return;
             }
 
-            if (file.list() == null) return;
+            File[] children = file.listFiles();
+            if (children == null) return;
 
-            for (File currentFile : file.listFiles()) {
-                compressFile(currentFile, path + File.separator + file.getName());
+            for (File currentFile : children) {
+                compressFile(currentFile, path + file.getName() + "/");
             }
         }
     }
 
+    /**
+     * Called by the threads of {@link ParallelZipWriter}
+     */
+    private static synchronized void addProgress(int count) {
+        ServiceWatcherUtil.position += count;
+    }
+
     /**
      * Class used for the client Binder.  Because we know this service always
      * runs in the same process as its clients, we don't need to deal with IPC.
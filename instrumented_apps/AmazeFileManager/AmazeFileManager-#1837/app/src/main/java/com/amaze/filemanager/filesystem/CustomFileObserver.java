@@ -94,10 +94,12 @@ public class CustomFileObserver extends FileObserver {
             case CREATE:
             case MOVED_TO:
                 pathsAdded.add(path);
+                FileNameIndex.getInstance().refresh(this.path + "/" + path);
                 break;
             case DELETE:
             case MOVED_FROM:
                 pathsRemoved.add(path);
+                FileNameIndex.getInstance().refresh(this.path + "/" + path);
                 break;
             case DELETE_SELF:
             case MOVE_SELF:
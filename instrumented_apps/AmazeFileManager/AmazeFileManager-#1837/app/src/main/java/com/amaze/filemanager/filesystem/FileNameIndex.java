@@ -0,0 +1,530 @@
+package com.amaze.filemanager.filesystem;
+
+import android.content.Context;
+import android.os.Environment;
+import android.util.Log;
+
+import androidx.annotation.VisibleForTesting;
+
+import com.amaze.filemanager.asynchronous.asynctasks.SearchAsyncTask;
+import com.amaze.filemanager.utils.OnFileFound;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Optional index of the names of all files below some local roots (usually the internal storage),
+ * so a name search can be answered without walking the file system.
+ *
+ * Paths are kept sorted and front coded in a {@link FrontCodedPaths}, in memory as well as in the
+ * saved file, so the files below a directory are one contiguous range. On start the saved index is
+ * loaded and only directories whose last modified date changed are listed again. Afterwards it is
+ * kept fresh by {@link CustomFileObserver} events and by Amaze's own file operations calling
+ * {@link #refresh(String)}.
+ *
+ * All changes are done on one background thread that replaces the immutable snapshot of the
+ * index, searches may run on any thread.
+ */
+public class FileNameIndex {
+
+    private static final String TAG = "FileNameIndex";
+
+    private static final String INDEX_FILE_NAME = "file_name_index.bin";
+    private static final int FILE_VERSION = 2;
+
+    // changes are written to disk at most this often
+    private static final long SAVE_DELAY_SECONDS = 30;
+
+    private static final Comparator<File> BY_NAME = (a, b) -> a.getName().compareTo(b.getName());
+
+    private static FileNameIndex instance;
+
+    private static class Snapshot {
+        static final Snapshot EMPTY = new Snapshot(Collections.emptyMap(), FrontCodedPaths.EMPTY);
+
+        // roots that were readable when the index was built, with their last modified date
+        final Map<String, Long> roots;
+        final FrontCodedPaths paths;
+
+        Snapshot(Map<String, Long> roots, FrontCodedPaths paths) {
+            this.roots = roots;
+            this.paths = paths;
+        }
+
+        boolean covers(String directory) {
+            for (String root : roots.keySet()) {
+                if (isSameOrBelow(directory, root)) return true;
+            }
+            return false;
+        }
+    }
+
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+
+    private volatile ScheduledExecutorService updater = null;
+    private File indexFile;
+    // only accessed on updater
+    private boolean saveScheduled = false;
+    // paths passed to refresh that are not indexed again yet, guarded by itself
+    private final Set<String> pendingRefreshes = new TreeSet<>(FrontCodedPaths::compare);
+
+    public static synchronized FileNameIndex getInstance() {
+        if (instance == null) instance = new FileNameIndex();
+        return instance;
+    }
+
+    /**
+     * Indexes the primary external storage.
+     */
+    public void enable(Context context) {
+        enable(context.getFilesDir(), Collections.singletonList(Environment.getExternalStorageDirectory().getPath()));
+    }
+
+    /**
+     * Loads the saved index and updates it in background. Until the update is done searches
+     * are answered from the saved index.
+     *
+     * @param directory where the index is saved
+     * @param roots     absolute paths of the directories to index
+     */
+    public synchronized void enable(File directory, List<String> roots) {
+        if (updater != null) return;
+
+        File file = getIndexFile(directory);
+        ScheduledExecutorService owner = Executors.newSingleThreadScheduledExecutor();
+        indexFile = file;
+        updater = owner;
+        owner.execute(() -> {
+            Snapshot loaded = read(file);
+            if (loaded != null) publish(owner, loaded);
+            update(owner, roots);
+            save(owner);
+        });
+    }
+
+    /**
+     * Stops updating, frees the memory and deletes the saved index. A task that is still running
+     * can't publish or save its result afterwards, see {@link #publish}.
+     */
+    public synchronized void disable() {
+        if (updater == null) return;
+
+        updater.shutdownNow();
+        updater = null;
+
+        synchronized (pendingRefreshes) {
+            pendingRefreshes.clear();
+        }
+        snapshot = Snapshot.EMPTY;
+        indexFile.delete();
+    }
+
+    /**
+     * @return true if everything below directory is indexed
+     */
+    public boolean covers(String directory) {
+        return snapshot.covers(directory);
+    }
+
+    /**
+     * Reports every indexed file below directory whose name passes filter. Matches are checked
+     * against the file system before they are reported, files deleted behind the index's back
+     * are skipped.
+     */
+    public void search(String directory, SearchAsyncTask.SearchFilter filter, OnFileFound onFileFound) {
+        List<String> matches = new ArrayList<>();
+
+        FrontCodedPaths.Cursor cursor = snapshot.paths.seek(directory);
+        if (directory.equals(cursor.path())) cursor.advance();
+        for (; cursor.path() != null && isBelow(cursor.path(), directory); cursor.advance()) {
+            String path = cursor.path();
+            if (filter.searchFilter(path.substring(path.lastIndexOf('/') + 1))) {
+                matches.add(path);
+            }
+        }
+
+        for (String path : matches) {
+            File file = new File(path);
+            if (!file.exists()) continue;
+
+            HybridFileParcelable hybridFile = RootHelper.generateBaseFile(file, true);
+            if (hybridFile != null) onFileFound.onFileFound(hybridFile);
+        }
+    }
+
+    /**
+     * Updates the index after path was created, changed or deleted. If path is a directory
+     * everything below it is indexed again. Returns immediately.
+     */
+    public void refresh(String path) {
+        ScheduledExecutorService updater = this.updater;
+        if (updater == null || path == null) return;
+
+        synchronized (pendingRefreshes) {
+            // else the scheduled task takes path too
+            boolean scheduled = !pendingRefreshes.isEmpty();
+            pendingRefreshes.add(path);
+            if (scheduled) return;
+        }
+        try {
+            updater.execute(() -> applyRefreshes(updater));
+        } catch (RejectedExecutionException e) {
+            // disabled meanwhile
+            synchronized (pendingRefreshes) {
+                pendingRefreshes.clear();
+            }
+        }
+    }
+
+    /**
+     * Waits until all changes requested so far are done
+     */
+    @VisibleForTesting
+    void awaitUpdates() throws InterruptedException, ExecutionException {
+        ScheduledExecutorService updater = this.updater;
+        if (updater != null) updater.submit(() -> {}).get();
+    }
+
+    public int size() {
+        return snapshot.paths.size();
+    }
+
+    /**
+     * Indexes the paths passed to {@link #refresh(String)} again. All refreshes requested
+     * meanwhile are merged into the index in one pass.
+     */
+    private void applyRefreshes(ScheduledExecutorService owner) {
+        List<String> paths;
+        synchronized (pendingRefreshes) {
+            paths = new ArrayList<>(pendingRefreshes);
+            pendingRefreshes.clear();
+        }
+
+        Snapshot old = snapshot;
+        FrontCodedPaths.Builder target = new FrontCodedPaths.Builder();
+        FrontCodedPaths.Cursor cursor = old.paths.cursor();
+        String previous = null;
+        for (String path : paths) {
+            // paths are sorted, so everything below previous directly follows it
+            if (!old.covers(path) || previous != null && isSameOrBelow(path, previous)) continue;
+
+            for (; cursor.path() != null && FrontCodedPaths.compare(cursor.path(), path) < 0; cursor.advance()) {
+                target.add(cursor);
+            }
+            while (cursor.path() != null && isSameOrBelow(cursor.path(), path)) cursor.advance();
+
+            File file = new File(path);
+            if (file.exists() && add(target, file)) walk(file, target);
+            previous = path;
+        }
+        for (; cursor.path() != null; cursor.advance()) target.add(cursor);
+
+        if (Thread.currentThread().isInterrupted()) return;
+
+        if (publish(owner, new Snapshot(old.roots, target.build()))) scheduleSave(owner);
+    }
+
+    /**
+     * Brings the loaded index up to date with the file system. Only directories whose last
+     * modified date changed since they were indexed are listed again, everything else is taken
+     * from the loaded index.
+     */
+    private void update(ScheduledExecutorService owner, List<String> roots) {
+        Snapshot old = snapshot;
+        FrontCodedPaths.Builder target = new FrontCodedPaths.Builder();
+        Map<String, Long> readableRoots = new LinkedHashMap<>();
+
+        List<String> sortedRoots = new ArrayList<>(roots);
+        Collections.sort(sortedRoots, FrontCodedPaths::compare);
+        for (String root : sortedRoots) {
+            File directory = new File(root);
+            long lastModified = directory.lastModified();
+            Long oldLastModified = old.roots.get(root);
+
+            FrontCodedPaths.Cursor cursor = old.paths.seek(root);
+            if (root.equals(cursor.path())) cursor.advance();
+            // without storage permission nothing is readable, such a root must not be used for searching
+            if (update(directory, oldLastModified == null || oldLastModified != lastModified, cursor, target)) {
+                readableRoots.put(root, lastModified);
+            }
+            if (Thread.currentThread().isInterrupted()) return;
+        }
+
+        Snapshot updated = new Snapshot(readableRoots, target.build());
+        if (publish(owner, updated)) {
+            Log.d(TAG, "Indexed " + updated.paths.size() + " files below " + readableRoots.keySet());
+        }
+    }
+
+    /**
+     * Replaces the snapshot unless owner is not the updater any more because the index was
+     * disabled (and maybe enabled again) meanwhile.
+     *
+     * @return false if snapshot was dropped
+     */
+    private synchronized boolean publish(ScheduledExecutorService owner, Snapshot snapshot) {
+        if (updater != owner) return false;
+
+        this.snapshot = snapshot;
+        return true;
+    }
+
+    /**
+     * Adds everything below directory to target. The entries of old are reused, directory is
+     * only listed again if it changed. Subdirectories are checked the same way.
+     *
+     * @param old at the first old entry below directory, left behind the last one
+     * @return false if directory could not be listed
+     */
+    private static boolean update(File directory, boolean changed, FrontCodedPaths.Cursor old,
+                                  FrontCodedPaths.Builder target) {
+        String path = directory.getPath();
+        if (!changed) {
+            // same children as indexed
+            while (old.path() != null && isBelow(old.path(), path)) {
+                if (Thread.currentThread().isInterrupted()) return true;
+
+                if (!old.isDirectory()) {
+                    target.add(old);
+                    old.advance();
+                } else {
+                    File child = new File(old.path());
+                    long lastModified = child.lastModified();
+                    boolean childChanged = lastModified != old.lastModified();
+                    target.add(child.getPath(), lastModified, true);
+                    old.advance();
+                    update(child, childChanged, old, target);
+                }
+            }
+            return true;
+        }
+
+        File[] children = directory.listFiles();
+        if (children == null) {
+            skipBelow(old, path);
+            return false;
+        }
+
+        Arrays.sort(children, BY_NAME);
+        int i = 0;
+        while (!Thread.currentThread().isInterrupted()) {
+            String oldPath = old.path() != null && isBelow(old.path(), path) ? old.path() : null;
+            File child = i < children.length ? children[i] : null;
+            if (oldPath == null && child == null) break;
+
+            int order = oldPath == null ? 1 : child == null ? -1 : FrontCodedPaths.compare(oldPath, child.getPath());
+            if (order < 0) {
+                // deleted
+                old.advance();
+                skipBelow(old, oldPath);
+                continue;
+            }
+
+            boolean wasDirectory = order == 0 && old.isDirectory();
+            long oldLastModified = order == 0 ? old.lastModified() : 0;
+            if (order == 0) old.advance();
+            i++;
+
+            long lastModified = child.lastModified();
+            boolean isDirectory = child.isDirectory();
+            target.add(child.getPath(), lastModified, isDirectory);
+            if (wasDirectory && isDirectory) {
+                update(child, lastModified != oldLastModified, old, target);
+            } else {
+                if (wasDirectory) skipBelow(old, child.getPath());
+                if (isDirectory) walk(child, target);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds everything below directory to target.
+     *
+     * @return false if directory could not be listed
+     */
+    private static boolean walk(File directory, FrontCodedPaths.Builder target) {
+        File[] children = directory.listFiles();
+        if (children == null) return false;
+
+        // the order of FrontCodedPaths
+        Arrays.sort(children, BY_NAME);
+        for (File child : children) {
+            if (Thread.currentThread().isInterrupted()) break;
+            if (add(target, child)) walk(child, target);
+        }
+        return true;
+    }
+
+    private static boolean add(FrontCodedPaths.Builder target, File file) {
+        boolean isDirectory = file.isDirectory();
+        target.add(file.getPath(), file.lastModified(), isDirectory);
+        return isDirectory;
+    }
+
+    private static void skipBelow(FrontCodedPaths.Cursor cursor, String directory) {
+        while (cursor.path() != null && isBelow(cursor.path(), directory)) cursor.advance();
+    }
+
+    private static boolean isBelow(String path, String directory) {
+        return path.length() > directory.length() && isSameOrBelow(path, directory);
+    }
+
+    private static boolean isSameOrBelow(String path, String directory) {
+        return path.equals(directory)
+                || path.startsWith(directory) && (directory.endsWith("/") || path.charAt(directory.length()) == '/');
+    }
+
+    private void scheduleSave(ScheduledExecutorService owner) {
+        if (saveScheduled) return;
+
+        saveScheduled = true;
+        owner.schedule(() -> {
+            saveScheduled = false;
+            save(owner);
+        }, SAVE_DELAY_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @return false if there is no usable saved index
+     */
+    @VisibleForTesting
+    boolean load(File file) {
+        Snapshot loaded = read(file);
+        if (loaded == null) return false;
+
+        snapshot = loaded;
+        return true;
+    }
+
+    /**
+     * @return null if there is no usable saved index
+     */
+    private static Snapshot read(File file) {
+        if (!file.exists()) return null;
+
+        FrontCodedPaths.Builder paths = new FrontCodedPaths.Builder();
+        Map<String, Long> roots = new LinkedHashMap<>();
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != FILE_VERSION) return null;
+
+            int rootCount = in.readInt();
+            for (int i = 0; i < rootCount; i++) {
+                roots.put(in.readUTF(), in.readLong());
+            }
+
+            int count = in.readInt();
+            String previous = "";
+            for (int i = 0; i < count; i++) {
+                String path = previous.substring(0, in.readUnsignedShort()) + in.readUTF();
+                paths.add(path, in.readLong(), in.readBoolean());
+                previous = path;
+            }
+        } catch (IOException | RuntimeException e) {
+            // corrupt index, it is rebuilt anyway
+            Log.w(TAG, "Cannot load " + file, e);
+            return null;
+        } finally {
+            close(in);
+        }
+
+        return new Snapshot(roots, paths.build());
+    }
+
+    /**
+     * Written to a temporary file first, so a crash can't leave a half written index behind.
+     * Nothing is saved if owner was stopped meanwhile, so a disabled index stays deleted.
+     */
+    private void save(ScheduledExecutorService owner) {
+        Snapshot snapshot;
+        File indexFile;
+        synchronized (this) {
+            if (updater != owner) return;
+            snapshot = this.snapshot;
+            indexFile = this.indexFile;
+        }
+
+        File tempFile = new File(indexFile.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            out.writeInt(FILE_VERSION);
+
+            out.writeInt(snapshot.roots.size());
+            for (Map.Entry<String, Long> root : snapshot.roots.entrySet()) {
+                out.writeUTF(root.getKey());
+                out.writeLong(root.getValue());
+            }
+
+            out.writeInt(snapshot.paths.size());
+            String previous = "";
+            for (FrontCodedPaths.Cursor cursor = snapshot.paths.cursor(); cursor.path() != null; cursor.advance()) {
+                String path = cursor.path();
+                int common = commonPrefixLength(previous, path);
+                out.writeShort(common);
+                out.writeUTF(path.substring(common));
+                out.writeLong(cursor.lastModified());
+                out.writeBoolean(cursor.isDirectory());
+                previous = path;
+            }
+            out.close();
+            out = null;
+
+            synchronized (this) {
+                if (updater != owner) {
+                    tempFile.delete();
+                } else if (!tempFile.renameTo(indexFile)) {
+                    Log.w(TAG, "Cannot replace " + indexFile);
+                }
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot save " + indexFile, e);
+        } finally {
+            close(out);
+        }
+    }
+
+    @VisibleForTesting
+    static File getIndexFile(File directory) {
+        return new File(directory, INDEX_FILE_NAME);
+    }
+
+    private static int commonPrefixLength(String a, String b) {
+        int max = Math.min(Math.min(a.length(), b.length()), 0xffff);
+        int i = 0;
+        while (i < max && a.charAt(i) == b.charAt(i)) i++;
+        return i;
+    }
+
+    private static void close(Closeable closeable) {
+        if (closeable == null) return;
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
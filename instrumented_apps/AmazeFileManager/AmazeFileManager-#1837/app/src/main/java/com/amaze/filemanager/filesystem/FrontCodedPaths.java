@@ -0,0 +1,217 @@
+package com.amaze.filemanager.filesystem;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Immutable sorted list of paths with a last modified date and a directory flag each. Instead of
+ * one object per path everything is kept in a few arrays, a path only stores the bytes that differ
+ * from the previous path. Every {@link #BLOCK_SIZE}th path is stored completely, so a path can be
+ * found by binary search.
+ *
+ * Paths are sorted by {@link #compare}, so everything below a directory directly follows it.
+ */
+class FrontCodedPaths {
+
+    private static final int BLOCK_SIZE = 16;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    static final FrontCodedPaths EMPTY = new Builder().build();
+
+    // per path: shared prefix length and suffix length as var ints, then the suffix in UTF-8
+    private final byte[] data;
+    // offset in data of every BLOCK_SIZEth path
+    private final int[] blocks;
+    private final long[] lastModified;
+    private final BitSet directories;
+    private final int size;
+
+    private FrontCodedPaths(byte[] data, int[] blocks, long[] lastModified, BitSet directories, int size) {
+        this.data = data;
+        this.blocks = blocks;
+        this.lastModified = lastModified;
+        this.directories = directories;
+        this.size = size;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return cursor at the first path
+     */
+    Cursor cursor() {
+        return new Cursor(0);
+    }
+
+    /**
+     * @return cursor at the first path that is not less than path
+     */
+    Cursor seek(String path) {
+        int low = 0;
+        int high = (size + BLOCK_SIZE - 1) / BLOCK_SIZE - 1;
+        // last block whose first path is less than path
+        int block = 0;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (compare(new Cursor(middle).path(), path) < 0) {
+                block = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+
+        Cursor cursor = new Cursor(block);
+        while (cursor.path() != null && compare(cursor.path(), path) < 0) cursor.advance();
+        return cursor;
+    }
+
+    /**
+     * Like {@link String#compareTo} but '/' sorts before every other character, so the paths
+     * below a directory are sorted by their names.
+     */
+    static int compare(String a, String b) {
+        int length = Math.min(a.length(), b.length());
+        for (int i = 0; i < length; i++) {
+            char x = a.charAt(i);
+            char y = b.charAt(i);
+            if (x != y) {
+                if (x == '/') return -1;
+                if (y == '/') return 1;
+                return x - y;
+            }
+        }
+        return a.length() - b.length();
+    }
+
+    /**
+     * Reads the paths in order.
+     */
+    class Cursor {
+        private int index;
+        private int offset;
+        private byte[] bytes = new byte[256];
+        private String path;
+
+        private Cursor(int block) {
+            index = block * BLOCK_SIZE - 1;
+            offset = size > 0 ? blocks[block] : 0;
+            advance();
+        }
+
+        /**
+         * @return the current path, null after the last one
+         */
+        String path() {
+            return path;
+        }
+
+        long lastModified() {
+            return lastModified[index];
+        }
+
+        boolean isDirectory() {
+            return directories.get(index);
+        }
+
+        void advance() {
+            index++;
+            if (index >= size) {
+                path = null;
+                return;
+            }
+
+            int shared = readVarInt();
+            int length = readVarInt();
+            if (bytes.length < shared + length) bytes = Arrays.copyOf(bytes, 2 * (shared + length));
+            System.arraycopy(data, offset, bytes, shared, length);
+            offset += length;
+            path = new String(bytes, 0, shared + length, UTF_8);
+        }
+
+        private int readVarInt() {
+            int result = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[offset++];
+                result |= (b & 0x7f) << shift;
+                shift += 7;
+            } while (b < 0);
+            return result;
+        }
+    }
+
+    /**
+     * Paths must be added in {@link #compare} order.
+     */
+    static class Builder {
+        private byte[] data = new byte[4096];
+        private int dataLength = 0;
+        private int[] blocks = new int[64];
+        private long[] lastModified = new long[1024];
+        private final BitSet directories = new BitSet();
+        private int size = 0;
+        private byte[] previous = new byte[0];
+
+        void add(String path, long lastModified, boolean isDirectory) {
+            byte[] bytes = path.getBytes(UTF_8);
+            int shared = 0;
+            if (size % BLOCK_SIZE == 0) {
+                int block = size / BLOCK_SIZE;
+                if (block == blocks.length) blocks = Arrays.copyOf(blocks, 2 * blocks.length);
+                blocks[block] = dataLength;
+            } else {
+                shared = commonPrefixLength(previous, bytes);
+            }
+
+            int length = bytes.length - shared;
+            if (dataLength + 10 + length > data.length) {
+                data = Arrays.copyOf(data, Math.max(2 * data.length, dataLength + 10 + length));
+            }
+            writeVarInt(shared);
+            writeVarInt(length);
+            System.arraycopy(bytes, shared, data, dataLength, length);
+            dataLength += length;
+
+            if (size == this.lastModified.length) {
+                this.lastModified = Arrays.copyOf(this.lastModified, 2 * size);
+            }
+            this.lastModified[size] = lastModified;
+            directories.set(size, isDirectory);
+            size++;
+            previous = bytes;
+        }
+
+        /**
+         * Adds the path the cursor is at.
+         */
+        void add(Cursor cursor) {
+            add(cursor.path(), cursor.lastModified(), cursor.isDirectory());
+        }
+
+        FrontCodedPaths build() {
+            return new FrontCodedPaths(Arrays.copyOf(data, dataLength),
+                    Arrays.copyOf(blocks, (size + BLOCK_SIZE - 1) / BLOCK_SIZE),
+                    Arrays.copyOf(lastModified, size), (BitSet) directories.clone(), size);
+        }
+
+        private void writeVarInt(int value) {
+            while (value >= 0x80) {
+                data[dataLength++] = (byte) (value | 0x80);
+                value >>>= 7;
+            }
+            data[dataLength++] = (byte) value;
+        }
+
+        private static int commonPrefixLength(byte[] a, byte[] b) {
+            int max = Math.min(a.length, b.length);
+            int i = 0;
+            while (i < max && a[i] == b[i]) i++;
+            return i;
+        }
+    }
+}
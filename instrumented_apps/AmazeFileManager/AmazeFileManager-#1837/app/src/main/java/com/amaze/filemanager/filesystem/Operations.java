@@ -187,6 +187,12 @@ public class Operations {
                 }
                 return null;
             }
+
+            @Override
+            protected void onPostExecute(Void aVoid) {
+                super.onPostExecute(aVoid);
+                FileNameIndex.getInstance().refresh(file.getPath());
+            }
         }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
 
     }
@@ -326,6 +332,12 @@ public class Operations {
                 }
                 return null;
             }
+
+            @Override
+            protected void onPostExecute(Void aVoid) {
+                super.onPostExecute(aVoid);
+                FileNameIndex.getInstance().refresh(file.getPath());
+            }
         }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
     }
 
@@ -482,6 +494,9 @@ public class Operations {
                 if (newFile != null && oldFile != null) {
                     HybridFile[] hybridFiles = { newFile, oldFile};
                     FileUtils.scanFile(context, hybridFiles);
+
+                    FileNameIndex.getInstance().refresh(oldFile.getPath());
+                    FileNameIndex.getInstance().refresh(newFile.getPath());
                 }
             }
         }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
@@ -24,6 +24,8 @@ package com.amaze.filemanager.filesystem.compressed;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import com.amaze.filemanager.filesystem.compressed.sevenz.AES256KeyCache;
+
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
@@ -39,6 +41,9 @@ import java.util.Set;
  * password-protect even the file/folder list of the archive. It is not limited to 7z archives, of
  * course.
  *
+ * Keys derived from the passwords of 7z archives are cached by {@link AES256KeyCache}, they are
+ * forgotten together with the passwords.
+ *
  * Implemented as a Singleton with Bill Pugh's Singleton implementation
  *
  * @see Map
@@ -108,9 +113,14 @@ public class ArchivePasswordCache implements Map<String, String> {
         return entries.put(key, value);
     }
 
+    /**
+     * Also forgets the 7z keys derived from the removed password, see {@link AES256KeyCache}
+     */
     @Override
     public String remove(@Nullable Object key) {
-        return entries.remove(key);
+        String password = entries.remove(key);
+        if (password != null) AES256KeyCache.remove(password.toCharArray());
+        return password;
     }
 
     @Override
@@ -121,6 +131,7 @@ public class ArchivePasswordCache implements Map<String, String> {
     @Override
     public void clear() {
         entries.clear();
+        AES256KeyCache.clear();
     }
 
     @NonNull
@@ -0,0 +1,267 @@
+/*
+ * ParallelZipWriter.java
+ *
+ * Copyright © 2019 Raymond Lai (airwave209gt at gmail.com)
+ *
+ * This file is part of AmazeFileManager.
+ *
+ * AmazeFileManager is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AmazeFileManager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AmazeFileManager. If not, see <http ://www.gnu.org/licenses/>.
+ */
+
+package com.amaze.filemanager.filesystem.compressed;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.apache.commons.compress.archivers.zip.ScatterZipOutputStream;
+import org.apache.commons.compress.archivers.zip.StreamCompressor;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntryRequest;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.parallel.ScatterGatherBackingStore;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+
+/**
+ * Writes a zip file deflating several entries at once.
+ *
+ * Every file is deflated by a worker thread into its own buffer, which also records the CRC32
+ * and sizes. The buffers are then copied into the zip in the order the files were added, as raw
+ * entries, so the local headers carry the final sizes and the central directory is written as
+ * usual. Buffers stay in memory up to {@link #MEMORY_LIMIT} bytes and spill into temporary files
+ * after that; at most two buffers per thread are in flight, so big files never pile up in memory
+ * or on disk.
+ *
+ * commons-compress' own ParallelScatterZipCreator can't be used, it spills with java.nio.file
+ * which needs API 26, and it groups entries by thread instead of keeping their order.
+ */
+public class ParallelZipWriter implements Closeable {
+
+    private static final int MEMORY_LIMIT = 1024 * 1024;
+    private static final int BUFFER_SIZE = 8192;
+
+    public interface OnBytesRead {
+        /**
+         * Called by the worker threads while they read the files
+         */
+        void onBytesRead(int count);
+    }
+
+    private final ZipArchiveOutputStream zipOutputStream;
+    private final File spillDirectory;
+    private final int level;
+    private final int maxPending;
+    @Nullable
+    private final OnBytesRead onBytesRead;
+    private final ExecutorService executor;
+    private final ArrayDeque<Future<ScatterZipOutputStream>> pending = new ArrayDeque<>();
+    private volatile boolean closed = false;
+
+    /**
+     * @param level deflate level, see {@link java.util.zip.Deflater}
+     * @param spillDirectory where buffers of big files are kept, e.g. the cache dir
+     */
+    public ParallelZipWriter(@NonNull OutputStream outputStream, @NonNull File spillDirectory, int level,
+                             int threads, @Nullable OnBytesRead onBytesRead) {
+        this.zipOutputStream = new ZipArchiveOutputStream(new BufferedOutputStream(outputStream));
+        this.spillDirectory = spillDirectory;
+        this.level = level;
+        this.maxPending = 2 * threads;
+        this.onBytesRead = onBytesRead;
+        this.executor = Executors.newFixedThreadPool(threads);
+    }
+
+    /**
+     * Queues file for deflating, first writing out the oldest entries if too many are in flight.
+     */
+    public void addFile(@NonNull final File file, @NonNull final String nameInZip) throws IOException {
+        while (pending.size() >= maxPending) {
+            writeOldest();
+        }
+        pending.add(executor.submit(() -> deflate(file, nameInZip)));
+    }
+
+    /**
+     * Writes all queued entries and the central directory. The output stream is closed.
+     */
+    public void finish() throws IOException {
+        while (!pending.isEmpty()) {
+            writeOldest();
+        }
+        zipOutputStream.finish();
+        close();
+    }
+
+    /**
+     * Stops the workers and drops the entries that aren't written yet, the zip is left incomplete
+     * unless {@link #finish()} was called.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+
+        executor.shutdown();
+        for (Future<ScatterZipOutputStream> future : pending) {
+            try {
+                future.get().close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException | IOException e) {
+                // the entry is dropped anyway
+            }
+        }
+        pending.clear();
+        zipOutputStream.close();
+    }
+
+    private void writeOldest() throws IOException {
+        ScatterZipOutputStream deflated;
+        try {
+            deflated = pending.remove().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+
+        try {
+            deflated.writeTo(zipOutputStream);
+        } finally {
+            deflated.close();
+        }
+    }
+
+    private ScatterZipOutputStream deflate(File file, String nameInZip) throws IOException {
+        SpillingBackingStore backingStore = new SpillingBackingStore(spillDirectory);
+        ScatterZipOutputStream deflated = new ScatterZipOutputStream(backingStore,
+                StreamCompressor.create(level, backingStore));
+        final InputStream inputStream = new CountingInputStream(new FileInputStream(file));
+        try {
+            ZipArchiveEntry entry = new ZipArchiveEntry(file, nameInZip);
+            entry.setMethod(ZipEntry.DEFLATED);
+            // the stream is closed by addArchiveEntry
+            deflated.addArchiveEntry(ZipArchiveEntryRequest.createZipArchiveEntryRequest(entry,
+                    () -> inputStream));
+            return deflated;
+        } catch (IOException | RuntimeException e) {
+            inputStream.close();
+            deflated.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reports the bytes read, and gives up on the file once the writer is closed
+     */
+    private class CountingInputStream extends FilterInputStream {
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read(@NonNull byte[] b, int off, int len) throws IOException {
+            if (closed) throw new InterruptedIOException("Writer closed");
+
+            int count = super.read(b, off, len);
+            if (count > 0 && onBytesRead != null) {
+                onBytesRead.onBytesRead(count);
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Keeps up to {@link #MEMORY_LIMIT} bytes in memory, moves everything into a temporary file
+     * once there is more.
+     */
+    private static class SpillingBackingStore implements ScatterGatherBackingStore {
+
+        private final File spillDirectory;
+        private ByteArrayOutputStream memory = new ByteArrayOutputStream(BUFFER_SIZE);
+        private File spillFile;
+        private OutputStream spillOutputStream;
+
+        SpillingBackingStore(File spillDirectory) {
+            this.spillDirectory = spillDirectory;
+        }
+
+        @Override
+        public void writeOut(byte[] data, int offset, int length) throws IOException {
+            if (spillFile == null && memory.size() + length > MEMORY_LIMIT) {
+                spillFile = File.createTempFile("zip", ".tmp", spillDirectory);
+                spillOutputStream = new BufferedOutputStream(new FileOutputStream(spillFile), BUFFER_SIZE);
+                memory.writeTo(spillOutputStream);
+                memory = null;
+            }
+
+            if (spillFile == null) {
+                memory.write(data, offset, length);
+            } else {
+                spillOutputStream.write(data, offset, length);
+            }
+        }
+
+        @Override
+        public void closeForWriting() throws IOException {
+            if (spillOutputStream != null) {
+                spillOutputStream.close();
+            }
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            if (spillFile == null) {
+                return new ByteArrayInputStream(memory.toByteArray());
+            }
+            return new BufferedInputStream(new FileInputStream(spillFile), BUFFER_SIZE);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                closeForWriting();
+            } finally {
+                memory = null;
+                if (spillFile != null) {
+                    spillFile.delete();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * ExtractionScheduler.java
+ *
+ * Copyright © 2019 Raymond Lai (airwave209gt at gmail.com)
+ *
+ * This file is part of AmazeFileManager.
+ *
+ * AmazeFileManager is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AmazeFileManager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AmazeFileManager. If not, see <http ://www.gnu.org/licenses/>.
+ */
+
+package com.amaze.filemanager.filesystem.compressed.extractcontents;
+
+import android.content.Context;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.amaze.filemanager.filesystem.FileUtil;
+import com.amaze.filemanager.utils.ServiceWatcherUtil;
+import com.amaze.filemanager.utils.files.GenericCopyUtil;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Extracts entries on a few threads, for archives whose entries can be read independently of
+ * each other, like zip (every entry is found through its offset in the central directory) and
+ * uncompressed tar.
+ *
+ * With thousands of small entries most of the time goes into creating directories and opening
+ * and closing files, not into inflating. So the whole directory tree is created in one pass
+ * before any entry is written, and every entry is opened, written and closed by a thread of the
+ * pool, with its own reader on the archive. Files that can be written directly are sized to
+ * their final length before writing, files on the external SD card go through
+ * {@link FileUtil#getOutputStream(File, Context)}.
+ */
+public class ExtractionScheduler {
+
+    private static final int MAX_THREADS = 4;
+
+    public interface EntryOpener {
+        /**
+         * Called by a thread of the pool, opens a new stream on the entry data
+         */
+        InputStream open() throws IOException;
+    }
+
+    private final Context context;
+    private final Extractor.OnUpdate listener;
+    private final int maxPending;
+    private final ExecutorService executor;
+    private final ArrayDeque<Future<Void>> pending = new ArrayDeque<>();
+    // the pending entry of every output path, an archive may hold several entries of the same name
+    private final Map<String, Future<Void>> pendingByPath = new HashMap<>();
+
+    public ExtractionScheduler(@NonNull Context context, @NonNull Extractor.OnUpdate listener) {
+        this.context = context;
+        this.listener = listener;
+        int threads = Math.max(1, Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors()));
+        this.maxPending = 4 * threads;
+        this.executor = Executors.newFixedThreadPool(threads);
+    }
+
+    /**
+     * Creates all directories, parents before children, skipping the ones already there
+     */
+    public void createDirectories(@NonNull Collection<File> directories) {
+        TreeSet<String> sorted = new TreeSet<>();
+        for (File directory : directories) {
+            sorted.add(directory.getPath());
+        }
+        for (String path : sorted) {
+            FileUtil.mkdir(new File(path), context);
+        }
+    }
+
+    /**
+     * Queues the entry, waits for older entries first if too many are queued or if an older
+     * entry is written to the same file, so the later entry wins like with sequential extraction.
+     * The parent directory of outputFile must exist.
+     *
+     * @param size uncompressed size of the entry, negative if unknown
+     * @throws IOException the failure of an older entry
+     */
+    public void extract(@NonNull final File outputFile, final long size, @NonNull final EntryOpener opener)
+            throws IOException {
+        Future<Void> samePath = pendingByPath.get(outputFile.getPath());
+        while (pending.size() >= maxPending || samePath != null && pending.contains(samePath)) {
+            awaitOldest();
+        }
+        Future<Void> future = executor.submit(() -> {
+            write(outputFile, size, opener);
+            return null;
+        });
+        pending.add(future);
+        pendingByPath.put(outputFile.getPath(), future);
+    }
+
+    /**
+     * Waits for all queued entries
+     *
+     * @throws IOException the failure of the first entry that failed
+     */
+    public void await() throws IOException {
+        while (!pending.isEmpty()) {
+            awaitOldest();
+        }
+    }
+
+    /**
+     * Entries still queued are dropped, waits for the ones being written. They stop at the next
+     * buffer if the listener was cancelled.
+     */
+    public void shutdown() {
+        for (Future<Void> future : pending) {
+            future.cancel(false);
+        }
+        pending.clear();
+        pendingByPath.clear();
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void awaitOldest() throws IOException {
+        Future<Void> oldest = pending.remove();
+        pendingByPath.values().remove(oldest);
+        try {
+            oldest.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private void write(File outputFile, long size, EntryOpener opener) throws IOException {
+        if (listener.isCancelled()) return;
+
+        InputStream inputStream = opener.open();
+        RandomAccessFile file = null;
+        OutputStream outputStream;
+        try {
+            file = openPreallocated(outputFile, size);
+            outputStream = file != null ? Channels.newOutputStream(file.getChannel())
+                    : FileUtil.getOutputStream(outputFile, context);
+            if (outputStream == null) {
+                throw new IOException("Cannot write " + outputFile.getPath());
+            }
+        } catch (IOException e) {
+            inputStream.close();
+            if (file != null) file.close();
+            throw e;
+        }
+
+        outputStream = new BufferedOutputStream(outputStream, GenericCopyUtil.DEFAULT_BUFFER_SIZE);
+        long written = 0;
+        try {
+            int len;
+            byte[] buf = new byte[GenericCopyUtil.DEFAULT_BUFFER_SIZE];
+            while ((len = inputStream.read(buf)) != -1) {
+                if (!listener.isCancelled()) {
+                    outputStream.write(buf, 0, len);
+                    written += len;
+                    addProgress(len);
+                } else break;
+            }
+            outputStream.flush();
+            // cancelled, or the archive lied about the size
+            if (file != null && written != size) {
+                file.setLength(written);
+            }
+        } finally {
+            outputStream.close();
+            inputStream.close();
+        }
+    }
+
+    /**
+     * @return null if the file can't be written directly
+     */
+    @Nullable
+    private static RandomAccessFile openPreallocated(File outputFile, long size) throws IOException {
+        RandomAccessFile file;
+        try {
+            file = new RandomAccessFile(outputFile, "rw");
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+        try {
+            file.setLength(Math.max(0, size));
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+        return file;
+    }
+
+    private static synchronized void addProgress(int length) {
+        ServiceWatcherUtil.position += length;
+    }
+}
@@ -35,10 +35,14 @@ import com.amaze.filemanager.utils.files.GenericCopyUtil;
 import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.io.InputStream;
+import java.util.BitSet;
 
 public class SevenZipExtractor extends Extractor {
 
+    // every thread decodes a folder of its own and holds its dictionary, up to 64 MB for LZMA2
+    private static final int MAX_DECODING_THREADS = 2;
+
     public SevenZipExtractor(@NonNull Context context, @NonNull String filePath, @NonNull String outputPath, @NonNull OnUpdate listener) {
         super(context, filePath, outputPath, listener);
     }
@@ -50,35 +54,46 @@ public class SevenZipExtractor extends Extractor {
                 new SevenZFile(new File(filePath), ArchivePasswordCache.getInstance().get(filePath).toCharArray()) :
                 new SevenZFile(new File(filePath));
 
-        ArrayList<SevenZArchiveEntry> arrayList = new ArrayList<>();
+        BitSet selected = new BitSet();
+        String firstEntryName = null;
 
         // iterating archive elements to find file names that are to be extracted
+        int index = 0;
         for (SevenZArchiveEntry entry : sevenzFile.getEntries()) {
             if (filter.shouldExtract(entry.getName(), entry.isDirectory())) {
                 // Entry to be extracted is at least the entry path (may be more, when it is a directory)
-                arrayList.add(entry);
+                selected.set(index);
                 totalBytes += entry.getSize();
+                if (firstEntryName == null) firstEntryName = entry.getName();
             }
+            index++;
         }
 
-        listener.onStart(totalBytes, arrayList.get(0).getName());
+        listener.onStart(totalBytes, firstEntryName);
 
-        SevenZArchiveEntry entry;
-        while ((entry = sevenzFile.getNextEntry()) != null) {
-            if (!arrayList.contains(entry)) {
-                continue;
-            }
-            if (!listener.isCancelled()) {
-                listener.onUpdate(entry.getName());
-                extractEntry(context, sevenzFile, entry, outputPath);
-            }
+        // only the folders holding selected entries are decoded, independent folders in parallel
+        int threads = Math.min(MAX_DECODING_THREADS, Runtime.getRuntime().availableProcessors());
+        try {
+            sevenzFile.readEntries(selected, threads, (entry, content) -> {
+                if (listener.isCancelled()) return false;
+
+                synchronized (listener) {
+                    listener.onUpdate(entry.getName());
+                }
+                extractEntry(context, content, entry, outputPath);
+                return true;
+            });
+        } finally {
+            sevenzFile.close();
         }
-        sevenzFile.close();
-        listener.onFinish(); 
+        listener.onFinish();
     }
 
-    private void extractEntry(@NonNull final Context context, SevenZFile sevenzFile, SevenZArchiveEntry entry, String outputDir)
-            throws IOException {
+    /**
+     * Called concurrently for entries of different folders
+     */
+    private void extractEntry(@NonNull final Context context, InputStream content, SevenZArchiveEntry entry,
+                              String outputDir) throws IOException {
         String name = entry.getName();
 
         if (entry.isDirectory()) {
@@ -92,22 +107,21 @@ public class SevenZipExtractor extends Extractor {
 
         BufferedOutputStream outputStream = new BufferedOutputStream(
                 FileUtil.getOutputStream(outputFile, context));
- 
-        byte[] content = new byte[GenericCopyUtil.DEFAULT_BUFFER_SIZE];
-        long progress=0;
+
+        byte[] buffer = new byte[GenericCopyUtil.DEFAULT_BUFFER_SIZE];
+        int length;
         try {
-            while (progress<entry.getSize()) {
-                int length;
-                int bytesLeft = Long.valueOf(entry.getSize()-progress).intValue();
-                length = sevenzFile.read(content, 0,
-                        bytesLeft>GenericCopyUtil.DEFAULT_BUFFER_SIZE ? GenericCopyUtil.DEFAULT_BUFFER_SIZE : bytesLeft);
-                outputStream.write(content, 0, length);
-                ServiceWatcherUtil.position+=length;
-                progress+=length;
+            while ((length = content.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, length);
+                addProgress(length);
             }
         } finally {
             outputStream.close();
         }
     }
 
+    private static synchronized void addProgress(int length) {
+        ServiceWatcherUtil.position += length;
+    }
+
 }
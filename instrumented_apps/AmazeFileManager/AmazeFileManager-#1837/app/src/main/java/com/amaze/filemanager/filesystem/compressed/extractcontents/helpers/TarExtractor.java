@@ -24,21 +24,20 @@ package com.amaze.filemanager.filesystem.compressed.extractcontents.helpers;
 
 import android.content.Context;
 import androidx.annotation.NonNull;
-import androidx.annotation.Nullable;
 
-import com.amaze.filemanager.filesystem.FileUtil;
 import com.amaze.filemanager.filesystem.compressed.CompressedHelper;
+import com.amaze.filemanager.filesystem.compressed.extractcontents.ExtractionScheduler;
 import com.amaze.filemanager.filesystem.compressed.extractcontents.Extractor;
-import com.amaze.filemanager.utils.ServiceWatcherUtil;
-import com.amaze.filemanager.utils.files.GenericCopyUtil;
 
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.utils.BoundedInputStream;
+import org.apache.commons.compress.utils.IOUtils;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -52,70 +51,91 @@ public class TarExtractor extends Extractor {
     protected void extractWithFilter(@NonNull Filter filter) throws IOException {
         long totalBytes = 0;
         List<TarArchiveEntry> archiveEntries = new ArrayList<>();
+        // where the data of each entry starts, so that entries can be read independently
+        List<Long> dataOffsets = new ArrayList<>();
         TarArchiveInputStream inputStream = new TarArchiveInputStream(new FileInputStream(filePath));
 
         TarArchiveEntry tarArchiveEntry;
 
-        while ((tarArchiveEntry = inputStream.getNextTarEntry()) != null) {
-            if(CompressedHelper.isEntryPathValid(tarArchiveEntry.getName())) {
-                if (filter.shouldExtract(tarArchiveEntry.getName(), tarArchiveEntry.isDirectory())) {
-                    archiveEntries.add(tarArchiveEntry);
-                    totalBytes += tarArchiveEntry.getSize();
+        try {
+            while ((tarArchiveEntry = inputStream.getNextTarEntry()) != null) {
+                if(CompressedHelper.isEntryPathValid(tarArchiveEntry.getName())) {
+                    if (filter.shouldExtract(tarArchiveEntry.getName(), tarArchiveEntry.isDirectory())) {
+                        archiveEntries.add(tarArchiveEntry);
+                        dataOffsets.add(inputStream.getBytesRead());
+                        totalBytes += tarArchiveEntry.getSize();
+                    }
+                } else {
+                    invalidArchiveEntries.add(tarArchiveEntry.getName());
                 }
-            } else {
-                invalidArchiveEntries.add(tarArchiveEntry.getName());
             }
+        } finally {
+            inputStream.close();
         }
 
         listener.onStart(totalBytes, archiveEntries.get(0).getName());
 
-        inputStream.close();
-        inputStream = new TarArchiveInputStream(new FileInputStream(filePath));
-
+        List<File> outputFiles = new ArrayList<>(archiveEntries.size());
+        List<File> directories = new ArrayList<>();
         for (TarArchiveEntry entry : archiveEntries) {
-            if (!listener.isCancelled()) {
+            File outputFile = getOutputFile(entry, outputPath);
+            outputFiles.add(outputFile);
+            directories.add(entry.isDirectory() ? outputFile : outputFile.getParentFile());
+        }
+
+        ExtractionScheduler scheduler = new ExtractionScheduler(context, listener);
+        try {
+            scheduler.createDirectories(directories);
+            for (int i = 0; i < archiveEntries.size(); i++) {
+                if (listener.isCancelled()) break;
+
+                TarArchiveEntry entry = archiveEntries.get(i);
                 listener.onUpdate(entry.getName());
-                //TAR is sequential, you need to walk all the way to the file you want
-                while (entry.hashCode() != inputStream.getNextTarEntry().hashCode());
-                extractEntry(context, inputStream, entry, outputPath);
+                extractEntry(scheduler, entry, dataOffsets.get(i), outputFiles.get(i));
             }
+            scheduler.await();
+        } finally {
+            scheduler.shutdown();
         }
-        inputStream.close();
 
         listener.onFinish();
     }
 
-    private void extractEntry(@NonNull final Context context, TarArchiveInputStream inputStream,
-                              TarArchiveEntry entry, String outputDir) throws IOException {
+    private File getOutputFile(TarArchiveEntry entry, String outputDir) throws IOException {
         File outputFile = new File(outputDir, fixEntryName(entry.getName()));
 
         if (!outputFile.getCanonicalPath().startsWith(outputDir)){
             throw new IOException("Incorrect TarArchiveEntry path!");
         }
+        return outputFile;
+    }
 
-        if (entry.isDirectory()) {
-            FileUtil.mkdir(outputFile, context);
-            return;
-        }
-
-        if (!outputFile.getParentFile().exists()) {
-            FileUtil.mkdir(outputFile.getParentFile(), context);
-        }
-
-        BufferedOutputStream outputStream = new BufferedOutputStream(
-                FileUtil.getOutputStream(outputFile, context));
-        try {
-            int len;
-            byte buf[] = new byte[GenericCopyUtil.DEFAULT_BUFFER_SIZE];
-            while ((len = inputStream.read(buf)) != -1) {
-                if (!listener.isCancelled()) {
-                    outputStream.write(buf, 0, len);
-                    ServiceWatcherUtil.position += len;
-                } else break;
+    /**
+     * TAR has no index, but uncompressed its entries are stored as they are: every entry is read
+     * through a stream of its own, starting at the data offset found while listing the archive.
+     */
+    private void extractEntry(@NonNull ExtractionScheduler scheduler, TarArchiveEntry entry,
+                              final long dataOffset, File outputFile) throws IOException {
+        if (entry.isDirectory()) return;
+
+        final long size = entry.getSize();
+        scheduler.extract(outputFile, size, () -> {
+            final InputStream archive = new FileInputStream(filePath);
+            try {
+                if (IOUtils.skip(archive, dataOffset) != dataOffset) {
+                    throw new IOException("Truncated TAR archive");
+                }
+            } catch (IOException e) {
+                archive.close();
+                throw e;
             }
-        } finally {
-            outputStream.close();
-        }
+            return new BoundedInputStream(archive, size) {
+                @Override
+                public void close() {
+                    IOUtils.closeQuietly(archive);
+                }
+            };
+        });
     }
 
 }
@@ -25,19 +25,15 @@ package com.amaze.filemanager.filesystem.compressed.extractcontents.helpers;
 import android.content.Context;
 import androidx.annotation.NonNull;
 
-import com.amaze.filemanager.filesystem.FileUtil;
 import com.amaze.filemanager.filesystem.compressed.ArchivePasswordCache;
 import com.amaze.filemanager.filesystem.compressed.CompressedHelper;
+import com.amaze.filemanager.filesystem.compressed.extractcontents.ExtractionScheduler;
 import com.amaze.filemanager.filesystem.compressed.extractcontents.Extractor;
-import com.amaze.filemanager.utils.ServiceWatcherUtil;
-import com.amaze.filemanager.utils.files.GenericCopyUtil;
 
 import net.lingala.zip4j.core.ZipFile;
 import net.lingala.zip4j.exception.ZipException;
 import net.lingala.zip4j.model.FileHeader;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -76,63 +72,65 @@ public class ZipExtractor extends Extractor {
 
             listener.onStart(totalBytes, entriesToExtract.get(0).getFileName());
 
+            List<File> outputFiles = new ArrayList<>(entriesToExtract.size());
+            List<File> directories = new ArrayList<>();
             for (FileHeader entry : entriesToExtract) {
-                if (!listener.isCancelled()) {
+                File outputFile = getOutputFile(entry, outputPath);
+                outputFiles.add(outputFile);
+                directories.add(entry.isDirectory() ? outputFile : outputFile.getParentFile());
+            }
+
+            ExtractionScheduler scheduler = new ExtractionScheduler(context, listener);
+            try {
+                scheduler.createDirectories(directories);
+                for (int i = 0; i < entriesToExtract.size(); i++) {
+                    if (listener.isCancelled()) break;
+
+                    FileHeader entry = entriesToExtract.get(i);
                     listener.onUpdate(entry.getFileName());
-                    extractEntry(context, zipfile, entry, outputPath);
+                    extractEntry(scheduler, zipfile, entry, outputFiles.get(i));
                 }
+                scheduler.await();
+            } finally {
+                scheduler.shutdown();
             }
             listener.onFinish();
         } catch (ZipException e) {
             throw new IOException(e);
         }
     }
-    
-    /**
-     * Method extracts {@link FileHeader} from {@link ZipFile}
-     *
-     * @param zipFile   zip file from which entriesToExtract are to be extracted
-     * @param entry     zip entry that is to be extracted
-     * @param outputDir output directory
-     */
-    private void extractEntry(@NonNull final Context context, ZipFile zipFile, FileHeader entry,
-                              String outputDir) throws IOException, ZipException {
-        final File outputFile = new File(outputDir, fixEntryName(entry.getFileName()));
 
-        if(ArchivePasswordCache.getInstance().containsKey(filePath))
-            entry.setPassword(ArchivePasswordCache.getInstance().get(filePath).toCharArray());
+    private File getOutputFile(FileHeader entry, String outputDir) throws IOException {
+        final File outputFile = new File(outputDir, fixEntryName(entry.getFileName()));
 
         if (!outputFile.getCanonicalPath().startsWith(outputDir)){
             throw new IOException("Incorrect ZipEntry path!");
         }
+        return outputFile;
+    }
 
-        if (entry.isDirectory()) {
-            // zip entry is a directory, return after creating new directory
-            FileUtil.mkdir(outputFile, context);
-            return;
-        }
-
-        if (!outputFile.getParentFile().exists()) {
-            // creating directory if not already exists
-            FileUtil.mkdir(outputFile.getParentFile(), context);
-        }
+    /**
+     * Method queues extraction of {@link FileHeader} from {@link ZipFile}. Every entry is read
+     * through a stream of its own, opened at the entry's local header.
+     *
+     * @param zipFile    zip file from which entriesToExtract are to be extracted
+     * @param entry      zip entry that is to be extracted
+     * @param outputFile file to write, its directory is created already
+     */
+    private void extractEntry(@NonNull ExtractionScheduler scheduler, final ZipFile zipFile,
+                              final FileHeader entry, File outputFile) throws IOException {
+        if (entry.isDirectory()) return;
 
-        BufferedInputStream inputStream = new BufferedInputStream(zipFile.getInputStream(entry));
-        BufferedOutputStream outputStream = new BufferedOutputStream(FileUtil.getOutputStream(outputFile, context));
+        if(ArchivePasswordCache.getInstance().containsKey(filePath))
+            entry.setPassword(ArchivePasswordCache.getInstance().get(filePath).toCharArray());
 
-        try {
-            int len;
-            byte buf[] = new byte[GenericCopyUtil.DEFAULT_BUFFER_SIZE];
-            while ((len = inputStream.read(buf)) != -1) {
-                if (!listener.isCancelled()) {
-                    outputStream.write(buf, 0, len);
-                    ServiceWatcherUtil.position += len;
-                } else break;
+        scheduler.extract(outputFile, entry.getUncompressedSize(), () -> {
+            try {
+                return zipFile.getInputStream(entry);
+            } catch (ZipException e) {
+                throw new IOException(e);
             }
-        } finally {
-            outputStream.close();
-            inputStream.close();
-        }
+        });
     }
 
 }
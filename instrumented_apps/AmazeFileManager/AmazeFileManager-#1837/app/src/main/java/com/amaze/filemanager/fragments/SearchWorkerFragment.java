@@ -22,6 +22,7 @@ public class SearchWorkerFragment extends Fragment {
     public static final String KEY_ROOT_MODE = "root_mode";
     public static final String KEY_REGEX = "regex";
     public static final String KEY_REGEX_MATCHES = "matches";
+    public static final String KEY_SEARCH_INDEX = "search_index";
 
     public SearchAsyncTask mSearchAsyncTask;
 
@@ -4,6 +4,8 @@ import android.os.Bundle;
 import android.preference.PreferenceFragment;
 
 import com.amaze.filemanager.R;
+import com.amaze.filemanager.filesystem.FileNameIndex;
+import com.amaze.filemanager.fragments.SearchWorkerFragment;
 
 /**
  * @author Emmanuel
@@ -18,6 +20,15 @@ public class AdvancedSearchPref extends PreferenceFragment {
 
         // Load the preferences from an XML resource
         addPreferencesFromResource(R.xml.advancedsearch_prefs);
+
+        findPreference(SearchWorkerFragment.KEY_SEARCH_INDEX).setOnPreferenceChangeListener((preference, newValue) -> {
+            if ((Boolean) newValue) {
+                FileNameIndex.getInstance().enable(getActivity());
+            } else {
+                FileNameIndex.getInstance().disable();
+            }
+            return true;
+        });
     }
 
 }
@@ -28,6 +28,7 @@ import android.os.AsyncTask;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.StrictMode;
+import android.preference.PreferenceManager;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.StringRes;
@@ -36,6 +37,8 @@ import androidx.appcompat.app.AppCompatDelegate;
 import android.widget.Toast;
 
 import com.amaze.filemanager.database.UtilsHandler;
+import com.amaze.filemanager.filesystem.FileNameIndex;
+import com.amaze.filemanager.fragments.SearchWorkerFragment;
 import com.amaze.filemanager.utils.LruBitmapCache;
 import com.amaze.filemanager.utils.ScreenUtils;
 import com.amaze.filemanager.utils.provider.UtilitiesProvider;
@@ -84,6 +87,10 @@ public class AppConfig extends GlideApplication {
         // disabling file exposure method check for api n+
         StrictMode.VmPolicy.Builder builder = new StrictMode.VmPolicy.Builder();
         StrictMode.setVmPolicy(builder.build());
+
+        if (PreferenceManager.getDefaultSharedPreferences(this).getBoolean(SearchWorkerFragment.KEY_SEARCH_INDEX, false)) {
+            FileNameIndex.getInstance().enable(this);
+        }
     }
 
     @Override
@@ -43,8 +43,12 @@ import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.math.BigInteger;
+import java.nio.channels.FileChannel;
 import java.security.GeneralSecurityException;
 import java.security.Key;
 import java.security.KeyPairGenerator;
@@ -83,6 +87,8 @@ import javax.security.auth.x500.X500Principal;
  * for master password/fingerprint sensor from settings.
  *
  * We use buffered streams to process files, usage of NIO will probably mildly effect the performance.
+ * Files are encrypted in independently authenticated segments ({@link SegmentedCrypt}), files
+ * encrypted as a single GCM stream by older versions are still decrypted.
  *
  * Be sure to use constructors to encrypt/decrypt files only, and to call service through
  * {@link ServiceWatcherUtil} and to initialize watchers beforehand
@@ -194,7 +200,11 @@ public class CryptUtil {
             BufferedOutputStream outputStream = new BufferedOutputStream(targetFile.getOutputStream(context),
                     GenericCopyUtil.DEFAULT_BUFFER_SIZE);
 
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT
+                    && SegmentedCrypt.isSegmented(inputStream)) {
+                segmentedDecrypt(newSegmentedCrypt(context), inputStream, outputStream);
+            } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                // files encrypted before segments were introduced
                 aesDecrypt(inputStream, outputStream);
             } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
                 rsaDecrypt(context, inputStream, outputStream);
@@ -247,9 +257,10 @@ public class CryptUtil {
             BufferedOutputStream outputStream = new BufferedOutputStream(targetFile.getOutputStream(context),
                     GenericCopyUtil.DEFAULT_BUFFER_SIZE);
 
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-                aesEncrypt(inputStream, outputStream);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                segmentedEncrypt(newSegmentedCrypt(context), inputStream, outputStream);
             } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+                // segments authenticate the header as additional data, which needs Cipher.updateAAD
                 rsaEncrypt(context, inputStream, outputStream);
             }
         }
@@ -285,38 +296,81 @@ public class CryptUtil {
     }
 
     /**
-     * Helper method to encrypt a file
+     * Helper method to encrypt a file in the segmented format, see {@link SegmentedCrypt}
      * @param inputStream stream associated with the file to be encrypted
      * @param outputStream stream associated with new output encrypted file
      */
-    @RequiresApi(api = Build.VERSION_CODES.M)
-    private void aesEncrypt(BufferedInputStream inputStream, BufferedOutputStream outputStream)
-            throws GeneralSecurityException, IOException {
-
-        Cipher cipher = Cipher.getInstance(ALGO_AES);
+    private void segmentedEncrypt(SegmentedCrypt segmentedCrypt, BufferedInputStream inputStream,
+                                  BufferedOutputStream outputStream) throws GeneralSecurityException, IOException {
+        try {
+            segmentedCrypt.encrypt(inputStream, outputStream, this::onSegmentDone);
+        } finally {
 
-        GCMParameterSpec gcmParameterSpec = new GCMParameterSpec(128, IV.getBytes());
+            outputStream.flush();
+            outputStream.close();
+            inputStream.close();
+        }
+    }
 
-        cipher.init(Cipher.ENCRYPT_MODE, getSecretKey(), gcmParameterSpec);
+    /**
+     * Helper method to decrypt a file in the segmented format, see {@link SegmentedCrypt}
+     * @param inputStream stream associated with encrypted file
+     * @param outputStream stream associated with new output decrypted file
+     */
+    private void segmentedDecrypt(SegmentedCrypt segmentedCrypt, BufferedInputStream inputStream,
+                                  BufferedOutputStream outputStream) throws GeneralSecurityException, IOException {
+        try {
+            segmentedCrypt.decrypt(inputStream, outputStream, this::onSegmentDone);
+        } finally {
 
-        byte[] buffer = new byte[GenericCopyUtil.DEFAULT_BUFFER_SIZE];
-        int count;
+            outputStream.flush();
+            outputStream.close();
+            inputStream.close();
+        }
+    }
 
-        CipherOutputStream cipherOutputStream = new CipherOutputStream(outputStream, cipher);
+    private boolean onSegmentDone(int plainBytes) {
+        if (progressHandler.getCancelled()) return false;
+        ServiceWatcherUtil.position += plainBytes;
+        return true;
+    }
 
+    /**
+     * Opens a segmented encrypted file for reading from any plaintext position, without
+     * decrypting the preceding part, e.g. to stream a video.
+     *
+     * @throws GeneralSecurityException if the file was encrypted before segments were introduced
+     */
+    @RequiresApi(api = Build.VERSION_CODES.KITKAT)
+    public static InputStream openDecryptingStream(Context context, File file, long position)
+            throws GeneralSecurityException, IOException {
+        FileChannel channel = new FileInputStream(file).getChannel();
         try {
+            return newSegmentedCrypt(context).openDecryptingStream(channel, position);
+        } catch (GeneralSecurityException | IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
 
-            while ((count = inputStream.read(buffer)) != -1) {
-                if (!progressHandler.getCancelled()) {
-                    cipherOutputStream.write(buffer, 0, count);
-                    ServiceWatcherUtil.position +=count;
-                } else break;
-            }
-        } finally {
-
-            cipherOutputStream.flush();
-            cipherOutputStream.close();
-            inputStream.close();
+    /**
+     * The key is looked up once, it only encrypts the random key of every file. Every segment
+     * gets its own cipher with the key of the file and the nonce of the segment
+     */
+    @RequiresApi(api = Build.VERSION_CODES.KITKAT)
+    private static SegmentedCrypt newSegmentedCrypt(Context context) throws GeneralSecurityException, IOException {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            return new SegmentedCrypt(getSecretKey(), (mode, key, nonce) -> {
+                Cipher cipher = Cipher.getInstance(ALGO_AES);
+                cipher.init(mode, key, new GCMParameterSpec(128, nonce));
+                return cipher;
+            });
+        } else {
+            return new SegmentedCrypt(new RSAKeygen(context).getSecretKey(), (mode, key, nonce) -> {
+                Cipher cipher = Cipher.getInstance(ALGO_AES, "BC");
+                cipher.init(mode, key, new GCMParameterSpec(128, nonce));
+                return cipher;
+            });
         }
     }
 
@@ -0,0 +1,179 @@
+/*
+ * FileHasher.java
+ *
+ * Copyright © 2019 Raymond Lai (airwave209gt at gmail.com)
+ *
+ * This file is part of AmazeFileManager.
+ *
+ * AmazeFileManager is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AmazeFileManager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AmazeFileManager. If not, see <http ://www.gnu.org/licenses/>.
+ */
+
+package com.amaze.filemanager.utils.files;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Computes several digests of a file in a single pass.
+ *
+ * The file is read once in large chunks and every chunk is fed to all requested digests, so
+ * asking for MD5 and SHA-256 costs the I/O of one read. Local files are read through a
+ * {@link FileChannel} into a direct buffer, everything else through its {@link InputStream}.
+ */
+public final class FileHasher {
+
+    public static final String MD5 = "MD5";
+    public static final String SHA256 = "SHA-256";
+
+    /*
+        Large enough that the per call overhead of read() and MessageDigest.update() disappears,
+        small enough to keep one buffer per hashing thread.
+     */
+    static final int CHUNK_SIZE = 1024 * 1024;
+
+    private static final ThreadLocal<ByteBuffer> directBuffer = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(CHUNK_SIZE);
+        }
+    };
+
+    private static final ThreadLocal<byte[]> heapBuffer = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[CHUNK_SIZE];
+        }
+    };
+
+    public interface OnHashProgress {
+        /**
+         * @param bytesHashed bytes read so far
+         * @param totalBytes expected size, 0 or less if unknown
+         */
+        void onProgress(long bytesHashed, long totalBytes);
+    }
+
+    private FileHasher() {}
+
+    /**
+     * @return one digest per algorithm, in the order of algorithms
+     * @throws InterruptedIOException if the calling thread was interrupted while hashing
+     */
+    public static byte[][] hash(@NonNull File file, @Nullable OnHashProgress progress,
+                                @NonNull String... algorithms) throws IOException, NoSuchAlgorithmException {
+        MessageDigest[] digests = createDigests(algorithms);
+        long total = file.length();
+        long done = 0;
+
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            ByteBuffer buffer = directBuffer.get();
+            int count;
+            buffer.clear();
+            while ((count = channel.read(buffer)) != -1) {
+                if (count == 0) continue;
+
+                buffer.flip();
+                int limit = buffer.limit();
+                for (MessageDigest digest : digests) {
+                    buffer.limit(limit).position(0);
+                    digest.update(buffer);
+                }
+                done += limit;
+                buffer.clear();
+
+                onChunk(progress, done, total);
+            }
+        } finally {
+            in.close();
+        }
+
+        return finish(digests);
+    }
+
+    /**
+     * Same as {@link #hash(File, OnHashProgress, String...)} for files only reachable as stream
+     * (smb, otg, cloud...). The stream is closed.
+     */
+    public static byte[][] hash(@NonNull InputStream inputStream, long totalBytes, @Nullable OnHashProgress progress,
+                                @NonNull String... algorithms) throws IOException, NoSuchAlgorithmException {
+        MessageDigest[] digests = createDigests(algorithms);
+        long done = 0;
+
+        try {
+            byte[] buffer = heapBuffer.get();
+            int count;
+            while ((count = inputStream.read(buffer)) != -1) {
+                if (count == 0) continue;
+
+                for (MessageDigest digest : digests) {
+                    digest.update(buffer, 0, count);
+                }
+                done += count;
+
+                onChunk(progress, done, totalBytes);
+            }
+        } finally {
+            inputStream.close();
+        }
+
+        return finish(digests);
+    }
+
+    public static String toHex(@NonNull byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = Character.forDigit((bytes[i] >> 4) & 0xf, 16);
+            hex[i * 2 + 1] = Character.forDigit(bytes[i] & 0xf, 16);
+        }
+        return new String(hex);
+    }
+
+    private static void onChunk(@Nullable OnHashProgress progress, long done, long total)
+            throws InterruptedIOException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException("Hashing cancelled");
+        }
+        if (progress != null) {
+            progress.onProgress(done, total);
+        }
+    }
+
+    private static MessageDigest[] createDigests(String... algorithms) throws NoSuchAlgorithmException {
+        MessageDigest[] digests = new MessageDigest[algorithms.length];
+        for (int i = 0; i < algorithms.length; i++) {
+            digests[i] = MessageDigest.getInstance(algorithms[i]);
+        }
+        return digests;
+    }
+
+    private static byte[][] finish(MessageDigest[] digests) {
+        byte[][] result = new byte[digests.length][];
+        for (int i = 0; i < digests.length; i++) {
+            result[i] = digests[i].digest();
+        }
+        return result;
+    }
+}
@@ -0,0 +1,413 @@
+/*
+ * SegmentedCrypt.java
+ *
+ * Copyright © 2019 Raymond Lai (airwave209gt at gmail.com)
+ *
+ * This file is part of AmazeFileManager.
+ *
+ * AmazeFileManager is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AmazeFileManager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AmazeFileManager. If not, see <http ://www.gnu.org/licenses/>.
+ */
+
+package com.amaze.filemanager.utils.files;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Version 2 of the {@link CryptUtil#CRYPT_EXTENSION} format.
+ *
+ * Version 1 ran the whole file through one AES/GCM cipher. GCM can only verify the tag at the
+ * very end, so many providers keep the whole plaintext in memory while decrypting, and big files
+ * fail. Version 2 splits the file into segments that are encrypted and authenticated on their
+ * own, so any file is processed with a few segments in memory, segments can be processed by
+ * several threads, and a single segment can be decrypted without reading the ones before it.
+ *
+ * Layout:
+ * <pre>
+ *   magic    4 bytes   'A' 'Z' 'E' 2
+ *   segment  4 bytes   plaintext bytes per segment (big endian)
+ *   nonce   12 bytes   random, nonce of the wrapped key
+ *   key     32 bytes   random AES key of this file, encrypted with the long lived key + 16 bytes tag
+ *   segments           encrypted segments, each segment + 16 bytes tag, the last one may be shorter
+ * </pre>
+ *
+ * Every file is encrypted with its own key, so the nonces of the segments only need to be unique
+ * within the file: the nonce of segment i is 7 zero bytes || i (4 bytes, big endian) || 1 if i is
+ * the last segment else 0, so segments can't be reordered, and a file can't be truncated at a
+ * segment border unnoticed. The header before the wrapped key is authenticated with the key, the
+ * whole header with every segment.
+ * Version 1 files have no header, they start with ciphertext.
+ */
+public class SegmentedCrypt {
+
+    private static final byte VERSION = 2;
+    private static final byte[] MAGIC = {'A', 'Z', 'E', VERSION};
+
+    private static final int NONCE_LENGTH = 12;     // 12 byte long IV supported by android for GCM
+    private static final int KEY_LENGTH = 16;
+    static final int TAG_LENGTH = 16;
+    // the part of the header that is authenticated with the wrapped key
+    private static final int KEY_AAD_LENGTH = MAGIC.length + 4 + NONCE_LENGTH;
+    static final int HEADER_LENGTH = KEY_AAD_LENGTH + KEY_LENGTH + TAG_LENGTH;
+
+    static final int DEFAULT_SEGMENT_SIZE = 64 * 1024;
+    // refuse headers that would make us allocate absurd buffers
+    private static final int MAX_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    private static final int DEFAULT_THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    /**
+     * Creates an AES/GCM cipher with 128 bit tag, initialized with key and nonce. Used with the
+     * long lived key for the key of a file and with the key of a file for its segments.
+     */
+    public interface CipherFactory {
+        Cipher create(int mode, Key key, byte[] nonce) throws GeneralSecurityException;
+    }
+
+    public interface OnSegmentDone {
+        /**
+         * @param plainBytes plaintext bytes of the segment just written
+         * @return false to stop processing
+         */
+        boolean onSegmentDone(int plainBytes);
+    }
+
+    private final Key keyEncryptionKey;
+    private final CipherFactory cipherFactory;
+    private final int segmentSize;
+    private final int threads;
+
+    /**
+     * @param keyEncryptionKey long lived key that encrypts the key of every file
+     */
+    public SegmentedCrypt(@NonNull Key keyEncryptionKey, @NonNull CipherFactory cipherFactory) {
+        this(keyEncryptionKey, cipherFactory, DEFAULT_SEGMENT_SIZE, DEFAULT_THREADS);
+    }
+
+    SegmentedCrypt(@NonNull Key keyEncryptionKey, @NonNull CipherFactory cipherFactory, int segmentSize,
+                   int threads) {
+        this.keyEncryptionKey = keyEncryptionKey;
+        this.cipherFactory = cipherFactory;
+        this.segmentSize = segmentSize;
+        this.threads = threads;
+    }
+
+    /**
+     * @param inputStream must support {@link InputStream#mark(int)}, position is not changed
+     * @return true if the stream starts with a version 2 header
+     */
+    public static boolean isSegmented(@NonNull InputStream inputStream) throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        inputStream.mark(MAGIC.length);
+        try {
+            return readFully(inputStream, magic) == MAGIC.length && Arrays.equals(magic, MAGIC);
+        } finally {
+            inputStream.reset();
+        }
+    }
+
+    /**
+     * Streams are not closed.
+     *
+     * @return false if cancelled by onSegmentDone
+     */
+    public boolean encrypt(@NonNull InputStream inputStream, @NonNull OutputStream outputStream,
+                           @Nullable OnSegmentDone onSegmentDone) throws IOException, GeneralSecurityException {
+        SecureRandom random = new SecureRandom();
+        byte[] keyNonce = new byte[NONCE_LENGTH];
+        random.nextBytes(keyNonce);
+        byte[] key = new byte[KEY_LENGTH];
+        random.nextBytes(key);
+
+        ByteBuffer headerBytes = ByteBuffer.allocate(HEADER_LENGTH);
+        headerBytes.put(MAGIC).putInt(segmentSize).put(keyNonce);
+        Cipher keyCipher = cipherFactory.create(Cipher.ENCRYPT_MODE, keyEncryptionKey, keyNonce);
+        keyCipher.updateAAD(headerBytes.array(), 0, KEY_AAD_LENGTH);
+        headerBytes.put(keyCipher.doFinal(key));
+        outputStream.write(headerBytes.array());
+
+        Header header = new Header(segmentSize, headerBytes.array(), new SecretKeySpec(key, "AES"));
+        return process(inputStream, outputStream, Cipher.ENCRYPT_MODE, segmentSize, header, onSegmentDone);
+    }
+
+    /**
+     * Streams are not closed.
+     *
+     * @return false if cancelled by onSegmentDone
+     */
+    public boolean decrypt(@NonNull InputStream inputStream, @NonNull OutputStream outputStream,
+                           @Nullable OnSegmentDone onSegmentDone) throws IOException, GeneralSecurityException {
+        byte[] headerBytes = new byte[HEADER_LENGTH];
+        if (readFully(inputStream, headerBytes) != HEADER_LENGTH) throw new EOFException("No header");
+        Header header = parseHeader(headerBytes);
+
+        return process(inputStream, outputStream, Cipher.DECRYPT_MODE, header.segmentSize + TAG_LENGTH,
+                header, onSegmentDone);
+    }
+
+    /**
+     * Random access to the plaintext, e.g. to stream a video without decrypting it first.
+     * Only the segments from position on are read and decrypted.
+     *
+     * @param channel  the encrypted file, closed when the returned stream is closed
+     * @param position plaintext offset to start reading at
+     */
+    public InputStream openDecryptingStream(@NonNull FileChannel channel, long position)
+            throws IOException, GeneralSecurityException {
+        ByteBuffer headerBytes = ByteBuffer.allocate(HEADER_LENGTH);
+        readFully(channel, headerBytes, 0);
+        return new DecryptingInputStream(channel, parseHeader(headerBytes.array()), position);
+    }
+
+    /**
+     * @return size of the plaintext of an encrypted file of encryptedSize bytes
+     */
+    public static long plaintextSize(int segmentSize, long encryptedSize) {
+        long segments = segmentCount(segmentSize, encryptedSize);
+        return encryptedSize - HEADER_LENGTH - segments * TAG_LENGTH;
+    }
+
+    private static long segmentCount(int segmentSize, long encryptedSize) {
+        long encryptedSegmentSize = segmentSize + TAG_LENGTH;
+        return Math.max(1, (encryptedSize - HEADER_LENGTH + encryptedSegmentSize - 1) / encryptedSegmentSize);
+    }
+
+    /**
+     * Reads blocks of blockSize, and has up to 2 * threads blocks processed concurrently.
+     * Blocks are written in order.
+     */
+    private boolean process(InputStream inputStream, OutputStream outputStream, int mode, int blockSize,
+                            Header header, @Nullable OnSegmentDone onSegmentDone)
+            throws IOException, GeneralSecurityException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        ArrayDeque<Future<byte[]>> inFlight = new ArrayDeque<>();
+        try {
+            byte[] current = readBlock(inputStream, blockSize);
+            for (int index = 0; ; index++) {
+                // one block look ahead: a full block is the last one if nothing follows
+                byte[] next = current.length == blockSize ? readBlock(inputStream, blockSize) : null;
+                boolean last = next == null || next.length == 0;
+
+                inFlight.add(executor.submit(segmentTask(mode, header, index, last, current)));
+                if (inFlight.size() >= 2 * threads && !writeNext(inFlight, outputStream, mode, onSegmentDone)) {
+                    return false;
+                }
+
+                if (last) break;
+                current = next;
+            }
+
+            while (!inFlight.isEmpty()) {
+                if (!writeNext(inFlight, outputStream, mode, onSegmentDone)) return false;
+            }
+            return true;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private Callable<byte[]> segmentTask(int mode, Header header, long index, boolean last, byte[] block) {
+        return () -> segmentCipher(mode, header, index, last).doFinal(block);
+    }
+
+    private Cipher segmentCipher(int mode, Header header, long index, boolean last)
+            throws GeneralSecurityException {
+        Cipher cipher = cipherFactory.create(mode, header.key, nonce(index, last));
+        cipher.updateAAD(header.bytes);
+        return cipher;
+    }
+
+    private static boolean writeNext(ArrayDeque<Future<byte[]>> inFlight, OutputStream outputStream, int mode,
+                                     @Nullable OnSegmentDone onSegmentDone) throws IOException, GeneralSecurityException {
+        byte[] result = await(inFlight.poll());
+        outputStream.write(result);
+
+        int plainBytes = mode == Cipher.ENCRYPT_MODE ? result.length - TAG_LENGTH : result.length;
+        return onSegmentDone == null || onSegmentDone.onSegmentDone(plainBytes);
+    }
+
+    private static byte[] await(Future<byte[]> future) throws IOException, GeneralSecurityException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof GeneralSecurityException) throw (GeneralSecurityException) cause;
+            if (cause instanceof IOException) throw (IOException) cause;
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    private static byte[] nonce(long index, boolean last) {
+        ByteBuffer nonce = ByteBuffer.allocate(NONCE_LENGTH);
+        // the first bytes stay 0
+        nonce.position(NONCE_LENGTH - 5);
+        nonce.putInt((int) index).put((byte) (last ? 1 : 0));
+        return nonce.array();
+    }
+
+    /**
+     * @throws GeneralSecurityException if the header was changed or the file was encrypted with another key
+     */
+    private Header parseHeader(byte[] bytes) throws GeneralSecurityException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        byte[] magic = new byte[MAGIC.length];
+        buffer.get(magic);
+        if (!Arrays.equals(magic, MAGIC)) throw new GeneralSecurityException("Not a segmented file");
+
+        int segmentSize = buffer.getInt();
+        if (segmentSize <= 0 || segmentSize > MAX_SEGMENT_SIZE) {
+            throw new GeneralSecurityException("Invalid segment size " + segmentSize);
+        }
+
+        byte[] keyNonce = new byte[NONCE_LENGTH];
+        buffer.get(keyNonce);
+        Cipher keyCipher = cipherFactory.create(Cipher.DECRYPT_MODE, keyEncryptionKey, keyNonce);
+        keyCipher.updateAAD(bytes, 0, KEY_AAD_LENGTH);
+        byte[] key = keyCipher.doFinal(bytes, KEY_AAD_LENGTH, KEY_LENGTH + TAG_LENGTH);
+        return new Header(segmentSize, bytes, new SecretKeySpec(key, "AES"));
+    }
+
+    /**
+     * @return up to size bytes, shorter only at the end of the stream
+     */
+    private static byte[] readBlock(InputStream inputStream, int size) throws IOException {
+        byte[] block = new byte[size];
+        int count = readFully(inputStream, block);
+        return count == size ? block : Arrays.copyOf(block, count);
+    }
+
+    private static int readFully(InputStream inputStream, byte[] buffer) throws IOException {
+        int total = 0;
+        while (total < buffer.length) {
+            int count = inputStream.read(buffer, total, buffer.length - total);
+            if (count == -1) break;
+            total += count;
+        }
+        return total;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int count = channel.read(buffer, position + buffer.position());
+            if (count == -1) throw new EOFException();
+        }
+    }
+
+    private static class Header {
+        final int segmentSize;
+        // authenticated with every segment
+        final byte[] bytes;
+        final Key key;
+
+        Header(int segmentSize, byte[] bytes, Key key) {
+            this.segmentSize = segmentSize;
+            this.bytes = bytes;
+            this.key = key;
+        }
+    }
+
+    private class DecryptingInputStream extends InputStream {
+
+        private final FileChannel channel;
+        private final Header header;
+        private final long segmentCount;
+
+        private long nextSegment;
+        private byte[] plain = new byte[0];
+        private int plainPosition = 0;
+
+        DecryptingInputStream(FileChannel channel, Header header, long position)
+                throws IOException, GeneralSecurityException {
+            this.channel = channel;
+            this.header = header;
+            this.segmentCount = segmentCount(header.segmentSize, channel.size());
+
+            nextSegment = position / header.segmentSize;
+            if (nextSegment < segmentCount) {
+                decryptNextSegment();
+                plainPosition = (int) Math.min(position % header.segmentSize, plain.length);
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(@NonNull byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) return 0;
+
+            while (plainPosition == plain.length) {
+                if (nextSegment >= segmentCount) return -1;
+                try {
+                    decryptNextSegment();
+                } catch (GeneralSecurityException e) {
+                    throw new IOException(e);
+                }
+            }
+
+            int count = Math.min(length, plain.length - plainPosition);
+            System.arraycopy(plain, plainPosition, buffer, offset, count);
+            plainPosition += count;
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return plain.length - plainPosition;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        private void decryptNextSegment() throws IOException, GeneralSecurityException {
+            long encryptedSegmentSize = header.segmentSize + TAG_LENGTH;
+            long start = HEADER_LENGTH + nextSegment * encryptedSegmentSize;
+            ByteBuffer encrypted = ByteBuffer.allocate((int) Math.min(encryptedSegmentSize, channel.size() - start));
+            readFully(channel, encrypted, start);
+
+            boolean last = nextSegment == segmentCount - 1;
+            plain = segmentCipher(Cipher.DECRYPT_MODE, header, nextSegment, last).doFinal(encrypted.array());
+            plainPosition = 0;
+            nextSegment++;
+        }
+    }
+}
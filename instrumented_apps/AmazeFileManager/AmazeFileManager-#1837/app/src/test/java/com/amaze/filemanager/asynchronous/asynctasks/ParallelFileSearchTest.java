@@ -0,0 +1,96 @@
+package com.amaze.filemanager.asynchronous.asynctasks;
+
+import android.os.Environment;
+
+import com.amaze.filemanager.BuildConfig;
+import com.amaze.filemanager.filesystem.HybridFile;
+import com.amaze.filemanager.utils.OpenMode;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.multidex.ShadowMultiDex;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(maxSdk = 27, constants = BuildConfig.class, shadows = {ShadowMultiDex.class})
+public class ParallelFileSearchTest {
+
+    private File searchRoot;
+
+    @Before
+    public void setUp() throws IOException {
+        searchRoot = new File(Environment.getExternalStorageDirectory(), "search");
+        // 3 levels of 4 directories, each with a matching and a non matching file
+        createTree(searchRoot, 3);
+    }
+
+    @Test
+    public void testContainsIgnoreCase() {
+        SearchAsyncTask.SearchFilter filter = ParallelFileSearch.containsIgnoreCase("PiC");
+
+        assertTrue(filter.searchFilter("pic.jpg"));
+        assertTrue(filter.searchFilter("MyPICTURE"));
+        assertTrue(filter.searchFilter("epic"));
+        assertFalse(filter.searchFilter("pi"));
+        assertFalse(filter.searchFilter("p-i-c"));
+        assertFalse(filter.searchFilter(""));
+    }
+
+    @Test
+    public void testContainsIgnoreCaseEmptyQuery() {
+        assertTrue(ParallelFileSearch.containsIgnoreCase("").searchFilter("anything"));
+    }
+
+    @Test
+    public void testFindsMatchesInAllDirectories() throws InterruptedException {
+        List<String> found = Collections.synchronizedList(new ArrayList<>());
+        ParallelFileSearch search = new ParallelFileSearch(RuntimeEnvironment.application, false, 4,
+                ParallelFileSearch.containsIgnoreCase("match"), file -> found.add(file.getPath()));
+
+        search.start(new HybridFile(OpenMode.FILE, searchRoot.getAbsolutePath()));
+
+        assertTrue(search.await(10, TimeUnit.SECONDS));
+        // 4 + 16 + 64 directories, one match each
+        assertEquals(84, found.size());
+        for (String path : found) {
+            assertTrue(path, new File(path).getName().startsWith("Match"));
+        }
+    }
+
+    @Test
+    public void testCancelStopsSearch() throws InterruptedException {
+        ParallelFileSearch search = new ParallelFileSearch(RuntimeEnvironment.application, false, 2,
+                fileName -> true, file -> {});
+
+        search.start(new HybridFile(OpenMode.FILE, searchRoot.getAbsolutePath()));
+        search.cancel();
+
+        assertTrue(search.await(1, TimeUnit.SECONDS));
+        assertTrue(search.isCancelled());
+    }
+
+    private static void createTree(File directory, int depth) throws IOException {
+        if (depth == 0) return;
+        for (int i = 0; i < 4; i++) {
+            File child = new File(directory, "dir" + i);
+            child.mkdirs();
+            new File(child, "Match" + i + ".txt").createNewFile();
+            new File(child, "other" + i + ".txt").createNewFile();
+            createTree(child, depth - 1);
+        }
+    }
+}
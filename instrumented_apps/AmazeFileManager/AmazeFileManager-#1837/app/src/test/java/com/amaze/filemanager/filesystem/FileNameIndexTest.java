@@ -0,0 +1,133 @@
+package com.amaze.filemanager.filesystem;
+
+import android.os.Environment;
+
+import com.amaze.filemanager.BuildConfig;
+import com.amaze.filemanager.asynchronous.asynctasks.ParallelFileSearch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.multidex.ShadowMultiDex;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(maxSdk = 27, constants = BuildConfig.class, shadows = {ShadowMultiDex.class})
+public class FileNameIndexTest {
+
+    private File root;
+    private File indexDirectory;
+    private FileNameIndex index;
+
+    @Before
+    public void setUp() throws Exception {
+        root = new File(Environment.getExternalStorageDirectory(), "indexed");
+        new File(root, "a/b").mkdirs();
+        new File(root, "a/Photo1.jpg").createNewFile();
+        new File(root, "a/b/photo2.JPG").createNewFile();
+        new File(root, "notes.txt").createNewFile();
+
+        indexDirectory = RuntimeEnvironment.application.getFilesDir();
+        index = new FileNameIndex();
+        index.enable(indexDirectory, Collections.singletonList(root.getPath()));
+        index.awaitUpdates();
+    }
+
+    @After
+    public void tearDown() {
+        index.disable();
+    }
+
+    @Test
+    public void testIndexesWholeTree() {
+        // a, a/b, 3 files
+        assertEquals(5, index.size());
+        assertTrue(index.covers(root.getPath()));
+        assertTrue(index.covers(new File(root, "a").getPath()));
+        assertFalse(index.covers(root.getPath() + "x"));
+        assertFalse(index.covers(root.getParent()));
+    }
+
+    @Test
+    public void testSearchOnlyBelowDirectory() {
+        assertEquals(2, search(root, "photo").size());
+        assertEquals(1, search(new File(root, "a/b"), "photo").size());
+        assertEquals(0, search(new File(root, "a/b"), "notes").size());
+    }
+
+    @Test
+    public void testRefreshAddsAndRemoves() throws Exception {
+        File created = new File(root, "a/b/c");
+        created.mkdirs();
+        new File(created, "photo3.jpg").createNewFile();
+        index.refresh(created.getPath());
+        index.awaitUpdates();
+
+        assertEquals(3, search(root, "photo").size());
+
+        new File(root, "a/Photo1.jpg").delete();
+        index.refresh(new File(root, "a/Photo1.jpg").getPath());
+        index.awaitUpdates();
+
+        assertEquals(2, search(root, "photo").size());
+        assertEquals(6, index.size());
+    }
+
+    @Test
+    public void testSkipsFilesDeletedBehindItsBack() {
+        new File(root, "notes.txt").delete();
+
+        assertEquals(0, search(root, "notes").size());
+    }
+
+    @Test
+    public void testSavedIndexIsLoaded() {
+        FileNameIndex loaded = new FileNameIndex();
+
+        assertTrue(loaded.load(FileNameIndex.getIndexFile(indexDirectory)));
+        assertEquals(index.size(), loaded.size());
+        assertTrue(loaded.covers(root.getPath()));
+    }
+
+    @Test
+    public void testOnlyChangedDirectoriesAreListedOnStart() throws Exception {
+        File changed = new File(root, "a/b");
+        new File(changed, "photo3.jpg").createNewFile();
+        changed.setLastModified(changed.lastModified() + 10000);
+        // not listed again because the last modified date of its directory is unchanged
+        File unchanged = new File(root, "a");
+        long lastModified = unchanged.lastModified();
+        new File(unchanged, "photo4.jpg").createNewFile();
+        unchanged.setLastModified(lastModified);
+
+        FileNameIndex restarted = new FileNameIndex();
+        restarted.enable(indexDirectory, Collections.singletonList(root.getPath()));
+        restarted.awaitUpdates();
+
+        assertEquals(3, search(restarted, root, "photo").size());
+        assertEquals(6, restarted.size());
+        restarted.disable();
+    }
+
+    private List<String> search(File directory, String query) {
+        return search(index, directory, query);
+    }
+
+    private static List<String> search(FileNameIndex index, File directory, String query) {
+        List<String> found = new ArrayList<>();
+        index.search(directory.getPath(), ParallelFileSearch.containsIgnoreCase(query), file -> found.add(file.getPath()));
+        return found;
+    }
+}
@@ -0,0 +1,108 @@
+package com.amaze.filemanager.filesystem.compressed;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class ParallelZipWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testEntriesKeepOrderAndContent() throws Exception {
+        // empty, small, compressible and big enough to spill
+        int[] sizes = {0, 100, 300 * 1024, 3 * 1024 * 1024, 5, 70 * 1024};
+        File spillDirectory = folder.newFolder("spill");
+        List<File> files = new ArrayList<>();
+        long total = 0;
+        for (int i = 0; i < sizes.length; i++) {
+            files.add(newFile("file" + i, sizes[i], i % 2 == 0));
+            total += sizes[i];
+        }
+
+        File zip = new File(folder.getRoot(), "out.zip");
+        AtomicLong read = new AtomicLong();
+        ParallelZipWriter writer = new ParallelZipWriter(new FileOutputStream(zip), spillDirectory,
+                Deflater.DEFAULT_COMPRESSION, 3, read::addAndGet);
+        for (File file : files) {
+            writer.addFile(file, "dir/" + file.getName());
+        }
+        writer.finish();
+
+        assertEquals(total, read.get());
+        assertEquals(0, spillDirectory.list().length);
+
+        ZipFile zipFile = new ZipFile(zip);
+        Enumeration<? extends ZipEntry> entries = zipFile.entries();
+        for (File file : files) {
+            ZipEntry entry = entries.nextElement();
+            byte[] expected = readAll(new FileInputStream(file));
+            CRC32 crc = new CRC32();
+            crc.update(expected);
+
+            assertEquals("dir/" + file.getName(), entry.getName());
+            assertEquals(ZipEntry.DEFLATED, entry.getMethod());
+            assertEquals(crc.getValue(), entry.getCrc());
+            assertArrayEquals(expected, readAll(zipFile.getInputStream(entry)));
+        }
+        zipFile.close();
+    }
+
+    @Test
+    public void testCloseDropsPendingEntries() throws Exception {
+        File spillDirectory = folder.newFolder("spill");
+        ParallelZipWriter writer = new ParallelZipWriter(new ByteArrayOutputStream(), spillDirectory,
+                Deflater.DEFAULT_COMPRESSION, 2, null);
+        for (int i = 0; i < 4; i++) {
+            writer.addFile(newFile("file" + i, 2 * 1024 * 1024, false), "file" + i);
+        }
+        writer.close();
+
+        assertEquals(0, spillDirectory.list().length);
+    }
+
+    private File newFile(String name, int size, boolean compressible) throws IOException {
+        byte[] bytes = new byte[size];
+        if (compressible) {
+            for (int i = 0; i < size; i++) bytes[i] = (byte) ('a' + i % 7);
+        } else {
+            new Random(size).nextBytes(bytes);
+        }
+        File file = folder.newFile(name);
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(bytes);
+        out.close();
+        return file;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+}
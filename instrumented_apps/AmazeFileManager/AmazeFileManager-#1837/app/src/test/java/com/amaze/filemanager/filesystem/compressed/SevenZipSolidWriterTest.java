@@ -0,0 +1,123 @@
+package com.amaze.filemanager.filesystem.compressed;
+
+import com.amaze.filemanager.filesystem.compressed.sevenz.SevenZArchiveEntry;
+import com.amaze.filemanager.filesystem.compressed.sevenz.SevenZFile;
+import com.amaze.filemanager.filesystem.compressed.sevenz.SevenZMethod;
+import com.amaze.filemanager.filesystem.compressed.sevenz.SevenZOutputFile;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SevenZipSolidWriterTest {
+
+    private static final int BLOCK_SIZE = 512 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testLzma2RoundTrip() throws Exception {
+        assertRoundTrip(SevenZMethod.LZMA2);
+    }
+
+    @Test
+    public void testDeflateRoundTrip() throws Exception {
+        assertRoundTrip(SevenZMethod.DEFLATE);
+    }
+
+    /**
+     * Several blocks with several entries each, empty entries and a directory between them, and
+     * random contents that don't compress and are spilled to disk while waiting.
+     */
+    private void assertRoundTrip(SevenZMethod method) throws IOException {
+        List<String> names = new ArrayList<>();
+        List<byte[]> contents = new ArrayList<>();
+        add(names, contents, "empty-first", new byte[0]);
+        add(names, contents, "small", newBytes(100, true));
+        add(names, contents, "compressible", newBytes(300 * 1024, true));
+        add(names, contents, "dir", null);
+        add(names, contents, "empty", new byte[0]);
+        add(names, contents, "random-big", newBytes(3 * 1024 * 1024, false));
+        for (int i = 0; i < 6; i++) {
+            add(names, contents, "dir/file" + i, newBytes(70 * 1024 + i, i % 2 == 0));
+        }
+        add(names, contents, "empty-last", new byte[0]);
+
+        File spillDirectory = folder.newFolder("spill-" + method);
+        File archive = new File(folder.getRoot(), method + ".7z");
+        SevenZOutputFile out = new SevenZOutputFile(archive);
+        out.setContentCompression(method);
+        out.setSolidCompression(BLOCK_SIZE, 3, spillDirectory);
+        for (int i = 0; i < names.size(); i++) {
+            SevenZArchiveEntry entry = new SevenZArchiveEntry();
+            entry.setName(names.get(i));
+            entry.setDirectory(contents.get(i) == null);
+            entry.setLastModifiedDate(new Date());
+            out.putArchiveEntry(entry);
+            if (contents.get(i) != null) out.write(contents.get(i));
+            out.closeArchiveEntry();
+        }
+        out.close();
+
+        assertEquals(0, spillDirectory.list().length);
+
+        SevenZFile sevenZFile = new SevenZFile(archive);
+        for (int i = 0; i < names.size(); i++) {
+            SevenZArchiveEntry entry = sevenZFile.getNextEntry();
+            byte[] expected = contents.get(i);
+
+            assertEquals(names.get(i), entry.getName());
+            assertEquals(expected == null, entry.isDirectory());
+            if (expected == null || expected.length == 0) {
+                assertFalse(entry.getName(), entry.hasStream());
+                continue;
+            }
+            assertTrue(entry.getName(), entry.hasStream());
+            assertEquals(entry.getName(), expected.length, entry.getSize());
+            assertArrayEquals(entry.getName(), expected, readAll(sevenZFile));
+        }
+        assertNull(sevenZFile.getNextEntry());
+        sevenZFile.close();
+    }
+
+    private static void add(List<String> names, List<byte[]> contents, String name, byte[] content) {
+        names.add(name);
+        contents.add(content);
+    }
+
+    private static byte[] newBytes(int size, boolean compressible) {
+        byte[] bytes = new byte[size];
+        if (compressible) {
+            for (int i = 0; i < size; i++) bytes[i] = (byte) ('a' + i % 7);
+        } else {
+            new Random(size).nextBytes(bytes);
+        }
+        return bytes;
+    }
+
+    private static byte[] readAll(SevenZFile sevenZFile) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = sevenZFile.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,97 @@
+package com.amaze.filemanager.utils.files;
+
+import com.amaze.filemanager.utils.test.DummyFileGenerator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class FileHasherTest {
+
+    private static final String[] ALGORITHMS = {FileHasher.MD5, FileHasher.SHA256, "SHA-1"};
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("test", "bin");
+        file.deleteOnExit();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testHashFileMatchesSeparateDigests() throws IOException, NoSuchAlgorithmException {
+        // spans several chunks and ends with a partial one
+        DummyFileGenerator.createFile(file, FileHasher.CHUNK_SIZE * 2 + 12345);
+
+        byte[][] hashes = FileHasher.hash(file, null, ALGORITHMS);
+
+        for (int i = 0; i < ALGORITHMS.length; i++) {
+            assertArrayEquals(ALGORITHMS[i], digest(file, ALGORITHMS[i]), hashes[i]);
+        }
+    }
+
+    @Test
+    public void testHashStreamMatchesHashFile() throws IOException, NoSuchAlgorithmException {
+        DummyFileGenerator.createFile(file, FileHasher.CHUNK_SIZE + 1);
+
+        byte[][] fromFile = FileHasher.hash(file, null, ALGORITHMS);
+        byte[][] fromStream = FileHasher.hash(new FileInputStream(file), file.length(), null, ALGORITHMS);
+
+        for (int i = 0; i < ALGORITHMS.length; i++) {
+            assertArrayEquals(ALGORITHMS[i], fromFile[i], fromStream[i]);
+        }
+    }
+
+    @Test
+    public void testHashEmptyFile() throws IOException, NoSuchAlgorithmException {
+        byte[][] hashes = FileHasher.hash(file, null, FileHasher.MD5);
+
+        assertEquals("d41d8cd98f00b204e9800998ecf8427e", FileHasher.toHex(hashes[0]));
+    }
+
+    @Test
+    public void testProgressReachesTotal() throws IOException, NoSuchAlgorithmException {
+        DummyFileGenerator.createFile(file, FileHasher.CHUNK_SIZE * 3);
+        final List<Long> reported = new ArrayList<>();
+
+        FileHasher.hash(file, (bytesHashed, totalBytes) -> {
+            assertEquals(file.length(), totalBytes);
+            reported.add(bytesHashed);
+        }, FileHasher.MD5);
+
+        assertEquals(file.length(), (long) reported.get(reported.size() - 1));
+    }
+
+    @Test
+    public void testToHex() {
+        assertEquals("00ff10ab", FileHasher.toHex(new byte[] {0, (byte) 0xff, 0x10, (byte) 0xab}));
+        assertEquals("", FileHasher.toHex(new byte[0]));
+        assertEquals("0f", FileHasher.toHex(new byte[] {0x0f}));
+    }
+
+    private static byte[] digest(File file, String algorithm) throws IOException, NoSuchAlgorithmException {
+        MessageDigest md = MessageDigest.getInstance(algorithm);
+        DigestInputStream in = new DigestInputStream(new FileInputStream(file), md);
+        byte[] buffer = new byte[GenericCopyUtil.DEFAULT_BUFFER_SIZE];
+        while (in.read(buffer) > -1) {}
+        in.close();
+        return md.digest();
+    }
+}
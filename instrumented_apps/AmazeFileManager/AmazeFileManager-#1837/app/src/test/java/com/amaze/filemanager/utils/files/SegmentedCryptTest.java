@@ -0,0 +1,182 @@
+package com.amaze.filemanager.utils.files;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.spec.GCMParameterSpec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SegmentedCryptTest {
+
+    private static final int SEGMENT_SIZE = 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SegmentedCrypt segmentedCrypt;
+
+    @Before
+    public void setUp() throws GeneralSecurityException {
+        KeyGenerator keyGenerator = KeyGenerator.getInstance("AES");
+        keyGenerator.init(128);
+
+        segmentedCrypt = new SegmentedCrypt(keyGenerator.generateKey(), (mode, key, nonce) -> {
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(mode, key, new GCMParameterSpec(128, nonce));
+            return cipher;
+        }, SEGMENT_SIZE, 3);
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        // empty, shorter than a segment, exactly segments, segments and a bit
+        for (int size : new int[] {0, 100, SEGMENT_SIZE, 10 * SEGMENT_SIZE, 10 * SEGMENT_SIZE + 7}) {
+            byte[] plain = randomBytes(size);
+            byte[] encrypted = encrypt(plain);
+
+            assertEquals(size, SegmentedCrypt.plaintextSize(SEGMENT_SIZE, encrypted.length));
+            assertArrayEquals(plain, decrypt(encrypted));
+        }
+    }
+
+    @Test
+    public void testSameFileEncryptsDifferently() throws Exception {
+        byte[] plain = randomBytes(100);
+
+        assertFalse(Arrays.equals(encrypt(plain), encrypt(plain)));
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        assertFalse(segmentedCrypt.encrypt(new ByteArrayInputStream(randomBytes(20 * SEGMENT_SIZE)), out,
+                plainBytes -> false));
+    }
+
+    @Test
+    public void testTamperedSegmentFails() throws Exception {
+        byte[] encrypted = encrypt(randomBytes(5 * SEGMENT_SIZE));
+        encrypted[SegmentedCrypt.HEADER_LENGTH + 2 * SEGMENT_SIZE] ^= 1;
+
+        assertDecryptFails(encrypted);
+    }
+
+    @Test
+    public void testTamperedHeaderFails() throws Exception {
+        byte[] plain = randomBytes(5 * SEGMENT_SIZE);
+        // segment size, nonce and the encrypted key of the file
+        for (int position : new int[] {7, 10, SegmentedCrypt.HEADER_LENGTH - 1}) {
+            byte[] encrypted = encrypt(plain);
+            encrypted[position] ^= 1;
+
+            assertDecryptFails(encrypted);
+        }
+    }
+
+    @Test
+    public void testTruncatedAtSegmentBorderFails() throws Exception {
+        byte[] encrypted = encrypt(randomBytes(5 * SEGMENT_SIZE));
+        int segments = 3;
+
+        assertDecryptFails(Arrays.copyOf(encrypted,
+                SegmentedCrypt.HEADER_LENGTH + segments * (SEGMENT_SIZE + SegmentedCrypt.TAG_LENGTH)));
+    }
+
+    @Test
+    public void testSwappedSegmentsFail() throws Exception {
+        byte[] encrypted = encrypt(randomBytes(5 * SEGMENT_SIZE));
+        int length = SEGMENT_SIZE + SegmentedCrypt.TAG_LENGTH;
+        byte[] first = Arrays.copyOfRange(encrypted, SegmentedCrypt.HEADER_LENGTH, SegmentedCrypt.HEADER_LENGTH + length);
+        System.arraycopy(encrypted, SegmentedCrypt.HEADER_LENGTH + length, encrypted, SegmentedCrypt.HEADER_LENGTH, length);
+        System.arraycopy(first, 0, encrypted, SegmentedCrypt.HEADER_LENGTH + length, length);
+
+        assertDecryptFails(encrypted);
+    }
+
+    @Test
+    public void testRandomAccess() throws Exception {
+        byte[] plain = randomBytes(10 * SEGMENT_SIZE + 7);
+        File file = folder.newFile("random.aze");
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(encrypt(plain));
+        out.close();
+
+        for (int position : new int[] {0, 1, SEGMENT_SIZE, 3 * SEGMENT_SIZE + 5, plain.length - 1, plain.length}) {
+            InputStream in = segmentedCrypt.openDecryptingStream(new FileInputStream(file).getChannel(), position);
+            byte[] read = readAll(in);
+            in.close();
+
+            assertArrayEquals("position " + position, Arrays.copyOfRange(plain, position, plain.length), read);
+        }
+    }
+
+    @Test
+    public void testDetectsFormat() throws Exception {
+        BufferedInputStream segmented = new BufferedInputStream(new ByteArrayInputStream(encrypt(randomBytes(10))));
+        assertTrue(SegmentedCrypt.isSegmented(segmented));
+        // the header is not consumed
+        assertEquals('A', segmented.read());
+
+        assertFalse(SegmentedCrypt.isSegmented(new BufferedInputStream(new ByteArrayInputStream(randomBytes(100)))));
+        assertFalse(SegmentedCrypt.isSegmented(new BufferedInputStream(new ByteArrayInputStream(new byte[] {'A'}))));
+    }
+
+    private byte[] encrypt(byte[] plain) throws IOException, GeneralSecurityException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(segmentedCrypt.encrypt(new ByteArrayInputStream(plain), out, null));
+        return out.toByteArray();
+    }
+
+    private byte[] decrypt(byte[] encrypted) throws IOException, GeneralSecurityException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(segmentedCrypt.decrypt(new ByteArrayInputStream(encrypted), out, null));
+        return out.toByteArray();
+    }
+
+    private void assertDecryptFails(byte[] encrypted) throws IOException {
+        try {
+            decrypt(encrypted);
+            fail();
+        } catch (GeneralSecurityException e) {
+            // expected
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[300];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.amaze.filemanager.filesystem.compressed.sevenz;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Process wide cache of the AES keys derived by {@link AES256SHA256Decoder}.
+ *
+ * <p>Deriving a key takes 2^numCyclesPower (usually 2^19) SHA-256 rounds, and
+ * used to happen for every folder of an archive, every time the archive was
+ * opened. Keys are cached by salt, cycles power and a fingerprint of the
+ * password. The fingerprint is an HMAC with a random key that only lives in
+ * this process, so unlike a plain hash it doesn't allow testing passwords
+ * faster than the key derivation would.</p>
+ *
+ * <p>At most {@link #MAX_ENTRIES} keys are kept, the least recently used key
+ * is evicted first. Evicted and removed keys are overwritten. Threads
+ * asking for a key that is being derived wait for it instead of deriving it
+ * again.</p>
+ *
+ * @ThreadSafe
+ */
+public final class AES256KeyCache {
+    static final int MAX_ENTRIES = 32;
+
+    private static final Charset UTF_16LE = Charset.forName("UTF-16LE");
+    private static final byte[] FINGERPRINT_KEY = new byte[32];
+    static {
+        new SecureRandom().nextBytes(FINGERPRINT_KEY);
+    }
+
+    private static final Map<CacheKey, FutureTask<byte[]>> KEYS =
+        new LinkedHashMap<CacheKey, FutureTask<byte[]>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<CacheKey, FutureTask<byte[]>> eldest) {
+                if (size() > MAX_ENTRIES) {
+                    wipe(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+
+    private AES256KeyCache() {
+    }
+
+    /**
+     * Returns the cached key, or derives and caches it.
+     *
+     * @return a copy of the key the caller may overwrite
+     */
+    static byte[] getOrDerive(final byte[] salt, final int numCyclesPower, final byte[] passwordBytes,
+                              final Callable<byte[]> derivation) throws IOException {
+        final CacheKey key = new CacheKey(salt, numCyclesPower, fingerprint(passwordBytes));
+        FutureTask<byte[]> task;
+        boolean derive = false;
+        synchronized (KEYS) {
+            task = KEYS.get(key);
+            if (task == null) {
+                task = new FutureTask<>(derivation);
+                KEYS.put(key, task);
+                derive = true;
+            }
+        }
+
+        if (derive) {
+            task.run();
+        }
+        try {
+            final byte[] derived = task.get();
+            // eviction overwrites keys under the same lock, an evicted key may be overwritten already
+            synchronized (KEYS) {
+                if (KEYS.get(key) == task) {
+                    return derived.clone();
+                }
+            }
+            return derivation.call();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while deriving key", e);
+        } catch (final ExecutionException e) {
+            synchronized (KEYS) {
+                if (KEYS.get(key) == task) {
+                    KEYS.remove(key);
+                }
+            }
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Cannot derive key", e.getCause());
+        } catch (final IOException e) {
+            throw e;
+        } catch (final Exception e) {
+            throw new IOException("Cannot derive key", e);
+        }
+    }
+
+    /**
+     * Removes and overwrites all keys derived from password, e.g. after it turned out
+     * to be wrong.
+     *
+     * @param password the password as given to {@link SevenZFile}
+     */
+    public static void remove(final char[] password) {
+        if (password == null) {
+            return;
+        }
+        final ByteBuffer encoded = UTF_16LE.encode(CharBuffer.wrap(password));
+        final byte[] passwordBytes = new byte[encoded.remaining()];
+        encoded.get(passwordBytes);
+        final byte[] fingerprint = fingerprint(passwordBytes);
+        Arrays.fill(passwordBytes, (byte) 0);
+
+        synchronized (KEYS) {
+            final Iterator<Map.Entry<CacheKey, FutureTask<byte[]>>> iterator = KEYS.entrySet().iterator();
+            while (iterator.hasNext()) {
+                final Map.Entry<CacheKey, FutureTask<byte[]>> entry = iterator.next();
+                if (Arrays.equals(entry.getKey().passwordFingerprint, fingerprint)) {
+                    wipe(entry.getValue());
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes and overwrites all keys
+     */
+    public static void clear() {
+        synchronized (KEYS) {
+            for (final FutureTask<byte[]> task : KEYS.values()) {
+                wipe(task);
+            }
+            KEYS.clear();
+        }
+    }
+
+    static int size() {
+        synchronized (KEYS) {
+            return KEYS.size();
+        }
+    }
+
+    private static byte[] fingerprint(final byte[] passwordBytes) {
+        try {
+            final Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(FINGERPRINT_KEY, "HmacSHA256"));
+            return mac.doFinal(passwordBytes);
+        } catch (final GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 is unsupported by your Java implementation", e);
+        }
+    }
+
+    /**
+     * Keys still being derived are left alone, they are only referenced by the
+     * threads waiting for them.
+     */
+    private static void wipe(final FutureTask<byte[]> task) {
+        if (!task.isDone()) {
+            return;
+        }
+        try {
+            Arrays.fill(task.get(), (byte) 0);
+        } catch (final InterruptedException | ExecutionException e) {
+            // nothing was derived, nothing to wipe
+        }
+    }
+
+    private static final class CacheKey {
+        private final byte[] salt;
+        private final int numCyclesPower;
+        private final byte[] passwordFingerprint;
+
+        CacheKey(final byte[] salt, final int numCyclesPower, final byte[] passwordFingerprint) {
+            this.salt = salt.clone();
+            this.numCyclesPower = numCyclesPower;
+            this.passwordFingerprint = passwordFingerprint;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (!(o instanceof CacheKey)) {
+                return false;
+            }
+            final CacheKey other = (CacheKey) o;
+            return numCyclesPower == other.numCyclesPower
+                && Arrays.equals(salt, other.salt)
+                && Arrays.equals(passwordFingerprint, other.passwordFingerprint);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * Arrays.hashCode(salt) + numCyclesPower) + Arrays.hashCode(passwordFingerprint);
+        }
+    }
+}
@@ -22,6 +22,8 @@ import java.io.InputStream;
 import java.security.GeneralSecurityException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
 import javax.crypto.Cipher;
 import javax.crypto.CipherInputStream;
 import javax.crypto.SecretKey;
@@ -64,29 +66,17 @@ class AES256SHA256Decoder extends CoderBase {
                     System.arraycopy(passwordBytes, 0, aesKeyBytes, saltSize,
                                      Math.min(passwordBytes.length, aesKeyBytes.length - saltSize));
                 } else {
-                    final MessageDigest digest;
-                    try {
-                        digest = MessageDigest.getInstance("SHA-256");
-                    } catch (final NoSuchAlgorithmException noSuchAlgorithmException) {
-                        throw new IOException("SHA-256 is unsupported by your Java implementation",
-                            noSuchAlgorithmException);
-                    }
-                    final byte[] extra = new byte[8];
-                    for (long j = 0; j < (1L << numCyclesPower); j++) {
-                        digest.update(salt);
-                        digest.update(passwordBytes);
-                        digest.update(extra);
-                        for (int k = 0; k < extra.length; k++) {
-                            ++extra[k];
-                            if (extra[k] != 0) {
-                                break;
+                    aesKeyBytes = AES256KeyCache.getOrDerive(salt, numCyclesPower, passwordBytes,
+                        new Callable<byte[]>() {
+                            @Override
+                            public byte[] call() throws IOException {
+                                return deriveKey(salt, numCyclesPower, passwordBytes);
                             }
-                        }
-                    }
-                    aesKeyBytes = digest.digest();
+                        });
                 }
 
                 final SecretKey aesKey = new SecretKeySpec(aesKeyBytes, "AES");
+                Arrays.fill(aesKeyBytes, (byte) 0);
                 try {
                     final Cipher cipher = Cipher.getInstance("AES/CBC/NoPadding");
                     cipher.init(Cipher.DECRYPT_MODE, aesKey, new IvParameterSpec(iv));
@@ -115,4 +105,28 @@ class AES256SHA256Decoder extends CoderBase {
             }
         };
     }
+
+    private static byte[] deriveKey(final byte[] salt, final int numCyclesPower, final byte[] passwordBytes)
+            throws IOException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (final NoSuchAlgorithmException noSuchAlgorithmException) {
+            throw new IOException("SHA-256 is unsupported by your Java implementation",
+                noSuchAlgorithmException);
+        }
+        final byte[] extra = new byte[8];
+        for (long j = 0; j < (1L << numCyclesPower); j++) {
+            digest.update(salt);
+            digest.update(passwordBytes);
+            digest.update(extra);
+            for (int k = 0; k < extra.length; k++) {
+                ++extra[k];
+                if (extra[k] != 0) {
+                    break;
+                }
+            }
+        }
+        return digest.digest();
+    }
 }
@@ -28,10 +28,22 @@ class BoundedFileChannelInputStream extends InputStream {
     private final ByteBuffer buffer;
     private final FileChannel channel;
     private long bytesRemaining;
+    // next position for positional reads, or -1 to read at the channel's position
+    private long position;
 
     public BoundedFileChannelInputStream(final FileChannel channel,
                                          final long size) {
+        this(channel, -1, size);
+    }
+
+    /**
+     * Reads from position on without moving the channel's position, so several
+     * streams can read the same channel concurrently.
+     */
+    public BoundedFileChannelInputStream(final FileChannel channel, final long position,
+                                         final long size) {
         this.channel = channel;
+        this.position = position;
         this.bytesRemaining = size;
         if (size < MAX_BUF_LEN && size > 0) {
             buffer = ByteBuffer.allocate((int) size);
@@ -69,7 +81,7 @@ class BoundedFileChannelInputStream extends InputStream {
             bytesRead = read(bytesToRead);
         } else {
             buf = ByteBuffer.allocate(bytesToRead);
-            bytesRead = channel.read(buf);
+            bytesRead = readChannel(buf);
             buf.flip();
         }
         if (bytesRead >= 0) {
@@ -81,11 +93,22 @@ class BoundedFileChannelInputStream extends InputStream {
 
     private int read(int len) throws IOException {
         buffer.rewind().limit(len);
-        int read = channel.read(buffer);
+        int read = readChannel(buffer);
         buffer.flip();
         return read;
     }
 
+    private int readChannel(ByteBuffer buf) throws IOException {
+        if (position < 0) {
+            return channel.read(buf);
+        }
+        int read = channel.read(buf, position);
+        if (read > 0) {
+            position += read;
+        }
+        return read;
+    }
+
     @Override
     public void close() {
         // the nested channel is controlled externally
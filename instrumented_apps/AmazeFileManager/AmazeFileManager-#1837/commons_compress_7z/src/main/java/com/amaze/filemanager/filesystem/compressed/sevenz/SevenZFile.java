@@ -32,6 +32,7 @@ import java.io.FileInputStream;
 import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.CharBuffer;
@@ -42,6 +43,13 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.zip.CRC32;
 
 /**
@@ -69,6 +77,10 @@ import java.util.zip.CRC32;
  * encrypted, neither file names nor file
  * contents can be read, but the use of
  * encryption isn't plausibly deniable.
+ * <p>
+ * Besides reading the entries in order, single entries can be
+ * read via {@link #getInputStream(int)} and independent
+ * folders can be decoded concurrently via {@link #readEntries}.
  *
  * @NotThreadSafe
  * @since 1.6
@@ -76,6 +88,9 @@ import java.util.zip.CRC32;
 public class SevenZFile implements Closeable {
     static final int SIGNATURE_HEADER_SIZE = 32;
 
+    // decoders can't seek, skipped bytes are decoded into a buffer of this size
+    private static final int SKIP_BUFFER_SIZE = 64 * 1024;
+
     private final String fileName;
     private FileChannel channel;
     private final Archive archive;
@@ -314,6 +329,207 @@ public class SevenZFile implements Closeable {
         return Arrays.asList(archive.files);
     }
 
+    /**
+     * Callback of {@link #readEntries}.
+     */
+    public interface EntryHandler {
+        /**
+         * @param entry the entry
+         * @param content the contents of the entry, only valid during the call
+         * @return false to stop reading entries
+         * @throws IOException stops reading entries, rethrown by {@link #readEntries}
+         */
+        boolean onEntry(SevenZArchiveEntry entry, InputStream content) throws IOException;
+    }
+
+    /**
+     * Returns the contents of one entry without reading the entries before it
+     * via {@link #getNextEntry}.
+     *
+     * <p>Only the folder (solid block) holding the entry is decoded, and only up to
+     * the end of the entry. The stream reads the archive with positional reads and
+     * doesn't affect {@link #getNextEntry}/{@link #read}, streams of different entries
+     * may be read concurrently. It must not be used after the archive is closed.</p>
+     *
+     * @param entryIndex index of the entry in {@link #getEntries}
+     * @return the contents of the entry
+     * @throws IOException if the folder can't be decoded
+     */
+    public InputStream getInputStream(final int entryIndex) throws IOException {
+        final SevenZArchiveEntry entry = archive.files[entryIndex];
+        final int folderIndex = archive.streamMap.fileFolderIndex[entryIndex];
+        if (folderIndex < 0 || !entry.hasStream()) {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+
+        final InputStream folderStream = openFolder(folderIndex, entry);
+        long precedingBytes = 0;
+        for (int i = archive.streamMap.folderFirstFileIndex[folderIndex]; i < entryIndex; i++) {
+            if (archive.files[i].hasStream()) {
+                precedingBytes += archive.files[i].getSize();
+            }
+        }
+        if (discard(folderStream, precedingBytes, new byte[SKIP_BUFFER_SIZE]) < precedingBytes) {
+            folderStream.close();
+            throw new IOException("Truncated folder " + folderIndex + " in " + fileName);
+        }
+
+        return new FilterInputStream(entryStream(folderStream, entry)) {
+            @Override
+            public void close() throws IOException {
+                folderStream.close();
+            }
+        };
+    }
+
+    /**
+     * Reads the selected entries, decoding independent folders (solid blocks)
+     * concurrently.
+     *
+     * <p>Every folder is decoded by its own thread reading the archive with positional
+     * reads, and only up to its last selected entry. Entries of one folder are passed to
+     * the handler one after another in archive order, entries of different folders
+     * concurrently, so the handler must be thread safe. Entries without contents
+     * (e.g. directories) are passed first, on the calling thread.</p>
+     *
+     * <p>Each thread holds the decoder of one folder, e.g. an LZMA dictionary, so
+     * threads should be kept low on memory constrained devices.</p>
+     *
+     * @param selected indices (in {@link #getEntries}) of the entries to read
+     * @param threads maximum number of folders decoded concurrently
+     * @param handler receives the contents of the entries
+     * @throws IOException if a folder can't be decoded or the handler failed
+     */
+    public void readEntries(final BitSet selected, final int threads, final EntryHandler handler)
+            throws IOException {
+        // last selected entry of each folder, -1 if nothing of the folder is selected
+        final int[] lastSelected = new int[archive.folders.length];
+        Arrays.fill(lastSelected, -1);
+        for (int i = selected.nextSetBit(0); i >= 0 && i < archive.files.length; i = selected.nextSetBit(i + 1)) {
+            final SevenZArchiveEntry entry = archive.files[i];
+            final int folderIndex = archive.streamMap.fileFolderIndex[i];
+            if (folderIndex < 0 || !entry.hasStream()) {
+                if (!handler.onEntry(entry, new ByteArrayInputStream(new byte[0]))) {
+                    return;
+                }
+            } else {
+                lastSelected[folderIndex] = i;
+            }
+        }
+
+        final AtomicBoolean stopped = new AtomicBoolean();
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final List<Future<Void>> folders = new ArrayList<>();
+        try {
+            for (int folderIndex = 0; folderIndex < lastSelected.length; folderIndex++) {
+                if (lastSelected[folderIndex] < 0) {
+                    continue;
+                }
+                final int index = folderIndex;
+                folders.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        readFolder(index, lastSelected[index], selected, handler, stopped);
+                        return null;
+                    }
+                }));
+            }
+
+            for (final Future<Void> folder : folders) {
+                try {
+                    folder.get();
+                } catch (final ExecutionException e) {
+                    stopped.set(true);
+                    final Throwable cause = e.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    }
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new IOException(cause);
+                } catch (final InterruptedException e) {
+                    stopped.set(true);
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void readFolder(final int folderIndex, final int lastEntryIndex, final BitSet selected,
+                            final EntryHandler handler, final AtomicBoolean stopped) throws IOException {
+        final byte[] skipBuffer = new byte[SKIP_BUFFER_SIZE];
+        try (final InputStream folderStream = openFolder(folderIndex, archive.files[lastEntryIndex])) {
+            for (int i = archive.streamMap.folderFirstFileIndex[folderIndex];
+                 i <= lastEntryIndex && !stopped.get(); i++) {
+                final SevenZArchiveEntry entry = archive.files[i];
+                if (!entry.hasStream()) {
+                    // already passed by readEntries
+                    continue;
+                }
+                if (!selected.get(i)) {
+                    // nobody reads it, so there is no CRC to verify
+                    if (discard(folderStream, entry.getSize(), skipBuffer) < entry.getSize()) {
+                        throw new IOException("Truncated folder " + folderIndex + " in " + fileName);
+                    }
+                    continue;
+                }
+                final InputStream entryStream = entryStream(folderStream, entry);
+                if (!handler.onEntry(entry, entryStream)) {
+                    stopped.set(true);
+                    return;
+                }
+                // skip what the handler didn't read, this also verifies the CRC
+                discard(entryStream, Long.MAX_VALUE, skipBuffer);
+            }
+        }
+    }
+
+    /**
+     * Reads and drops up to count bytes. {@link InputStream#skip} of the decoders reads a few
+     * KB per call, and the CRC stream even single bytes.
+     *
+     * @return bytes dropped, less than count only at the end of the stream
+     */
+    private static long discard(final InputStream in, final long count, final byte[] buffer) throws IOException {
+        long done = 0;
+        while (done < count) {
+            final int read = in.read(buffer, 0, (int) Math.min(buffer.length, count - done));
+            if (read < 0) {
+                break;
+            }
+            done += read;
+        }
+        return done;
+    }
+
+    /**
+     * Decoder stack of a folder reading the archive with positional reads, independent of
+     * the streams used by {@link #getNextEntry}.
+     */
+    private InputStream openFolder(final int folderIndex, final SevenZArchiveEntry entry) throws IOException {
+        final Folder folder = archive.folders[folderIndex];
+        final int firstPackStreamIndex = archive.streamMap.folderFirstPackStreamIndex[folderIndex];
+        final long folderOffset = SIGNATURE_HEADER_SIZE + archive.packPos +
+                archive.streamMap.packStreamOffsets[firstPackStreamIndex];
+        return addDecoders(folder, new BufferedInputStream(new BoundedFileChannelInputStream(channel,
+                folderOffset, archive.packSizes[firstPackStreamIndex])), entry);
+    }
+
+    private static InputStream entryStream(final InputStream folderStream, final SevenZArchiveEntry entry) {
+        final InputStream fileStream = new BoundedInputStream(folderStream, entry.getSize());
+        if (entry.getHasCrc()) {
+            return new CRC32VerifyingInputStream(fileStream, entry.getSize(), entry.getCrcValue());
+        }
+        return fileStream;
+    }
+
     private Archive readHeaders(final byte[] password) throws IOException {
         ByteBuffer buf = ByteBuffer.allocate(12 /* signature + 2 bytes version + 4 bytes CRC */)
             .order(ByteOrder.LITTLE_ENDIAN);
@@ -983,12 +1199,7 @@ public class SevenZFile implements Closeable {
             currentFolderInputStream = buildDecoderStack(folder, folderOffset, firstPackStreamIndex, file);
         }
 
-        InputStream fileStream = new BoundedInputStream(currentFolderInputStream, file.getSize());
-        if (file.getHasCrc()) {
-            fileStream = new CRC32VerifyingInputStream(fileStream, file.getSize(), file.getCrcValue());
-        }
-
-        deferredBlockStreams.add(fileStream);
+        deferredBlockStreams.add(entryStream(currentFolderInputStream, file));
     }
 
     private InputStream buildDecoderStack(final Folder folder, final long folderOffset,
@@ -1021,6 +1232,11 @@ public class SevenZFile implements Closeable {
                 compressedBytesReadFromCurrentEntry += c;
             }
         };
+        return addDecoders(folder, inputStreamStack, entry);
+    }
+
+    private InputStream addDecoders(final Folder folder, InputStream inputStreamStack,
+                final SevenZArchiveEntry entry) throws IOException {
         final LinkedList<SevenZMethodConfiguration> methods = new LinkedList<>();
         for (final Coder coder : folder.getOrderedCoders()) {
             if (coder.numInStreams != 1 || coder.numOutStreams != 1) {
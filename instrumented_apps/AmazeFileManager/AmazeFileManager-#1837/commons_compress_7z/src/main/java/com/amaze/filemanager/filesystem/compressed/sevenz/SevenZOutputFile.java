@@ -17,40 +17,64 @@
  */
 package com.amaze.filemanager.filesystem.compressed.sevenz;
 
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.DataOutput;
 import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.channels.SeekableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Collections;
 import java.util.Date;
 import java.util.EnumSet;
-import java.util.HashMap;
 import java.util.List;
 import java.util.LinkedList;
-import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
 
 import org.apache.commons.compress.archivers.ArchiveEntry;
 import org.apache.commons.compress.utils.CountingOutputStream;
 
 /**
  * Writes a 7z file.
+ *
+ * <p>By default every entry is compressed into a folder of its own on
+ * the calling thread. With {@link #setSolidCompression} entries are
+ * grouped into solid blocks which are compressed concurrently.</p>
  * @since 1.6
  */
 public class SevenZOutputFile implements Closeable {
+    // raw data is handed to the compressing thread in chunks of this size
+    private static final int SOLID_CHUNK_SIZE = 64 * 1024;
+    // compressed blocks waiting for their predecessors are kept in memory up to this size
+    private static final int SOLID_SPILL_THRESHOLD = 1024 * 1024;
+
     private final SeekableByteChannel channel;
     private final List<SevenZArchiveEntry> files = new ArrayList<>();
-    private int numNonEmptyStreams = 0;
+    // folders in archive order, one per non-empty entry or one per solid block
+    private final List<Block> blocks = new ArrayList<>();
     private final CRC32 crc32 = new CRC32();
     private final CRC32 compressedCrc32 = new CRC32();
     private long fileBytesWritten = 0;
@@ -59,7 +83,14 @@ public class SevenZOutputFile implements Closeable {
     private CountingOutputStream[] additionalCountingStreams;
     private Iterable<? extends SevenZMethodConfiguration> contentMethods =
             Collections.singletonList(new SevenZMethodConfiguration(SevenZMethod.LZMA2));
-    private final Map<SevenZArchiveEntry, long[]> additionalSizes = new HashMap<>();
+
+    private long solidBlockSize = 0;
+    private int solidThreads;
+    private File spillDirectory;
+    private ExecutorService solidExecutor;
+    // solid blocks being compressed or waiting to be written, in archive order
+    private final ArrayDeque<SolidBlock> pendingBlocks = new ArrayDeque<>();
+    private SolidBlock currentBlock;
 
     /**
      * Opens file to write a 7z archive to.
@@ -123,6 +154,38 @@ public class SevenZOutputFile implements Closeable {
         this.contentMethods = reverse(methods);
     }
 
+    /**
+     * Groups the entries into solid blocks (folders) of about blockSize
+     * uncompressed bytes and compresses up to threads blocks concurrently.
+     *
+     * <p>A block is closed before the first entry that would start beyond
+     * blockSize, so a single large entry makes a large block. Entries
+     * with content methods of their own get a block of their own.</p>
+     *
+     * <p>Up to threads blocks of uncompressed data are held in memory.
+     * Compressed blocks waiting for their predecessors to be written are
+     * kept in memory up to 1 MB, and in temporary files in
+     * spillDirectory beyond that.</p>
+     *
+     * @param blockSize uncompressed bytes per block
+     * @param threads number of blocks compressed concurrently
+     * @param spillDirectory directory for temporary files, null for the
+     * default temporary directory
+     * @throws IllegalStateException if entries have been added already
+     */
+    public void setSolidCompression(final long blockSize, final int threads, final File spillDirectory) {
+        if (!files.isEmpty()) {
+            throw new IllegalStateException("Solid compression must be set before adding entries");
+        }
+        if (blockSize <= 0 || threads <= 0) {
+            throw new IllegalArgumentException("blockSize and threads must be positive");
+        }
+        this.solidBlockSize = blockSize;
+        this.solidThreads = threads;
+        this.spillDirectory = spillDirectory;
+        this.solidExecutor = Executors.newFixedThreadPool(threads);
+    }
+
     /**
      * Closes the archive, calling {@link #finish} if necessary.
      *
@@ -135,6 +198,13 @@ public class SevenZOutputFile implements Closeable {
                 finish();
             }
         } finally {
+            if (solidExecutor != null) {
+                solidExecutor.shutdownNow();
+                for (final SolidBlock block : pendingBlocks) {
+                    block.packed.discard();
+                }
+                pendingBlocks.clear();
+            }
             channel.close();
         }
     }
@@ -168,6 +238,10 @@ public class SevenZOutputFile implements Closeable {
      */
     public void putArchiveEntry(final ArchiveEntry archiveEntry) throws IOException {
         final SevenZArchiveEntry entry = (SevenZArchiveEntry) archiveEntry;
+        if (currentBlock != null && (currentBlock.raw.getBytesWritten() >= solidBlockSize
+                || currentBlock.ownMethods || entry.getContentMethods() != null)) {
+            closeBlock();
+        }
         files.add(entry);
     }
 
@@ -182,21 +256,34 @@ public class SevenZOutputFile implements Closeable {
         }
 
         final SevenZArchiveEntry entry = files.get(files.size() - 1);
-        if (fileBytesWritten > 0) { // this implies currentOutputStream != null
+        if (solidBlockSize > 0 && currentOutputStream != null && currentOutputStream.getBytesWritten() > 0) {
+            // the contents went to the current solid block
+            entry.setHasStream(true);
+            entry.setSize(currentOutputStream.getBytesWritten());
+            entry.setCrcValue(crc32.getValue());
+            entry.setHasCrc(true);
+            currentBlock.entries.add(entry);
+        } else if (fileBytesWritten > 0) { // this implies currentOutputStream != null
             entry.setHasStream(true);
-            ++numNonEmptyStreams;
             entry.setSize(currentOutputStream.getBytesWritten()); //NOSONAR
             entry.setCompressedSize(fileBytesWritten);
             entry.setCrcValue(crc32.getValue());
             entry.setCompressedCrcValue(compressedCrc32.getValue());
             entry.setHasCrc(true);
+
+            final Block block = new Block(getContentMethods(entry));
+            block.entries.add(entry);
+            block.unpackSize = entry.getSize();
+            block.unpackCrc = entry.getCrcValue();
+            block.packSize = fileBytesWritten;
+            block.packCrc = entry.getCompressedCrcValue();
             if (additionalCountingStreams != null) {
-                final long[] sizes = new long[additionalCountingStreams.length];
+                block.additionalSizes = new long[additionalCountingStreams.length];
                 for (int i = 0; i < additionalCountingStreams.length; i++) {
-                    sizes[i] = additionalCountingStreams[i].getBytesWritten();
+                    block.additionalSizes[i] = additionalCountingStreams[i].getBytesWritten();
                 }
-                additionalSizes.put(entry, sizes);
             }
+            blocks.add(block);
         } else {
             entry.setHasStream(false);
             entry.setSize(0);
@@ -252,6 +339,16 @@ public class SevenZOutputFile implements Closeable {
         }
         finished = true;
 
+        if (solidExecutor != null) {
+            if (currentBlock != null) {
+                closeBlock();
+            }
+            while (!pendingBlocks.isEmpty()) {
+                writeBlock(pendingBlocks.poll());
+            }
+            solidExecutor.shutdown();
+        }
+
         final long headerPosition = channel.position();
 
         final ByteArrayOutputStream headerBaos = new ByteArrayOutputStream();
@@ -309,6 +406,13 @@ public class SevenZOutputFile implements Closeable {
             throw new IllegalStateException("No current 7z entry");
         }
 
+        if (solidBlockSize > 0) {
+            if (currentBlock == null) {
+                openBlock(files.get(files.size() - 1));
+            }
+            return crcCountingStream(currentBlock.raw);
+        }
+
         OutputStream out = new OutputStreamWrapper();
         final ArrayList<CountingOutputStream> moreStreams = new ArrayList<>();
         boolean first = true;
@@ -324,6 +428,10 @@ public class SevenZOutputFile implements Closeable {
         if (!moreStreams.isEmpty()) {
             additionalCountingStreams = moreStreams.toArray(new CountingOutputStream[moreStreams.size()]);
         }
+        return crcCountingStream(out);
+    }
+
+    private CountingOutputStream crcCountingStream(final OutputStream out) {
         return new CountingOutputStream(out) {
             @Override
             public void write(final int b) throws IOException {
@@ -361,7 +469,7 @@ public class SevenZOutputFile implements Closeable {
     }
 
     private void writeStreamsInfo(final DataOutput header) throws IOException {
-        if (numNonEmptyStreams > 0) {
+        if (!blocks.isEmpty()) {
             writePackInfo(header);
             writeUnpackInfo(header);
         }
@@ -375,21 +483,17 @@ public class SevenZOutputFile implements Closeable {
         header.write(NID.kPackInfo);
 
         writeUint64(header, 0);
-        writeUint64(header, 0xffffFFFFL & numNonEmptyStreams);
+        writeUint64(header, 0xffffFFFFL & blocks.size());
 
         header.write(NID.kSize);
-        for (final SevenZArchiveEntry entry : files) {
-            if (entry.hasStream()) {
-                writeUint64(header, entry.getCompressedSize());
-            }
+        for (final Block block : blocks) {
+            writeUint64(header, block.packSize);
         }
 
         header.write(NID.kCRC);
         header.write(1); // "allAreDefined" == true
-        for (final SevenZArchiveEntry entry : files) {
-            if (entry.hasStream()) {
-                header.writeInt(Integer.reverseBytes((int) entry.getCompressedCrcValue()));
-            }
+        for (final Block block : blocks) {
+            header.writeInt(Integer.reverseBytes((int) block.packCrc));
         }
 
         header.write(NID.kEnd);
@@ -399,42 +503,36 @@ public class SevenZOutputFile implements Closeable {
         header.write(NID.kUnpackInfo);
 
         header.write(NID.kFolder);
-        writeUint64(header, numNonEmptyStreams);
+        writeUint64(header, blocks.size());
         header.write(0);
-        for (final SevenZArchiveEntry entry : files) {
-            if (entry.hasStream()) {
-                writeFolder(header, entry);
-            }
+        for (final Block block : blocks) {
+            writeFolder(header, block.methods);
         }
 
         header.write(NID.kCodersUnpackSize);
-        for (final SevenZArchiveEntry entry : files) {
-            if (entry.hasStream()) {
-                final long[] moreSizes = additionalSizes.get(entry);
-                if (moreSizes != null) {
-                    for (final long s : moreSizes) {
-                        writeUint64(header, s);
-                    }
+        for (final Block block : blocks) {
+            if (block.additionalSizes != null) {
+                for (final long s : block.additionalSizes) {
+                    writeUint64(header, s);
                 }
-                writeUint64(header, entry.getSize());
             }
+            writeUint64(header, block.unpackSize);
         }
 
         header.write(NID.kCRC);
         header.write(1); // "allAreDefined" == true
-        for (final SevenZArchiveEntry entry : files) {
-            if (entry.hasStream()) {
-                header.writeInt(Integer.reverseBytes((int) entry.getCrcValue()));
-            }
+        for (final Block block : blocks) {
+            header.writeInt(Integer.reverseBytes((int) block.unpackCrc));
         }
 
         header.write(NID.kEnd);
     }
 
-    private void writeFolder(final DataOutput header, final SevenZArchiveEntry entry) throws IOException {
+    private void writeFolder(final DataOutput header,
+                             final Iterable<? extends SevenZMethodConfiguration> methods) throws IOException {
         final ByteArrayOutputStream bos = new ByteArrayOutputStream();
         int numCoders = 0;
-        for (final SevenZMethodConfiguration m : getContentMethods(entry)) {
+        for (final SevenZMethodConfiguration m : methods) {
             numCoders++;
             writeSingleCodec(m, bos);
         }
@@ -467,6 +565,36 @@ public class SevenZOutputFile implements Closeable {
 
     private void writeSubStreamsInfo(final DataOutput header) throws IOException {
         header.write(NID.kSubStreamsInfo);
+
+        boolean solid = false;
+        for (final Block block : blocks) {
+            solid |= block.entries.size() != 1;
+        }
+        if (solid) {
+            header.write(NID.kNumUnpackStream);
+            for (final Block block : blocks) {
+                writeUint64(header, block.entries.size());
+            }
+
+            // the size of the last entry of a folder follows from the folder's size
+            header.write(NID.kSize);
+            for (final Block block : blocks) {
+                for (int i = 0; i < block.entries.size() - 1; i++) {
+                    writeUint64(header, block.entries.get(i).getSize());
+                }
+            }
+
+            // the CRC of a folder's only entry is the folder's CRC
+            header.write(NID.kCRC);
+            header.write(1); // "allAreDefined" == true
+            for (final Block block : blocks) {
+                if (block.entries.size() != 1) {
+                    for (final SevenZArchiveEntry entry : block.entries) {
+                        header.writeInt(Integer.reverseBytes((int) entry.getCrcValue()));
+                    }
+                }
+            }
+        }
 //
 //        header.write(NID.kCRC);
 //        header.write(1);
@@ -759,6 +887,60 @@ public class SevenZOutputFile implements Closeable {
         }
     }
 
+    private void openBlock(final SevenZArchiveEntry entry) throws IOException {
+        // at most solidThreads blocks are compressed at a time, the oldest is written first
+        while (pendingBlocks.size() >= solidThreads) {
+            writeBlock(pendingBlocks.poll());
+        }
+        currentBlock = new SolidBlock(getContentMethods(entry), entry.getContentMethods() != null);
+        currentBlock.future = solidExecutor.submit(currentBlock);
+        pendingBlocks.add(currentBlock);
+    }
+
+    private void closeBlock() throws IOException {
+        currentBlock.raw.finish();
+        currentBlock = null;
+
+        while (!pendingBlocks.isEmpty() && pendingBlocks.peek().future.isDone()) {
+            writeBlock(pendingBlocks.poll());
+        }
+    }
+
+    /**
+     * Waits until the block is compressed and appends it to the archive
+     */
+    private void writeBlock(final SolidBlock block) throws IOException {
+        try {
+            await(block.future);
+            block.packed.writeTo(channel);
+        } finally {
+            block.packed.discard();
+        }
+        block.entries.get(0).setCompressedSize(block.packSize);
+        blocks.add(block);
+    }
+
+    private static void await(final Future<?> future) throws IOException {
+        try {
+            future.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
     private static <T> Iterable<T> reverse(final Iterable<T> i) {
         final LinkedList<T> l = new LinkedList<>();
         for (final T t : i) {
@@ -808,4 +990,226 @@ public class SevenZOutputFile implements Closeable {
             // the file will be closed by the containing class's close method
         }
     }
+
+    /**
+     * A folder of the archive
+     */
+    private static class Block {
+        final Iterable<? extends SevenZMethodConfiguration> methods;
+        final List<SevenZArchiveEntry> entries = new ArrayList<>();
+        long unpackSize;
+        long unpackCrc;
+        long packSize;
+        long packCrc;
+        // unpack sizes of the inner coders, null if there is only one coder
+        long[] additionalSizes;
+
+        Block(final Iterable<? extends SevenZMethodConfiguration> methods) {
+            this.methods = methods;
+        }
+    }
+
+    /**
+     * A folder holding several entries, compressed on a thread of its own while the
+     * caller already writes the following entries. The caller writes to {@link #raw},
+     * the compressing thread writes to {@link #packed}.
+     */
+    private class SolidBlock extends Block implements Callable<Void> {
+        final boolean ownMethods;
+        final ChunkPipe raw;
+        final SpillBuffer packed = new SpillBuffer();
+        Future<Void> future;
+
+        SolidBlock(final Iterable<? extends SevenZMethodConfiguration> methods, final boolean ownMethods) {
+            super(methods);
+            this.ownMethods = ownMethods;
+            raw = new ChunkPipe(this, (int) Math.max(2, Math.min(Integer.MAX_VALUE, solidBlockSize / SOLID_CHUNK_SIZE)));
+        }
+
+        @Override
+        public Void call() throws IOException, InterruptedException {
+            final CRC32 unpackCrc32 = new CRC32();
+            final CRC32 packCrc32 = new CRC32();
+            final CountingOutputStream packedCounter = new CountingOutputStream(
+                    new CheckedOutputStream(packed, packCrc32));
+
+            OutputStream out = packedCounter;
+            final ArrayList<CountingOutputStream> moreStreams = new ArrayList<>();
+            boolean first = true;
+            for (final SevenZMethodConfiguration m : methods) {
+                if (!first) {
+                    final CountingOutputStream cos = new CountingOutputStream(out);
+                    moreStreams.add(cos);
+                    out = cos;
+                }
+                out = Coders.addEncoder(out, m.getMethod(), m.getOptions());
+                first = false;
+            }
+
+            byte[] chunk;
+            while ((chunk = raw.take()).length > 0) {
+                out.write(chunk);
+                unpackCrc32.update(chunk);
+                unpackSize += chunk.length;
+            }
+            out.close();
+
+            unpackCrc = unpackCrc32.getValue();
+            packSize = packedCounter.getBytesWritten();
+            packCrc = packCrc32.getValue();
+            if (!moreStreams.isEmpty()) {
+                additionalSizes = new long[moreStreams.size()];
+                for (int i = 0; i < moreStreams.size(); i++) {
+                    additionalSizes[i] = moreStreams.get(i).getBytesWritten();
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Hands data to the compressing thread of a block in chunks, blocks the
+     * writer while the given number of chunks is waiting.
+     */
+    private static class ChunkPipe extends OutputStream {
+        private static final byte[] END = new byte[0];
+
+        private final SolidBlock block;
+        private final BlockingQueue<byte[]> chunks;
+        private byte[] chunk = new byte[SOLID_CHUNK_SIZE];
+        private int count = 0;
+        private long bytesWritten = 0;
+
+        ChunkPipe(final SolidBlock block, final int capacity) {
+            this.block = block;
+            this.chunks = new ArrayBlockingQueue<>(capacity);
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(final byte[] b, int off, int len) throws IOException {
+            bytesWritten += len;
+            while (len > 0) {
+                final int n = Math.min(len, chunk.length - count);
+                System.arraycopy(b, off, chunk, count, n);
+                count += n;
+                off += n;
+                len -= n;
+                if (count == chunk.length) {
+                    put(chunk);
+                    chunk = new byte[SOLID_CHUNK_SIZE];
+                    count = 0;
+                }
+            }
+        }
+
+        long getBytesWritten() {
+            return bytesWritten;
+        }
+
+        @Override
+        public void close() {
+            // entries share the pipe, the block is ended by finish()
+        }
+
+        void finish() throws IOException {
+            if (count > 0) {
+                put(Arrays.copyOf(chunk, count));
+            }
+            chunk = null;
+            put(END);
+        }
+
+        byte[] take() throws InterruptedException {
+            return chunks.take();
+        }
+
+        private void put(final byte[] data) throws IOException {
+            try {
+                while (!chunks.offer(data, 100, TimeUnit.MILLISECONDS)) {
+                    if (block.future.isDone()) {
+                        // the compressing thread failed and won't take anything anymore
+                        await(block.future);
+                        throw new IOException("Compression of solid block stopped");
+                    }
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+    }
+
+    /**
+     * Keeps the written data in memory up to {@link #SOLID_SPILL_THRESHOLD},
+     * in a temporary file beyond that.
+     */
+    private class SpillBuffer extends OutputStream {
+        private ByteArrayOutputStream memory = new ByteArrayOutputStream();
+        private File file;
+        private OutputStream fileStream;
+
+        @Override
+        public void write(final int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            if (fileStream == null && memory.size() + len > SOLID_SPILL_THRESHOLD) {
+                file = File.createTempFile("7z-block", ".tmp", spillDirectory);
+                fileStream = new BufferedOutputStream(new FileOutputStream(file));
+                memory.writeTo(fileStream);
+                memory = null;
+            }
+            if (fileStream != null) {
+                fileStream.write(b, off, len);
+            } else {
+                memory.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (fileStream != null) {
+                fileStream.close();
+            }
+        }
+
+        void writeTo(final SeekableByteChannel target) throws IOException {
+            if (file == null) {
+                writeFully(target, ByteBuffer.wrap(memory.toByteArray()));
+                return;
+            }
+            try (final InputStream in = new FileInputStream(file)) {
+                final byte[] buffer = new byte[SOLID_CHUNK_SIZE];
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    writeFully(target, ByteBuffer.wrap(buffer, 0, n));
+                }
+            }
+        }
+
+        void discard() {
+            memory = null;
+            if (file != null) {
+                try {
+                    fileStream.close();
+                } catch (final IOException e) {
+                    // the file is deleted anyway
+                }
+                file.delete();
+            }
+        }
+
+        private void writeFully(final SeekableByteChannel target, final ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                target.write(buffer);
+            }
+        }
+    }
 }